@@ -21,6 +21,7 @@ import com.kuassivi.annotation.RepositoryCache;
 import java.util.List;
 
 import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.ExecutableType;
 import javax.lang.model.type.TypeMirror;
 
@@ -52,7 +53,8 @@ public class AnnotatedMethod {
     }
 
     public String getQualifiedClassName() {
-        return this.element.getEnclosingElement().asType().toString();
+        // The type name without type arguments, so generic interfaces can be looked up
+        return ((TypeElement) this.element.getEnclosingElement()).getQualifiedName().toString();
     }
 
     public String getFullMethodName() {
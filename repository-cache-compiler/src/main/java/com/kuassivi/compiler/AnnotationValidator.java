@@ -16,8 +16,10 @@
 
 package com.kuassivi.compiler;
 
+import com.kuassivi.annotation.RepositoryCache;
+
 import java.lang.annotation.ElementType;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import javax.lang.model.element.Element;
@@ -34,23 +36,21 @@ import static javax.lang.model.element.Modifier.PUBLIC;
  */
 final class AnnotationValidator {
 
-    private static AnnotationValidator instance;
-    private        Element             annotatedElement;
-    private        Class<?>            clazz;
-    private        Set<String>         errors;
+    private Element     annotatedElement;
+    private Class<?>    clazz;
+    private Set<String> errors;
 
     private AnnotationValidator(Element annotatedElement,
                                 Class<?> clazz) {
-        this.errors = new HashSet<String>();
+        this.errors = new LinkedHashSet<String>();
         this.annotatedElement = annotatedElement;
         this.clazz = clazz;
     }
 
     static AnnotationValidator with(Element annotatedElement,
                                     Class<?> clazz) {
-        return (instance == null)
-               ? instance = new AnnotationValidator(annotatedElement, clazz)
-               : instance;
+        // A fresh validator per element, so errors of one element never leak into another
+        return new AnnotationValidator(annotatedElement, clazz);
     }
 
     /**
@@ -108,6 +108,43 @@ final class AnnotationValidator {
         return this;
     }
 
+    /**
+     * Checks whether the attributes of the {@link RepositoryCache} annotation are within their
+     * ranges: fractions between 0 and 1, and no negative times or limits.
+     *
+     * @return AnnotationValidator
+     */
+    AnnotationValidator hasValidAttributes() {
+        RepositoryCache annotation = annotatedElement.getAnnotation(RepositoryCache.class);
+        if (annotation == null) {
+            return this;
+        }
+        String method = annotatedElement.getSimpleName().toString();
+        // Written so that NaN is out of range too
+        double refreshAhead = annotation.refreshAhead();
+        if (!(refreshAhead >= 0 && refreshAhead < 1)) {
+            addError("The method %s has refreshAhead = %s. "
+                     + "It must be at least 0 and less than 1.",
+                     method, refreshAhead);
+        }
+        double jitter = annotation.jitter();
+        if (!(jitter >= 0 && jitter <= 1)) {
+            addError("The method %s has jitter = %s. It must be between 0 and 1.",
+                     method, jitter);
+        }
+        checkNotNegative(method, "negativeTtl", annotation.negativeTtl());
+        checkNotNegative(method, "expireAfterAccess", annotation.expireAfterAccess());
+        checkNotNegative(method, "maxEntries", annotation.maxEntries());
+        checkNotNegative(method, "maxBytes", annotation.maxBytes());
+        return this;
+    }
+
+    private void checkNotNegative(String method, String attribute, long value) {
+        if (value < 0) {
+            addError("The method %s has %s = %s. It can't be negative.", method, attribute, value);
+        }
+    }
+
     void addError(String msg, Object... args) {
         errors.add(String.format(msg, args));
     }
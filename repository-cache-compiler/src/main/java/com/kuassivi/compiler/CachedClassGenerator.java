@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.compiler;
+
+import com.kuassivi.annotation.RepositoryCacheManager;
+import com.kuassivi.annotation.RepositoryProxyCache;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Generates a caching decorator of an annotated interface.
+ * <p>
+ * The decorator implements the interface on top of a local and a remote implementation: the
+ * annotated methods answer from the local one while their cache is alive, and otherwise load
+ * from the remote one and renew the cache, or remember that the remote one has nothing for the
+ * call when it returns null, and then return null without reaching either of them. The cache
+ * key is built from the method arguments.
+ * Any other method is delegated to the remote implementation.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+class CachedClassGenerator {
+
+    /**
+     * Will be added to the name of the generated decorator class
+     */
+    private static final String CLASS_SUFFIX = "Cached";
+
+    private final Elements elementUtils;
+    private final Types    typeUtils;
+
+    /**
+     * The annotated interface
+     */
+    private final TypeElement classElement;
+
+    /**
+     * The proxy class generated for the annotated interface
+     */
+    private final ClassName proxyClass;
+
+    /**
+     * Annotated methods of the interface
+     */
+    private final Collection<AnnotatedMethod> annotatedMethods;
+
+    /**
+     * @param elementUtils Element utils object
+     * @param typeUtils Type utils object
+     * @param classElement the annotated interface
+     * @param proxyClass the proxy class generated for the interface
+     * @param annotatedMethods the annotated methods of the interface
+     */
+    CachedClassGenerator(Elements elementUtils, Types typeUtils, TypeElement classElement,
+                         ClassName proxyClass, Collection<AnnotatedMethod> annotatedMethods) {
+        this.elementUtils = elementUtils;
+        this.typeUtils = typeUtils;
+        this.classElement = classElement;
+        this.proxyClass = proxyClass;
+        this.annotatedMethods = annotatedMethods;
+    }
+
+    /**
+     * Only interfaces can be decorated, since the decorator has to implement them.
+     *
+     * @param classElement the annotated class
+     * @return true if a decorator can be generated for the class
+     */
+    static boolean canDecorate(TypeElement classElement) {
+        return classElement.getKind() == ElementKind.INTERFACE
+               && !classElement.getModifiers().contains(Modifier.PRIVATE);
+    }
+
+    /**
+     * Generates the decorator java file
+     *
+     * @param filer Filer
+     * @throws IOException Generator file exception
+     */
+    void generateCode(Filer filer) throws IOException {
+
+        String packageName = proxyClass.packageName();
+        String generatedClassName = classElement.getSimpleName() + CLASS_SUFFIX;
+
+        List<TypeVariableName> typeVariables = new ArrayList<TypeVariableName>();
+        for (TypeParameterElement typeParameter : classElement.getTypeParameters()) {
+            typeVariables.add(TypeVariableName.get((TypeVariable) typeParameter.asType()));
+        }
+        TypeName interfaceType = typeVariables.isEmpty()
+                                 ? ClassName.get(classElement)
+                                 : ParameterizedTypeName.get(
+                                         ClassName.get(classElement),
+                                         typeVariables.toArray(
+                                                 new TypeName[typeVariables.size()]));
+
+        TypeSpec.Builder classBuilder =
+                TypeSpec.classBuilder(generatedClassName)
+                        .addJavadoc("Auto-generated Class by RepositoryCache library Processor")
+                        .addOriginatingElement(classElement)
+                        .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                        .addSuperinterface(interfaceType);
+        for (TypeVariableName typeVariable : typeVariables) {
+            classBuilder.addTypeVariable(typeVariable);
+        }
+
+        // Add Fields
+        classBuilder
+                .addField(
+                        FieldSpec
+                                .builder(File.class, "cacheDir")
+                                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                                .build())
+                .addField(
+                        FieldSpec
+                                .builder(interfaceType, "local")
+                                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                                .build())
+                .addField(
+                        FieldSpec
+                                .builder(interfaceType, "remote")
+                                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                                .build());
+
+        // Add Constructor
+        classBuilder.addMethod(
+                MethodSpec.constructorBuilder()
+                          .addModifiers(Modifier.PUBLIC)
+                          .addParameter(File.class, "cacheDir")
+                          .addParameter(interfaceType, "local")
+                          .addParameter(interfaceType, "remote")
+                          .addStatement("this.cacheDir = cacheDir")
+                          .addStatement("this.local = local")
+                          .addStatement("this.remote = remote")
+                          .build());
+
+        // Implement every abstract method, including the inherited ones
+        DeclaredType declaredType = (DeclaredType) classElement.asType();
+        List<? extends Element> members = elementUtils.getAllMembers(classElement);
+        for (ExecutableElement method : ElementFilter.methodsIn(members)) {
+            if (!method.getModifiers().contains(Modifier.ABSTRACT)
+                || method.getEnclosingElement().getKind() != ElementKind.INTERFACE) {
+                continue;
+            }
+            classBuilder.addMethod(implement(method, declaredType));
+        }
+
+        // Write file
+        JavaFile.builder(packageName, classBuilder.build()).build().writeTo(filer);
+    }
+
+    private MethodSpec implement(ExecutableElement method, DeclaredType declaredType) {
+        ExecutableType executableType =
+                (ExecutableType) typeUtils.asMemberOf(declaredType, method);
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(method.getSimpleName().toString())
+                                               .addAnnotation(Override.class)
+                                               .addModifiers(Modifier.PUBLIC)
+                                               .returns(TypeName.get(
+                                                       executableType.getReturnType()))
+                                               .varargs(method.isVarArgs());
+        for (TypeParameterElement typeParameter : method.getTypeParameters()) {
+            builder.addTypeVariable(
+                    TypeVariableName.get((TypeVariable) typeParameter.asType()));
+        }
+        for (TypeMirror thrownType : executableType.getThrownTypes()) {
+            builder.addException(TypeName.get(thrownType));
+        }
+
+        Set<String> names = new HashSet<String>();
+        List<String> arguments = new ArrayList<String>();
+        List<? extends VariableElement> parameters = method.getParameters();
+        List<? extends TypeMirror> parameterTypes = executableType.getParameterTypes();
+        for (int i = 0; i < parameters.size(); i++) {
+            String name = parameters.get(i).getSimpleName().toString();
+            builder.addParameter(TypeName.get(parameterTypes.get(i)), name);
+            names.add(name);
+            arguments.add(name);
+        }
+        String call = method.getSimpleName() + "(" + join(arguments) + ")";
+
+        AnnotatedMethod annotatedMethod = findAnnotatedMethod(method);
+        boolean returnsValue = executableType.getReturnType().getKind() != TypeKind.VOID;
+
+        if (annotatedMethod == null || !returnsValue) {
+            // Nothing to cache
+            if (returnsValue) {
+                builder.addStatement("return this.remote.$L", call);
+            } else {
+                builder.addStatement("this.remote.$L", call);
+            }
+            return builder.build();
+        }
+
+        String cache = uniqueName("cache", names);
+        String value = uniqueName("value", names);
+
+        builder.addStatement("$T $L = $T.$L(this.cacheDir)",
+                             RepositoryProxyCache.class,
+                             cache,
+                             proxyClass,
+                             annotatedMethod.getQualifiedMethodName());
+
+        // The key is fixed at compile time by the parameter list
+        if (arguments.size() == 1 && parameterTypes.get(0).getKind() != TypeKind.ARRAY) {
+            builder.addStatement("$L.select($L)", cache, arguments.get(0));
+        } else if (arguments.size() == 1) {
+            builder.addStatement("$L.select($T.cacheKey((Object) $L))",
+                                 cache, RepositoryCacheManager.class, arguments.get(0));
+        } else if (arguments.size() > 1) {
+            builder.addStatement("$L.select($T.cacheKey($L))",
+                                 cache, RepositoryCacheManager.class, join(arguments));
+        }
+
+        boolean primitive = executableType.getReturnType().getKind().isPrimitive();
+        if (!primitive) {
+            // The origin had nothing for the call, and neither has the local source
+            builder.beginControlFlow("if ($L.isKnownAbsent())", cache)
+                   .addStatement("return null")
+                   .endControlFlow();
+        }
+        builder.beginControlFlow("if (!$L.isExpired())", cache)
+               .addStatement("return this.local.$L", call)
+               .endControlFlow()
+               .addStatement("$T $L = this.remote.$L",
+                             TypeName.get(executableType.getReturnType()), value, call);
+        if (primitive) {
+            builder.addStatement("$L.persist()", cache);
+        } else {
+            // Remember the calls the origin has nothing for
+            builder.beginControlFlow("if ($L == null)", value)
+                   .addStatement("$L.persistAbsent()", cache)
+                   .nextControlFlow("else")
+                   .addStatement("$L.persist()", cache)
+                   .endControlFlow();
+        }
+        builder.addStatement("return $L", value);
+        return builder.build();
+    }
+
+    private AnnotatedMethod findAnnotatedMethod(Element method) {
+        for (AnnotatedMethod annotatedMethod : annotatedMethods) {
+            if (annotatedMethod.getElement().equals(method)) {
+                return annotatedMethod;
+            }
+        }
+        return null;
+    }
+
+    private static String uniqueName(String name, Set<String> names) {
+        while (names.contains(name)) {
+            name += "_";
+        }
+        names.add(name);
+        return name;
+    }
+
+    private static String join(List<String> items) {
+        StringBuilder builder = new StringBuilder();
+        for (String item : items) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(item);
+        }
+        return builder.toString();
+    }
+}
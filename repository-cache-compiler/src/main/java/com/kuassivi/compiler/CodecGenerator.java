@@ -0,0 +1,539 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.compiler;
+
+import com.kuassivi.annotation.CacheCodec;
+import com.kuassivi.annotation.CacheCodecs;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Generates the binary {@link CacheCodec}s of the return types of the annotated methods.
+ * <p>
+ * Primitives, their boxed types and Strings use the built-in {@link CacheCodecs}. Lists of a
+ * supported type and simple POJOs (public classes with a public no-arg constructor whose fields
+ * are public or have public getters and setters) get a nested codec class plus a pair of static
+ * write/read methods in the proxy class. Any other type gets no codec.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+class CodecGenerator {
+
+    private static final String LIST      = "java.util.List";
+    private static final String ARRAY_LIST = "java.util.ArrayList";
+    private static final String STRING    = "java.lang.String";
+
+    private static final Map<TypeKind, String> BUILT_IN_CODECS =
+            new HashMap<TypeKind, String>();
+
+    static {
+        BUILT_IN_CODECS.put(TypeKind.BOOLEAN, "BOOLEAN");
+        BUILT_IN_CODECS.put(TypeKind.BYTE, "BYTE");
+        BUILT_IN_CODECS.put(TypeKind.SHORT, "SHORT");
+        BUILT_IN_CODECS.put(TypeKind.CHAR, "CHARACTER");
+        BUILT_IN_CODECS.put(TypeKind.INT, "INTEGER");
+        BUILT_IN_CODECS.put(TypeKind.LONG, "LONG");
+        BUILT_IN_CODECS.put(TypeKind.FLOAT, "FLOAT");
+        BUILT_IN_CODECS.put(TypeKind.DOUBLE, "DOUBLE");
+    }
+
+    private final Types    typeUtils;
+    private final Elements elementUtils;
+
+    /**
+     * Helper method suffix of every generated type, in generation order
+     */
+    private final Map<String, String> helperNames = new LinkedHashMap<String, String>();
+
+    /**
+     * Types whose helpers are generated, known to be unsupported, or being checked right now
+     */
+    private final Set<String> generated   = new HashSet<String>();
+    private final Set<String> unsupported = new HashSet<String>();
+    private final Set<String> checking    = new HashSet<String>();
+
+    private final List<MethodSpec> helperMethods = new ArrayList<MethodSpec>();
+    private final List<TypeSpec>   codecClasses  = new ArrayList<TypeSpec>();
+
+    CodecGenerator(Types typeUtils, Elements elementUtils) {
+        this.typeUtils = typeUtils;
+        this.elementUtils = elementUtils;
+    }
+
+    /**
+     * Returns the expression that builds the codec of a return type.
+     *
+     * @param type the return type of the annotated method
+     * @return the codec expression, or null if the type is not supported
+     */
+    CodeBlock codecFor(TypeMirror type) {
+        String builtIn = builtInCodec(type);
+        if (builtIn != null) {
+            return CodeBlock.builder().add("$T.$L", CacheCodecs.class, builtIn).build();
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        List<TypeMirror> pending = new ArrayList<TypeMirror>();
+        if (!isSupported(type, pending)) {
+            unsupported.add(type.toString());
+            return null;
+        }
+        // Helpers are only generated once the whole type graph is known to be supported,
+        // starting from the return type
+        Collections.reverse(pending);
+        for (TypeMirror pendingType : pending) {
+            generated.add(pendingType.toString());
+            if (isList(pendingType)) {
+                addListHelpers(pendingType);
+            } else {
+                addPojoHelpers(pendingType);
+            }
+        }
+        String helperName = helperName(type);
+        String codecClassName = helperName + "Codec";
+        if (!hasCodecClass(codecClassName)) {
+            codecClasses.add(buildCodecClass(type, codecClassName, helperName));
+        }
+        return CodeBlock.builder().add("new $L()", codecClassName).build();
+    }
+
+    /**
+     * Adds the generated helper methods and codec classes to the proxy class.
+     *
+     * @param classBuilder the proxy class builder
+     */
+    void addTo(TypeSpec.Builder classBuilder) {
+        for (MethodSpec method : helperMethods) {
+            classBuilder.addMethod(method);
+        }
+        for (TypeSpec codecClass : codecClasses) {
+            classBuilder.addType(codecClass);
+        }
+    }
+
+    private boolean hasCodecClass(String name) {
+        for (TypeSpec codecClass : codecClasses) {
+            if (codecClass.name.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private TypeSpec buildCodecClass(TypeMirror type, String name, String helperName) {
+        TypeName typeName = TypeName.get(type);
+        MethodSpec encode = MethodSpec.methodBuilder("encode")
+                                      .addAnnotation(Override.class)
+                                      .addModifiers(Modifier.PUBLIC)
+                                      .addParameter(typeName, "value")
+                                      .addParameter(DataOutput.class, "out")
+                                      .addException(IOException.class)
+                                      .addStatement("write$L(out, value)", helperName)
+                                      .build();
+        MethodSpec decode = MethodSpec.methodBuilder("decode")
+                                      .addAnnotation(Override.class)
+                                      .addModifiers(Modifier.PUBLIC)
+                                      .addParameter(DataInput.class, "in")
+                                      .addException(IOException.class)
+                                      .returns(typeName)
+                                      .addStatement("return read$L(in)", helperName)
+                                      .build();
+        return TypeSpec.classBuilder(name)
+                       .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                       .addSuperinterface(ParameterizedTypeName.get(ClassName.get(CacheCodec.class),
+                                                                    typeName))
+                       .addMethod(encode)
+                       .addMethod(decode)
+                       .build();
+    }
+
+    private String builtInCodec(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return BUILT_IN_CODECS.get(type.getKind());
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        if (qualifiedName(type).equals(STRING)) {
+            return "STRING";
+        }
+        try {
+            return BUILT_IN_CODECS.get(typeUtils.unboxedType(type).getKind());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // -- Support checks
+
+    /**
+     * Checks whether a type can be encoded, adding the lists and POJOs that need helpers to the
+     * pending list.
+     */
+    private boolean isSupported(TypeMirror type, List<TypeMirror> pending) {
+        if (builtInCodec(type) != null) {
+            return true;
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        String key = type.toString();
+        if (unsupported.contains(key)) {
+            return false;
+        }
+        if (generated.contains(key) || checking.contains(key)) {
+            // Already generated, or a recursive reference to a type being checked
+            return true;
+        }
+        for (TypeMirror pendingType : pending) {
+            if (pendingType.toString().equals(key)) {
+                return true;
+            }
+        }
+        checking.add(key);
+        boolean supported = isList(type)
+                            ? isSupportedList(type, pending)
+                            : isSupportedPojo(type, pending);
+        checking.remove(key);
+        if (supported) {
+            pending.add(type);
+        }
+        return supported;
+    }
+
+    private boolean isList(TypeMirror type) {
+        String name = qualifiedName(type);
+        return name.equals(LIST) || name.equals(ARRAY_LIST);
+    }
+
+    private boolean isSupportedList(TypeMirror type, List<TypeMirror> pending) {
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        return arguments.size() == 1 && isSupported(arguments.get(0), pending);
+    }
+
+    private boolean isSupportedPojo(TypeMirror type, List<TypeMirror> pending) {
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        if (element.getKind() != ElementKind.CLASS
+            || !element.getModifiers().contains(Modifier.PUBLIC)
+            || element.getModifiers().contains(Modifier.ABSTRACT)
+            || !element.getTypeParameters().isEmpty()
+            || (element.getNestingKind() == NestingKind.MEMBER
+                && !element.getModifiers().contains(Modifier.STATIC))
+            || element.getNestingKind() == NestingKind.LOCAL
+            || element.getNestingKind() == NestingKind.ANONYMOUS
+            || !hasPublicNoArgConstructor(element)) {
+            return false;
+        }
+        List<Property> properties = properties(element);
+        if (properties == null || properties.isEmpty()) {
+            return false;
+        }
+        for (Property property : properties) {
+            if (!isSupported(property.type, pending)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasPublicNoArgConstructor(TypeElement element) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(
+                element.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty()
+                && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the instance fields of a POJO and its superclasses with the way to access them,
+     * or null if any of them is not accessible. Private fields of the superclasses are not
+     * members of the POJO, so the classes are walked up to find them too.
+     */
+    private List<Property> properties(TypeElement element) {
+        List<ExecutableElement> methods =
+                ElementFilter.methodsIn(elementUtils.getAllMembers(element));
+        List<Property> properties = new ArrayList<Property>();
+        Set<String> names = new HashSet<String>();
+        for (TypeElement type = element; type != null; type = superclass(type)) {
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                String name = field.getSimpleName().toString();
+                if (!names.add(name)) {
+                    // A field hidden by another one can't be accessed by its name
+                    return null;
+                }
+                TypeMirror fieldType = field.asType();
+                if (modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.FINAL)) {
+                    properties.add(new Property(name, fieldType, null, null));
+                    continue;
+                }
+                String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+                String getter = findGetter(methods, fieldType, "get" + capitalized);
+                if (getter == null && fieldType.getKind() == TypeKind.BOOLEAN) {
+                    getter = findGetter(methods, fieldType, "is" + capitalized);
+                }
+                String setter = findSetter(methods, fieldType, "set" + capitalized);
+                if (getter == null || setter == null) {
+                    return null;
+                }
+                properties.add(new Property(name, fieldType, getter, setter));
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * @return the superclass of a class, or null if it is Object
+     */
+    private static TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        return element.getQualifiedName().contentEquals(Object.class.getName()) ? null : element;
+    }
+
+    private String findGetter(List<ExecutableElement> methods, TypeMirror type, String name) {
+        for (ExecutableElement method : methods) {
+            if (isPublicInstanceMethod(method, name)
+                && method.getParameters().isEmpty()
+                && typeUtils.isSameType(method.getReturnType(), type)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private String findSetter(List<ExecutableElement> methods, TypeMirror type, String name) {
+        for (ExecutableElement method : methods) {
+            if (isPublicInstanceMethod(method, name)
+                && method.getParameters().size() == 1
+                && typeUtils.isSameType(method.getParameters().get(0).asType(), type)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isPublicInstanceMethod(ExecutableElement method, String name) {
+        return method.getSimpleName().contentEquals(name)
+               && method.getModifiers().contains(Modifier.PUBLIC)
+               && !method.getModifiers().contains(Modifier.STATIC);
+    }
+
+    // -- Helper methods
+
+    private void addListHelpers(TypeMirror type) {
+        String helperName = helperName(type);
+        TypeName typeName = TypeName.get(type);
+        TypeMirror elementType = ((DeclaredType) type).getTypeArguments().get(0);
+        TypeName elementTypeName = TypeName.get(elementType);
+
+        MethodSpec.Builder write = writeHelper(helperName, typeName);
+        write.addStatement("out.writeInt(value.size())")
+             .beginControlFlow("for ($T element : value)", elementTypeName)
+             .addCode(writeValue(elementType, "element"))
+             .endControlFlow();
+        helperMethods.add(write.build());
+
+        MethodSpec.Builder read = readHelper(helperName, typeName);
+        read.addStatement("int size = $T.readSize(in)", CacheCodecs.class)
+            .addStatement("$T value = new $T($T.initialCapacity(size))",
+                          typeName,
+                          ParameterizedTypeName.get(ClassName.get(ArrayList.class),
+                                                    elementTypeName),
+                          CacheCodecs.class)
+            .beginControlFlow("for (int i = 0; i < size; i++)")
+            .addStatement("value.add($L)", readValue(elementType))
+            .endControlFlow()
+            .addStatement("return value");
+        helperMethods.add(read.build());
+    }
+
+    private void addPojoHelpers(TypeMirror type) {
+        String helperName = helperName(type);
+        TypeName typeName = TypeName.get(type);
+        List<Property> properties = properties((TypeElement) ((DeclaredType) type).asElement());
+
+        MethodSpec.Builder write = writeHelper(helperName, typeName);
+        MethodSpec.Builder read = readHelper(helperName, typeName);
+        read.addStatement("$T value = new $T()", typeName, typeName);
+        //noinspection ConstantConditions
+        for (Property property : properties) {
+            String getExpression = property.getter == null
+                                   ? "value." + property.name
+                                   : "value." + property.getter + "()";
+            write.addCode(writeValue(property.type, getExpression));
+            if (property.setter == null) {
+                read.addStatement("value.$L = $L", property.name, readValue(property.type));
+            } else {
+                read.addStatement("value.$L($L)", property.setter, readValue(property.type));
+            }
+        }
+        read.addStatement("return value");
+        helperMethods.add(write.build());
+        helperMethods.add(read.build());
+    }
+
+    private static MethodSpec.Builder writeHelper(String helperName, TypeName typeName) {
+        return MethodSpec.methodBuilder("write" + helperName)
+                         .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                         .addParameter(DataOutput.class, "out")
+                         .addParameter(typeName, "value")
+                         .addException(IOException.class)
+                         .beginControlFlow("if (!$T.writePresence(value, out))",
+                                           CacheCodecs.class)
+                         .addStatement("return")
+                         .endControlFlow();
+    }
+
+    private static MethodSpec.Builder readHelper(String helperName, TypeName typeName) {
+        return MethodSpec.methodBuilder("read" + helperName)
+                         .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                         .addParameter(DataInput.class, "in")
+                         .addException(IOException.class)
+                         .returns(typeName)
+                         .beginControlFlow("if (!in.readBoolean())")
+                         .addStatement("return null")
+                         .endControlFlow();
+    }
+
+    private CodeBlock writeValue(TypeMirror type, String expression) {
+        CodeBlock.Builder code = CodeBlock.builder();
+        if (type.getKind().isPrimitive()) {
+            code.addStatement("out.write$L($L)", primitiveSuffix(type), expression);
+        } else if (builtInCodec(type) != null) {
+            code.addStatement("$T.$L.encode($L, out)",
+                              CacheCodecs.class, builtInCodec(type), expression);
+        } else {
+            code.addStatement("write$L(out, $L)", helperName(type), expression);
+        }
+        return code.build();
+    }
+
+    private CodeBlock readValue(TypeMirror type) {
+        CodeBlock.Builder code = CodeBlock.builder();
+        if (type.getKind().isPrimitive()) {
+            code.add("in.read$L()", primitiveSuffix(type));
+        } else if (builtInCodec(type) != null) {
+            code.add("$T.$L.decode(in)", CacheCodecs.class, builtInCodec(type));
+        } else {
+            code.add("read$L(in)", helperName(type));
+        }
+        return code.build();
+    }
+
+    private static String primitiveSuffix(TypeMirror type) {
+        String name = type.getKind().name();
+        return name.charAt(0) + name.substring(1).toLowerCase();
+    }
+
+    /**
+     * Returns the unique suffix of the helper methods of a type, like <code>User</code> or
+     * <code>ListOfUser</code>.
+     */
+    private String helperName(TypeMirror type) {
+        String key = type.toString();
+        String name = helperNames.get(key);
+        if (name == null) {
+            String base = simpleName(type);
+            name = base;
+            for (int i = 2; helperNames.containsValue(name); i++) {
+                name = base + i;
+            }
+            helperNames.put(key, name);
+        }
+        return name;
+    }
+
+    private String simpleName(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            String name = type.getKind().name();
+            return name.charAt(0) + name.substring(1).toLowerCase();
+        }
+        DeclaredType declaredType = (DeclaredType) type;
+        StringBuilder name = new StringBuilder(
+                declaredType.asElement().getSimpleName().toString());
+        for (TypeMirror argument : declaredType.getTypeArguments()) {
+            name.append("Of").append(simpleName(argument));
+        }
+        return name.toString();
+    }
+
+    private String qualifiedName(TypeMirror type) {
+        Element element = typeUtils.asElement(type);
+        return element instanceof TypeElement
+               ? ((TypeElement) element).getQualifiedName().toString()
+               : "";
+    }
+
+    /**
+     * An instance field of a POJO, accessed directly or through its getter and setter.
+     */
+    private static class Property {
+
+        final String     name;
+        final TypeMirror type;
+        final String     getter;
+        final String     setter;
+
+        Property(String name, TypeMirror type, String getter, String setter) {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+}
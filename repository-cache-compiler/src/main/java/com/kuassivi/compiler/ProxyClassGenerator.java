@@ -16,17 +16,26 @@
 
 package com.kuassivi.compiler;
 
+import com.kuassivi.annotation.CacheCodec;
+import com.kuassivi.annotation.CacheLoader;
+import com.kuassivi.annotation.RepositoryCache;
 import com.kuassivi.annotation.RepositoryCacheManager;
-import com.kuassivi.annotation.RepositoryProxyCache;
+import com.kuassivi.annotation.TypedProxyCache;
+import com.kuassivi.annotation.WarmUpProgress;
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -34,7 +43,14 @@ import javax.annotation.processing.Filer;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
 import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 
 /**
  * @author Francisco Gonzalez-Armijo
@@ -47,9 +63,9 @@ public class ProxyClassGenerator {
     private static final String CLASS_SUFFIX = "ProxyCache";
 
     /**
-     * The full qualified name of the Class that will be processed
+     * The Class that will be processed, the only originating element of the generated files
      */
-    private String qualifiedClassName;
+    private TypeElement classElement;
 
     /**
      * The simple name of the Class that will be processed
@@ -71,21 +87,27 @@ public class ProxyClassGenerator {
      */
     private Elements elementUtils;
 
+    /**
+     * Type Utils
+     */
+    private Types typeUtils;
+
     /**
      * Maps all annotated methods
      */
     private Map<String, AnnotatedMethod> methodsMap = new LinkedHashMap<String, AnnotatedMethod>();
 
     /**
-     * Supply the Qualified ClassName for the Proxy
+     * Supply the Annotated Class for the Proxy
      *
      * @param elementUtils Element utils object
-     * @param qualifiedClassName ClassName of the Annotated Class
+     * @param typeUtils Type utils object
+     * @param classElement the Annotated Class
      */
-    public ProxyClassGenerator(Elements elementUtils, String qualifiedClassName) {
-        this.qualifiedClassName = qualifiedClassName;
+    public ProxyClassGenerator(Elements elementUtils, Types typeUtils, TypeElement classElement) {
+        this.classElement = classElement;
         this.elementUtils = elementUtils;
-        TypeElement classElement = this.elementUtils.getTypeElement(qualifiedClassName);
+        this.typeUtils = typeUtils;
         this.simpleClassName = classElement.getSimpleName().toString();
         this.generatedClassName = this.simpleClassName + CLASS_SUFFIX;
         PackageElement pkg = this.elementUtils.getPackageOf(classElement);
@@ -124,6 +146,24 @@ public class ProxyClassGenerator {
         methodsMap.put(methodName, methodToInsert);
     }
 
+    /**
+     * Generates the caching decorator of the processed class, only for interfaces.
+     *
+     * @param filer Filer
+     * @throws IOException Generator file exception
+     */
+    public void generateDecorator(Filer filer) throws IOException {
+        if (!CachedClassGenerator.canDecorate(classElement)) {
+            return;
+        }
+        new CachedClassGenerator(elementUtils,
+                                 typeUtils,
+                                 classElement,
+                                 ClassName.get(packageName, generatedClassName),
+                                 methodsMap.values())
+                .generateCode(filer);
+    }
+
     /**
      * Generates the proxy cache java file
      *
@@ -132,11 +172,17 @@ public class ProxyClassGenerator {
      */
     public void generateCode(Filer filer) throws IOException {
 
+        TypeVariableName typeVariable = TypeVariableName.get("T");
+        ClassName generatedClass = ClassName.get(packageName, generatedClassName);
+
         TypeSpec.Builder classBuilder =
                 TypeSpec.classBuilder(generatedClassName)
                         .addJavadoc("Auto-generated Class by RepositoryCache library Processor")
+                        .addOriginatingElement(classElement)
                         .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
-                        .addSuperinterface(RepositoryProxyCache.class);
+                        .addTypeVariable(typeVariable)
+                        .addSuperinterface(ParameterizedTypeName.get(
+                                ClassName.get(TypedProxyCache.class), typeVariable));
 
         // Add Fields
         classBuilder
@@ -164,6 +210,42 @@ public class ProxyClassGenerator {
                         FieldSpec
                                 .builder(TypeName.LONG, "cacheTime")
                                 .addModifiers(Modifier.PRIVATE)
+                                .build())
+                .addField(
+                        FieldSpec
+                                .builder(TypeName.LONG, "negativeCacheTime")
+                                .addModifiers(Modifier.PRIVATE)
+                                .build())
+                .addField(
+                        FieldSpec
+                                .builder(TypeName.DOUBLE, "refreshAhead")
+                                .addModifiers(Modifier.PRIVATE)
+                                .build())
+                .addField(
+                        FieldSpec
+                                .builder(TypeName.LONG, "expireAfterAccess")
+                                .addModifiers(Modifier.PRIVATE)
+                                .build())
+                .addField(
+                        FieldSpec
+                                .builder(TypeName.DOUBLE, "jitter")
+                                .addModifiers(Modifier.PRIVATE)
+                                .build())
+                .addField(
+                        FieldSpec
+                                .builder(TypeName.INT, "maxEntries")
+                                .addModifiers(Modifier.PRIVATE)
+                                .build())
+                .addField(
+                        FieldSpec
+                                .builder(TypeName.LONG, "maxBytes")
+                                .addModifiers(Modifier.PRIVATE)
+                                .build())
+                .addField(
+                        FieldSpec
+                                .builder(ParameterizedTypeName.get(ClassName.get(CacheCodec.class),
+                                                                   typeVariable), "codec")
+                                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
                                 .build());
 
         // Add Constructor
@@ -173,40 +255,118 @@ public class ProxyClassGenerator {
                           .addParameter(File.class, "cacheDir")
                           .addParameter(String.class, "fileName")
                           .addParameter(TypeName.LONG, "cacheTime")
+                          .addParameter(TypeName.LONG, "negativeCacheTime")
+                          .addParameter(TypeName.DOUBLE, "refreshAhead")
+                          .addParameter(TypeName.LONG, "expireAfterAccess")
+                          .addParameter(TypeName.DOUBLE, "jitter")
+                          .addParameter(TypeName.INT, "maxEntries")
+                          .addParameter(TypeName.LONG, "maxBytes")
+                          .addParameter(ParameterizedTypeName.get(ClassName.get(CacheCodec.class),
+                                                                  typeVariable), "codec")
                           .addStatement("this.repositoryCacheManager = "
                                         + "RepositoryCacheManager.getInstance()")
                           .addStatement("this.cacheDir = cacheDir")
                           .addStatement("this.fileName = fileName")
-                          .addStatement("this.cacheTime = cacheTime");
+                          .addStatement("this.cacheTime = cacheTime")
+                          .addStatement("this.negativeCacheTime = negativeCacheTime")
+                          .addStatement("this.refreshAhead = refreshAhead")
+                          .addStatement("this.expireAfterAccess = expireAfterAccess")
+                          .addStatement("this.jitter = jitter")
+                          .addStatement("this.maxEntries = maxEntries")
+                          .addStatement("this.maxBytes = maxBytes")
+                          .addStatement("this.codec = codec");
         classBuilder.addMethod(constructor.build());
 
+        CodecGenerator codecGenerator = new CodecGenerator(typeUtils, elementUtils);
+
         for (AnnotatedMethod annotatedMethod : methodsMap.values()) {
 
+            TypeMirror returnType = annotatedMethod.getExecutableType().getReturnType();
+            TypeName valueType = valueType(returnType);
+            CodeBlock codec = valueType.equals(ClassName.OBJECT)
+                              ? null
+                              : codecGenerator.codecFor(returnType);
+
             MethodSpec.Builder method = MethodSpec
                     .methodBuilder(annotatedMethod.getQualifiedMethodName())
                     .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
                     .addParameter(File.class, "cacheDir")
-                    .returns(ClassName.get(packageName, generatedClassName));
+                    .returns(ParameterizedTypeName.get(generatedClass, valueType));
 
             String fileName = simpleClassName + "_" + annotatedMethod.getFullMethodName();
             fileName = RepositoryCacheManager.hashMD5(fileName);
 
-            method.addStatement("return new $L(cacheDir, $S, $L)",
+            RepositoryCache annotation = annotatedMethod.getAnnotation();
+            // Long attributes need the suffix, or values above Integer.MAX_VALUE don't compile
+            method.addStatement("return new $L<$T>(cacheDir, $S, $LL, $LL, $L, $LL, $L, $L, $LL, $L)",
                                 generatedClassName,
+                                valueType,
                                 fileName,
-                                annotatedMethod.getAnnotation().value());
+                                annotation.value(),
+                                annotation.negativeTtl(),
+                                annotation.refreshAhead(),
+                                annotation.expireAfterAccess(),
+                                annotation.jitter(),
+                                annotation.maxEntries(),
+                                annotation.maxBytes(),
+                                codec == null ? "null" : codec);
             classBuilder.addMethod(method.build());
         }
 
         // Add proxy methods
-        addProxyMethods(classBuilder);
+        addProxyMethods(classBuilder, typeVariable);
+
+        // Add codecs
+        codecGenerator.addTo(classBuilder);
 
         // Write file
         TypeSpec typeSpec = classBuilder.build();
         JavaFile.builder(packageName, typeSpec).build().writeTo(filer);
     }
 
-    private void addProxyMethods(TypeSpec.Builder classBuilder) {
+    /**
+     * Returns the type of the values stored by the proxy of a method: the boxed return type,
+     * {@link Void} for void methods, or {@link Object} when it refers to type variables that
+     * are not visible from the proxy class.
+     */
+    private TypeName valueType(TypeMirror returnType) {
+        if (returnType.getKind() == TypeKind.VOID) {
+            return ClassName.get(Void.class);
+        }
+        if (hasTypeVariables(returnType)) {
+            return ClassName.OBJECT;
+        }
+        if (returnType.getKind().isPrimitive()) {
+            return TypeName.get(typeUtils.boxedClass((PrimitiveType) returnType).asType());
+        }
+        return TypeName.get(returnType);
+    }
+
+    private static boolean hasTypeVariables(TypeMirror type) {
+        switch (type.getKind()) {
+            case TYPEVAR:
+                return true;
+            case ARRAY:
+                return hasTypeVariables(((ArrayType) type).getComponentType());
+            case WILDCARD:
+                WildcardType wildcardType = (WildcardType) type;
+                return (wildcardType.getExtendsBound() != null
+                        && hasTypeVariables(wildcardType.getExtendsBound()))
+                       || (wildcardType.getSuperBound() != null
+                           && hasTypeVariables(wildcardType.getSuperBound()));
+            case DECLARED:
+                for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+                    if (hasTypeVariables(argument)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private void addProxyMethods(TypeSpec.Builder classBuilder, TypeVariableName typeVariable) {
         MethodSpec.Builder method;
 
         method = MethodSpec.methodBuilder("persist")
@@ -224,6 +384,46 @@ public class ProxyClassGenerator {
         method.addStatement("this.repositoryCacheManager.persist(this, content)");
         classBuilder.addMethod(method.build());
 
+        method = MethodSpec.methodBuilder("persist")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addParameter(String.class, "content")
+                           .addParameter(TypeName.LONG, "cacheTime")
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.VOID);
+        method.addStatement("this.repositoryCacheManager.persist(this, content, cacheTime)");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("persistValue")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addParameter(typeVariable, "value")
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.VOID);
+        method.addStatement("this.repositoryCacheManager.persistValue(this, value, this.codec)");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("persistAbsent")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.VOID);
+        method.addStatement("this.repositoryCacheManager.persistAbsent(this)");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("append")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addParameter(String.class, "content")
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.VOID);
+        method.addStatement("this.repositoryCacheManager.append(this, content)");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("append")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addParameter(byte[].class, "content")
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.VOID);
+        method.addStatement("this.repositoryCacheManager.append(this, content)");
+        classBuilder.addMethod(method.build());
+
         method = MethodSpec.methodBuilder("evict")
                            .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
                            .addAnnotation(Override.class)
@@ -231,6 +431,31 @@ public class ProxyClassGenerator {
         method.addStatement("this.repositoryCacheManager.evict(this)");
         classBuilder.addMethod(method.build());
 
+        TypeName cacheKeys = ParameterizedTypeName.get(ClassName.get(Collection.class),
+                                                       WildcardTypeName.subtypeOf(Object.class));
+        method = MethodSpec.methodBuilder("warmUp")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addParameter(cacheKeys, "cacheKeys")
+                           .addParameter(CacheLoader.class, "loader")
+                           .addParameter(TypeName.INT, "parallelism")
+                           .addAnnotation(Override.class)
+                           .returns(WarmUpProgress.class);
+        method.addStatement("return this.repositoryCacheManager.warmUp(this, cacheKeys, loader, "
+                            + "parallelism)");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("warmUp")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addParameter(cacheKeys, "cacheKeys")
+                           .addParameter(CacheLoader.class, "loader")
+                           .addParameter(TypeName.INT, "parallelism")
+                           .addParameter(TypeName.DOUBLE, "maxLoadsPerSecond")
+                           .addAnnotation(Override.class)
+                           .returns(WarmUpProgress.class);
+        method.addStatement("return this.repositoryCacheManager.warmUp(this, cacheKeys, loader, "
+                            + "parallelism, maxLoadsPerSecond)");
+        classBuilder.addMethod(method.build());
+
         method = MethodSpec.methodBuilder("select")
                            .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
                            .addParameter(Object.class, "cacheKey")
@@ -246,6 +471,13 @@ public class ProxyClassGenerator {
         method.addStatement("return repositoryCacheManager.getContent(this)");
         classBuilder.addMethod(method.build());
 
+        method = MethodSpec.methodBuilder("getValue")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(typeVariable);
+        method.addStatement("return repositoryCacheManager.getValue(this, this.codec)");
+        classBuilder.addMethod(method.build());
+
         method = MethodSpec.methodBuilder("getCacheDir")
                            .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
                            .addAnnotation(Override.class)
@@ -260,6 +492,62 @@ public class ProxyClassGenerator {
         method.addStatement("return this.cacheTime");
         classBuilder.addMethod(method.build());
 
+        method = MethodSpec.methodBuilder("getNegativeCacheTime")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.LONG);
+        method.addStatement("return this.negativeCacheTime");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("getRefreshAhead")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.DOUBLE);
+        method.addStatement("return this.refreshAhead");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("getExpireAfterAccess")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.LONG);
+        method.addStatement("return this.expireAfterAccess");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("getJitter")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.DOUBLE);
+        method.addStatement("return this.jitter");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("getMaxEntries")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.INT);
+        method.addStatement("return this.maxEntries");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("getMaxBytes")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.LONG);
+        method.addStatement("return this.maxBytes");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("getNamespace")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(String.class);
+        method.addStatement("return this.fileName");
+        classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("getCacheKey")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(String.class);
+        method.addStatement("return this.cacheKey");
+        classBuilder.addMethod(method.build());
+
         method = MethodSpec.methodBuilder("getFileName")
                            .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
                            .addAnnotation(Override.class)
@@ -280,5 +568,12 @@ public class ProxyClassGenerator {
                            .returns(TypeName.BOOLEAN);
         method.addStatement("return repositoryCacheManager.isExpired(this)");
         classBuilder.addMethod(method.build());
+
+        method = MethodSpec.methodBuilder("isKnownAbsent")
+                           .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                           .addAnnotation(Override.class)
+                           .returns(TypeName.BOOLEAN);
+        method.addStatement("return repositoryCacheManager.isKnownAbsent(this)");
+        classBuilder.addMethod(method.build());
     }
 }
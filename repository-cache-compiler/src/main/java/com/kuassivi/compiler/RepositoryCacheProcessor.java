@@ -67,13 +67,23 @@ public class RepositoryCacheProcessor extends AbstractProcessor {
         return latestSupported();
     }
 
+    /**
+     * The processor is isolating: every generated file depends only on the annotated type it is
+     * generated for, which is declared to the {@link Filer} as its only originating element. That
+     * lets incremental builds recompile just the types that changed and their generated files.
+     */
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
 
+        // Generated files carry no annotations, so later rounds have nothing to do
+        if (annotations.isEmpty() || roundEnv.processingOver()) {
+            return true;
+        }
+
         try {
 
-            Map<String, ProxyClassGenerator> proxyClassGeneratorMap =
-                    new LinkedHashMap<String, ProxyClassGenerator>();
+            Map<TypeElement, ProxyClassGenerator> proxyClassGeneratorMap =
+                    new LinkedHashMap<TypeElement, ProxyClassGenerator>();
 
             // Scan classes
             for (Element annotatedElement : roundEnv
@@ -91,19 +101,21 @@ public class RepositoryCacheProcessor extends AbstractProcessor {
 
                 // Wrap the Element
                 AnnotatedMethod annotatedMethod = new AnnotatedMethod(annotatedElement);
-                String qualifiedClassName = annotatedMethod.getQualifiedClassName();
+                TypeElement classElement = (TypeElement) annotatedElement.getEnclosingElement();
 
                 /*
                  * Required rules:
                  *
                  * Accessible method.
                  * Interfaces are allowed.
+                 * Attributes within their ranges.
                  */
                 Set<String> errors = com.kuassivi.compiler.AnnotationValidator
                         .with(annotatedElement, RepositoryCache.class)
 
                         .isAccessible(ElementKind.METHOD)
                         .isInterfaceAllowed(ElementKind.METHOD, true)
+                        .hasValidAttributes()
 
                         .getErrors();
 
@@ -114,11 +126,11 @@ public class RepositoryCacheProcessor extends AbstractProcessor {
                 }
 
                 // Generate Proxy Classes
-                ProxyClassGenerator generatorClass = proxyClassGeneratorMap.get(qualifiedClassName);
+                ProxyClassGenerator generatorClass = proxyClassGeneratorMap.get(classElement);
                 if (generatorClass == null) {
-                    generatorClass = new ProxyClassGenerator(elementUtils, qualifiedClassName);
-                    proxyClassGeneratorMap.put(qualifiedClassName, generatorClass);
-                    Utils.note("Processing class " + qualifiedClassName);
+                    generatorClass = new ProxyClassGenerator(elementUtils, typeUtils, classElement);
+                    proxyClassGeneratorMap.put(classElement, generatorClass);
+                    Utils.note("Processing class " + classElement.getQualifiedName());
                 }
 
                 // Checks for Conflicts
@@ -128,6 +140,7 @@ public class RepositoryCacheProcessor extends AbstractProcessor {
             // Generate File Code only once
             for (ProxyClassGenerator generatorClass : proxyClassGeneratorMap.values()) {
                 generatorClass.generateCode(filer);
+                generatorClass.generateDecorator(filer);
             }
 
         } catch (ProcessingException e) {
@@ -67,14 +67,20 @@ public class Utils {
     }
 
     /**
-     * Prints multiple Error messages
+     * Prints multiple Error messages as a single one, one per line, since compilers keep only
+     * one error per source position
      *
      * @param e        The element which has caused the error. Can be null
      * @param messages The error messages
      */
     public static void errors(Element e, Set<String> messages) {
+        StringBuilder message = new StringBuilder();
         for (String msg : messages) {
-            messager.printMessage(Diagnostic.Kind.ERROR, msg, e);
+            if (message.length() > 0) {
+                message.append('\n');
+            }
+            message.append(msg);
         }
+        messager.printMessage(Diagnostic.Kind.ERROR, message.toString(), e);
     }
 }
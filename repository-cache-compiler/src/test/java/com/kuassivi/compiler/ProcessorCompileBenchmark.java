@@ -0,0 +1,158 @@
+package com.kuassivi.compiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Compile-time benchmark of javac and the processor over a synthetic project.
+ * <p>
+ * Generates a project of annotated repository interfaces, compiles all of them with javac, and
+ * then compiles a single changed interface against the classes of the previous compilation.
+ * It does not run Gradle, so it measures the cost of javac and the processor only, not the
+ * behavior of a Gradle incremental build.
+ * <p>
+ * Run it with the test classpath:
+ * {@code ProcessorCompileBenchmark [types] [methodsPerType] [runs]}.
+ * It defaults to 400 types with 10 annotated methods each.
+ */
+public class ProcessorCompileBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int types = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int methods = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("A JDK is required to run the benchmark");
+        }
+
+        File root = createTempDir();
+        File sources = new File(root, "src");
+        File classes = new File(root, "classes");
+        File generated = new File(root, "generated");
+
+        List<String> files = new ArrayList<String>(types);
+        for (int i = 0; i < types; i++) {
+            files.add(writeRepository(sources, i, methods, 0).getPath());
+        }
+
+        System.out.println(String.format("Synthetic project: %d types, %d annotated methods",
+                                         types, types * methods));
+
+        for (int run = 1; run <= runs; run++) {
+            clean(classes);
+            clean(generated);
+            mkdirs(classes);
+            mkdirs(generated);
+            long all = compile(compiler, classes, generated, files);
+
+            // Change a single method of a single type, as a developer would
+            File changed = writeRepository(sources, types / 2, methods, run);
+            long single = compile(compiler, classes, generated,
+                                  Arrays.asList(changed.getPath()));
+
+            System.out.println(String.format("Run %d: all sources %d ms, single file %d ms",
+                                             run, all, single));
+        }
+
+        clean(root);
+    }
+
+    private static long compile(JavaCompiler compiler, File classes, File generated,
+                                List<String> files) {
+        List<String> arguments = new ArrayList<String>();
+        arguments.addAll(Arrays.asList(
+                "-nowarn",
+                "-classpath", classes.getPath() + File.pathSeparator
+                              + System.getProperty("java.class.path"),
+                "-processor", RepositoryCacheProcessor.class.getName(),
+                "-d", classes.getPath(),
+                "-s", generated.getPath()));
+        arguments.addAll(files);
+
+        long start = System.nanoTime();
+        int result = compiler.run(null, null, null,
+                                  arguments.toArray(new String[arguments.size()]));
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        if (result != 0) {
+            throw new IllegalStateException("Compilation failed");
+        }
+        return elapsed;
+    }
+
+    private static File writeRepository(File sources, int index, int methods, int revision)
+            throws IOException {
+        File file = new File(sources, "bench/Repository" + index + ".java");
+        StringBuilder source = new StringBuilder();
+        source.append("package bench;\n")
+              .append("import com.kuassivi.annotation.RepositoryCache;\n")
+              .append("import java.util.List;\n")
+              .append("public interface Repository").append(index).append(" {\n");
+        for (int i = 0; i < methods; i++) {
+            long cacheTime = 1000L * (i + 1) + revision;
+            switch (i % 3) {
+                case 0:
+                    source.append("  @RepositoryCache(").append(cacheTime).append("L)")
+                          .append(" String getName").append(i).append("(int id);\n");
+                    break;
+                case 1:
+                    source.append("  @RepositoryCache(").append(cacheTime).append("L)")
+                          .append(" List<String> getNames").append(i)
+                          .append("(String query, int page);\n");
+                    break;
+                default:
+                    source.append("  @RepositoryCache(").append(cacheTime).append("L)")
+                          .append(" long getCount").append(i).append("();\n");
+                    break;
+            }
+        }
+        source.append("}\n");
+        write(file, source.toString());
+        return file;
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        mkdirs(file.getParentFile());
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("processor-benchmark", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        return dir;
+    }
+
+    private static void clean(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                clean(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -24,16 +24,21 @@ public class ProxyCodeTestGenerator {
     private static String[] proxyHeader = new String[]{
             "package test;",
 
+            "import com.kuassivi.annotation.CacheCodec;",
+            "import com.kuassivi.annotation.CacheCodecs;",
+            "import com.kuassivi.annotation.CacheLoader;",
             "import com.kuassivi.annotation.RepositoryCacheManager;",
-            "import com.kuassivi.annotation.RepositoryProxyCache;",
+            "import com.kuassivi.annotation.TypedProxyCache;",
+            "import com.kuassivi.annotation.WarmUpProgress;",
             "import java.io.File;",
             "import java.lang.Object;",
             "import java.lang.Override;",
             "import java.lang.String;",
+            "import java.util.Collection;",
 
             "/**",
             " * Auto-generated Class by RepositoryCache library Processor */",
-            "public final class TestProxyCache implements RepositoryProxyCache {",
+            "public final class TestProxyCache<T> implements TypedProxyCache<T> {",
             "   private final RepositoryCacheManager repositoryCacheManager;",
 
             "   private File cacheDir;",
@@ -44,11 +49,35 @@ public class ProxyCodeTestGenerator {
 
             "   private long cacheTime;",
 
-            "   private TestProxyCache(File cacheDir, String fileName, long cacheTime) {",
+            "   private long negativeCacheTime;",
+
+            "   private double refreshAhead;",
+
+            "   private long expireAfterAccess;",
+
+            "   private double jitter;",
+
+            "   private int maxEntries;",
+
+            "   private long maxBytes;",
+
+            "   private final CacheCodec<T> codec;",
+
+            "   private TestProxyCache(File cacheDir, String fileName, long cacheTime,",
+            "                          long negativeCacheTime, double refreshAhead,",
+            "                          long expireAfterAccess, double jitter, int maxEntries,",
+            "                          long maxBytes, CacheCodec<T> codec) {",
             "       this.repositoryCacheManager = RepositoryCacheManager.getInstance();",
             "       this.cacheDir = cacheDir;",
             "       this.fileName = fileName;",
             "       this.cacheTime = cacheTime;",
+            "       this.negativeCacheTime = negativeCacheTime;",
+            "       this.refreshAhead = refreshAhead;",
+            "       this.expireAfterAccess = expireAfterAccess;",
+            "       this.jitter = jitter;",
+            "       this.maxEntries = maxEntries;",
+            "       this.maxBytes = maxBytes;",
+            "       this.codec = codec;",
             "   }"
     };
 
@@ -63,11 +92,49 @@ public class ProxyCodeTestGenerator {
             "       this.repositoryCacheManager.persist(this, content);",
             "   }",
 
+            "   @Override",
+            "   public final void persist(String content, long cacheTime) {",
+            "       this.repositoryCacheManager.persist(this, content, cacheTime);",
+            "   }",
+
+            "   @Override",
+            "   public final void persistValue(T value) {",
+            "       this.repositoryCacheManager.persistValue(this, value, this.codec);",
+            "   }",
+
+            "   @Override",
+            "   public final void persistAbsent() {",
+            "       this.repositoryCacheManager.persistAbsent(this);",
+            "   }",
+
+            "   @Override",
+            "   public final void append(String content) {",
+            "       this.repositoryCacheManager.append(this, content);",
+            "   }",
+
+            "   @Override",
+            "   public final void append(byte[] content) {",
+            "       this.repositoryCacheManager.append(this, content);",
+            "   }",
+
             "   @Override",
             "   public final void evict() {",
             "       this.repositoryCacheManager.evict(this);",
             "   }",
 
+            "   @Override",
+            "   public final WarmUpProgress warmUp(Collection<?> cacheKeys, CacheLoader loader,",
+            "                                      int parallelism) {",
+            "       return this.repositoryCacheManager.warmUp(this, cacheKeys, loader, parallelism);",
+            "   }",
+
+            "   @Override",
+            "   public final WarmUpProgress warmUp(Collection<?> cacheKeys, CacheLoader loader,",
+            "                                      int parallelism, double maxLoadsPerSecond) {",
+            "       return this.repositoryCacheManager.warmUp(this, cacheKeys, loader, parallelism,",
+            "                                                 maxLoadsPerSecond);",
+            "   }",
+
             "   @Override",
             "   public final void select(Object cacheKey) {",
             "       this.cacheKey = String.valueOf(cacheKey);",
@@ -78,6 +145,11 @@ public class ProxyCodeTestGenerator {
             "       return repositoryCacheManager.getContent(this);",
             "   }",
 
+            "   @Override",
+            "   public final T getValue() {",
+            "       return repositoryCacheManager.getValue(this, this.codec);",
+            "   }",
+
             "   @Override",
             "   public final File getCacheDir() {",
             "       return this.cacheDir;",
@@ -88,6 +160,46 @@ public class ProxyCodeTestGenerator {
             "       return this.cacheTime;",
             "   }",
 
+            "   @Override",
+            "   public final long getNegativeCacheTime() {",
+            "       return this.negativeCacheTime;",
+            "   }",
+
+            "   @Override",
+            "   public final double getRefreshAhead() {",
+            "       return this.refreshAhead;",
+            "   }",
+
+            "   @Override",
+            "   public final long getExpireAfterAccess() {",
+            "       return this.expireAfterAccess;",
+            "   }",
+
+            "   @Override",
+            "   public final double getJitter() {",
+            "       return this.jitter;",
+            "   }",
+
+            "   @Override",
+            "   public final int getMaxEntries() {",
+            "       return this.maxEntries;",
+            "   }",
+
+            "   @Override",
+            "   public final long getMaxBytes() {",
+            "       return this.maxBytes;",
+            "   }",
+
+            "   @Override",
+            "   public final String getNamespace() {",
+            "       return this.fileName;",
+            "   }",
+
+            "   @Override",
+            "   public final String getCacheKey() {",
+            "       return this.cacheKey;",
+            "   }",
+
             "   @Override",
             "   public final String getFileName() {",
             "       return RepositoryCacheManager.hashMD5(this.fileName + this.cacheKey);",
@@ -102,16 +214,40 @@ public class ProxyCodeTestGenerator {
             "   public final boolean isExpired() {",
             "       return repositoryCacheManager.isExpired(this);",
             "   }",
-            "}"
+
+            "   @Override",
+            "   public final boolean isKnownAbsent() {",
+            "       return repositoryCacheManager.isKnownAbsent(this);",
+            "   }"
     };
 
     public static Iterable<String> joinItems(String... pieces) {
+        return joinItems(new String[0], pieces, new String[0]);
+    }
+
+    /**
+     * Builds a proxy class source with extra imports, the static factory methods and the
+     * generated codec helpers and classes.
+     */
+    public static Iterable<String> joinItems(String[] imports, String[] pieces, String[] codecs) {
         List<String> content = new ArrayList<String>(proxyHeader.length + proxyMethods.length);
         List<String> header = Arrays.asList(proxyHeader);
         List<String> methods = Arrays.asList(proxyMethods);
-        content.addAll(header);
+        List<String> sortedImports = new ArrayList<String>();
+        for (String line : header) {
+            if (line.startsWith("import ")) {
+                sortedImports.add(line);
+            }
+        }
+        Collections.addAll(sortedImports, imports);
+        Collections.sort(sortedImports);
+        content.add(header.get(0));
+        content.addAll(sortedImports);
+        content.addAll(header.subList(sortedImports.size() - imports.length + 1, header.size()));
         Collections.addAll(content, pieces);
         content.addAll(methods);
+        Collections.addAll(content, codecs);
+        content.add("}");
         return content;
     }
 }
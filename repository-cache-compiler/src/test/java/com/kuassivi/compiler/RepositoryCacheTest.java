@@ -7,10 +7,13 @@ import com.kuassivi.annotation.RepositoryCacheManager;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import javax.tools.JavaFileObject;
 
 import static com.google.common.truth.Truth.assertAbout;
 import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
 
 /**
  * To work on unit tests, switch the Test Artifact in the Build Variants view.
@@ -35,8 +38,43 @@ public class RepositoryCacheTest {
         JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/TestProxyCache",
             Joiner.on('\n').join(
                 ProxyCodeTestGenerator.joinItems(
-                    "   public static TestProxyCache getBar(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5 + "\", 0);",
+                    "   public static TestProxyCache<String> getBar(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5 + "\", 0L, 0L, 0.0, 0L,",
+                    "           0.0, 0, 0L, CacheCodecs.STRING);",
+                    "   }"
+                )
+         ));
+
+        assertAbout(javaSource()).that(source)
+                 .processedWith(new RepositoryCacheProcessor())
+                 .compilesWithoutError()
+                 .and()
+                 .generatesSources(
+                         expectedSource);
+    }
+
+    @Test
+    public void generatedProxyWithLongAttributes_isCorrect() throws Exception {
+
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test",
+            Joiner.on('\n').join(
+                "package test;",
+                "import com.kuassivi.annotation.RepositoryCache;",
+                "public interface Test {",
+                "  @RepositoryCache(value = 3000000000L, negativeTtl = 4000000000L,",
+                "                   expireAfterAccess = 5000000000L, maxBytes = 10000000000L)",
+                "  String getBar();",
+                "}"
+        ));
+
+        String md5 = RepositoryCacheManager.hashMD5("Test_getBar");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/TestProxyCache",
+            Joiner.on('\n').join(
+                ProxyCodeTestGenerator.joinItems(
+                    "   public static TestProxyCache<String> getBar(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5 + "\", 3000000000L,",
+                    "           4000000000L, 0.0, 5000000000L, 0.0, 0, 10000000000L, CacheCodecs.STRING);",
                     "   }"
                 )
          ));
@@ -57,8 +95,8 @@ public class RepositoryCacheTest {
                     "package test;",
                     "import com.kuassivi.annotation.RepositoryCache;",
                     "public interface Test {",
-                    "  @RepositoryCache(1000 * 60 * 60) String getFoo(String param);",
-                    "  @RepositoryCache String getBar();",
+                    "  @RepositoryCache(value = 1000 * 60 * 60, negativeTtl = 5000) String getFoo(String param);",
+                    "  @RepositoryCache(refreshAhead = 0.8) String getBar();",
                     "}"
             ));
 
@@ -68,12 +106,14 @@ public class RepositoryCacheTest {
         JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/TestProxyCache",
             Joiner.on('\n').join(
                 ProxyCodeTestGenerator.joinItems(
-                    "   public static TestProxyCache getFoo(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5_foo + "\", 3600000);",
+                    "   public static TestProxyCache<String> getFoo(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5_foo + "\", 3600000L, 5000L, 0.0, 0L,",
+                    "           0.0, 0, 0L, CacheCodecs.STRING);",
                     "   }",
 
-                    "   public static TestProxyCache getBar(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5_bar + "\", 0);",
+                    "   public static TestProxyCache<String> getBar(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5_bar + "\", 0L, 0L, 0.8, 0L,",
+                    "           0.0, 0, 0L, CacheCodecs.STRING);",
                     "   }"
                 )
             ));
@@ -109,6 +149,86 @@ public class RepositoryCacheTest {
              .in(source).onLine(5);
     }
 
+    @Test
+    public void fractionsOutOfRange_fail() throws Exception {
+
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test",
+            Joiner.on('\n').join(
+                    "package test;",
+                    "import com.kuassivi.annotation.RepositoryCache;",
+                    "public interface Test {",
+                    "  @RepositoryCache(value = 1000, refreshAhead = 1, jitter = 1.5)",
+                    "  String getBar();",
+                    "}"
+            ));
+
+        assertAbout(javaSource()).that(source)
+             .processedWith(new RepositoryCacheProcessor())
+             .failsToCompile()
+             .withErrorContaining("The method getBar has refreshAhead = 1.0. "
+                                  + "It must be at least 0 and less than 1.")
+             .in(source).onLine(5)
+             .and()
+             .withErrorContaining("The method getBar has jitter = 1.5. "
+                                  + "It must be between 0 and 1.")
+             .in(source).onLine(5);
+    }
+
+    @Test
+    public void fractionsNotANumber_fail() throws Exception {
+
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test",
+            Joiner.on('\n').join(
+                    "package test;",
+                    "import com.kuassivi.annotation.RepositoryCache;",
+                    "public interface Test {",
+                    "  @RepositoryCache(value = 1000, refreshAhead = Double.NaN,",
+                    "                   jitter = Double.NaN)",
+                    "  String getBar();",
+                    "}"
+            ));
+
+        assertAbout(javaSource()).that(source)
+             .processedWith(new RepositoryCacheProcessor())
+             .failsToCompile()
+             .withErrorContaining("The method getBar has refreshAhead = NaN.")
+             .in(source).onLine(6)
+             .and()
+             .withErrorContaining("The method getBar has jitter = NaN.")
+             .in(source).onLine(6);
+    }
+
+    @Test
+    public void negativeAttributes_fail() throws Exception {
+
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test",
+            Joiner.on('\n').join(
+                    "package test;",
+                    "import com.kuassivi.annotation.RepositoryCache;",
+                    "public interface Test {",
+                    "  @RepositoryCache(negativeTtl = -1, expireAfterAccess = -1, maxEntries = -1,",
+                    "                   maxBytes = -1)",
+                    "  String getFoo();",
+                    "}"
+            ));
+
+        assertAbout(javaSource()).that(source)
+             .processedWith(new RepositoryCacheProcessor())
+             .failsToCompile()
+             .withErrorContaining("The method getFoo has negativeTtl = -1. It can't be negative.")
+             .in(source).onLine(6)
+             .and()
+             .withErrorContaining("The method getFoo has expireAfterAccess = -1. "
+                                  + "It can't be negative.")
+             .in(source).onLine(6)
+             .and()
+             .withErrorContaining("The method getFoo has maxEntries = -1. It can't be negative.")
+             .in(source).onLine(6)
+             .and()
+             .withErrorContaining("The method getFoo has maxBytes = -1. It can't be negative.")
+             .in(source).onLine(6);
+    }
+
     @Test
     public void generatedProxyWith8Methods_isCorrect() throws Exception {
 
@@ -119,12 +239,12 @@ public class RepositoryCacheTest {
                     "public interface Test {",
                     "  @RepositoryCache(named = \"getFooX\")                String getFoo();",
                     "  @RepositoryCache(0)                                  String getFoo(String a);",
-                    "  @RepositoryCache(value = 1000)                       String getFoo1(int a, int b, char[] c);",
+                    "  @RepositoryCache(value = 1000, maxEntries = 100, maxBytes = 65536) String getFoo1(int a, int b, char[] c);",
                     "  @RepositoryCache(-1000)                              String getFoo2(Object... a);",
                     "  @RepositoryCache()                                   String getFoo3();",
                     "  @RepositoryCache                                     String getFoo4();",
                     "  @RepositoryCache(value = 500, named = \"getFooX2\")  String getFoo5();",
-                    "  @RepositoryCache(1)                                  String getFoo6();",
+                    "  @RepositoryCache(value = 1, expireAfterAccess = 60000, jitter = 0.1) String getFoo6();",
                     "}"
             ));
 
@@ -140,29 +260,37 @@ public class RepositoryCacheTest {
         JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/TestProxyCache",
             Joiner.on('\n').join(
                 ProxyCodeTestGenerator.joinItems(
-                    "   public static TestProxyCache getFooX(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5_foo1 + "\", 0);",
+                    "   public static TestProxyCache<String> getFooX(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5_foo1 + "\", 0L, 0L, 0.0, 0L,",
+                    "           0.0, 0, 0L, CacheCodecs.STRING);",
                     "   }",
-                    "   public static TestProxyCache getFoo(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5_foo2 + "\", 0);",
+                    "   public static TestProxyCache<String> getFoo(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5_foo2 + "\", 0L, 0L, 0.0, 0L,",
+                    "           0.0, 0, 0L, CacheCodecs.STRING);",
                     "   }",
-                    "   public static TestProxyCache getFoo1(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5_foo3 + "\", 1000);",
+                    "   public static TestProxyCache<String> getFoo1(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5_foo3 + "\", 1000L, 0L, 0.0, 0L,",
+                    "           0.0, 100, 65536L, CacheCodecs.STRING);",
                     "   }",
-                    "   public static TestProxyCache getFoo2(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5_foo4 + "\", -1000);",
+                    "   public static TestProxyCache<String> getFoo2(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5_foo4 + "\", -1000L, 0L, 0.0, 0L,",
+                    "           0.0, 0, 0L, CacheCodecs.STRING);",
                     "   }",
-                    "   public static TestProxyCache getFoo3(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5_foo5 + "\", 0);",
+                    "   public static TestProxyCache<String> getFoo3(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5_foo5 + "\", 0L, 0L, 0.0, 0L,",
+                    "           0.0, 0, 0L, CacheCodecs.STRING);",
                     "   }",
-                    "   public static TestProxyCache getFoo4(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5_foo6 + "\", 0);",
+                    "   public static TestProxyCache<String> getFoo4(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5_foo6 + "\", 0L, 0L, 0.0, 0L,",
+                    "           0.0, 0, 0L, CacheCodecs.STRING);",
                     "   }",
-                    "   public static TestProxyCache getFooX2(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5_foo7 + "\", 500);",
+                    "   public static TestProxyCache<String> getFooX2(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5_foo7 + "\", 500L, 0L, 0.0, 0L,",
+                    "           0.0, 0, 0L, CacheCodecs.STRING);",
                     "   }",
-                    "   public static TestProxyCache getFoo6(File cacheDir) {",
-                    "       return new TestProxyCache(cacheDir, \"" + md5_foo8 + "\", 1);",
+                    "   public static TestProxyCache<String> getFoo6(File cacheDir) {",
+                    "       return new TestProxyCache<String>(cacheDir, \"" + md5_foo8 + "\", 1L, 0L, 0.0, 60000L,",
+                    "           0.1, 0, 0L, CacheCodecs.STRING);",
                     "   }"
                 )
             ));
@@ -173,5 +301,303 @@ public class RepositoryCacheTest {
              .and()
              .generatesSources(expectedSource);
     }
+
+    @Test
+    public void generatedProxyWithPojoCodec_isCorrect() throws Exception {
+
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test",
+            Joiner.on('\n').join(
+                    "package test;",
+                    "import com.kuassivi.annotation.RepositoryCache;",
+                    "public interface Test {",
+                    "  @RepositoryCache User getUser(int id);",
+                    "  @RepositoryCache Object getAny();",
+                    "}"
+            ));
+
+        JavaFileObject pojo = JavaFileObjects.forSourceString("test.User",
+            Joiner.on('\n').join(
+                    "package test;",
+                    "import java.util.List;",
+                    "public class User {",
+                    "  public static int count;",
+                    "  public int id;",
+                    "  private String name;",
+                    "  public List<User> friends;",
+                    "  public String getName() { return name; }",
+                    "  public void setName(String name) { this.name = name; }",
+                    "}"
+            ));
+
+        String md5_user = RepositoryCacheManager.hashMD5("Test_getUser-int");
+        String md5_any = RepositoryCacheManager.hashMD5("Test_getAny");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/TestProxyCache",
+            Joiner.on('\n').join(
+                ProxyCodeTestGenerator.joinItems(
+                    new String[]{
+                        "import java.io.DataInput;",
+                        "import java.io.DataOutput;",
+                        "import java.io.IOException;",
+                        "import java.util.ArrayList;",
+                        "import java.util.List;"
+                    },
+                    new String[]{
+                        "   public static TestProxyCache<User> getUser(File cacheDir) {",
+                        "       return new TestProxyCache<User>(cacheDir, \"" + md5_user + "\", 0L, 0L, 0.0, 0L,",
+                        "           0.0, 0, 0L, new UserCodec());",
+                        "   }",
+                        "   public static TestProxyCache<Object> getAny(File cacheDir) {",
+                        "       return new TestProxyCache<Object>(cacheDir, \"" + md5_any + "\", 0L, 0L, 0.0, 0L,",
+                        "           0.0, 0, 0L, null);",
+                        "   }"
+                    },
+                    new String[]{
+                        "   private static void writeUser(DataOutput out, User value)",
+                        "           throws IOException {",
+                        "       if (!CacheCodecs.writePresence(value, out)) {",
+                        "           return;",
+                        "       }",
+                        "       out.writeInt(value.id);",
+                        "       CacheCodecs.STRING.encode(value.getName(), out);",
+                        "       writeListOfUser(out, value.friends);",
+                        "   }",
+                        "   private static User readUser(DataInput in) throws IOException {",
+                        "       if (!in.readBoolean()) {",
+                        "           return null;",
+                        "       }",
+                        "       User value = new User();",
+                        "       value.id = in.readInt();",
+                        "       value.setName(CacheCodecs.STRING.decode(in));",
+                        "       value.friends = readListOfUser(in);",
+                        "       return value;",
+                        "   }",
+                        "   private static void writeListOfUser(DataOutput out, List<User> value)",
+                        "           throws IOException {",
+                        "       if (!CacheCodecs.writePresence(value, out)) {",
+                        "           return;",
+                        "       }",
+                        "       out.writeInt(value.size());",
+                        "       for (User element : value) {",
+                        "           writeUser(out, element);",
+                        "       }",
+                        "   }",
+                        "   private static List<User> readListOfUser(DataInput in) throws IOException {",
+                        "       if (!in.readBoolean()) {",
+                        "           return null;",
+                        "       }",
+                        "       int size = CacheCodecs.readSize(in);",
+                        "       List<User> value = new ArrayList<User>(CacheCodecs.initialCapacity(size));",
+                        "       for (int i = 0; i < size; i++) {",
+                        "           value.add(readUser(in));",
+                        "       }",
+                        "       return value;",
+                        "   }",
+                        "   private static final class UserCodec implements CacheCodec<User> {",
+                        "       @Override",
+                        "       public void encode(User value, DataOutput out) throws IOException {",
+                        "           writeUser(out, value);",
+                        "       }",
+                        "       @Override",
+                        "       public User decode(DataInput in) throws IOException {",
+                        "           return readUser(in);",
+                        "       }",
+                        "   }"
+                    }
+                )
+            ));
+
+        assertAbout(javaSources()).that(Arrays.asList(source, pojo))
+             .processedWith(new RepositoryCacheProcessor())
+             .compilesWithoutError()
+             .and()
+             .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void generatedProxyWithInheritedPojoCodec_isCorrect() throws Exception {
+
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test",
+            Joiner.on('\n').join(
+                    "package test;",
+                    "import com.kuassivi.annotation.RepositoryCache;",
+                    "public interface Test {",
+                    "  @RepositoryCache Account getAccount();",
+                    "}"
+            ));
+
+        JavaFileObject base = JavaFileObjects.forSourceString("test.Base",
+            Joiner.on('\n').join(
+                    "package test;",
+                    "public class Base {",
+                    "  private long version;",
+                    "  public long getVersion() { return version; }",
+                    "  public void setVersion(long version) { this.version = version; }",
+                    "}"
+            ));
+
+        JavaFileObject pojo = JavaFileObjects.forSourceString("test.Account",
+            Joiner.on('\n').join(
+                    "package test;",
+                    "public class Account extends Base {",
+                    "  public String owner;",
+                    "}"
+            ));
+
+        String md5_account = RepositoryCacheManager.hashMD5("Test_getAccount");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/TestProxyCache",
+            Joiner.on('\n').join(
+                ProxyCodeTestGenerator.joinItems(
+                    new String[]{
+                        "import java.io.DataInput;",
+                        "import java.io.DataOutput;",
+                        "import java.io.IOException;"
+                    },
+                    new String[]{
+                        "   public static TestProxyCache<Account> getAccount(File cacheDir) {",
+                        "       return new TestProxyCache<Account>(cacheDir, \"" + md5_account + "\", 0L, 0L, 0.0,",
+                        "           0L, 0.0, 0, 0L, new AccountCodec());",
+                        "   }"
+                    },
+                    new String[]{
+                        "   private static void writeAccount(DataOutput out, Account value)",
+                        "           throws IOException {",
+                        "       if (!CacheCodecs.writePresence(value, out)) {",
+                        "           return;",
+                        "       }",
+                        "       CacheCodecs.STRING.encode(value.owner, out);",
+                        "       out.writeLong(value.getVersion());",
+                        "   }",
+                        "   private static Account readAccount(DataInput in) throws IOException {",
+                        "       if (!in.readBoolean()) {",
+                        "           return null;",
+                        "       }",
+                        "       Account value = new Account();",
+                        "       value.owner = CacheCodecs.STRING.decode(in);",
+                        "       value.setVersion(in.readLong());",
+                        "       return value;",
+                        "   }",
+                        "   private static final class AccountCodec implements CacheCodec<Account> {",
+                        "       @Override",
+                        "       public void encode(Account value, DataOutput out) throws IOException {",
+                        "           writeAccount(out, value);",
+                        "       }",
+                        "       @Override",
+                        "       public Account decode(DataInput in) throws IOException {",
+                        "           return readAccount(in);",
+                        "       }",
+                        "   }"
+                    }
+                )
+            ));
+
+        assertAbout(javaSources()).that(Arrays.asList(source, base, pojo))
+             .processedWith(new RepositoryCacheProcessor())
+             .compilesWithoutError()
+             .and()
+             .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void generatedCachedDecorator_isCorrect() throws Exception {
+
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test",
+            Joiner.on('\n').join(
+                    "package test;",
+                    "import com.kuassivi.annotation.RepositoryCache;",
+                    "public interface Test {",
+                    "  @RepositoryCache(1000) String getFoo(int id);",
+                    "  @RepositoryCache String getBar(String a, int[] cache);",
+                    "  @RepositoryCache String getAll();",
+                    "  void clear();",
+                    "}"
+            ));
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/TestCached",
+            Joiner.on('\n').join(
+                    "package test;",
+                    "import com.kuassivi.annotation.RepositoryCacheManager;",
+                    "import com.kuassivi.annotation.RepositoryProxyCache;",
+                    "import java.io.File;",
+                    "import java.lang.Override;",
+                    "import java.lang.String;",
+                    "/**",
+                    " * Auto-generated Class by RepositoryCache library Processor */",
+                    "public final class TestCached implements Test {",
+                    "   private final File cacheDir;",
+                    "   private final Test local;",
+                    "   private final Test remote;",
+                    "   public TestCached(File cacheDir, Test local, Test remote) {",
+                    "       this.cacheDir = cacheDir;",
+                    "       this.local = local;",
+                    "       this.remote = remote;",
+                    "   }",
+                    "   @Override",
+                    "   public String getFoo(int id) {",
+                    "       RepositoryProxyCache cache = TestProxyCache.getFoo(this.cacheDir);",
+                    "       cache.select(id);",
+                    "       if (cache.isKnownAbsent()) {",
+                    "           return null;",
+                    "       }",
+                    "       if (!cache.isExpired()) {",
+                    "           return this.local.getFoo(id);",
+                    "       }",
+                    "       String value = this.remote.getFoo(id);",
+                    "       if (value == null) {",
+                    "           cache.persistAbsent();",
+                    "       } else {",
+                    "           cache.persist();",
+                    "       }",
+                    "       return value;",
+                    "   }",
+                    "   @Override",
+                    "   public String getBar(String a, int[] cache) {",
+                    "       RepositoryProxyCache cache_ = TestProxyCache.getBar(this.cacheDir);",
+                    "       cache_.select(RepositoryCacheManager.cacheKey(a, cache));",
+                    "       if (cache_.isKnownAbsent()) {",
+                    "           return null;",
+                    "       }",
+                    "       if (!cache_.isExpired()) {",
+                    "           return this.local.getBar(a, cache);",
+                    "       }",
+                    "       String value = this.remote.getBar(a, cache);",
+                    "       if (value == null) {",
+                    "           cache_.persistAbsent();",
+                    "       } else {",
+                    "           cache_.persist();",
+                    "       }",
+                    "       return value;",
+                    "   }",
+                    "   @Override",
+                    "   public String getAll() {",
+                    "       RepositoryProxyCache cache = TestProxyCache.getAll(this.cacheDir);",
+                    "       if (cache.isKnownAbsent()) {",
+                    "           return null;",
+                    "       }",
+                    "       if (!cache.isExpired()) {",
+                    "           return this.local.getAll();",
+                    "       }",
+                    "       String value = this.remote.getAll();",
+                    "       if (value == null) {",
+                    "           cache.persistAbsent();",
+                    "       } else {",
+                    "           cache.persist();",
+                    "       }",
+                    "       return value;",
+                    "   }",
+                    "   @Override",
+                    "   public void clear() {",
+                    "       this.remote.clear();",
+                    "   }",
+                    "}"
+            ));
+
+        assertAbout(javaSource()).that(source)
+             .processedWith(new RepositoryCacheProcessor())
+             .compilesWithoutError()
+             .and()
+             .generatesSources(expectedSource);
+    }
 }
 //@formatter:on
\ No newline at end of file
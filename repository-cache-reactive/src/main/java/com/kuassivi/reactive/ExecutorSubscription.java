@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.reactive;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscription that produces its elements on an executor, only as many as the subscriber has
+ * requested.
+ * <p>
+ * Every signal, {@code onSubscribe} included, is sent from a single drain loop, so they never
+ * overlap even if the subscriber requests more from within {@code onNext}. Elements are produced
+ * by blocking calls of the cache, which never run on the Thread of the subscriber.
+ *
+ * @param <T> the type of the elements
+ * @author Francisco Gonzalez-Armijo
+ */
+abstract class ExecutorSubscription<T> implements Subscription, Runnable {
+
+    private final Subscriber<? super T> subscriber;
+    private final Executor              executor;
+
+    private final AtomicLong    demand = new AtomicLong();
+    private final AtomicInteger missed = new AtomicInteger();
+
+    /**
+     * Guarded by the drain loop
+     */
+    private boolean subscribed;
+    private boolean done;
+    private boolean released;
+
+    private volatile boolean   cancelled;
+    private volatile Throwable invalidRequest;
+
+    ExecutorSubscription(Subscriber<? super T> subscriber, Executor executor) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber == null");
+        }
+        this.subscriber = subscriber;
+        this.executor = executor;
+    }
+
+    /**
+     * Produces the next element.
+     *
+     * @return the element, or null once there are no more
+     * @throws Exception if the element can't be produced, sent to the subscriber as an error
+     */
+    abstract T produce() throws Exception;
+
+    /**
+     * Checks whether every element has been produced, so the subscriber is completed without
+     * having to request more.
+     *
+     * @return true if there are no more elements
+     */
+    abstract boolean isExhausted();
+
+    /**
+     * Releases what the elements were produced from, once completed, failed or cancelled.
+     */
+    void release() {
+    }
+
+    /**
+     * Signals the subscription to the subscriber, which may start requesting elements.
+     */
+    final void start() {
+        schedule();
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+        } else {
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+        }
+        schedule();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        // Released by the drain loop, which may be producing right now
+        schedule();
+    }
+
+    private void schedule() {
+        if (missed.getAndIncrement() != 0) {
+            // Picked up by the running drain loop
+            return;
+        }
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            run();
+        }
+    }
+
+    @Override
+    public void run() {
+        int pending = 1;
+        do {
+            drain();
+            pending = missed.addAndGet(-pending);
+        } while (pending != 0);
+    }
+
+    private void drain() {
+        if (!subscribed) {
+            subscribed = true;
+            subscriber.onSubscribe(this);
+        }
+        produceRequested();
+        if ((done || cancelled) && !released) {
+            released = true;
+            release();
+        }
+    }
+
+    private void produceRequested() {
+        while (!done && !cancelled) {
+            Throwable error = invalidRequest;
+            if (error != null) {
+                done = true;
+                subscriber.onError(error);
+                return;
+            }
+            if (isExhausted()) {
+                done = true;
+                subscriber.onComplete();
+                return;
+            }
+            if (demand.get() == 0) {
+                return;
+            }
+            T next;
+            try {
+                next = produce();
+            } catch (Exception e) {
+                done = true;
+                subscriber.onError(e);
+                return;
+            }
+            if (next == null) {
+                done = true;
+                subscriber.onComplete();
+                return;
+            }
+            demand.decrementAndGet();
+            subscriber.onNext(next);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.reactive;
+
+import com.kuassivi.annotation.CacheEntry;
+import com.kuassivi.annotation.CacheEntryIterator;
+import com.kuassivi.annotation.EntryFilter;
+import com.kuassivi.annotation.EntryFilters;
+import com.kuassivi.annotation.RepositoryCacheManager;
+import com.kuassivi.annotation.RepositoryProxyCache;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Reactive Streams publishers of the contents and the entries of the
+ * {@link RepositoryCacheManager}.
+ * <p>
+ * Nothing is read until the subscriber requests it, and every read runs on the executor of the
+ * manager, as set by {@link RepositoryCacheManager#setExecutor(Executor)}, never on the Thread
+ * of the subscriber. Each subscription reads again.
+ * <p>
+ * The ProxyCache objects given to the publishers must not be selected again while they are
+ * subscribed, since the call they read is the one they are selected on.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class ReactiveRepositoryCache {
+
+    /**
+     * Default size of the content chunks
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+    private final RepositoryCacheManager manager;
+    private final Executor               executor;
+
+    public ReactiveRepositoryCache() {
+        this(RepositoryCacheManager.getInstance(), null);
+    }
+
+    /**
+     * @param executor the executor of the reads, or null to use the executor of the manager
+     */
+    public ReactiveRepositoryCache(Executor executor) {
+        this(RepositoryCacheManager.getInstance(), executor);
+    }
+
+    ReactiveRepositoryCache(RepositoryCacheManager manager, Executor executor) {
+        this.manager = manager;
+        this.executor = executor;
+    }
+
+    /**
+     * Publishes the content of the method call, or completes without it if the call is not
+     * cached or has expired.
+     *
+     * @param proxyCache the ProxyCache object
+     * @return a publisher of at most one content
+     */
+    public Publisher<String> content(final RepositoryProxyCache proxyCache) {
+        return new Publisher<String>() {
+            @Override
+            public void subscribe(Subscriber<? super String> subscriber) {
+                new ExecutorSubscription<String>(subscriber, executor()) {
+
+                    private boolean read;
+
+                    @Override
+                    String produce() {
+                        if (read) {
+                            return null;
+                        }
+                        read = true;
+                        return manager.isExpired(proxyCache)
+                               ? null
+                               : manager.getContent(proxyCache);
+                    }
+
+                    @Override
+                    boolean isExhausted() {
+                        return read;
+                    }
+                }.start();
+            }
+        };
+    }
+
+    /**
+     * Publishes the content of the method call in chunks of {@link #DEFAULT_CHUNK_SIZE} bytes.
+     *
+     * @param proxyCache the ProxyCache object
+     * @return a publisher of read-only chunks of the content, or of none if the call is not
+     * cached, has expired or has no content
+     */
+    public Publisher<ByteBuffer> bytes(RepositoryProxyCache proxyCache) {
+        return bytes(proxyCache, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Publishes the content of the method call in chunks, one chunk per element requested.
+     *
+     * @param proxyCache the ProxyCache object
+     * @param chunkSize the maximum size of each chunk in bytes
+     * @return a publisher of read-only chunks of the content, or of none if the call is not
+     * cached, has expired or has no content
+     */
+    public Publisher<ByteBuffer> bytes(final RepositoryProxyCache proxyCache,
+                                       final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize <= 0");
+        }
+        return new Publisher<ByteBuffer>() {
+            @Override
+            public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+                new ExecutorSubscription<ByteBuffer>(subscriber, executor()) {
+
+                    private ByteBuffer content;
+
+                    @Override
+                    ByteBuffer produce() {
+                        if (content == null) {
+                            byte[] bytes = manager.isExpired(proxyCache)
+                                           ? null
+                                           : manager.getBytes(proxyCache);
+                            content = ByteBuffer.wrap(bytes == null ? new byte[0] : bytes)
+                                                .asReadOnlyBuffer();
+                        }
+                        if (!content.hasRemaining()) {
+                            return null;
+                        }
+                        ByteBuffer chunk = content.slice();
+                        chunk.limit(Math.min(chunkSize, content.remaining()));
+                        content.position(content.position() + chunk.limit());
+                        return chunk;
+                    }
+
+                    @Override
+                    boolean isExhausted() {
+                        return content != null && !content.hasRemaining();
+                    }
+                }.start();
+            }
+        };
+    }
+
+    /**
+     * Publishes the entries of a cache directory, reading the metadata of each one only when
+     * it is requested. Entries removed while they are published are skipped.
+     *
+     * @param cacheDir the cache directory
+     * @return a publisher of the entries, in no particular order
+     */
+    public Publisher<CacheEntry> entries(File cacheDir) {
+        return entries(cacheDir, EntryFilters.ALL);
+    }
+
+    /**
+     * Publishes the entries of a cache directory accepted by the filter, as iterated by
+     * {@link RepositoryCacheManager#entries(File, EntryFilter)}.
+     *
+     * @param cacheDir the cache directory
+     * @param filter the filter of the entries, see {@link EntryFilters}
+     * @return a publisher of the entries, in no particular order
+     */
+    public Publisher<CacheEntry> entries(final File cacheDir, final EntryFilter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("filter == null");
+        }
+        return new Publisher<CacheEntry>() {
+            @Override
+            public void subscribe(Subscriber<? super CacheEntry> subscriber) {
+                new ExecutorSubscription<CacheEntry>(subscriber, executor()) {
+
+                    private CacheEntryIterator entries;
+
+                    @Override
+                    CacheEntry produce() {
+                        if (entries == null) {
+                            entries = manager.entries(cacheDir, filter);
+                        }
+                        return entries.hasNext() ? entries.next() : null;
+                    }
+
+                    @Override
+                    boolean isExhausted() {
+                        return entries != null && !entries.hasNext();
+                    }
+
+                    @Override
+                    void release() {
+                        if (entries != null) {
+                            entries.close();
+                        }
+                    }
+                }.start();
+            }
+        };
+    }
+
+    private Executor executor() {
+        return executor != null ? executor : manager.getExecutor();
+    }
+}
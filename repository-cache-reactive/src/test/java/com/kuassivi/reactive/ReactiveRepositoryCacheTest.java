@@ -0,0 +1,207 @@
+package com.kuassivi.reactive;
+
+import com.kuassivi.annotation.Await;
+import com.kuassivi.annotation.CacheEntry;
+import com.kuassivi.annotation.CacheMetadata;
+import com.kuassivi.annotation.FakeProxyCache;
+import com.kuassivi.annotation.MemoryCacheStore;
+import com.kuassivi.annotation.RepositoryCacheManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.kuassivi.annotation.Await.awaitTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the publishers of contents and entries, and that they follow the demand.
+ */
+public class ReactiveRepositoryCacheTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File                    cacheDir;
+    private MemoryCacheStore        store;
+    private ExecutorService         executor;
+    private ReactiveRepositoryCache reactive;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = temporaryFolder.newFolder();
+        store = new MemoryCacheStore();
+        RepositoryCacheManager.getInstance().setStore(cacheDir, store);
+        executor = Executors.newFixedThreadPool(2);
+        reactive = new ReactiveRepositoryCache(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        RepositoryCacheManager.getInstance().setStore(cacheDir, new MemoryCacheStore());
+    }
+
+    @Test
+    public void content_isPublishedOnceRequested() throws InterruptedException {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Simple_getUser", 0);
+        cache.select(1);
+        store.write(cache.getFileName(), "user 1".getBytes(),
+                    new CacheMetadata(System.currentTimeMillis(), 0, 0));
+
+        RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+        reactive.content(cache).subscribe(subscriber);
+        subscriber.awaitSubscription();
+        Thread.sleep(20);
+        assertTrue(subscriber.values.isEmpty());
+
+        subscriber.request(1);
+        subscriber.awaitTermination();
+        assertEquals("user 1", subscriber.values.get(0));
+        assertEquals(1, subscriber.values.size());
+        assertNull(subscriber.error);
+
+        // Not cached: completes without content
+        cache.select(2);
+        RecordingSubscriber<String> missing = new RecordingSubscriber<String>();
+        reactive.content(cache).subscribe(missing);
+        missing.awaitSubscription();
+        missing.request(1);
+        missing.awaitTermination();
+        assertTrue(missing.values.isEmpty());
+    }
+
+    @Test
+    public void bytes_arePublishedInChunksOnDemand() throws InterruptedException {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Simple_getFile", 0);
+        cache.select(1);
+        store.write(cache.getFileName(), "0123456789".getBytes(),
+                    new CacheMetadata(System.currentTimeMillis(), 0, 0));
+
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>();
+        reactive.bytes(cache, 4).subscribe(subscriber);
+        subscriber.awaitSubscription();
+        subscriber.request(2);
+        subscriber.awaitValues(2);
+        Thread.sleep(20);
+        assertEquals(2, subscriber.values.size());
+        assertFalse(subscriber.completed.getCount() == 0);
+
+        subscriber.request(Long.MAX_VALUE);
+        subscriber.awaitTermination();
+        StringBuilder content = new StringBuilder();
+        for (ByteBuffer chunk : subscriber.values) {
+            assertTrue(chunk.remaining() <= 4);
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            content.append(new String(bytes));
+        }
+        assertEquals("0123456789", content.toString());
+        assertEquals(3, subscriber.values.size());
+    }
+
+    @Test
+    public void entries_followTheDemandAndStopWhenCancelled() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            store.write("key" + i, new byte[i], new CacheMetadata(now, 0, i));
+        }
+
+        RecordingSubscriber<CacheEntry> subscriber = new RecordingSubscriber<CacheEntry>();
+        reactive.entries(cacheDir).subscribe(subscriber);
+        subscriber.awaitSubscription();
+        subscriber.request(3);
+        subscriber.awaitValues(3);
+        subscriber.subscription.cancel();
+        subscriber.request(5);
+        Thread.sleep(20);
+        assertEquals(3, subscriber.values.size());
+
+        RecordingSubscriber<CacheEntry> all = new RecordingSubscriber<CacheEntry>();
+        reactive.entries(cacheDir).subscribe(all);
+        all.awaitSubscription();
+        all.request(100);
+        all.awaitTermination();
+        assertEquals(10, all.values.size());
+    }
+
+    @Test
+    public void request_ofNothingIsAnError() throws InterruptedException {
+        RecordingSubscriber<CacheEntry> subscriber = new RecordingSubscriber<CacheEntry>();
+        reactive.entries(cacheDir).subscribe(subscriber);
+        subscriber.awaitSubscription();
+        subscriber.request(0);
+        subscriber.awaitTermination();
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    private static class RecordingSubscriber<T> implements Subscriber<T> {
+
+        final List<T>        values     = new CopyOnWriteArrayList<T>();
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        final CountDownLatch completed  = new CountDownLatch(1);
+
+        volatile Subscription subscription;
+        volatile Throwable    error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onNext(T value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        void request(long n) {
+            subscription.request(n);
+        }
+
+        void awaitSubscription() throws InterruptedException {
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+        }
+
+        void awaitTermination() throws InterruptedException {
+            assertTrue(completed.await(5, TimeUnit.SECONDS));
+        }
+
+        void awaitValues(final int count) throws InterruptedException {
+            awaitTrue("Only " + values.size() + " values received", new Await.Condition() {
+                @Override
+                public boolean isTrue() {
+                    return values.size() >= count;
+                }
+            });
+        }
+    }
+}
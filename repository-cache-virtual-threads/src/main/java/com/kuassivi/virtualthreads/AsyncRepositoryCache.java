@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.virtualthreads;
+
+import com.kuassivi.annotation.CacheCodec;
+import com.kuassivi.annotation.RepositoryCacheManager;
+import com.kuassivi.annotation.RepositoryProxyCache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous reads of the {@link RepositoryCacheManager}, for callers that must not block on
+ * the I/O of the cache.
+ * <p>
+ * Each read runs on the given executor, usually a {@link VirtualThreadExecutor}, so it is
+ * bounded by the same concurrency limit as the writes and evictions of the manager.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class AsyncRepositoryCache {
+
+    private final RepositoryCacheManager manager;
+    private final Executor               executor;
+
+    /**
+     * @param executor the executor of the reads
+     */
+    public AsyncRepositoryCache(Executor executor) {
+        this(RepositoryCacheManager.getInstance(), executor);
+    }
+
+    AsyncRepositoryCache(RepositoryCacheManager manager, Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor == null");
+        }
+        this.manager = manager;
+        this.executor = executor;
+    }
+
+    /**
+     * @param proxyCache the ProxyCache object
+     * @return the future result of {@link RepositoryCacheManager#isExpired(RepositoryProxyCache)}
+     */
+    public CompletableFuture<Boolean> isExpired(RepositoryProxyCache proxyCache) {
+        return CompletableFuture.supplyAsync(() -> manager.isExpired(proxyCache), executor);
+    }
+
+    /**
+     * @param proxyCache the ProxyCache object
+     * @return the future content, or an empty String if there is no content
+     */
+    public CompletableFuture<String> getContent(RepositoryProxyCache proxyCache) {
+        return CompletableFuture.supplyAsync(() -> manager.getContent(proxyCache), executor);
+    }
+
+    /**
+     * @param proxyCache the ProxyCache object
+     * @param codec the codec of the value, or null if the proxy has none
+     * @param <T> the type of the value
+     * @return the future value, or null if there is none
+     */
+    public <T> CompletableFuture<T> getValue(RepositoryProxyCache proxyCache,
+                                             CacheCodec<T> codec) {
+        return CompletableFuture.supplyAsync(() -> manager.getValue(proxyCache, codec), executor);
+    }
+}
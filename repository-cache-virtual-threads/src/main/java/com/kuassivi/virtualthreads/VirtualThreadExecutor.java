@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.virtualthreads;
+
+import com.kuassivi.annotation.RepositoryCacheManager;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs each operation of the {@link RepositoryCacheManager} in its own virtual thread, with at
+ * most a given number of them doing I/O at a time.
+ * <p>
+ * The operations over the limit wait for a permit in their virtual thread, not in the caller,
+ * so thousands of pending writes and evictions only cost their virtual threads, never a large
+ * pool of platform threads.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class VirtualThreadExecutor implements Executor {
+
+    private final Semaphore     permits;
+    private final int           maxConcurrency;
+    private final ThreadFactory threadFactory;
+
+    private volatile boolean shutdown;
+
+    /**
+     * @param maxConcurrency the maximum number of operations running at a time
+     */
+    public VirtualThreadExecutor(int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency <= 0");
+        }
+        this.permits = new Semaphore(maxConcurrency);
+        this.maxConcurrency = maxConcurrency;
+        this.threadFactory = Thread.ofVirtual().name("RepositoryCache-io-", 0).factory();
+    }
+
+    /**
+     * Runs every operation of the manager that is performed in a different Thread on virtual
+     * threads.
+     *
+     * @param maxConcurrency the maximum number of operations running at a time
+     * @return the installed executor
+     */
+    public static VirtualThreadExecutor install(int maxConcurrency) {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(maxConcurrency);
+        RepositoryCacheManager.getInstance().setExecutor(executor);
+        return executor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        threadFactory.newThread(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                command.run();
+            } finally {
+                permits.release();
+            }
+        }).start();
+    }
+
+    /**
+     * Stops taking new operations, which the manager then runs in the calling Thread. The
+     * operations already taken still complete.
+     */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * @return the maximum number of operations running at a time
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return the number of operations running right now
+     */
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * @return an estimate of the operations waiting for a permit
+     */
+    public int getQueuedCount() {
+        return permits.getQueueLength();
+    }
+}
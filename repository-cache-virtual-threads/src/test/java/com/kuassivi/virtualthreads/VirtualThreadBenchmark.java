@@ -0,0 +1,114 @@
+package com.kuassivi.virtualthreads;
+
+import com.kuassivi.annotation.FakeProxyCache;
+import com.kuassivi.annotation.FileCacheStore;
+import com.kuassivi.annotation.RepositoryCacheManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Throughput benchmark of the cache operations on platform threads and on virtual threads.
+ * <p>
+ * Many concurrent callers persist an entry, wait for it, read it and evict it, on a file store.
+ * The default manager starts one platform Thread per write and eviction; the virtual path runs
+ * them on a {@link VirtualThreadExecutor}. Callers are virtual threads in both cases, so only
+ * the execution of the operations differs.
+ * <p>
+ * Run it with the test classpath:
+ * {@code VirtualThreadBenchmark [callers] [operationsPerCaller] [maxConcurrency] [runs]}.
+ * It defaults to 2000 callers of 20 operations each, with 64 operations doing I/O at a time.
+ */
+public class VirtualThreadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int callers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int maxConcurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        File cacheDir = createTempDir();
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new FileCacheStore(cacheDir));
+
+        System.out.println(String.format("%d callers, %d operations each, limit %d",
+                                         callers, operations, maxConcurrency));
+        try {
+            for (int run = 1; run <= runs; run++) {
+                manager.setExecutor(null);
+                long platform = run(cacheDir, callers, operations);
+
+                Executor executor = new VirtualThreadExecutor(maxConcurrency);
+                manager.setExecutor(executor);
+                long virtual = run(cacheDir, callers, operations);
+
+                System.out.println(String.format("Run %d: platform threads %d ms (%.0f ops/s),"
+                                                 + " virtual threads %d ms (%.0f ops/s)",
+                                                 run,
+                                                 platform,
+                                                 opsPerSecond(callers, operations, platform),
+                                                 virtual,
+                                                 opsPerSecond(callers, operations, virtual)));
+            }
+        } finally {
+            manager.setExecutor(null);
+            clean(cacheDir);
+        }
+    }
+
+    private static long run(File cacheDir, int callers, int operations) throws Exception {
+        long start = System.nanoTime();
+        try (ExecutorService callerThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> results = new ArrayList<>(callers);
+            for (int c = 0; c < callers; c++) {
+                final int caller = c;
+                results.add(callerThreads.submit(() -> {
+                    FakeProxyCache cache = new FakeProxyCache(cacheDir, "Bench_get", 0);
+                    for (int i = 0; i < operations; i++) {
+                        cache.select(caller + "-" + i);
+                        cache.persist("content of " + caller + "-" + i);
+                        while (!cache.isCached()) {
+                            Thread.sleep(1);
+                        }
+                        cache.getContent();
+                        cache.evict();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static double opsPerSecond(int callers, int operations, long millis) {
+        return callers * operations * 1000d / Math.max(1, millis);
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("virtual-thread-benchmark", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        return dir;
+    }
+
+    private static void clean(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                clean(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
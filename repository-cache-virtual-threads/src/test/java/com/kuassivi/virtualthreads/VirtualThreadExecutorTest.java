@@ -0,0 +1,91 @@
+package com.kuassivi.virtualthreads;
+
+import com.kuassivi.annotation.FakeProxyCache;
+import com.kuassivi.annotation.MemoryCacheStore;
+import com.kuassivi.annotation.RepositoryCacheManager;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.kuassivi.annotation.Await.awaitCached;
+import static com.kuassivi.annotation.Await.awaitTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the virtual thread execution of the cache operations.
+ */
+public class VirtualThreadExecutorTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void execute_neverRunsMoreOperationsThanTheLimit() throws InterruptedException {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(4);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(200);
+        for (int i = 0; i < 200; i++) {
+            executor.execute(() -> {
+                int now = running.incrementAndGet();
+                maxRunning.accumulateAndGet(now, Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= 4);
+        // The permits are released right after the operations
+        awaitTrue("The permits were not released", () -> executor.getActiveCount() == 0);
+    }
+
+    @Test
+    public void execute_isRejectedOnceShutDown() {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(1);
+        executor.shutdown();
+        try {
+            executor.execute(() -> { });
+            fail();
+        } catch (RejectedExecutionException expected) {
+            // Run by the manager in the calling Thread
+        }
+    }
+
+    @Test
+    public void manager_persistsAndReadsOnVirtualThreads() throws Exception {
+        File cacheDir = temporaryFolder.newFolder();
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new MemoryCacheStore());
+        VirtualThreadExecutor executor = VirtualThreadExecutor.install(8);
+        try {
+            AsyncRepositoryCache async = new AsyncRepositoryCache(executor);
+            FakeProxyCache cache = new FakeProxyCache(cacheDir, "Simple_getUser", 0);
+            cache.select(42);
+            assertTrue(async.isExpired(cache).get(5, TimeUnit.SECONDS));
+
+            cache.persist("user 42");
+            awaitCached(cache);
+            assertFalse(async.isExpired(cache).get(5, TimeUnit.SECONDS));
+            assertEquals("user 42", async.getContent(cache).get(5, TimeUnit.SECONDS));
+        } finally {
+            manager.setExecutor(null);
+            manager.setStore(cacheDir, new MemoryCacheStore());
+        }
+    }
+}
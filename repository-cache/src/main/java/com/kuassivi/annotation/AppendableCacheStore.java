@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+/**
+ * {@link CacheStore} that can append to the content of an entry without rewriting it, so
+ * growing contents, like feeds or logs, are updated in the time of the appended bytes.
+ * <p>
+ * The {@link RepositoryCacheManager} appends to the other stores by reading the content and
+ * storing it again with the appended bytes.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public interface AppendableCacheStore extends CacheStore {
+
+    /**
+     * Appends to the content of an entry, renewing its times with those of the metadata.
+     * Readers find either the previous or the whole new content, never a part of the appended
+     * bytes.
+     *
+     * @param key the entry key
+     * @param content the content to append
+     * @param metadata the creation and expiration times and the flags of the entry
+     * @return true if the content has been appended, false if the entry has no content to append
+     * to, or can't be appended to in place, so it has to be stored again whole
+     */
+    boolean append(String key, byte[] content, CacheMetadata metadata);
+}
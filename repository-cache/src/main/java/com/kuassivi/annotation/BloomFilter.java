@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compact Bloom filter of the keys stored in a cache directory, so the lookups of keys that were
+ * never stored are answered without touching the store. It never reports a stored key as
+ * missing, and reports a missing key as stored with the configured false positive rate.
+ * <p>
+ * Removed keys can't be taken out of the filter, they are only dropped when the filter is
+ * rebuilt from the keys of the store. Until then, and while it is being built, lookups simply
+ * fall through to the store.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class BloomFilter {
+
+    /**
+     * Bits per word of the bit set
+     */
+    private static final int WORD_BITS = 64;
+
+    private final AtomicLongArray words;
+    private final long            bits;
+    private final int             hashes;
+    private final long            expectedEntries;
+    private final double          falsePositiveRate;
+    private final AtomicLong      keyCount = new AtomicLong();
+    private volatile boolean      ready;
+
+    /**
+     * @param expectedEntries the number of keys the filter is sized for
+     * @param falsePositiveRate the rate of missing keys reported as stored, between 0 and 1
+     */
+    BloomFilter(long expectedEntries, double falsePositiveRate) {
+        if (expectedEntries <= 0) {
+            throw new IllegalArgumentException("expectedEntries <= 0");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+        }
+        double ln2 = Math.log(2);
+        long optimalBits = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveRate)
+                                            / (ln2 * ln2));
+        int wordCount = (int) Math.min(Integer.MAX_VALUE - 8,
+                                       Math.max(1, (optimalBits + WORD_BITS - 1) / WORD_BITS));
+        this.words = new AtomicLongArray(wordCount);
+        this.bits = (long) wordCount * WORD_BITS;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedEntries * ln2));
+        this.expectedEntries = expectedEntries;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Records a stored key. Only the keys that set a new bit are counted, so rewriting a key
+     * again and again does not saturate the filter.
+     *
+     * @param key the entry key
+     */
+    void add(String key) {
+        boolean added = false;
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bits;
+            int word = (int) (bit / WORD_BITS);
+            long mask = 1L << (bit % WORD_BITS);
+            long current = words.get(word);
+            while ((current & mask) == 0) {
+                if (words.compareAndSet(word, current, current | mask)) {
+                    added = true;
+                    break;
+                }
+                current = words.get(word);
+            }
+        }
+        if (added) {
+            keyCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks whether the key may be stored.
+     *
+     * @param key the entry key
+     * @return false only if the key has definitely not been stored since the filter was built
+     */
+    boolean mightContain(String key) {
+        if (!ready) {
+            return true;
+        }
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bits;
+            if ((words.get((int) (bit / WORD_BITS)) & (1L << (bit % WORD_BITS))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts answering lookups, once every stored key has been added.
+     */
+    void markReady() {
+        ready = true;
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Forgets every key, when the whole store is cleared.
+     */
+    void clear() {
+        for (int i = 0; i < words.length(); i++) {
+            words.set(i, 0);
+        }
+        keyCount.set(0);
+    }
+
+    /**
+     * Checks whether so many keys have been added that the false positive rate is well above
+     * the configured one, and the filter should be rebuilt bigger.
+     *
+     * @return true if the filter holds more than twice the expected entries
+     */
+    boolean isSaturated() {
+        return keyCount.get() > 2 * expectedEntries;
+    }
+
+    /**
+     * @return the number of distinct keys added, missing those that were false positives
+     */
+    long getKeyCount() {
+        return keyCount.get();
+    }
+
+    long getExpectedEntries() {
+        return expectedEntries;
+    }
+
+    double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * FNV-1a over the chars of the key, spread by a final mix.
+     */
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary codec of a cached value.
+ * <p>
+ * The RepositoryCache processor generates one for the return type of every annotated method
+ * it can handle, so typed proxies store values without reflection or text parsing.
+ *
+ * @param <T> the type of the value
+ * @author Francisco Gonzalez-Armijo
+ */
+public interface CacheCodec<T> {
+
+    /**
+     * Writes a value.
+     *
+     * @param value the value to write, may be null
+     * @param out the output to write to
+     * @throws IOException if the output can't be written
+     */
+    void encode(T value, DataOutput out) throws IOException;
+
+    /**
+     * Reads a value written by {@link #encode(Object, DataOutput)}.
+     *
+     * @param in the input to read from
+     * @return the value read, may be null
+     * @throws IOException if the input can't be read or is malformed
+     */
+    T decode(DataInput in) throws IOException;
+}
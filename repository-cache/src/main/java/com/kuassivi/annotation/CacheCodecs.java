@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Built-in {@link CacheCodec}s of Strings and boxed primitives, used directly by generated
+ * proxies and by their generated codecs of lists and POJOs.
+ * <p>
+ * Every value is preceded by a presence byte, so null values round trip. Lengths and sizes
+ * read from the input are never trusted for allocation: a corrupt one fails with an {@link
+ * IOException} once the input runs out, and the entry is then read as a miss.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class CacheCodecs {
+
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Maximum bytes or elements allocated before they are actually read
+     */
+    private static final int MAX_UNREAD_ALLOCATION = 8192;
+
+    public static final CacheCodec<String> STRING = new CacheCodec<String>() {
+        @Override
+        public void encode(String value, DataOutput out) throws IOException {
+            if (writePresence(value, out)) {
+                byte[] bytes = value.getBytes(CHARSET);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        @Override
+        public String decode(DataInput in) throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            return new String(readBytes(in, readSize(in)), CHARSET);
+        }
+    };
+
+    public static final CacheCodec<Boolean> BOOLEAN = new CacheCodec<Boolean>() {
+        @Override
+        public void encode(Boolean value, DataOutput out) throws IOException {
+            if (writePresence(value, out)) {
+                out.writeBoolean(value);
+            }
+        }
+
+        @Override
+        public Boolean decode(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readBoolean() : null;
+        }
+    };
+
+    public static final CacheCodec<Byte> BYTE = new CacheCodec<Byte>() {
+        @Override
+        public void encode(Byte value, DataOutput out) throws IOException {
+            if (writePresence(value, out)) {
+                out.writeByte(value);
+            }
+        }
+
+        @Override
+        public Byte decode(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readByte() : null;
+        }
+    };
+
+    public static final CacheCodec<Short> SHORT = new CacheCodec<Short>() {
+        @Override
+        public void encode(Short value, DataOutput out) throws IOException {
+            if (writePresence(value, out)) {
+                out.writeShort(value);
+            }
+        }
+
+        @Override
+        public Short decode(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readShort() : null;
+        }
+    };
+
+    public static final CacheCodec<Character> CHARACTER = new CacheCodec<Character>() {
+        @Override
+        public void encode(Character value, DataOutput out) throws IOException {
+            if (writePresence(value, out)) {
+                out.writeChar(value);
+            }
+        }
+
+        @Override
+        public Character decode(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readChar() : null;
+        }
+    };
+
+    public static final CacheCodec<Integer> INTEGER = new CacheCodec<Integer>() {
+        @Override
+        public void encode(Integer value, DataOutput out) throws IOException {
+            if (writePresence(value, out)) {
+                out.writeInt(value);
+            }
+        }
+
+        @Override
+        public Integer decode(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readInt() : null;
+        }
+    };
+
+    public static final CacheCodec<Long> LONG = new CacheCodec<Long>() {
+        @Override
+        public void encode(Long value, DataOutput out) throws IOException {
+            if (writePresence(value, out)) {
+                out.writeLong(value);
+            }
+        }
+
+        @Override
+        public Long decode(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readLong() : null;
+        }
+    };
+
+    public static final CacheCodec<Float> FLOAT = new CacheCodec<Float>() {
+        @Override
+        public void encode(Float value, DataOutput out) throws IOException {
+            if (writePresence(value, out)) {
+                out.writeFloat(value);
+            }
+        }
+
+        @Override
+        public Float decode(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readFloat() : null;
+        }
+    };
+
+    public static final CacheCodec<Double> DOUBLE = new CacheCodec<Double>() {
+        @Override
+        public void encode(Double value, DataOutput out) throws IOException {
+            if (writePresence(value, out)) {
+                out.writeDouble(value);
+            }
+        }
+
+        @Override
+        public Double decode(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readDouble() : null;
+        }
+    };
+
+    private CacheCodecs() {}
+
+    /**
+     * Writes whether a value is present. Generated codecs call it before writing lists and
+     * POJOs.
+     *
+     * @param value the value to write
+     * @param out the output to write to
+     * @return true if the value is not null and must be written next
+     * @throws IOException if the output can't be written
+     */
+    public static boolean writePresence(Object value, DataOutput out) throws IOException {
+        out.writeBoolean(value != null);
+        return value != null;
+    }
+
+    /**
+     * Reads a length or a number of elements. Generated codecs call it before reading lists.
+     *
+     * @param in the input to read from
+     * @return the size, never negative
+     * @throws IOException if the input can't be read or the size is negative
+     */
+    public static int readSize(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Negative size: " + size);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the capacity to allocate for a number of elements that are not read yet. Generated
+     * codecs call it to create their lists, which grow as the elements are read.
+     *
+     * @param size the size read with {@link #readSize(DataInput)}
+     * @return the initial capacity
+     */
+    public static int initialCapacity(int size) {
+        return Math.min(size, MAX_UNREAD_ALLOCATION);
+    }
+
+    /**
+     * Reads a number of bytes into an array that grows as they are read, so a corrupt length
+     * fails at the end of the input instead of allocating it at once.
+     */
+    private static byte[] readBytes(DataInput in, int length) throws IOException {
+        byte[] bytes = new byte[initialCapacity(length)];
+        int read = 0;
+        while (true) {
+            in.readFully(bytes, read, bytes.length - read);
+            read = bytes.length;
+            if (read == length) {
+                return bytes;
+            }
+            bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * read));
+        }
+    }
+}
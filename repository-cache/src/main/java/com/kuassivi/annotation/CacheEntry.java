@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+/**
+ * An entry of a cache directory: its key, the MD5 file name of the method call, and its
+ * metadata.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class CacheEntry {
+
+    private final String        key;
+    private final CacheMetadata metadata;
+
+    /**
+     * @param key the entry key
+     * @param metadata the entry metadata
+     */
+    public CacheEntry(String key, CacheMetadata metadata) {
+        this.key = key;
+        this.metadata = metadata;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public CacheMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return the namespace of the method that stored the entry, or null if unknown
+     */
+    public String getNamespace() {
+        return metadata.getNamespace();
+    }
+
+    @Override
+    public String toString() {
+        return (metadata.getNamespace() != null ? metadata.getNamespace() + "/" : "") + key
+               + " (" + metadata.getSize() + " bytes)";
+    }
+}
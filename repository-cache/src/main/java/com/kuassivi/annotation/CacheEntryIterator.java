@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Lazy iterator over the entries of a cache directory, as returned by
+ * {@link RepositoryCacheManager#entries(java.io.File)}. It releases the directory once iterated
+ * to the end, or when closed.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public interface CacheEntryIterator extends Iterator<CacheEntry>, Closeable {
+
+    /**
+     * Releases the directory before the end of the iteration.
+     */
+    @Override
+    void close();
+}
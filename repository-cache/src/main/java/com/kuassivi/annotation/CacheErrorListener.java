@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.File;
+
+/**
+ * Receives the errors of the work the {@link RepositoryCacheManager} performs in the background,
+ * where there is no caller to throw them to: the writes and evictions of the entries, the
+ * refreshes, and the loads of the absence filters and the method quotas. By default they are
+ * printed to the standard error.
+ * <p>
+ * The failed keys of a warm up are reported by its {@link WarmUpProgress} instead.
+ *
+ * @author Francisco Gonzalez-Armijo
+ * @see RepositoryCacheManager#setErrorListener(CacheErrorListener)
+ */
+public interface CacheErrorListener {
+
+    /**
+     * Called from the background Thread where the error happened. It must not block.
+     *
+     * @param cacheDir the cache directory
+     * @param key the key of the entry, or null if the error is not about a single entry
+     * @param error the error
+     */
+    void onError(File cacheDir, String key, Exception error);
+}
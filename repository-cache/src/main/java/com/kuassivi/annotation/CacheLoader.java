@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+/**
+ * Loads the fresh content of a cached method call from the origin, so the
+ * {@link RepositoryCacheManager} can refresh an entry before it expires.
+ *
+ * @author Francisco Gonzalez-Armijo
+ * @see RepositoryCacheManager#setLoader(RepositoryProxyCache, CacheLoader)
+ */
+public interface CacheLoader {
+
+    /**
+     * Loads the method call from the origin. It is performed in a background Thread, while the
+     * current content is still served.
+     *
+     * @param cacheKey the key selected on the proxy of the method call, or null if none
+     * @return the content to store, or null to only renew the method call, for instance when
+     * the loader has already stored the data in its own local store
+     * @throws Exception if the origin can't be reached, the entry is left untouched
+     */
+    String load(String cacheKey) throws Exception;
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+/**
+ * Metadata of a cache entry.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class CacheMetadata {
+
+    /**
+     * The entry records that the origin has nothing for its key, it never has content.
+     */
+    public static final int FLAG_ABSENT = 1;
+
+    /**
+     * The expiration time of an entry that never expires.
+     */
+    public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+
+    private final long   createdAt;
+    private final long   expiresAt;
+    private final long   size;
+    private final int    flags;
+    private final String namespace;
+
+    /**
+     * @param createdAt the time the entry was stored, in millis
+     * @param expiresAt the time the entry expires in millis, {@link #NEVER_EXPIRES} if it never
+     *                  expires, or 0 if the store does not keep it
+     * @param size      the size of the content in bytes
+     */
+    public CacheMetadata(long createdAt, long expiresAt, long size) {
+        this(createdAt, expiresAt, size, 0);
+    }
+
+    /**
+     * @param createdAt the time the entry was stored, in millis
+     * @param expiresAt the time the entry expires in millis, {@link #NEVER_EXPIRES} if it never
+     *                  expires, or 0 if the store does not keep it
+     * @param size      the size of the content in bytes
+     * @param flags     the entry flags, like {@link #FLAG_ABSENT}
+     */
+    public CacheMetadata(long createdAt, long expiresAt, long size, int flags) {
+        this(createdAt, expiresAt, size, flags, null);
+    }
+
+    /**
+     * @param createdAt the time the entry was stored, in millis
+     * @param expiresAt the time the entry expires in millis, {@link #NEVER_EXPIRES} if it never
+     *                  expires, or 0 if the store does not keep it
+     * @param size      the size of the content in bytes
+     * @param flags     the entry flags, like {@link #FLAG_ABSENT}
+     * @param namespace the namespace of the method that stored the entry, or null if unknown
+     */
+    public CacheMetadata(long createdAt, long expiresAt, long size, int flags, String namespace) {
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+        this.size = size;
+        this.flags = flags;
+        this.namespace = namespace;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return the namespace of the method that stored the entry, or null if the store does not
+     * keep it or the entry was stored by a previous version
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public boolean isAbsent() {
+        return (flags & FLAG_ABSENT) != 0;
+    }
+}
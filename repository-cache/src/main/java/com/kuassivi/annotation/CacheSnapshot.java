@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Binary format of the snapshots of a cache directory, written and read sequentially:
+ * <pre>
+ * [magic:int][version:byte][exportedAt:long]
+ * for each entry: [1:byte][entry length:int][entry bytes][entry CRC32:int]
+ * [0:byte]
+ *
+ * entry bytes: [key:UTF][createdAt:long][expiresAt:long][accessedAt:long]
+ *              [expireAfterAccess:long][flags:int][has namespace:boolean][namespace:UTF]
+ *              [content length:int][content bytes]
+ * </pre>
+ * All values are big endian, as written by {@link DataOutputStream}. A content length of -1
+ * means the entry has no content, and the namespace is only there if the entry has one. The
+ * last access time is 0 if it is not known, and the expiration after the last access is 0 if
+ * the method of the entry has none.
+ * <p>
+ * Every length is checked against the bytes actually read and every entry against its CRC32, so
+ * a corrupt snapshot fails with an {@link IOException} instead of importing garbage or
+ * allocating a corrupt length.
+ * <p>
+ * The times are kept as they are, so the entries go on expiring on schedule wherever the
+ * snapshot is imported, as long as the clocks of both nodes agree. If the snapshot seems to come
+ * from the future, because the clock of the importing node is behind, the times are moved back by
+ * the difference, so no entry lives longer than its remaining time when exported.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class CacheSnapshot {
+
+    static final int  MAGIC   = 0xCACE534E;
+    static final byte VERSION = 2;
+
+    private static final int NO_CONTENT = -1;
+
+    /**
+     * Maximum bytes allocated for an entry before they are actually read
+     */
+    private static final int MAX_UNREAD_ALLOCATION = 64 * 1024;
+
+    private CacheSnapshot() {}
+
+    /**
+     * Checks whether an entry has expired at the given time, absolutely or after its last
+     * access.
+     */
+    static boolean isExpired(CacheMetadata metadata, long accessedAt, long expireAfterAccess,
+                             long now) {
+        if (metadata.getExpiresAt() > 0 && metadata.getExpiresAt() <= now) {
+            return true;
+        }
+        return expireAfterAccess > 0
+               && !metadata.isAbsent()
+               && now > Math.max(accessedAt, metadata.getCreatedAt()) + expireAfterAccess;
+    }
+
+    /**
+     * Writes the entries of a snapshot to a stream, buffered.
+     */
+    static final class Writer {
+
+        private final DataOutputStream      out;
+        private final long                  exportedAt;
+        private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        private final DataOutputStream      entry      = new DataOutputStream(entryBytes);
+        private final CRC32                 crc        = new CRC32();
+
+        /**
+         * @param out the stream of the snapshot, left open
+         * @param exportedAt the time of the export
+         */
+        Writer(OutputStream out, long exportedAt) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.exportedAt = exportedAt;
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeLong(exportedAt);
+        }
+
+        /**
+         * @param record the in-memory record of the entry, or null if it has none
+         * @return true if the entry has expired at the time of the export
+         */
+        boolean isExpired(CacheMetadata metadata, EntryIndex.Record record) {
+            return record == null
+                   ? CacheSnapshot.isExpired(metadata, 0, 0, exportedAt)
+                   : CacheSnapshot.isExpired(metadata, record.accessedAt,
+                                             record.expireAfterAccess, exportedAt);
+        }
+
+        /**
+         * @param record the in-memory record of the entry, or null if it has none
+         */
+        void write(String key, CacheMetadata metadata, EntryIndex.Record record, byte[] content)
+                throws IOException {
+            entryBytes.reset();
+            entry.writeUTF(key);
+            entry.writeLong(metadata.getCreatedAt());
+            entry.writeLong(metadata.getExpiresAt());
+            entry.writeLong(record == null ? 0 : record.accessedAt);
+            entry.writeLong(record == null ? 0 : record.expireAfterAccess);
+            entry.writeInt(metadata.getFlags());
+            entry.writeBoolean(metadata.getNamespace() != null);
+            if (metadata.getNamespace() != null) {
+                entry.writeUTF(metadata.getNamespace());
+            }
+            if (content == null || metadata.isAbsent()) {
+                entry.writeInt(NO_CONTENT);
+            } else {
+                entry.writeInt(content.length);
+                entry.write(content);
+            }
+            crc.reset();
+            crc.update(entryBytes.toByteArray(), 0, entryBytes.size());
+            out.writeByte(1);
+            out.writeInt(entryBytes.size());
+            entryBytes.writeTo(out);
+            out.writeInt((int) crc.getValue());
+        }
+
+        /**
+         * Ends the snapshot and flushes it to the stream.
+         */
+        void finish() throws IOException {
+            out.writeByte(0);
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads the entries of a snapshot from a stream, buffered.
+     */
+    static final class Reader {
+
+        private final DataInputStream in;
+        private final long            shift;
+        private final CRC32           crc = new CRC32();
+        private       boolean         finished;
+
+        /**
+         * @param in the stream of the snapshot, left open
+         * @param now the time of the import
+         * @throws IOException if the stream does not start with a snapshot of a known version
+         */
+        Reader(InputStream in, long now) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            try {
+                if (this.in.readInt() != MAGIC || this.in.readByte() != VERSION) {
+                    throw new IOException("Not a cache snapshot, or of an unknown version");
+                }
+                this.shift = Math.min(0, now - this.in.readLong());
+            } catch (EOFException e) {
+                throw new IOException("Not a cache snapshot, or of an unknown version");
+            }
+        }
+
+        /**
+         * @return the next entry, or null at the end of the snapshot
+         * @throws IOException if the snapshot is truncated, corrupt or can't be read
+         */
+        Entry next() throws IOException {
+            if (finished) {
+                return null;
+            }
+            byte[] bytes;
+            try {
+                byte marker = in.readByte();
+                if (marker == 0) {
+                    finished = true;
+                    return null;
+                }
+                int length = in.readInt();
+                if (marker != 1 || length < 0) {
+                    throw new IOException("Corrupt cache snapshot");
+                }
+                bytes = readFully(length);
+                crc.reset();
+                crc.update(bytes, 0, bytes.length);
+                if (in.readInt() != (int) crc.getValue()) {
+                    throw new IOException("Corrupt cache snapshot, checksum mismatch");
+                }
+            } catch (EOFException e) {
+                throw new IOException("Truncated cache snapshot");
+            }
+            try {
+                return entry(bytes);
+            } catch (EOFException e) {
+                throw new IOException("Corrupt cache snapshot, entry shorter than its fields");
+            }
+        }
+
+        /**
+         * Reads an entry into an array that grows as it is read, so a corrupt length fails at
+         * the end of the stream instead of allocating it at once.
+         */
+        private byte[] readFully(int length) throws IOException {
+            byte[] bytes = new byte[Math.min(length, MAX_UNREAD_ALLOCATION)];
+            int read = 0;
+            while (true) {
+                in.readFully(bytes, read, bytes.length - read);
+                read = bytes.length;
+                if (read == length) {
+                    return bytes;
+                }
+                bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * read));
+            }
+        }
+
+        private Entry entry(byte[] bytes) throws IOException {
+            DataInputStream entry = new DataInputStream(new ByteArrayInputStream(bytes));
+            String key = entry.readUTF();
+            long createdAt = entry.readLong();
+            long expiresAt = entry.readLong();
+            long accessedAt = entry.readLong();
+            long expireAfterAccess = entry.readLong();
+            int flags = entry.readInt();
+            String namespace = entry.readBoolean() ? entry.readUTF() : null;
+            int length = entry.readInt();
+            byte[] content = null;
+            if (length != NO_CONTENT) {
+                if (length != entry.available()) {
+                    throw new IOException("Corrupt cache snapshot, wrong content length");
+                }
+                content = new byte[length];
+                entry.readFully(content);
+            } else if (entry.available() != 0) {
+                throw new IOException("Corrupt cache snapshot, entry longer than its fields");
+            }
+            return new Entry(key,
+                             new CacheMetadata(createdAt + shift,
+                                               shift(expiresAt),
+                                               content == null ? 0 : content.length,
+                                               flags,
+                                               namespace),
+                             accessedAt > 0 ? accessedAt + shift : 0,
+                             expireAfterAccess,
+                             content);
+        }
+
+        /**
+         * Moves an expiration time to the importing node, unless it is unknown or never comes.
+         */
+        private long shift(long expiresAt) {
+            return expiresAt > 0 && expiresAt != CacheMetadata.NEVER_EXPIRES
+                   ? expiresAt + shift
+                   : expiresAt;
+        }
+    }
+
+    /**
+     * An entry of a snapshot, with its times moved to the importing node.
+     */
+    static final class Entry {
+
+        final String        key;
+        final CacheMetadata metadata;
+        final long          accessedAt;
+        final long          expireAfterAccess;
+        final byte[]        content;
+
+        Entry(String key, CacheMetadata metadata, long accessedAt, long expireAfterAccess,
+              byte[] content) {
+            this.key = key;
+            this.metadata = metadata;
+            this.accessedAt = accessedAt;
+            this.expireAfterAccess = expireAfterAccess;
+            this.content = content;
+        }
+
+        /**
+         * @return true if the entry has expired at the given time
+         */
+        boolean isExpired(long now) {
+            return CacheSnapshot.isExpired(metadata, accessedAt, expireAfterAccess, now);
+        }
+    }
+}
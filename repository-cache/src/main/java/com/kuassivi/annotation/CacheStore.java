@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.File;
+import java.util.Iterator;
+
+/**
+ * Storage backend of a cache directory.
+ * <p>
+ * The {@link RepositoryCacheManager} resolves one store per cache directory and delegates every
+ * read, write and eviction to it, guarding each key with its own locks. Implementations must be
+ * safe for concurrent access to different keys.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public interface CacheStore {
+
+    /**
+     * Returns whether an entry is stored for the key.
+     *
+     * @param key the entry key
+     * @return true if the entry exists, false otherwise
+     */
+    boolean contains(String key);
+
+    /**
+     * Reads the content of an entry.
+     *
+     * @param key the entry key
+     * @return the stored content, or null if the entry or its content does not exist
+     */
+    byte[] read(String key);
+
+    /**
+     * Stores an entry, replacing any previous one.
+     * <p>
+     * Storing an entry again without content leaves the previous entry untouched, unless one of
+     * them is an absent entry. Absent entries, flagged with {@link CacheMetadata#FLAG_ABSENT},
+     * never keep any content.
+     *
+     * @param key the entry key
+     * @param content the content to store, or null to only store the entry
+     * @param metadata the creation and expiration times and the flags of the entry
+     */
+    void write(String key, byte[] content, CacheMetadata metadata);
+
+    /**
+     * Removes an entry and its content.
+     *
+     * @param key the entry key
+     */
+    void remove(String key);
+
+    /**
+     * Removes every entry of the store.
+     */
+    void clear();
+
+    /**
+     * Returns the metadata of an entry without reading its content.
+     *
+     * @param key the entry key
+     * @return the metadata, or null if the entry does not exist
+     */
+    CacheMetadata metadata(String key);
+
+    /**
+     * Returns the keys of the stored entries.
+     *
+     * @return an iterator over the keys
+     */
+    Iterator<String> keys();
+
+    /**
+     * Creates the {@link CacheStore} of a cache directory.
+     */
+    interface Factory {
+
+        /**
+         * @param cacheDir the cache directory
+         * @return the store for that directory
+         */
+        CacheStore create(File cacheDir);
+    }
+}
@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * {@link CacheStore} decorator that stores each distinct content only once, under the SHA-256
+ * hash of its bytes, so the entries of different keys that cache identical content share it on
+ * Disk or in memory, and writing it again only writes a small reference.
+ * <p>
+ * Entries are stored in the decorated store with a one byte tag: contents smaller than the
+ * minimum size are kept inline, larger ones are replaced by a reference to a shared content
+ * entry, <code>cas_&lt;hash&gt;</code>, which is removed once no entry references it anymore.
+ * The references of each content are counted in memory. They are counted from the decorated
+ * store on the first write or removal, when the shared contents that are no longer referenced,
+ * like those left by a crash, are removed.
+ * <p>
+ * Since the references are only counted in this process, the store cannot be shared with other
+ * processes, which would remove the contents still referenced by their entries, and the
+ * {@link RepositoryCacheManager} refuses it on the cache directories coordinated through
+ * {@link RepositoryCacheManager#setProcessLocking(File, boolean)}.
+ * <p>
+ * The size in the metadata of a referencing entry is that of its content, which takes an extra
+ * read of the reference.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public class ContentAddressedCacheStore implements CacheStore {
+
+    /**
+     * Contents under this size are kept inline by default
+     */
+    public static final int DEFAULT_MIN_SIZE = 256;
+
+    static final String CONTENT_KEY_PREFIX = "cas_";
+
+    private static final byte TAG_INLINE    = 0;
+    private static final byte TAG_REFERENCE = 1;
+    private static final int  HASH_LENGTH   = 32;
+
+    /**
+     * [tag:byte][SHA-256 of the content][content length:long]
+     */
+    private static final int REFERENCE_LENGTH = 1 + HASH_LENGTH + 8;
+
+    private final CacheStore  delegate;
+    private final int         minSize;
+    private final StripedLock locks = new StripedLock(64);
+
+    /**
+     * References by content hash, once counted
+     */
+    private final ConcurrentHashMap<String, Integer> references =
+            new ConcurrentHashMap<String, Integer>();
+    private volatile boolean counted;
+
+    /**
+     * @param delegate the store of the entries and of the shared contents
+     */
+    public ContentAddressedCacheStore(CacheStore delegate) {
+        this(delegate, DEFAULT_MIN_SIZE);
+    }
+
+    /**
+     * @param delegate the store of the entries and of the shared contents
+     * @param minSize the minimum size of the contents to share, smaller ones are kept inline
+     */
+    public ContentAddressedCacheStore(CacheStore delegate, int minSize) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate == null");
+        }
+        this.delegate = delegate;
+        this.minSize = Math.max(minSize, 1);
+    }
+
+    /**
+     * Returns a factory that decorates the stores of another factory.
+     *
+     * @param factory the factory of the decorated stores
+     * @return the factory of content-addressed stores
+     */
+    public static Factory factory(final Factory factory) {
+        return new Factory() {
+            @Override
+            public CacheStore create(File cacheDir) {
+                return new ContentAddressedCacheStore(factory.create(cacheDir));
+            }
+        };
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return delegate.contains(key);
+    }
+
+    @Override
+    public byte[] read(String key) {
+        byte[] stored = delegate.read(key);
+        if (stored == null || stored.length == 0) {
+            return null;
+        }
+        if (stored[0] == TAG_INLINE) {
+            byte[] content = new byte[stored.length - 1];
+            System.arraycopy(stored, 1, content, 0, content.length);
+            return content;
+        }
+        String hash = referencedHash(stored);
+        return hash == null ? null : delegate.read(CONTENT_KEY_PREFIX + hash);
+    }
+
+    @Override
+    public void write(String key, byte[] content, CacheMetadata metadata) {
+        countReferences();
+        if (content == null && !metadata.isAbsent()) {
+            // Persisting a method call again does not renew it, unless its content changes
+            // or it was absent
+            CacheMetadata previous = delegate.metadata(key);
+            if (previous != null && previous.getFlags() == metadata.getFlags()) {
+                return;
+            }
+        }
+        String previousHash = referencedHash(delegate.read(key));
+        if (content == null || metadata.isAbsent()) {
+            delegate.write(key, null, metadata);
+        } else if (content.length < minSize) {
+            byte[] stored = new byte[content.length + 1];
+            stored[0] = TAG_INLINE;
+            System.arraycopy(content, 0, stored, 1, content.length);
+            delegate.write(key, stored, metadata);
+        } else {
+            byte[] hash = sha256(content);
+            String hex = hex(hash);
+            // The content is referenced before the entry points to it
+            acquire(hex, content, metadata);
+            delegate.write(key, ByteBuffer.allocate(REFERENCE_LENGTH)
+                                          .put(TAG_REFERENCE)
+                                          .put(hash)
+                                          .putLong(content.length)
+                                          .array(), metadata);
+        }
+        if (previousHash != null) {
+            release(previousHash);
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        countReferences();
+        String previousHash = referencedHash(delegate.read(key));
+        delegate.remove(key);
+        if (previousHash != null) {
+            release(previousHash);
+        }
+    }
+
+    @Override
+    public void clear() {
+        locks.lockAll();
+        try {
+            delegate.clear();
+            references.clear();
+        } finally {
+            locks.unlockAll();
+        }
+    }
+
+    @Override
+    public CacheMetadata metadata(String key) {
+        CacheMetadata metadata = delegate.metadata(key);
+        if (metadata == null || metadata.getSize() == 0) {
+            return metadata;
+        }
+        long size = metadata.getSize() - 1;
+        if (metadata.getSize() == REFERENCE_LENGTH) {
+            byte[] stored = delegate.read(key);
+            if (stored != null && stored.length == REFERENCE_LENGTH
+                && stored[0] == TAG_REFERENCE) {
+                size = ByteBuffer.wrap(stored, 1 + HASH_LENGTH, 8).getLong();
+            }
+        }
+        return new CacheMetadata(metadata.getCreatedAt(),
+                                 metadata.getExpiresAt(),
+                                 size,
+                                 metadata.getFlags(),
+                                 metadata.getNamespace());
+    }
+
+    @Override
+    public Iterator<String> keys() {
+        return new EntryKeys(delegate.keys());
+    }
+
+    /**
+     * @return the number of distinct contents shared by the entries, once counted
+     */
+    public int getSharedContents() {
+        return references.size();
+    }
+
+    /**
+     * Adds a reference to a content, storing it if it is not stored yet.
+     */
+    private void acquire(String hash, byte[] content, CacheMetadata metadata) {
+        Lock lock = locks.get(hash).writeLock();
+        lock.lock();
+        try {
+            Integer count = references.get(hash);
+            String contentKey = CONTENT_KEY_PREFIX + hash;
+            if (count == null || !delegate.contains(contentKey)) {
+                // Shared contents only go away with their last reference
+                delegate.write(contentKey, content,
+                               new CacheMetadata(metadata.getCreatedAt(), 0, 0));
+            }
+            references.put(hash, count == null ? 1 : count + 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a reference to a content, removing the content with its last reference.
+     */
+    private void release(String hash) {
+        Lock lock = locks.get(hash).writeLock();
+        lock.lock();
+        try {
+            Integer count = references.get(hash);
+            if (count == null || count <= 1) {
+                references.remove(hash);
+                delegate.remove(CONTENT_KEY_PREFIX + hash);
+            } else {
+                references.put(hash, count - 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the references of every shared content from the decorated store, and removes the
+     * contents that are not referenced.
+     */
+    private void countReferences() {
+        if (counted) {
+            return;
+        }
+        synchronized (references) {
+            if (counted) {
+                return;
+            }
+            List<String> contents = new ArrayList<String>();
+            Iterator<String> keys = delegate.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (key.startsWith(CONTENT_KEY_PREFIX)) {
+                    contents.add(key.substring(CONTENT_KEY_PREFIX.length()));
+                    continue;
+                }
+                String hash = referencedHash(delegate.read(key));
+                if (hash != null) {
+                    Integer count = references.get(hash);
+                    references.put(hash, count == null ? 1 : count + 1);
+                }
+            }
+            for (String hash : contents) {
+                if (!references.containsKey(hash)) {
+                    delegate.remove(CONTENT_KEY_PREFIX + hash);
+                }
+            }
+            counted = true;
+        }
+    }
+
+    /**
+     * @return the hash of the content referenced by a stored entry, or null if it has none
+     */
+    private static String referencedHash(byte[] stored) {
+        if (stored == null || stored.length != REFERENCE_LENGTH || stored[0] != TAG_REFERENCE) {
+            return null;
+        }
+        byte[] hash = new byte[HASH_LENGTH];
+        System.arraycopy(stored, 1, hash, 0, HASH_LENGTH);
+        return hex(hash);
+    }
+
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                   .append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Keys of the decorated store without the shared contents.
+     */
+    private static class EntryKeys implements Iterator<String>, Closeable {
+
+        private final Iterator<String> keys;
+        private       String           next;
+
+        EntryKeys(Iterator<String> keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && keys.hasNext()) {
+                String key = keys.next();
+                if (!key.startsWith(CONTENT_KEY_PREFIX)) {
+                    next = key;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String key = next;
+            next = null;
+            return key;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (keys instanceof Closeable) {
+                ((Closeable) keys).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.kuassivi.annotation;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link InvalidationBus} that sends each batch as UDP datagrams to a fixed set of peers, and
+ * only accepts the datagrams of those peers. Batches larger than a datagram are split.
+ * <p>
+ * Datagrams may be lost, so an entry may be served by some nodes until it expires. Use it on
+ * a trusted network, or as an example of a transport for your own messaging system.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public class DatagramInvalidationBus implements InvalidationBus, Runnable {
+
+    /**
+     * Maximum size of a datagram payload, below the UDP limit
+     */
+    static final int MAX_DATAGRAM_SIZE = 60 * 1024;
+
+    private final    DatagramSocket          socket;
+    private final    List<InetSocketAddress> peers;
+    private final    Set<SocketAddress>      acceptedPeers;
+    private volatile Listener                listener;
+
+    /**
+     * Binds the bus to a local port.
+     *
+     * @param port the local port, or 0 for any free port
+     * @param peers the addresses of the other nodes
+     * @throws SocketException if the port can't be bound
+     */
+    public DatagramInvalidationBus(int port, InetSocketAddress... peers) throws SocketException {
+        this.socket = new DatagramSocket(port);
+        this.peers = Collections.unmodifiableList(Arrays.asList(peers));
+        this.acceptedPeers = new HashSet<SocketAddress>(this.peers);
+        Thread thread = new Thread(this, "RepositoryCache-datagram-bus");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the local port the bus is bound to
+     */
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public void publish(List<Invalidation> invalidations) throws IOException {
+        for (byte[] datagram : split(invalidations)) {
+            for (InetSocketAddress peer : peers) {
+                socket.send(new DatagramPacket(datagram, datagram.length, peer));
+            }
+        }
+    }
+
+    /**
+     * Encodes the batch in as few datagrams as needed.
+     */
+    private static List<byte[]> split(List<Invalidation> invalidations) {
+        List<byte[]> datagrams = new ArrayList<byte[]>();
+        byte[] encoded = Invalidation.encode(invalidations);
+        if (encoded.length <= MAX_DATAGRAM_SIZE || invalidations.size() == 1) {
+            datagrams.add(encoded);
+            return datagrams;
+        }
+        int half = invalidations.size() / 2;
+        datagrams.addAll(split(invalidations.subList(0, half)));
+        datagrams.addAll(split(invalidations.subList(half, invalidations.size())));
+        return datagrams;
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void close() {
+        listener = null;
+        socket.close();
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[64 * 1024];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                // Closed
+                return;
+            }
+            Listener current = listener;
+            if (current == null || !acceptedPeers.contains(packet.getSocketAddress())) {
+                continue;
+            }
+            try {
+                current.onInvalidations(Invalidation.decode(packet.getData(),
+                                                            packet.getOffset(),
+                                                            packet.getLength()));
+            } catch (IOException e) {
+                // Not a batch of this version, ignored
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
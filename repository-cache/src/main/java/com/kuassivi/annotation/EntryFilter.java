@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+/**
+ * Selects the entries returned by
+ * {@link RepositoryCacheManager#entries(java.io.File, EntryFilter)}. See {@link EntryFilters} for
+ * the common filters.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public interface EntryFilter {
+
+    /**
+     * @param entry the entry, with its metadata
+     * @return true to return the entry, false to skip it
+     */
+    boolean accept(CacheEntry entry);
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+/**
+ * {@link EntryFilter}s for the common maintenance jobs, which can be combined with
+ * {@link #and(EntryFilter...)}.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class EntryFilters {
+
+    /**
+     * Accepts every entry.
+     */
+    public static final EntryFilter ALL = new EntryFilter() {
+        @Override
+        public boolean accept(CacheEntry entry) {
+            return true;
+        }
+    };
+
+    private EntryFilters() {
+    }
+
+    /**
+     * Accepts the entries past the absolute expiration time in their metadata. Entries
+     * whose expiration time is not known, like those stored by previous versions, depend on the
+     * cache time of their method and are never accepted.
+     * <p>
+     * Only that time is checked: entries idle for longer than the expiration after the last
+     * access of their method, which the {@link RepositoryCacheManager} tracks in memory, are not
+     * accepted until it is reached.
+     *
+     * @return the filter
+     */
+    public static EntryFilter expired() {
+        return new EntryFilter() {
+            @Override
+            public boolean accept(CacheEntry entry) {
+                long expiresAt = entry.getMetadata().getExpiresAt();
+                return expiresAt > 0 && System.currentTimeMillis() > expiresAt;
+            }
+        };
+    }
+
+    /**
+     * Accepts the entries stored by a method. Entries whose namespace is not known, like those
+     * stored by previous versions, are never accepted.
+     *
+     * @param namespace the namespace of the method
+     * @return the filter
+     */
+    public static EntryFilter namespace(final String namespace) {
+        if (namespace == null) {
+            throw new IllegalArgumentException("namespace == null");
+        }
+        return new EntryFilter() {
+            @Override
+            public boolean accept(CacheEntry entry) {
+                return namespace.equals(entry.getNamespace());
+            }
+        };
+    }
+
+    /**
+     * Accepts the entries stored by the method of a ProxyCache object.
+     *
+     * @param proxyCache any ProxyCache object of the method
+     * @return the filter
+     */
+    public static EntryFilter method(RepositoryProxyCache proxyCache) {
+        return namespace(proxyCache.getNamespace());
+    }
+
+    /**
+     * Accepts the entries stored longer ago than the given age.
+     *
+     * @param age the age in millis
+     * @return the filter
+     */
+    public static EntryFilter olderThan(final long age) {
+        return new EntryFilter() {
+            @Override
+            public boolean accept(CacheEntry entry) {
+                return System.currentTimeMillis() - entry.getMetadata().getCreatedAt() > age;
+            }
+        };
+    }
+
+    /**
+     * Accepts the entries accepted by every one of the filters.
+     *
+     * @param filters the filters
+     * @return the filter
+     */
+    public static EntryFilter and(final EntryFilter... filters) {
+        return new EntryFilter() {
+            @Override
+            public boolean accept(CacheEntry entry) {
+                for (EntryFilter filter : filters) {
+                    if (!filter.accept(entry)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+}
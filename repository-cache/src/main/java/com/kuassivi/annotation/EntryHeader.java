@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed binary header of the single file entries of the {@link FileCacheStore}:
+ * <pre>
+ * [magic:int][version:byte][flags:byte][namespace length:short][createdAt:long][expiresAt:long]
+ * [content length:int][content CRC32:int][namespace UTF-8 bytes][content bytes]
+ * </pre>
+ * All values are big endian. A content length of {@value #NO_CONTENT} means the entry has no
+ * content. Version 1 entries have no namespace, their namespace length is always 0. The magic
+ * number can't be mistaken for the start of a legacy method call file, which holds the
+ * hexadecimal key of the entry.
+ * <p>
+ * Contents are appended in place: the new bytes are written after the content first, and then
+ * the times, the content length and the checksum, which is resumed from the previous one, are
+ * rewritten at once. Bytes past the content length belong to an append in progress, or to an
+ * interrupted one, and are ignored, so readers find either the previous or the new content.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class EntryHeader {
+
+    static final int  MAGIC      = 0xCACE5243;
+    static final byte VERSION    = 2;
+    static final int  SIZE       = 32;
+    static final int  NO_CONTENT = -1;
+
+    /**
+     * Position of the times, which are followed by the content length and checksum
+     */
+    static final int TIMES_OFFSET = 8;
+
+    /**
+     * Longer namespaces are not stored
+     */
+    static final int MAX_NAMESPACE_LENGTH = 255;
+
+    private static final byte VERSION_1 = 1;
+
+    /**
+     * CRC32 table of the reversed polynomial, the one of {@link CRC32}
+     */
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int n = 0; n < CRC_TABLE.length; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? 0xEDB88320 ^ (c >>> 1) : c >>> 1;
+            }
+            CRC_TABLE[n] = c;
+        }
+    }
+
+    private static final String CHARSET = "UTF-8";
+
+    final int    flags;
+    final long   createdAt;
+    final long   expiresAt;
+    final int    contentLength;
+    final int    checksum;
+    final int    namespaceLength;
+    final String namespace;
+
+    private EntryHeader(int flags, long createdAt, long expiresAt, int contentLength,
+                        int checksum, int namespaceLength, String namespace) {
+        this.flags = flags;
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+        this.contentLength = contentLength;
+        this.checksum = checksum;
+        this.namespaceLength = namespaceLength;
+        this.namespace = namespace;
+    }
+
+    /**
+     * Encodes an entry: its header followed by its content.
+     *
+     * @param content the content, or null if none
+     * @param metadata the metadata of the entry
+     * @return the bytes of the entry file
+     */
+    static byte[] encode(byte[] content, CacheMetadata metadata) {
+        int contentLength = content == null ? 0 : content.length;
+        byte[] namespace = encodeNamespace(metadata.getNamespace());
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE + namespace.length + contentLength);
+        buffer.putInt(MAGIC)
+              .put(VERSION)
+              .put((byte) metadata.getFlags())
+              .putShort((short) namespace.length)
+              .putLong(metadata.getCreatedAt())
+              .putLong(metadata.getExpiresAt())
+              .putInt(content == null ? NO_CONTENT : contentLength)
+              .putInt(content == null ? 0 : checksum(content, 0, contentLength))
+              .put(namespace);
+        if (content != null) {
+            buffer.put(content);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Parses the header at the beginning of an entry file.
+     *
+     * @param bytes the first bytes of the file, with the namespace to read it as well
+     * @return the header, or null if the bytes don't start with a header of a known version
+     */
+    static EntryHeader parse(byte[] bytes) {
+        if (bytes == null || bytes.length < SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != MAGIC) {
+            return null;
+        }
+        byte version = buffer.get();
+        if (version != VERSION && version != VERSION_1) {
+            return null;
+        }
+        int flags = buffer.get() & 0xFF;
+        int namespaceLength = version == VERSION_1 ? 0 : buffer.getShort() & 0xFFFF;
+        if (version == VERSION_1) {
+            buffer.getShort();
+        }
+        long createdAt = buffer.getLong();
+        long expiresAt = buffer.getLong();
+        int contentLength = buffer.getInt();
+        int checksum = buffer.getInt();
+        String namespace = null;
+        if (namespaceLength > 0 && bytes.length >= SIZE + namespaceLength) {
+            namespace = decodeNamespace(bytes, SIZE, namespaceLength);
+        }
+        return new EntryHeader(flags, createdAt, expiresAt, contentLength, checksum,
+                               namespaceLength, namespace);
+    }
+
+    /**
+     * Returns whether the bytes start with the magic number of the single file format, whatever
+     * its version.
+     */
+    static boolean hasMagic(byte[] bytes) {
+        return bytes != null && bytes.length >= 4 && ByteBuffer.wrap(bytes).getInt() == MAGIC;
+    }
+
+    /**
+     * Extracts the content of a whole entry file.
+     *
+     * @param bytes the bytes of the entry file
+     * @return the content, or null if there is none or it is truncated or corrupted
+     */
+    byte[] content(byte[] bytes) {
+        int offset = SIZE + namespaceLength;
+        if (contentLength == NO_CONTENT || bytes.length < offset + contentLength
+            || checksum(bytes, offset, contentLength) != checksum) {
+            return null;
+        }
+        byte[] content = new byte[contentLength];
+        System.arraycopy(bytes, offset, content, 0, contentLength);
+        return content;
+    }
+
+    /**
+     * @return the position of the file right after the content
+     */
+    long contentEnd() {
+        return SIZE + namespaceLength + (contentLength == NO_CONTENT ? 0 : contentLength);
+    }
+
+    /**
+     * Encodes the part of the header that changes when a content is appended: the times of the
+     * appending entry, and the length and checksum of the whole content.
+     *
+     * @param content the appended content
+     * @param metadata the metadata of the appending entry
+     * @return the bytes to write at {@link #TIMES_OFFSET}, or null if there is no content to
+     * append to, or it would grow too large
+     */
+    byte[] append(byte[] content, CacheMetadata metadata) {
+        if (contentLength == NO_CONTENT
+            || (long) contentLength + content.length > Integer.MAX_VALUE - SIZE - namespaceLength) {
+            return null;
+        }
+        return ByteBuffer.allocate(SIZE - TIMES_OFFSET)
+                         .putLong(metadata.getCreatedAt())
+                         .putLong(metadata.getExpiresAt())
+                         .putInt(contentLength + content.length)
+                         .putInt(checksum(checksum, content, 0, content.length))
+                         .array();
+    }
+
+    CacheMetadata toMetadata() {
+        return new CacheMetadata(createdAt,
+                                 expiresAt,
+                                 contentLength == NO_CONTENT ? 0 : contentLength,
+                                 flags,
+                                 namespace);
+    }
+
+    private static byte[] encodeNamespace(String namespace) {
+        if (namespace == null) {
+            return new byte[0];
+        }
+        try {
+            byte[] bytes = namespace.getBytes(CHARSET);
+            return bytes.length <= MAX_NAMESPACE_LENGTH ? bytes : new byte[0];
+        } catch (UnsupportedEncodingException e) {
+            return new byte[0];
+        }
+    }
+
+    private static String decodeNamespace(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Resumes a CRC32 checksum with more bytes, as {@link CRC32} can't be started from a
+     * previous value.
+     *
+     * @param checksum the checksum of the previous bytes
+     * @return the checksum of the previous bytes followed by the given ones
+     */
+    static int checksum(int checksum, byte[] bytes, int offset, int length) {
+        int crc = ~checksum;
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC_TABLE[(crc ^ bytes[i]) & 0xFF] ^ (crc >>> 8);
+        }
+        return ~crc;
+    }
+}
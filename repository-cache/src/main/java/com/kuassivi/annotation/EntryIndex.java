@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory metadata of the entries of a cache directory that the store may not keep, like the
+ * per-entry expiration time or the last access time, so expiration policies are evaluated
+ * without any extra I/O.
+ * <p>
+ * Each record belongs to the entry stored at its creation time. A record whose creation time does
+ * not match the stored entry, because it has been rewritten by someone else, is ignored.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class EntryIndex {
+
+    /**
+     * Tolerance for creation times read back from file systems with coarse timestamps
+     */
+    private static final long TIME_GRANULARITY = 1000L;
+
+    private final ConcurrentHashMap<String, Record> records =
+            new ConcurrentHashMap<String, Record>();
+
+    /**
+     * Quotas of the methods that have one, by method namespace
+     */
+    private final ConcurrentHashMap<String, MethodQuota> quotas =
+            new ConcurrentHashMap<String, MethodQuota>();
+
+    /**
+     * Records a stored entry.
+     *
+     * @param key the entry key
+     * @param metadata the metadata the entry was stored with
+     * @param stored the metadata the store keeps for the entry
+     * @return the new record
+     */
+    Record put(String key, CacheMetadata metadata, CacheMetadata stored) {
+        Record record = new Record(metadata.getCreatedAt(),
+                                   metadata.getExpiresAt(),
+                                   stored != null
+                                   && stored.getExpiresAt() == metadata.getExpiresAt());
+        records.put(key, record);
+        return record;
+    }
+
+    /**
+     * Returns the record of the stored entry.
+     *
+     * @param key the entry key
+     * @param metadata the metadata of the stored entry
+     * @return the record, or null if the entry has not been recorded
+     */
+    Record get(String key, CacheMetadata metadata) {
+        Record record = records.get(key);
+        if (record == null || !isSameEntry(record.createdAt, metadata.getCreatedAt())) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * Checks whether two creation times belong to the same stored entry.
+     */
+    static boolean isSameEntry(long createdAt, long otherCreatedAt) {
+        return Math.abs(createdAt - otherCreatedAt) < TIME_GRANULARITY;
+    }
+
+    /**
+     * Returns the quota of a method, creating it if needed.
+     *
+     * @param namespace the method namespace
+     * @param maxEntries the maximum number of entries of the method, or 0 if unlimited
+     * @param maxBytes the maximum number of content bytes of the method, or 0 if unlimited
+     * @return the quota of the method
+     */
+    MethodQuota quota(String namespace, int maxEntries, long maxBytes) {
+        MethodQuota quota = quotas.get(namespace);
+        if (quota == null) {
+            MethodQuota created = new MethodQuota(maxEntries, maxBytes);
+            quota = quotas.putIfAbsent(namespace, created);
+            if (quota == null) {
+                quota = created;
+            }
+        }
+        return quota;
+    }
+
+    /**
+     * Drops records whose loss can't change whether their entry is expired, see {@link
+     * Record#isRedundant()}, as they are found and without copying the records. The others are
+     * kept whatever the pressure, since their entries would otherwise fall back to the creation
+     * time. Quotas are kept.
+     *
+     * @param retainedRatio the fraction of the records to retain
+     * @return the number of records dropped
+     */
+    int shrink(double retainedRatio) {
+        int size = records.size();
+        int drop = size - (int) Math.ceil(size * retainedRatio);
+        int dropped = 0;
+        Iterator<Map.Entry<String, Record>> iterator = records.entrySet().iterator();
+        while (dropped < drop && iterator.hasNext()) {
+            Map.Entry<String, Record> entry = iterator.next();
+            // Records replaced meanwhile are kept
+            if (entry.getValue().isRedundant()
+                && records.remove(entry.getKey(), entry.getValue())) {
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    void remove(String key) {
+        records.remove(key);
+        for (MethodQuota quota : quotas.values()) {
+            quota.remove(key);
+        }
+    }
+
+    void clear() {
+        records.clear();
+        quotas.clear();
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    /**
+     * In-memory metadata of a single entry.
+     */
+    static final class Record {
+
+        final long    createdAt;
+        final long    expiresAt;
+
+        /**
+         * Whether the store keeps the same expiration time
+         */
+        final boolean expiryStored;
+
+        /**
+         * Written without locking, the latest access wins
+         */
+        volatile long accessedAt;
+
+        /**
+         * The expiration after the last access of the method that reads the entry, 0 if none
+         */
+        volatile long expireAfterAccess;
+
+        Record(long createdAt, long expiresAt, boolean expiryStored) {
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+            this.expiryStored = expiryStored;
+            this.accessedAt = createdAt;
+        }
+
+        /**
+         * Checks whether the entry expires the same without this record: the store keeps its
+         * expiration time, and its method does not expire it after the last access.
+         */
+        boolean isRedundant() {
+            return expireAfterAccess == 0 && (expiresAt == 0 || expiryStored);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Default {@link CacheStore} that keeps each entry on Disk as a single file
+ * (<code>rpc_&lt;key&gt;</code>) made of a fixed binary {@link EntryHeader} followed by the
+ * content. So one small read answers whether the entry is fresh, and one read returns its
+ * checked content. Entries are written to a temporary file first and then renamed, so a reader
+ * never finds a partial entry.
+ * <p>
+ * Entries of the legacy format, a method call file holding its key (or nothing for absent
+ * entries) plus an optional content file (<code>rpc_content_&lt;key&gt;</code>), whose times come
+ * from the file system, are still read, and replaced by the single file format when written
+ * again.
+ * <p>
+ * Contents are appended in place, see {@link EntryHeader}.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public class FileCacheStore implements AppendableCacheStore {
+
+    static final String DEFAULT_FILE_NAME = "rpc_"; // repository_proxy_cache_
+    static final String CONTENT_FILE_NAME = "rpc_content_"; // repository_proxy_cache_content
+    static final String TEMP_FILE_NAME    = "tmp_rpc_";
+
+    private final File        cacheDir;
+    private final FileManager fileManager;
+
+    public FileCacheStore(File cacheDir) {
+        this(cacheDir, new FileManager());
+    }
+
+    public FileCacheStore(File cacheDir, FileManager fileManager) {
+        this.cacheDir = cacheDir;
+        this.fileManager = fileManager;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return fileManager.exists(buildFile(key, DEFAULT_FILE_NAME));
+    }
+
+    @Override
+    public byte[] read(String key) {
+        byte[] bytes = fileManager.readFileBytes(buildFile(key, DEFAULT_FILE_NAME));
+        if (bytes == null) {
+            return null;
+        }
+        EntryHeader header = EntryHeader.parse(bytes);
+        if (header != null) {
+            return header.content(bytes);
+        }
+        if (EntryHeader.hasMagic(bytes)) {
+            // Written by a newer version
+            return null;
+        }
+        return fileManager.readFileBytes(buildFile(key, CONTENT_FILE_NAME));
+    }
+
+    @Override
+    public void write(String key, byte[] content, CacheMetadata metadata) {
+        if (content == null && !metadata.isAbsent()) {
+            // Persisting a method call again does not renew it, unless its content changes
+            // or it was absent
+            CacheMetadata previous = metadata(key);
+            if (previous != null && previous.getFlags() == metadata.getFlags()) {
+                return;
+            }
+        }
+        byte[] bytes = EntryHeader.encode(metadata.isAbsent() ? null : content, metadata);
+        File cacheFile = buildFile(key, DEFAULT_FILE_NAME);
+        File tempFile = buildFile(key, TEMP_FILE_NAME);
+        fileManager.writeToFile(tempFile, bytes);
+        if (!fileManager.renameFile(tempFile, cacheFile)) {
+            fileManager.writeToFile(cacheFile, bytes);
+            fileManager.clearFile(tempFile);
+        }
+        // A legacy content file would be stale now
+        fileManager.clearFile(buildFile(key, CONTENT_FILE_NAME));
+    }
+
+    @Override
+    public boolean append(String key, byte[] content, CacheMetadata metadata) {
+        File cacheFile = buildFile(key, DEFAULT_FILE_NAME);
+        EntryHeader header = EntryHeader.parse(
+                fileManager.readFileBytes(cacheFile, EntryHeader.SIZE));
+        if (header == null || header.flags != metadata.getFlags()) {
+            return false;
+        }
+        byte[] update = header.append(content, metadata);
+        if (update == null) {
+            return false;
+        }
+        long contentEnd = header.contentEnd();
+        // The header is rewritten only once the content is there
+        if (!fileManager.writeToFile(cacheFile, contentEnd, content)
+            || !fileManager.writeToFile(cacheFile, EntryHeader.TIMES_OFFSET, update)) {
+            return false;
+        }
+        // Drops the rest of an interrupted append
+        fileManager.truncateFile(cacheFile, contentEnd + content.length);
+        return true;
+    }
+
+    @Override
+    public void remove(String key) {
+        fileManager.clearFile(buildFile(key, DEFAULT_FILE_NAME));
+        fileManager.clearFile(buildFile(key, CONTENT_FILE_NAME));
+    }
+
+    @Override
+    public void clear() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            // Other processes may be holding the lock file
+            if (!ProcessLock.LOCK_FILE_NAME.equals(file.getName())) {
+                fileManager.clearFile(file);
+            }
+        }
+    }
+
+    @Override
+    public CacheMetadata metadata(String key) {
+        File cacheFile = buildFile(key, DEFAULT_FILE_NAME);
+        byte[] bytes = fileManager.readFileBytes(cacheFile,
+                                                 EntryHeader.SIZE
+                                                 + EntryHeader.MAX_NAMESPACE_LENGTH);
+        if (bytes == null) {
+            return null;
+        }
+        EntryHeader header = EntryHeader.parse(bytes);
+        if (header != null) {
+            return header.toMetadata();
+        }
+        if (EntryHeader.hasMagic(bytes)) {
+            // Written by a newer version, considered expired
+            return new CacheMetadata(0, 1, 0);
+        }
+        return legacyMetadata(key, cacheFile);
+    }
+
+    private CacheMetadata legacyMetadata(String key, File cacheFile) {
+        long lastModifiedTime = fileManager.getLastModifiedTime(cacheFile);
+        if (fileManager.getLength(cacheFile) == 0) {
+            return new CacheMetadata(lastModifiedTime, 0, 0, CacheMetadata.FLAG_ABSENT);
+        }
+        long size = fileManager.getLength(buildFile(key, CONTENT_FILE_NAME));
+        return new CacheMetadata(lastModifiedTime, 0, size);
+    }
+
+    /**
+     * Streams the keys from the directory, without listing it whole, so directories of any
+     * size are iterated in constant memory. The directory is released once iterated to the end,
+     * or when the iterator, which is {@link Closeable}, is closed.
+     */
+    @Override
+    public Iterator<String> keys() {
+        try {
+            return new KeyIterator(new DirectoryNames(cacheDir));
+        } catch (LinkageError e) {
+            // No java.nio.file on this platform, like on older Android versions
+            String[] names = cacheDir.list();
+            return new KeyIterator(Arrays.asList(names == null ? new String[0] : names)
+                                         .iterator());
+        }
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Builds the cached file method into the disk cache.
+     *
+     * @param key  The string to store the cache method
+     * @param type The type of the file [ DEFAULT or CONTENT ]
+     * @return A valid file.
+     */
+    private File buildFile(String key, String type) {
+        //noinspection StringBufferReplaceableByString
+        StringBuilder fileNameBuilder = new StringBuilder();
+        fileNameBuilder.append(cacheDir.getPath());
+        fileNameBuilder.append(File.separator);
+        fileNameBuilder.append(type);
+        fileNameBuilder.append(key);
+
+        return new File(fileNameBuilder.toString());
+    }
+
+    /**
+     * Iterates the keys of the method call files among the names of a directory.
+     */
+    private static class KeyIterator implements Iterator<String>, Closeable {
+
+        private final Iterator<String> names;
+        private       String           next;
+
+        KeyIterator(Iterator<String> names) {
+            this.names = names;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && names.hasNext()) {
+                String name = names.next();
+                if (name.startsWith(DEFAULT_FILE_NAME) && !name.startsWith(CONTENT_FILE_NAME)) {
+                    next = name.substring(DEFAULT_FILE_NAME.length());
+                }
+            }
+            if (next == null) {
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (names instanceof Closeable) {
+                try {
+                    ((Closeable) names).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String key = next;
+            advance();
+            return key;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Names of the files of a directory, read from a {@link DirectoryStream} as they are
+     * iterated. A missing directory has no names.
+     */
+    private static class DirectoryNames implements Iterator<String>, Closeable {
+
+        private final DirectoryStream<Path> stream;
+        private final Iterator<Path>        paths;
+
+        DirectoryNames(File directory) {
+            DirectoryStream<Path> opened = null;
+            try {
+                opened = Files.newDirectoryStream(directory.toPath());
+            } catch (NoSuchFileException e) {
+                // Nothing stored yet
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.stream = opened;
+            this.paths = opened == null
+                         ? Collections.<Path>emptyList().iterator()
+                         : opened.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return paths.hasNext();
+            } catch (DirectoryIteratorException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        @Override
+        public String next() {
+            return paths.next().getFileName().toString();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+}
@@ -18,10 +18,13 @@ package com.kuassivi.annotation;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 
 /**
  * @author Francisco Gonzalez-Armijo
@@ -52,6 +55,131 @@ public class FileManager {
         }
     }
 
+    /**
+     * Writes raw bytes to a file on Disk, replacing any previous content. This is an I/O
+     * operation and this method executes in the main thread, so it is recommended to perform this
+     * operation using another thread.
+     *
+     * @param file The file to write to Disk.
+     * @param fileContent The bytes to write.
+     */
+    public void writeToFile(File file, byte[] fileContent) {
+        //noinspection TryWithIdenticalCatches
+        try {
+            FileOutputStream outputStream = new FileOutputStream(file);
+            try {
+                outputStream.write(fileContent);
+            } finally {
+                outputStream.close();
+            }
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes raw bytes at the given position of an existing file, overwriting the bytes there
+     * and leaving the rest of the file as it is. This is an I/O operation and this method executes
+     * in the main thread, so it is recommended to perform this operation using another thread.
+     *
+     * @param file The file to write to.
+     * @param position The position of the first byte to write.
+     * @param fileContent The bytes to write.
+     * @return true if the bytes have been written, false otherwise
+     */
+    public boolean writeToFile(File file, long position, byte[] fileContent) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.seek(position);
+                randomAccessFile.write(fileContent);
+                return true;
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Truncates a file to the given length, if it is longer.
+     *
+     * @param file The file to truncate.
+     * @param length The length of the file.
+     */
+    public void truncateFile(File file, long length) {
+        if (!file.isFile() || file.length() <= length) {
+            return;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(length);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the raw bytes of a file. This is an I/O operation and this method executes in the
+     * main thread, so it is recommended to perform the operation using another thread.
+     *
+     * @param file The file to read from.
+     * @return The bytes of the file, or null if the file does not exist or can't be read.
+     */
+    public byte[] readFileBytes(File file) {
+        return readFileBytes(file, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads up to the given number of bytes from the beginning of a file, like a header. This is
+     * an I/O operation and this method executes in the main thread, so it is recommended to
+     * perform the operation using another thread.
+     *
+     * @param file The file to read from.
+     * @param maxLength The maximum number of bytes to read.
+     * @return The bytes read, or null if the file does not exist or can't be read.
+     */
+    public byte[] readFileBytes(File file, int maxLength) {
+        //noinspection TryWithIdenticalCatches
+        try {
+            FileInputStream inputStream = new FileInputStream(file);
+            try {
+                byte[] bytes = new byte[(int) Math.min(file.length(), maxLength)];
+                int offset = 0;
+                int read;
+                while (offset < bytes.length
+                       && (read = inputStream.read(bytes, offset, bytes.length - offset)) != -1) {
+                    offset += read;
+                }
+                if (offset < bytes.length) {
+                    // The file was truncated while reading
+                    byte[] truncated = new byte[offset];
+                    System.arraycopy(bytes, 0, truncated, 0, offset);
+                    return truncated;
+                }
+                return bytes;
+            } finally {
+                inputStream.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * Reads a content from a file. This is an I/O operation and this method executes in the main
      * thread, so it is recommended to perform the operation using another thread.
@@ -109,6 +237,34 @@ public class FileManager {
         return file.setLastModified(time);
     }
 
+    /**
+     * Returns the length in bytes of a {@link File}
+     *
+     * @param file The file to check its length.
+     * @return the length of the file, or 0 if it does not exist
+     */
+    public long getLength(File file) {
+        return file.length();
+    }
+
+    /**
+     * Renames a file, replacing the target file if it exists. Within the same directory the
+     * rename is atomic on most file systems, so readers find either the old or the new file.
+     *
+     * @param from The file to rename.
+     * @param to The new file.
+     * @return true if the file has been renamed, false otherwise
+     */
+    public boolean renameFile(File from, File to) {
+        if (from.renameTo(to)) {
+            return true;
+        }
+        // Some file systems don't replace existing files
+        //noinspection ResultOfMethodCallIgnored
+        to.delete();
+        return from.renameTo(to);
+    }
+
     /**
      * Returns a boolean indicating whether this file can be found on the underlying file system.
      *
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.kuassivi.annotation;
+
+/**
+ * A frequently accessed key of a cached method, as reported by {@link
+ * RepositoryCacheManager#getHotKeys(RepositoryProxyCache)}.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class HotKey {
+
+    private final String key;
+    private final long   estimatedAccesses;
+
+    HotKey(String key, long estimatedAccesses) {
+        this.key = key;
+        this.estimatedAccesses = estimatedAccesses;
+    }
+
+    /**
+     * @return the key selected on the proxy of the method call, or null if none
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the estimated number of recent accesses, which may be too high for keys sharing
+     * counters with hotter ones
+     */
+    public long getEstimatedAccesses() {
+        return estimatedAccesses;
+    }
+
+    @Override
+    public String toString() {
+        return "HotKey{key=" + key + ", estimatedAccesses=" + estimatedAccesses + '}';
+    }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.kuassivi.annotation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed memory estimate of the most accessed keys of a cached method: a count-min sketch counts
+ * the accesses of every key, and the keys with the highest estimates are kept in a small top-K
+ * table. Recording an access never allocates.
+ * <p>
+ * Counts are halved once the sketch has seen a whole window of accesses, so keys that stop being
+ * hot fall out of the table.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class HotKeys {
+
+    static final int DEPTH  = 4;
+    static final int WIDTH  = 256;
+    static final int TOP_K  = 16;
+    static final int WINDOW = 64 * 1024;
+
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+    private final AtomicIntegerArray sketch = new AtomicIntegerArray(DEPTH * WIDTH);
+    private final AtomicLong         samples = new AtomicLong();
+
+    /**
+     * Top-K table, guarded by this
+     */
+    private final String[] keys   = new String[TOP_K];
+    private final int[]    counts = new int[TOP_K];
+    private       int      size;
+
+    /**
+     * Smallest count of a full table, read without locking so most accesses skip it
+     */
+    private volatile int minCount;
+
+    /**
+     * Records an access.
+     *
+     * @param key the accessed key, may be null
+     */
+    void add(String key) {
+        int hash = key == null ? 0 : key.hashCode();
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, sketch.incrementAndGet(index(i, hash)));
+        }
+        if (estimate > minCount) {
+            offer(key, estimate);
+        }
+        if (samples.incrementAndGet() % WINDOW == 0) {
+            age();
+        }
+    }
+
+    private static int index(int row, int hash) {
+        int h = (hash ^ SEEDS[row]) * 0x01000193;
+        h ^= h >>> 15;
+        return row * WIDTH + (h & (WIDTH - 1));
+    }
+
+    private synchronized void offer(String key, int estimate) {
+        int slot = -1;
+        for (int i = 0; i < size; i++) {
+            if (key == null ? keys[i] == null : key.equals(keys[i])) {
+                counts[i] = estimate;
+                updateMinCount();
+                return;
+            }
+            if (slot < 0 || counts[i] < counts[slot]) {
+                slot = i;
+            }
+        }
+        if (size < TOP_K) {
+            slot = size++;
+        } else if (estimate <= counts[slot]) {
+            return;
+        }
+        keys[slot] = key;
+        counts[slot] = estimate;
+        updateMinCount();
+    }
+
+    private void updateMinCount() {
+        if (size < TOP_K) {
+            minCount = 0;
+            return;
+        }
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, counts[i]);
+        }
+        minCount = min;
+    }
+
+    /**
+     * Halves every count.
+     */
+    private synchronized void age() {
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.set(i, sketch.get(i) >>> 1);
+        }
+        for (int i = 0; i < size; i++) {
+            counts[i] >>>= 1;
+        }
+        updateMinCount();
+    }
+
+    /**
+     * Returns the hottest keys, the most accessed first.
+     *
+     * @param scale the factor that turns sampled accesses into estimated accesses
+     * @return the hot keys
+     */
+    synchronized List<HotKey> snapshot(int scale) {
+        List<HotKey> hotKeys = new ArrayList<HotKey>(size);
+        for (int i = 0; i < size; i++) {
+            hotKeys.add(new HotKey(keys[i], (long) counts[i] * scale));
+        }
+        Collections.sort(hotKeys, new Comparator<HotKey>() {
+            @Override
+            public int compare(HotKey a, HotKey b) {
+                long count = a.getEstimatedAccesses();
+                long otherCount = b.getEstimatedAccesses();
+                return count > otherCount ? -1 : count == otherCount ? 0 : 1;
+            }
+        });
+        return hotKeys;
+    }
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.kuassivi.annotation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Invalidation of a cache entry, or of a whole cache directory, published through an {@link
+ * InvalidationBus}. Directories are identified by their path, so the nodes sharing
+ * invalidations must use the same cache directory paths.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class Invalidation {
+
+    /**
+     * The entry has been evicted
+     */
+    public static final int TYPE_EVICT   = 1;
+    /**
+     * The entry has been stored again, the copies of the other nodes are stale
+     */
+    public static final int TYPE_PERSIST = 2;
+    /**
+     * Every entry of the directory has been evicted, there is no key
+     */
+    public static final int TYPE_CLEAR   = 3;
+
+    private static final int BATCH_MAGIC   = 0x52504349; // RPCI
+    private static final int BATCH_VERSION = 1;
+
+    private final int    type;
+    private final String directory;
+    private final String key;
+
+    /**
+     * @param type      the invalidation type, like {@link #TYPE_EVICT}
+     * @param directory the path of the cache directory
+     * @param key       the entry key, or null for {@link #TYPE_CLEAR}
+     */
+    public Invalidation(int type, String directory, String key) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory == null");
+        }
+        if (key == null && type != TYPE_CLEAR) {
+            throw new IllegalArgumentException("key == null");
+        }
+        this.type = type;
+        this.directory = directory;
+        this.key = type == TYPE_CLEAR ? null : key;
+    }
+
+    static Invalidation evict(File cacheDir, String key) {
+        return new Invalidation(TYPE_EVICT, cacheDir.getPath(), key);
+    }
+
+    static Invalidation persist(File cacheDir, String key) {
+        return new Invalidation(TYPE_PERSIST, cacheDir.getPath(), key);
+    }
+
+    static Invalidation clear(File cacheDir) {
+        return new Invalidation(TYPE_CLEAR, cacheDir.getPath(), null);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Checks whether both invalidate the same entry or directory, whatever their type.
+     *
+     * @param other another invalidation
+     * @return true if they have the same target
+     */
+    public boolean hasSameTarget(Invalidation other) {
+        return directory.equals(other.directory)
+               && (key == null ? other.key == null : key.equals(other.key));
+    }
+
+    /**
+     * Encodes a batch of invalidations for transports that send bytes.
+     *
+     * @param invalidations the batch
+     * @return the encoded batch
+     */
+    public static byte[] encode(List<Invalidation> invalidations) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(BATCH_MAGIC);
+            out.writeByte(BATCH_VERSION);
+            out.writeInt(invalidations.size());
+            for (Invalidation invalidation : invalidations) {
+                out.writeByte(invalidation.type);
+                out.writeUTF(invalidation.directory);
+                out.writeUTF(invalidation.key == null ? "" : invalidation.key);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a batch encoded by {@link #encode(List)}.
+     *
+     * @param bytes the encoded batch
+     * @param offset the offset of the batch in the array
+     * @param length the length of the batch
+     * @return the batch
+     * @throws IOException if the bytes are not a batch of a known version
+     */
+    public static List<Invalidation> decode(byte[] bytes, int offset, int length)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+        if (in.readInt() != BATCH_MAGIC || in.readUnsignedByte() != BATCH_VERSION) {
+            throw new IOException("Not an invalidation batch");
+        }
+        int size = in.readInt();
+        if (size < 0 || size > length) {
+            throw new IOException("Malformed invalidation batch");
+        }
+        List<Invalidation> invalidations = new ArrayList<Invalidation>(size);
+        for (int i = 0; i < size; i++) {
+            int type = in.readUnsignedByte();
+            String directory = in.readUTF();
+            String key = in.readUTF();
+            try {
+                invalidations.add(new Invalidation(type, directory, key));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        return invalidations;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Invalidation)) {
+            return false;
+        }
+        Invalidation other = (Invalidation) o;
+        return type == other.type && hasSameTarget(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * type + directory.hashCode()) + (key == null ? 0 : key.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return "Invalidation{type=" + type + ", directory=" + directory + ", key=" + key + '}';
+    }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.kuassivi.annotation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Collects the invalidations of a node and publishes them through its {@link InvalidationBus}
+ * in batches, from its own Thread. A batch is sent once it is full or a short time after its
+ * first invalidation. Invalidations of the same entry are merged, the latest one wins, and
+ * clearing a directory supersedes every pending invalidation of its entries.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class InvalidationBatcher implements Runnable {
+
+    static final long FLUSH_INTERVAL = 50L;
+    static final int  MAX_BATCH_SIZE = 256;
+
+    private final InvalidationBus bus;
+
+    /**
+     * Pending invalidations by target, guarded by this
+     */
+    private final LinkedHashMap<String, Invalidation> pending =
+            new LinkedHashMap<String, Invalidation>();
+    private       boolean                             closed;
+
+    /**
+     * @param bus the bus to publish to
+     */
+    InvalidationBatcher(InvalidationBus bus) {
+        this.bus = bus;
+        Thread thread = new Thread(this, "RepositoryCache-invalidations");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    InvalidationBus getBus() {
+        return bus;
+    }
+
+    /**
+     * Queues an invalidation for the next batch.
+     *
+     * @param invalidation the invalidation
+     */
+    synchronized void add(Invalidation invalidation) {
+        if (closed) {
+            return;
+        }
+        if (invalidation.getType() == Invalidation.TYPE_CLEAR) {
+            Iterator<Invalidation> iterator = pending.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getDirectory().equals(invalidation.getDirectory())) {
+                    iterator.remove();
+                }
+            }
+        }
+        String target = invalidation.getDirectory() + '\u0000' + invalidation.getKey();
+        // Re-inserted at the end, so the order of the batch follows the latest changes
+        pending.remove(target);
+        pending.put(target, invalidation);
+        notifyAll();
+    }
+
+    /**
+     * Publishes the pending invalidations and stops.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            List<Invalidation> batch = nextBatch();
+            if (batch == null) {
+                return;
+            }
+            try {
+                bus.publish(batch);
+            } catch (Exception e) {
+                // The other nodes keep their copies until they expire
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Waits for the next batch.
+     *
+     * @return the batch, or null once closed and flushed
+     */
+    private synchronized List<Invalidation> nextBatch() {
+        try {
+            while (!closed && pending.isEmpty()) {
+                wait();
+            }
+            long deadline = System.currentTimeMillis() + FLUSH_INTERVAL;
+            long remaining = FLUSH_INTERVAL;
+            while (!closed && pending.size() < MAX_BATCH_SIZE && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+        List<Invalidation> batch = new ArrayList<Invalidation>(
+                Math.min(pending.size(), MAX_BATCH_SIZE));
+        Iterator<Invalidation> iterator = pending.values().iterator();
+        while (iterator.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.kuassivi.annotation;
+
+import java.util.List;
+
+/**
+ * Carries the invalidations of cache entries between the nodes that cache the same origin, so
+ * an entry evicted or stored again on one node is evicted from the others, instead of being
+ * served until it expires.
+ * <p>
+ * The {@link RepositoryCacheManager} publishes the evictions and the writes of its entries in
+ * deduplicated batches, and evicts the entries invalidated by the other nodes. Implementations
+ * only transport the batches, and must not deliver a batch back to the node that published it.
+ *
+ * @author Francisco Gonzalez-Armijo
+ * @see RepositoryCacheManager#setInvalidationBus(InvalidationBus)
+ */
+public interface InvalidationBus {
+
+    /**
+     * Sends a batch of invalidations to the other nodes. It is called from a background Thread,
+     * one batch at a time.
+     *
+     * @param invalidations the invalidations, without duplicates
+     * @throws Exception if the batch can't be sent, it is dropped
+     */
+    void publish(List<Invalidation> invalidations) throws Exception;
+
+    /**
+     * Sets the listener of the invalidations published by the other nodes.
+     *
+     * @param listener the listener, or null to stop listening
+     */
+    void subscribe(Listener listener);
+
+    /**
+     * Stops the transport and releases its resources.
+     */
+    void close();
+
+    /**
+     * Receives the invalidations published by the other nodes.
+     */
+    interface Listener {
+
+        /**
+         * @param invalidations the batch of invalidations received
+         */
+        void onInvalidations(List<Invalidation> invalidations);
+    }
+}
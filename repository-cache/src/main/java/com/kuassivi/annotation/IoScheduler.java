@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the I/O of the {@link RepositoryCacheManager} by priority class, so the background
+ * work, like the writes of a refresh wave or the removals of {@link
+ * RepositoryCacheManager#evictAll(java.io.File)}, does not inflate the latency of the foreground
+ * reads, see {@link RepositoryCacheManager#setIoScheduler(IoScheduler)}.
+ * <p>
+ * Each class can be limited to a number of operations at once. Background operations wait for
+ * the foreground reads in progress to complete before starting, for up to the maximum deferral
+ * so they are never starved, and the bytes they write can be throttled to a rate shared by
+ * every background class. Nothing is limited by default.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public class IoScheduler {
+
+    /**
+     * The priority classes, from the highest to the lowest.
+     */
+    public enum Priority {
+        /**
+         * The reads of the calling Threads, like getContent() or isExpired()
+         */
+        FOREGROUND_READ,
+        /**
+         * The writes performed in a different Thread, like persist() or the refreshes
+         */
+        WRITE,
+        /**
+         * The evictions and the other maintenance performed in a different Thread
+         */
+        MAINTENANCE
+    }
+
+    /**
+     * Default maximum time a background operation waits for the foreground reads
+     */
+    public static final long DEFAULT_MAX_DEFERRAL_MILLIS = 20;
+
+    private final Map<Priority, Integer> limits = new EnumMap<Priority, Integer>(Priority.class);
+    private final int[]                  active = new int[Priority.values().length];
+    private       int                    waiting;
+    private       long                   maxDeferralNanos =
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_DEFERRAL_MILLIS);
+    private volatile RateLimiter         throttle;
+
+    /**
+     * Limits the operations of a class that run at once. The others wait for their turn.
+     *
+     * @param priority the priority class
+     * @param maxConcurrent the maximum number of operations at once, 0 means unlimited
+     */
+    public synchronized void setLimit(Priority priority, int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            limits.remove(priority);
+        } else {
+            limits.put(priority, maxConcurrent);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Throttles the bytes written by the background classes together.
+     *
+     * @param bytesPerSecond the maximum number of bytes written per second, 0 means unlimited
+     */
+    public void setBackgroundThrottle(long bytesPerSecond) {
+        throttle = bytesPerSecond > 0 ? new RateLimiter(bytesPerSecond) : null;
+    }
+
+    /**
+     * Sets how long a background operation waits at most for the foreground reads in progress,
+     * {@value #DEFAULT_MAX_DEFERRAL_MILLIS} milliseconds by default.
+     *
+     * @param maxDeferral the maximum time, 0 to never wait for the foreground reads
+     * @param unit the unit of the time
+     */
+    public synchronized void setMaxDeferral(long maxDeferral, TimeUnit unit) {
+        maxDeferralNanos = unit.toNanos(Math.max(maxDeferral, 0));
+        notifyAll();
+    }
+
+    /**
+     * @param priority the priority class
+     * @return the number of operations of the class in progress
+     */
+    public synchronized int getActiveCount(Priority priority) {
+        return active[priority.ordinal()];
+    }
+
+    /**
+     * @return the number of operations waiting for their turn, of any class
+     */
+    public synchronized int getWaitingCount() {
+        return waiting;
+    }
+
+    /**
+     * Waits for the turn of an operation. An interrupted Thread is not made to wait any longer,
+     * so no operation is lost, and its interrupt status is kept.
+     *
+     * @param priority the priority class of the operation
+     * @param bytes the bytes the operation writes, for the background throttle
+     */
+    void begin(Priority priority, long bytes) {
+        boolean interrupted = false;
+        synchronized (this) {
+            int index = priority.ordinal();
+            boolean background = priority != Priority.FOREGROUND_READ;
+            long deadline = System.nanoTime() + maxDeferralNanos;
+            waiting++;
+            try {
+                while (!interrupted) {
+                    long deferral = background && active[Priority.FOREGROUND_READ.ordinal()] > 0
+                                    ? deadline - System.nanoTime()
+                                    : 0;
+                    if (!isFull(priority) && deferral <= 0) {
+                        break;
+                    }
+                    try {
+                        if (deferral > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(this, deferral);
+                        } else {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                waiting--;
+            }
+            active[index]++;
+        }
+        RateLimiter rateLimiter = throttle;
+        if (priority != Priority.FOREGROUND_READ && rateLimiter != null && bytes > 0
+            && !interrupted) {
+            try {
+                rateLimiter.acquire(bytes);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ends an operation started with {@link #begin(Priority, long)}.
+     *
+     * @param priority the priority class of the operation
+     */
+    synchronized void end(Priority priority) {
+        active[priority.ordinal()]--;
+        if (waiting > 0) {
+            notifyAll();
+        }
+    }
+
+    private boolean isFull(Priority priority) {
+        Integer limit = limits.get(priority);
+        return limit != null && active[priority.ordinal()] >= limit;
+    }
+}
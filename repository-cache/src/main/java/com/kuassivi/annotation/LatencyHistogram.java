@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.kuassivi.annotation;
+
+/**
+ * Immutable histogram of latencies in nanoseconds, with log-linear buckets: every power of two
+ * is split in {@value #SUB_BUCKETS} buckets, so any value is known within 12.5%.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class LatencyHistogram {
+
+    static final int SUB_BUCKETS = 8;
+    static final int BUCKETS     = 40 * SUB_BUCKETS;
+
+    static final LatencyHistogram EMPTY = new LatencyHistogram(new long[BUCKETS]);
+
+    private final long[] counts;
+    private final long   count;
+
+    LatencyHistogram(long[] counts) {
+        this.counts = counts;
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        this.count = total;
+    }
+
+    /**
+     * Returns the bucket of a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     * @return the bucket index
+     */
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return Math.min((exponent - 2) * SUB_BUCKETS + subBucket, BUCKETS - 1);
+    }
+
+    /**
+     * Returns the highest latency of a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the latency in nanoseconds
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 2;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+        return lowest + (1L << (exponent - 3)) - 1;
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the latency under which the given percentage of the recorded latencies fall.
+     *
+     * @param percentile the percentage, between 0 and 100
+     * @return the latency in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100d) / 100d));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(counts.length - 1);
+    }
+
+    /**
+     * @return the highest latency recorded in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getMaxValue() {
+        return getValueAtPercentile(100);
+    }
+
+    /**
+     * @return the mean latency in nanoseconds, from the bucket values
+     */
+    public double getMean() {
+        if (count == 0) {
+            return 0;
+        }
+        double total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += (double) counts[i] * highestValue(i);
+        }
+        return total / count;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count
+               + ", p50=" + getValueAtPercentile(50)
+               + "ns, p99=" + getValueAtPercentile(99)
+               + "ns, max=" + getMaxValue() + "ns";
+    }
+}
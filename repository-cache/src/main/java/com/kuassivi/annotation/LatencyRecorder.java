@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.kuassivi.annotation;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the latencies of the cache operations by phase without locking. Each histogram is
+ * striped by Thread, so concurrent Threads rarely update the same counters, and the stripes are
+ * merged on {@link #snapshot()}. Histograms are only allocated for the phases recorded.
+ * <p>
+ * Per Thread recorders would leak, since the manager runs its writes and evictions in short
+ * lived Threads, so the stripes are picked by Thread id instead.
+ * <p>
+ * The {@link #DISABLED} recorder does nothing, not even reading the clock.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+class LatencyRecorder {
+
+    private static final int STRIPES = stripes();
+
+    private static final LatencyStats.Operation[] OPERATIONS = LatencyStats.Operation.values();
+    private static final LatencyStats.Phase[]     PHASES     = LatencyStats.Phase.values();
+
+    static final LatencyRecorder DISABLED = new LatencyRecorder() {
+        @Override
+        long start() {
+            return 0;
+        }
+
+        @Override
+        long record(LatencyStats.Operation operation, LatencyStats.Phase phase, long since) {
+            return 0;
+        }
+    };
+
+    /**
+     * Striped counters by operation and phase, created when first recorded
+     */
+    private final AtomicReferenceArray<AtomicLongArray> histograms =
+            new AtomicReferenceArray<AtomicLongArray>(OPERATIONS.length * PHASES.length);
+
+    private static int stripes() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 8) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * @return the start time of an operation
+     */
+    long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the latency of a phase that started at the given time.
+     *
+     * @param operation the operation
+     * @param phase the phase
+     * @param since the start time of the phase
+     * @return the current time, where the next phase starts
+     */
+    long record(LatencyStats.Operation operation, LatencyStats.Phase phase, long since) {
+        long now = System.nanoTime();
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        histogram(operation, phase).incrementAndGet(
+                stripe * LatencyHistogram.BUCKETS + LatencyHistogram.bucket(now - since));
+        return now;
+    }
+
+    private AtomicLongArray histogram(LatencyStats.Operation operation,
+                                      LatencyStats.Phase phase) {
+        int index = operation.ordinal() * PHASES.length + phase.ordinal();
+        AtomicLongArray histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null,
+                                     new AtomicLongArray(STRIPES * LatencyHistogram.BUCKETS));
+            histogram = histograms.get(index);
+        }
+        return histogram;
+    }
+
+    /**
+     * Merges the stripes of every recorded histogram.
+     *
+     * @return the snapshot
+     */
+    LatencyStats snapshot() {
+        Map<LatencyStats.Operation, Map<LatencyStats.Phase, LatencyHistogram>> snapshot =
+                new EnumMap<LatencyStats.Operation, Map<LatencyStats.Phase, LatencyHistogram>>(
+                        LatencyStats.Operation.class);
+        for (LatencyStats.Operation operation : OPERATIONS) {
+            for (LatencyStats.Phase phase : PHASES) {
+                AtomicLongArray histogram =
+                        histograms.get(operation.ordinal() * PHASES.length + phase.ordinal());
+                if (histogram == null) {
+                    continue;
+                }
+                long[] counts = new long[LatencyHistogram.BUCKETS];
+                for (int i = 0; i < histogram.length(); i++) {
+                    counts[i % LatencyHistogram.BUCKETS] += histogram.get(i);
+                }
+                Map<LatencyStats.Phase, LatencyHistogram> phases = snapshot.get(operation);
+                if (phases == null) {
+                    phases = new EnumMap<LatencyStats.Phase, LatencyHistogram>(
+                            LatencyStats.Phase.class);
+                    snapshot.put(operation, phases);
+                }
+                phases.put(phase, new LatencyHistogram(counts));
+            }
+        }
+        return new LatencyStats(snapshot);
+    }
+}
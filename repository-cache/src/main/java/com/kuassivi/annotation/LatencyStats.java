@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.kuassivi.annotation;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of the latencies of the cache operations of the {@link RepositoryCacheManager}, each
+ * one split by phase, see {@link RepositoryCacheManager#setLatencyTracking(boolean)}.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class LatencyStats {
+
+    /**
+     * The cache operations tracked.
+     */
+    public enum Operation {
+        IS_CACHED,
+        IS_EXPIRED,
+        IS_KNOWN_ABSENT,
+        /**
+         * Both getContent() and getValue()
+         */
+        GET_CONTENT,
+        /**
+         * Every store of an entry, measured in the writing Thread
+         */
+        PERSIST,
+        /**
+         * Measured in the evicting Thread
+         */
+        EVICT
+    }
+
+    /**
+     * The phases of an operation.
+     */
+    public enum Phase {
+        /**
+         * The whole operation
+         */
+        TOTAL,
+        /**
+         * Hashing the method call into its entry key
+         */
+        KEY_HASH,
+        /**
+         * Waiting for the entry lock, which shows the contention
+         */
+        LOCK_WAIT,
+        /**
+         * Looking up the entry metadata in the store
+         */
+        METADATA,
+        /**
+         * Reading the entry content from the store
+         */
+        READ,
+        /**
+         * Writing or removing the entry in the store
+         */
+        WRITE,
+        /**
+         * Decoding the content into a String or a value
+         */
+        DECODE
+    }
+
+    private final Map<Operation, Map<Phase, LatencyHistogram>> histograms;
+
+    LatencyStats(Map<Operation, Map<Phase, LatencyHistogram>> histograms) {
+        this.histograms = histograms;
+    }
+
+    /**
+     * Returns the latencies of a phase of an operation.
+     *
+     * @param operation the operation
+     * @param phase the phase
+     * @return the histogram, empty if nothing has been recorded
+     */
+    public LatencyHistogram get(Operation operation, Phase phase) {
+        Map<Phase, LatencyHistogram> phases = histograms.get(operation);
+        LatencyHistogram histogram = phases == null ? null : phases.get(phase);
+        return histogram == null ? LatencyHistogram.EMPTY : histogram;
+    }
+
+    /**
+     * Returns the latencies of the phases recorded for an operation.
+     *
+     * @param operation the operation
+     * @return the histograms by phase
+     */
+    public Map<Phase, LatencyHistogram> get(Operation operation) {
+        Map<Phase, LatencyHistogram> phases = histograms.get(operation);
+        return phases == null
+               ? Collections.<Phase, LatencyHistogram>emptyMap()
+               : Collections.unmodifiableMap(phases);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("LatencyStats{");
+        for (Map.Entry<Operation, Map<Phase, LatencyHistogram>> operation
+                : histograms.entrySet()) {
+            for (Map.Entry<Phase, LatencyHistogram> phase : operation.getValue().entrySet()) {
+                builder.append('\n').append("  ").append(operation.getKey())
+                       .append('/').append(phase.getKey())
+                       .append(": ").append(phase.getValue());
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.kuassivi.annotation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link InvalidationBus} between the members of a {@link Group} in the same process, handy for
+ * tests that simulate several nodes. Batches are delivered in the publishing Thread to every
+ * other member.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public class LoopbackInvalidationBus implements InvalidationBus {
+
+    private final    Group    group;
+    private volatile Listener listener;
+
+    /**
+     * Joins a group of nodes.
+     *
+     * @param group the group of nodes
+     */
+    public LoopbackInvalidationBus(Group group) {
+        this.group = group;
+        group.members.add(this);
+    }
+
+    @Override
+    public void publish(List<Invalidation> invalidations) {
+        List<Invalidation> batch = Collections.unmodifiableList(invalidations);
+        for (LoopbackInvalidationBus member : group.members) {
+            Listener memberListener = member.listener;
+            if (member != this && memberListener != null) {
+                memberListener.onInvalidations(batch);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void close() {
+        group.members.remove(this);
+        listener = null;
+    }
+
+    /**
+     * Nodes sharing their invalidations.
+     */
+    public static final class Group {
+
+        private final List<LoopbackInvalidationBus> members =
+                new CopyOnWriteArrayList<LoopbackInvalidationBus>();
+    }
+}
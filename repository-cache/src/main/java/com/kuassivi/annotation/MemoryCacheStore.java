@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link CacheStore} that keeps every entry in memory. Entries are lost when the process ends, so
+ * it suits low latency ephemeral caches and unit tests that should not touch the Disk.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public class MemoryCacheStore implements CacheStore {
+
+    /**
+     * {@link CacheStore.Factory} that gives every cache directory its own in-memory store.
+     */
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public CacheStore create(File cacheDir) {
+            return new MemoryCacheStore();
+        }
+    };
+
+    /**
+     * Maximum number of entries sampled to find the oldest ones
+     */
+    static final int EVICTION_SAMPLE_SIZE = 1024;
+
+    private final ConcurrentHashMap<String, Entry> entries =
+            new ConcurrentHashMap<String, Entry>();
+
+    @Override
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    @Override
+    public byte[] read(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.content;
+    }
+
+    @Override
+    public void write(String key, byte[] content, CacheMetadata metadata) {
+        Entry previous = entries.get(key);
+        if (content == null && !metadata.isAbsent()
+            && previous != null && previous.flags == metadata.getFlags()) {
+            // Persisting a method call again does not renew it, unless its content changes
+            // or it was absent
+            return;
+        }
+        entries.put(key, new Entry(metadata.isAbsent() ? null : content,
+                                   metadata.getCreatedAt(),
+                                   metadata.getExpiresAt(),
+                                   metadata.getFlags(),
+                                   metadata.getNamespace()));
+    }
+
+    @Override
+    public void remove(String key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public CacheMetadata metadata(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        return new CacheMetadata(entry.createdAt,
+                                 entry.expiresAt,
+                                 entry.content == null ? 0 : entry.content.length,
+                                 entry.flags,
+                                 entry.namespace);
+    }
+
+    @Override
+    public Iterator<String> keys() {
+        return entries.keySet().iterator();
+    }
+
+    /**
+     * Returns the keys of the oldest entries, to be evicted when the heap runs short so only the
+     * given fraction of the entries is retained.
+     * <p>
+     * The creation time the oldest entries are older than is estimated from a bounded sample of
+     * the entries, which are keyed by hash and so iterated in no particular order of time, then
+     * the entries are collected in a single pass. Nothing else is copied or sorted.
+     *
+     * @param retainedRatio the fraction of the entries to retain
+     * @return the keys of the entries to evict
+     */
+    List<String> eldestKeys(double retainedRatio) {
+        int size = entries.size();
+        int evict = size - (int) Math.ceil(size * retainedRatio);
+        if (evict <= 0) {
+            return Collections.emptyList();
+        }
+        long[] sample = new long[Math.min(size, EVICTION_SAMPLE_SIZE)];
+        int sampled = 0;
+        Iterator<Entry> values = entries.values().iterator();
+        while (sampled < sample.length && values.hasNext()) {
+            sample[sampled++] = values.next().createdAt;
+        }
+        if (sampled == 0) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(sample, 0, sampled);
+        int quantile = (int) Math.ceil((double) sampled * evict / size) - 1;
+        long threshold = sample[Math.max(0, Math.min(sampled - 1, quantile))];
+        List<String> keys = new ArrayList<String>(evict);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (keys.size() == evict) {
+                break;
+            }
+            if (entry.getValue().createdAt <= threshold) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Immutable in-memory entry. Content arrays are never modified once stored.
+     */
+    private static class Entry {
+
+        final byte[] content;
+        final long   createdAt;
+        final long   expiresAt;
+        final int    flags;
+        final String namespace;
+
+        Entry(byte[] content, long createdAt, long expiresAt, int flags, String namespace) {
+            this.content = content;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+            this.flags = flags;
+            this.namespace = namespace;
+        }
+    }
+}
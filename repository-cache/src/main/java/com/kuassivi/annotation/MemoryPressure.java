@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Watches the heap usage through the JVM memory notifications and asks its listener to shrink
+ * proportionally to how far the usage went over the threshold.
+ * <p>
+ * A usage threshold is set on every heap pool that supports it and has none yet, so thresholds set
+ * by the application are left as they are. Platforms without <code>java.lang.management</code>,
+ * like Android, are not watched at all.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class MemoryPressure implements NotificationListener {
+
+    /**
+     * Fraction of the maximum heap pool size over which the memory is under pressure
+     */
+    static final double USAGE_THRESHOLD = 0.8;
+
+    /**
+     * Bounds of the fraction of in-memory state retained on each shrink
+     */
+    static final double MIN_RETAINED_RATIO = 0.1;
+    static final double MAX_RETAINED_RATIO = 0.9;
+
+    /**
+     * Receives the memory pressure events.
+     */
+    interface Listener {
+
+        /**
+         * Called each time the heap usage goes over the threshold, from a JVM notification
+         * Thread.
+         *
+         * @param retainedRatio the fraction of the in-memory state to retain
+         */
+        void onMemoryPressure(double retainedRatio);
+    }
+
+    private final Listener listener;
+
+    private MemoryPressure(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching the heap usage. Callers must expect a {@link LinkageError} on platforms
+     * without <code>java.lang.management</code>, where this class can't even be loaded.
+     *
+     * @param listener the listener of the memory pressure events
+     * @return true if the heap is watched, false if the platform does not support it
+     */
+    static boolean register(Listener listener) {
+        try {
+            boolean watched = false;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                watched |= setThresholds(pool);
+            }
+            if (!watched) {
+                return false;
+            }
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+                    .addNotificationListener(new MemoryPressure(listener), null, null);
+            return true;
+        } catch (RuntimeException e) {
+            // Security restrictions or an unsupported management implementation
+            return false;
+        }
+    }
+
+    private static boolean setThresholds(MemoryPoolMXBean pool) {
+        long max = pool.getUsage().getMax();
+        if (pool.getType() != MemoryType.HEAP || max <= 0) {
+            return false;
+        }
+        long threshold = (long) (max * USAGE_THRESHOLD);
+        boolean watched = false;
+        if (pool.isUsageThresholdSupported()) {
+            if (pool.getUsageThreshold() == 0) {
+                pool.setUsageThreshold(threshold);
+            }
+            watched = true;
+        }
+        if (pool.isCollectionUsageThresholdSupported()) {
+            // Notified after each collection that leaves the pool over the threshold
+            if (pool.getCollectionUsageThreshold() == 0) {
+                pool.setCollectionUsageThreshold(threshold);
+            }
+            watched = true;
+        }
+        return watched;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        if (!MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+            && !MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+            return;
+        }
+        MemoryUsage usage = MemoryNotificationInfo.from((CompositeData) notification.getUserData())
+                                                  .getUsage();
+        listener.onMemoryPressure(retainedRatio(usage.getUsed(), usage.getMax()));
+    }
+
+    /**
+     * Retains less the closer the usage gets to the maximum size.
+     *
+     * @param used the used bytes of the pool
+     * @param max the maximum size of the pool in bytes
+     * @return the fraction of the in-memory state to retain
+     */
+    static double retainedRatio(long used, long max) {
+        double threshold = max * USAGE_THRESHOLD;
+        double overshoot = max <= threshold ? 1d : (used - threshold) / (max - threshold);
+        return Math.max(MIN_RETAINED_RATIO, Math.min(MAX_RETAINED_RATIO, 1d - overshoot));
+    }
+}
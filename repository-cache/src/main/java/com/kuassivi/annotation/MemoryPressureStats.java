@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+/**
+ * Snapshot of the in-memory state shed by the {@link RepositoryCacheManager} under heap
+ * pressure.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class MemoryPressureStats {
+
+    private final boolean watched;
+    private final long    shrinkEvents;
+    private final long    droppedRecords;
+    private final long    droppedEntries;
+    private final double  lastRetainedRatio;
+    private final long    lastShrinkAt;
+
+    MemoryPressureStats(boolean watched, long shrinkEvents, long droppedRecords,
+                        long droppedEntries, double lastRetainedRatio, long lastShrinkAt) {
+        this.watched = watched;
+        this.shrinkEvents = shrinkEvents;
+        this.droppedRecords = droppedRecords;
+        this.droppedEntries = droppedEntries;
+        this.lastRetainedRatio = lastRetainedRatio;
+        this.lastShrinkAt = lastShrinkAt;
+    }
+
+    /**
+     * @return true if the heap usage is watched, false if the platform does not support it
+     */
+    public boolean isWatched() {
+        return watched;
+    }
+
+    /**
+     * @return the number of times the in-memory state has been shrunk
+     */
+    public long getShrinkEvents() {
+        return shrinkEvents;
+    }
+
+    /**
+     * @return the number of in-memory entry records dropped, like access times
+     */
+    public long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    /**
+     * @return the number of entries evicted from the in-memory stores
+     */
+    public long getDroppedEntries() {
+        return droppedEntries;
+    }
+
+    /**
+     * @return the fraction of the in-memory state retained by the last shrink, or 1 if none
+     */
+    public double getLastRetainedRatio() {
+        return lastRetainedRatio;
+    }
+
+    /**
+     * @return the time of the last shrink in millis, or 0 if none
+     */
+    public long getLastShrinkAt() {
+        return lastShrinkAt;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryPressureStats{watched=" + watched
+               + ", shrinkEvents=" + shrinkEvents
+               + ", droppedRecords=" + droppedRecords
+               + ", droppedEntries=" + droppedEntries
+               + ", lastRetainedRatio=" + lastRetainedRatio
+               + ", lastShrinkAt=" + lastShrinkAt + '}';
+    }
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accounting of the entries and bytes stored by a single cached method in a cache directory,
+ * in least recently used order, so the method can be kept within its quota by evicting only
+ * its own entries.
+ * <p>
+ * Reads only queue the access without taking the lock of the quota, and the queued accesses are
+ * applied in batches, on the next write of the method or once a batch is full. When the process
+ * starts the quota only knows the entries stored or read since, until the entries of the method
+ * found in the store are loaded, as least recently used.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class MethodQuota {
+
+    /**
+     * Queued accesses that fill a batch to apply
+     */
+    static final int BATCH_SIZE = 64;
+
+    /**
+     * Accesses queued beyond this are dropped, only losing their recency
+     */
+    private static final int MAX_QUEUED = 64 * BATCH_SIZE;
+
+    private final int  maxEntries;
+    private final long maxBytes;
+
+    private final ConcurrentLinkedQueue<Access> accesses = new ConcurrentLinkedQueue<Access>();
+    private final AtomicInteger                 queued   = new AtomicInteger();
+    private final AtomicBoolean                 loading  = new AtomicBoolean();
+
+    /**
+     * Entry sizes by key, in access order
+     */
+    private final LinkedHashMap<String, Long> sizes =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * @param maxEntries the maximum number of entries, or 0 if unlimited
+     * @param maxBytes the maximum number of content bytes, or 0 if unlimited
+     */
+    MethodQuota(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Accounts for a stored entry and returns the entries to evict to get back within the quota,
+     * least recently used first. They are no longer accounted for.
+     *
+     * @param key the entry key
+     * @param size the content size of the entry
+     * @return the keys of the entries to evict, or only the stored one if it can't fit alone
+     */
+    synchronized List<String> add(String key, long size) {
+        List<String> victims = applyAccesses();
+        return concat(victims, account(key, size));
+    }
+
+    /**
+     * Queues an access to the entry, which marks it as recently used, or accounts for it if it is
+     * not yet, once applied. It never blocks.
+     *
+     * @param key the entry key
+     * @param size the content size of the entry
+     * @return true if a batch of accesses is full and should be applied with {@link
+     * #applyAccesses()}
+     */
+    boolean touch(String key, long size) {
+        int count = queued.incrementAndGet();
+        if (count > MAX_QUEUED) {
+            queued.decrementAndGet();
+            return false;
+        }
+        accesses.add(new Access(key, size));
+        return count == BATCH_SIZE;
+    }
+
+    /**
+     * Applies the queued accesses.
+     *
+     * @return the keys of the entries to evict to get back within the quota
+     */
+    synchronized List<String> applyAccesses() {
+        List<String> victims = Collections.emptyList();
+        Access access;
+        while ((access = accesses.poll()) != null) {
+            queued.decrementAndGet();
+            if (sizes.get(access.key) == null) {
+                victims = concat(victims, account(access.key, access.size));
+            }
+        }
+        return victims;
+    }
+
+    /**
+     * Claims the load of the entries found in the store, which happens once.
+     *
+     * @return true if the caller has to load them with {@link #load(Map)}
+     */
+    boolean startLoading() {
+        return loading.compareAndSet(false, true);
+    }
+
+    /**
+     * Accounts for the entries of the method found in the store that are not accounted for yet,
+     * as less recently used than those that are.
+     *
+     * @param stored the content sizes of the entries by key
+     * @return the keys of the entries to evict to get back within the quota
+     */
+    synchronized List<String> load(Map<String, Long> stored) {
+        LinkedHashMap<String, Long> loaded = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        for (Map.Entry<String, Long> entry : stored.entrySet()) {
+            if (!sizes.containsKey(entry.getKey())) {
+                loaded.put(entry.getKey(), entry.getValue());
+                bytes += entry.getValue();
+            }
+        }
+        loaded.putAll(sizes);
+        sizes.clear();
+        sizes.putAll(loaded);
+        return concat(applyAccesses(), evictExceeded(null));
+    }
+
+    private List<String> account(String key, long size) {
+        if (maxBytes > 0 && size > maxBytes) {
+            // It can't fit alone, the other entries are kept
+            remove(key);
+            return Collections.singletonList(key);
+        }
+        Long previous = sizes.put(key, size);
+        bytes += size - (previous == null ? 0 : previous);
+        return evictExceeded(key);
+    }
+
+    /**
+     * Gives up the least recently used entries while the quota is exceeded, except the kept one.
+     */
+    private List<String> evictExceeded(String kept) {
+        List<String> victims = null;
+        Iterator<Map.Entry<String, Long>> entries = sizes.entrySet().iterator();
+        while (isExceeded() && entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            if (entry.getKey().equals(kept)) {
+                // The entry just accounted for goes last
+                continue;
+            }
+            if (victims == null) {
+                victims = new ArrayList<String>();
+            }
+            victims.add(entry.getKey());
+            bytes -= entry.getValue();
+            entries.remove();
+        }
+        return victims == null ? Collections.<String>emptyList() : victims;
+    }
+
+    private static List<String> concat(List<String> first, List<String> second) {
+        if (first.isEmpty()) {
+            return second;
+        }
+        if (second.isEmpty()) {
+            return first;
+        }
+        List<String> all = new ArrayList<String>(first);
+        all.addAll(second);
+        return all;
+    }
+
+    synchronized boolean contains(String key) {
+        return sizes.containsKey(key);
+    }
+
+    synchronized void remove(String key) {
+        Long size = sizes.remove(key);
+        if (size != null) {
+            bytes -= size;
+        }
+    }
+
+    synchronized int size() {
+        return sizes.size();
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    private boolean isExceeded() {
+        return (maxEntries > 0 && sizes.size() > maxEntries)
+               || (maxBytes > 0 && bytes > maxBytes);
+    }
+
+    private static final class Access {
+
+        final String key;
+        final long   size;
+
+        Access(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,648 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link CacheStore} that keeps every entry outside of the Java heap, in direct
+ * {@link ByteBuffer} slabs, so a large hot working set does not grow the heap or the GC pauses.
+ * <p>
+ * Each slab is cut into slots of a single size class (powers of two from {@value #MIN_SLOT_SIZE}
+ * bytes up to the slab size). A slot packs the entry metadata, its key, its namespace and its
+ * content:
+ * <pre>
+ * [key length:int][content length:int][createdAt:long][expiresAt:long][flags:byte]
+ * [entry flags:byte][padding][namespace length:int]
+ * [key chars][namespace chars][content bytes]
+ * </pre>
+ * Entries are found through an open addressing index made only of primitive <code>long</code>
+ * arrays, so lookups, reads and writes don't allocate any heap object other than the returned
+ * value. When every slab is in use, a CLOCK sweep over the slots of the same size class evicts
+ * entries that have not been read since the last sweep. Entries larger than a slab are not
+ * stored.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public class OffHeapCacheStore implements CacheStore {
+
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    private static final int   MIN_SLOT_SIZE      = 64;
+    private static final int   INITIAL_INDEX_SIZE = 1024;
+    private static final float INDEX_LOAD_FACTOR  = 0.75f;
+
+    private static final int  KEY_LENGTH_OFFSET     = 0;
+    private static final int  CONTENT_LENGTH_OFFSET = 4;
+    private static final int  CREATED_AT_OFFSET     = 8;
+    private static final int  EXPIRES_AT_OFFSET     = 16;
+    private static final int  FLAGS_OFFSET          = 24;
+    private static final int  ENTRY_FLAGS_OFFSET    = 25;
+    private static final int  NAMESPACE_OFFSET      = 28;
+    private static final int  HEADER_SIZE           = 32;
+    private static final byte FLAG_USED             = 1;
+    private static final byte FLAG_ACCESSED         = 2;
+    private static final int  NO_CONTENT            = -1;
+    private static final int  NO_NAMESPACE          = -1;
+    private static final long NONE                  = -1L;
+
+    private final int slabSize;
+    private final int maxSlabs;
+    private final int sizeClasses;
+
+    private ByteBuffer[] slabs;
+    private int[]        slabClasses;
+    private int          slabCount;
+
+    // Per size class allocation state
+    private final long[] freeSlots;
+    private final int[]  bumpSlabs;
+    private final int[]  bumpOffsets;
+    private final long[] clockHands;
+
+    // Open addressing index, a hash of 0 marks an empty bucket
+    private long[] hashes;
+    private long[] addresses;
+    private int    size;
+
+    private final Lock readLock;
+    private final Lock writeLock;
+
+    private final ThreadLocal<ByteBuffer[]> views = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[0];
+        }
+    };
+
+    /**
+     * @param capacity the maximum number of bytes to allocate off the heap
+     */
+    public OffHeapCacheStore(long capacity) {
+        this(capacity, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param capacity the maximum number of bytes to allocate off the heap
+     * @param slabSize the size of each slab, a power of two no smaller than {@value
+     *                 #MIN_SLOT_SIZE}
+     */
+    public OffHeapCacheStore(long capacity, int slabSize) {
+        if (slabSize < MIN_SLOT_SIZE || Integer.bitCount(slabSize) != 1) {
+            throw new IllegalArgumentException("slabSize must be a power of two >= "
+                                               + MIN_SLOT_SIZE);
+        }
+        if (capacity < slabSize) {
+            throw new IllegalArgumentException("capacity must hold at least one slab");
+        }
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, capacity / slabSize);
+        this.sizeClasses = Integer.numberOfTrailingZeros(slabSize / MIN_SLOT_SIZE) + 1;
+        this.slabs = new ByteBuffer[Math.min(maxSlabs, 16)];
+        this.slabClasses = new int[slabs.length];
+        this.freeSlots = new long[sizeClasses];
+        this.bumpSlabs = new int[sizeClasses];
+        this.bumpOffsets = new int[sizeClasses];
+        this.clockHands = new long[sizeClasses];
+        this.hashes = new long[INITIAL_INDEX_SIZE];
+        this.addresses = new long[INITIAL_INDEX_SIZE];
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        this.readLock = lock.readLock();
+        this.writeLock = lock.writeLock();
+        resetAllocation();
+    }
+
+    @Override
+    public boolean contains(String key) {
+        readLock.lock();
+        try {
+            return find(key, hash(key)) >= 0;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] read(String key) {
+        readLock.lock();
+        try {
+            int bucket = find(key, hash(key));
+            if (bucket < 0) {
+                return null;
+            }
+            long address = addresses[bucket];
+            ByteBuffer view = view(slabOf(address));
+            int base = offsetOf(address);
+            // Benign race: concurrent readers may all set the same flag
+            view.put(base + FLAGS_OFFSET, (byte) (FLAG_USED | FLAG_ACCESSED));
+            int contentLength = view.getInt(base + CONTENT_LENGTH_OFFSET);
+            if (contentLength == NO_CONTENT) {
+                return null;
+            }
+            byte[] content = new byte[contentLength];
+            ((Buffer) view).position(contentOffset(view, base));
+            view.get(content, 0, contentLength);
+            return content;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(String key, byte[] content, CacheMetadata metadata) {
+        long hash = hash(key);
+        writeLock.lock();
+        try {
+            int bucket = find(key, hash);
+            if (content == null && !metadata.isAbsent()
+                && bucket >= 0 && entryFlags(bucket) == metadata.getFlags()) {
+                // Persisting a method call again does not renew it, unless its content changes
+                // or it was absent
+                return;
+            }
+            if (metadata.isAbsent()) {
+                content = null;
+            }
+            if (bucket >= 0) {
+                release(bucket);
+            }
+            String namespace = metadata.getNamespace();
+            int namespaceLength = namespace == null ? 0 : namespace.length();
+            int contentLength = content == null ? 0 : content.length;
+            long slotSize = (long) HEADER_SIZE + 2L * (key.length() + namespaceLength)
+                            + contentLength;
+            if (slotSize > slabSize) {
+                return;
+            }
+            int sizeClass = sizeClassOf((int) slotSize);
+            long address = allocate(sizeClass);
+            if (address == NONE) {
+                return;
+            }
+            ByteBuffer view = view(slabOf(address));
+            int base = offsetOf(address);
+            view.putInt(base + KEY_LENGTH_OFFSET, key.length());
+            view.putInt(base + CONTENT_LENGTH_OFFSET, content == null ? NO_CONTENT : contentLength);
+            view.putLong(base + CREATED_AT_OFFSET, metadata.getCreatedAt());
+            view.putLong(base + EXPIRES_AT_OFFSET, metadata.getExpiresAt());
+            view.put(base + FLAGS_OFFSET, FLAG_USED);
+            view.put(base + ENTRY_FLAGS_OFFSET, (byte) metadata.getFlags());
+            view.putInt(base + NAMESPACE_OFFSET,
+                        namespace == null ? NO_NAMESPACE : namespaceLength);
+            int keyOffset = base + HEADER_SIZE;
+            for (int i = 0; i < key.length(); i++) {
+                view.putChar(keyOffset + 2 * i, key.charAt(i));
+            }
+            int namespaceOffset = keyOffset + 2 * key.length();
+            for (int i = 0; i < namespaceLength; i++) {
+                view.putChar(namespaceOffset + 2 * i, namespace.charAt(i));
+            }
+            if (content != null) {
+                ((Buffer) view).position(namespaceOffset + 2 * namespaceLength);
+                view.put(content, 0, contentLength);
+            }
+            insert(hash, address);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        long hash = hash(key);
+        writeLock.lock();
+        try {
+            int bucket = find(key, hash);
+            if (bucket >= 0) {
+                release(bucket);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        writeLock.lock();
+        try {
+            hashes = new long[INITIAL_INDEX_SIZE];
+            addresses = new long[INITIAL_INDEX_SIZE];
+            size = 0;
+            resetAllocation();
+            // Keep the slabs, but hand them out again from the start
+            for (int i = 0; i < slabCount; i++) {
+                slabClasses[i] = -1;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public CacheMetadata metadata(String key) {
+        readLock.lock();
+        try {
+            int bucket = find(key, hash(key));
+            if (bucket < 0) {
+                return null;
+            }
+            long address = addresses[bucket];
+            ByteBuffer view = view(slabOf(address));
+            int base = offsetOf(address);
+            int contentLength = view.getInt(base + CONTENT_LENGTH_OFFSET);
+            return new CacheMetadata(view.getLong(base + CREATED_AT_OFFSET),
+                                     view.getLong(base + EXPIRES_AT_OFFSET),
+                                     contentLength == NO_CONTENT ? 0 : contentLength,
+                                     view.get(base + ENTRY_FLAGS_OFFSET),
+                                     readNamespace(view, base));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the stored keys. Unlike the other operations this one allocates,
+     * as keys only live off the heap.
+     *
+     * @return an iterator over the keys stored when this method was called
+     */
+    @Override
+    public Iterator<String> keys() {
+        readLock.lock();
+        try {
+            List<String> keys = new ArrayList<String>(size);
+            for (int i = 0; i < hashes.length; i++) {
+                if (hashes[i] != 0) {
+                    keys.add(readKey(addresses[i]));
+                }
+            }
+            return keys.iterator();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of stored entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        readLock.lock();
+        try {
+            return size;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated off the heap.
+     *
+     * @return the allocated bytes
+     */
+    public long allocatedBytes() {
+        readLock.lock();
+        try {
+            return (long) slabCount * slabSize;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void resetAllocation() {
+        for (int i = 0; i < sizeClasses; i++) {
+            freeSlots[i] = NONE;
+            bumpSlabs[i] = -1;
+            bumpOffsets[i] = 0;
+            clockHands[i] = 0;
+        }
+    }
+
+    // -- Index
+
+    private int find(String key, long hash) {
+        int mask = hashes.length - 1;
+        int bucket = (int) hash & mask;
+        while (hashes[bucket] != 0) {
+            if (hashes[bucket] == hash && keyEquals(addresses[bucket], key)) {
+                return bucket;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findAddress(long hash, long address) {
+        int mask = hashes.length - 1;
+        int bucket = (int) hash & mask;
+        while (hashes[bucket] != 0) {
+            if (addresses[bucket] == address) {
+                return bucket;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(long hash, long address) {
+        if (size + 1 > hashes.length * INDEX_LOAD_FACTOR) {
+            resize();
+        }
+        int mask = hashes.length - 1;
+        int bucket = (int) hash & mask;
+        while (hashes[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        hashes[bucket] = hash;
+        addresses[bucket] = address;
+        size++;
+    }
+
+    private void resize() {
+        long[] oldHashes = hashes;
+        long[] oldAddresses = addresses;
+        hashes = new long[oldHashes.length * 2];
+        addresses = new long[oldAddresses.length * 2];
+        int mask = hashes.length - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0) {
+                int bucket = (int) oldHashes[i] & mask;
+                while (hashes[bucket] != 0) {
+                    bucket = (bucket + 1) & mask;
+                }
+                hashes[bucket] = oldHashes[i];
+                addresses[bucket] = oldAddresses[i];
+            }
+        }
+    }
+
+    /**
+     * Frees the slot of an index bucket and removes the bucket, shifting back the buckets of
+     * the same probe sequence so no tombstones are needed.
+     */
+    private void release(int bucket) {
+        free(addresses[bucket]);
+        int mask = hashes.length - 1;
+        int hole = bucket;
+        int next = bucket;
+        while (true) {
+            next = (next + 1) & mask;
+            if (hashes[next] == 0) {
+                break;
+            }
+            int ideal = (int) hashes[next] & mask;
+            boolean inRange = hole <= next
+                              ? (hole < ideal && ideal <= next)
+                              : (hole < ideal || ideal <= next);
+            if (inRange) {
+                continue;
+            }
+            hashes[hole] = hashes[next];
+            addresses[hole] = addresses[next];
+            hole = next;
+        }
+        hashes[hole] = 0;
+        addresses[hole] = 0;
+        size--;
+    }
+
+    // -- Slots
+
+    private long allocate(int sizeClass) {
+        long address = freeSlots[sizeClass];
+        if (address != NONE) {
+            ByteBuffer view = view(slabOf(address));
+            freeSlots[sizeClass] = view.getLong(offsetOf(address));
+            return address;
+        }
+        int slotSize = slotSize(sizeClass);
+        int bumpSlab = bumpSlabs[sizeClass];
+        if (bumpSlab >= 0 && bumpOffsets[sizeClass] + slotSize <= slabSize) {
+            address = address(bumpSlab, bumpOffsets[sizeClass]);
+            bumpOffsets[sizeClass] += slotSize;
+            return address;
+        }
+        int slab = newSlab(sizeClass);
+        if (slab >= 0) {
+            bumpSlabs[sizeClass] = slab;
+            bumpOffsets[sizeClass] = slotSize;
+            return address(slab, 0);
+        }
+        return evict(sizeClass);
+    }
+
+    private int newSlab(int sizeClass) {
+        // Reuse slabs handed back by clear() first
+        for (int i = 0; i < slabCount; i++) {
+            if (slabClasses[i] == -1) {
+                ByteBuffer view = view(i);
+                for (int offset = 0; offset < slabSize; offset += slotSize(sizeClass)) {
+                    view.put(offset + FLAGS_OFFSET, (byte) 0);
+                }
+                slabClasses[i] = sizeClass;
+                return i;
+            }
+        }
+        if (slabCount >= maxSlabs) {
+            return -1;
+        }
+        if (slabCount == slabs.length) {
+            int length = Math.min(maxSlabs, slabs.length * 2);
+            ByteBuffer[] newSlabs = new ByteBuffer[length];
+            int[] newSlabClasses = new int[length];
+            System.arraycopy(slabs, 0, newSlabs, 0, slabCount);
+            System.arraycopy(slabClasses, 0, newSlabClasses, 0, slabCount);
+            slabs = newSlabs;
+            slabClasses = newSlabClasses;
+        }
+        slabs[slabCount] = ByteBuffer.allocateDirect(slabSize);
+        slabClasses[slabCount] = sizeClass;
+        return slabCount++;
+    }
+
+    /**
+     * CLOCK sweep over the used slots of a size class: slots read since the last sweep get a
+     * second chance, the first one that was not is evicted and handed out.
+     */
+    private long evict(int sizeClass) {
+        int slotSize = slotSize(sizeClass);
+        int slab = slabOf(clockHands[sizeClass]);
+        int offset = offsetOf(clockHands[sizeClass]);
+        long slots = 2L * slabCount * (slabSize / slotSize);
+        for (long i = 0; i < slots; i++) {
+            if (offset + slotSize > slabSize) {
+                offset = 0;
+                slab++;
+            }
+            if (slab >= slabCount) {
+                slab = 0;
+            }
+            if (slabClasses[slab] != sizeClass) {
+                offset = slabSize;
+                continue;
+            }
+            ByteBuffer view = view(slab);
+            byte flags = view.get(offset + FLAGS_OFFSET);
+            long address = address(slab, offset);
+            offset += slotSize;
+            if ((flags & FLAG_ACCESSED) != 0) {
+                view.put(offsetOf(address) + FLAGS_OFFSET, FLAG_USED);
+            } else if ((flags & FLAG_USED) != 0) {
+                clockHands[sizeClass] = address(slab, offset);
+                int bucket = findAddress(hashSlot(view, offsetOf(address)), address);
+                if (bucket >= 0) {
+                    release(bucket);
+                    return allocate(sizeClass);
+                }
+            }
+        }
+        return NONE;
+    }
+
+    private int entryFlags(int bucket) {
+        long address = addresses[bucket];
+        return view(slabOf(address)).get(offsetOf(address) + ENTRY_FLAGS_OFFSET);
+    }
+
+    private void free(long address) {
+        ByteBuffer view = view(slabOf(address));
+        int base = offsetOf(address);
+        int sizeClass = slabClasses[slabOf(address)];
+        view.put(base + FLAGS_OFFSET, (byte) 0);
+        view.putLong(base, freeSlots[sizeClass]);
+        freeSlots[sizeClass] = address;
+    }
+
+    private boolean keyEquals(long address, String key) {
+        ByteBuffer view = view(slabOf(address));
+        int base = offsetOf(address);
+        if (view.getInt(base + KEY_LENGTH_OFFSET) != key.length()) {
+            return false;
+        }
+        int keyOffset = base + HEADER_SIZE;
+        for (int i = 0; i < key.length(); i++) {
+            if (view.getChar(keyOffset + 2 * i) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readKey(long address) {
+        ByteBuffer view = view(slabOf(address));
+        int base = offsetOf(address);
+        char[] key = new char[view.getInt(base + KEY_LENGTH_OFFSET)];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = view.getChar(base + HEADER_SIZE + 2 * i);
+        }
+        return new String(key);
+    }
+
+    private static String readNamespace(ByteBuffer view, int base) {
+        int length = view.getInt(base + NAMESPACE_OFFSET);
+        if (length == NO_NAMESPACE) {
+            return null;
+        }
+        int namespaceOffset = base + HEADER_SIZE + 2 * view.getInt(base + KEY_LENGTH_OFFSET);
+        char[] namespace = new char[length];
+        for (int i = 0; i < length; i++) {
+            namespace[i] = view.getChar(namespaceOffset + 2 * i);
+        }
+        return new String(namespace);
+    }
+
+    private static int contentOffset(ByteBuffer view, int base) {
+        int namespaceLength = Math.max(0, view.getInt(base + NAMESPACE_OFFSET));
+        return base + HEADER_SIZE + 2 * (view.getInt(base + KEY_LENGTH_OFFSET) + namespaceLength);
+    }
+
+    private int sizeClassOf(int slotSize) {
+        int sizeClass = 0;
+        while (slotSize(sizeClass) < slotSize) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    private static int slotSize(int sizeClass) {
+        return MIN_SLOT_SIZE << sizeClass;
+    }
+
+    /**
+     * Returns this thread's view of a slab, so concurrent readers never share a buffer position.
+     */
+    private ByteBuffer view(int slab) {
+        ByteBuffer[] threadViews = views.get();
+        if (slab >= threadViews.length) {
+            ByteBuffer[] newViews = new ByteBuffer[slabs.length];
+            System.arraycopy(threadViews, 0, newViews, 0, threadViews.length);
+            views.set(newViews);
+            threadViews = newViews;
+        }
+        ByteBuffer view = threadViews[slab];
+        if (view == null) {
+            view = slabs[slab].duplicate();
+            threadViews[slab] = view;
+        }
+        return view;
+    }
+
+    private static long address(int slab, int offset) {
+        return ((long) slab << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int slabOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    // -- Hashing, the same 64 bit hash for keys on and off the heap
+
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long hashSlot(ByteBuffer view, int base) {
+        long hash = 0xcbf29ce484222325L;
+        int length = view.getInt(base + KEY_LENGTH_OFFSET);
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ view.getChar(base + HEADER_SIZE + 2 * i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+}
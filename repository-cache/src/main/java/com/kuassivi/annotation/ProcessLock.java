@@ -0,0 +1,509 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Coordinates the processes sharing a cache directory with {@link FileLock} regions of a lock
+ * file, one byte per stripe of the in-process {@link StripedLock}, so the same key maps to the
+ * same region in every process. Readers take shared regions and writers exclusive ones.
+ * <p>
+ * File locks are held by the whole process, so each region is taken once by the first Thread
+ * holding its stripe and released by the last one. The in-process locks keep readers and
+ * writers of a stripe apart, and are always taken first.
+ * <p>
+ * Interrupting a Thread blocked on a {@link FileChannel} closes the channel, which silently
+ * releases every file lock of the process. The lock file is therefore only locked by Threads of
+ * this class that are never interrupted, and the locks that can be interrupted poll it instead
+ * of blocking on it. If the channel is ever found closed, the locks are known to be lost and an
+ * {@link IllegalStateException} is thrown instead of opening it again.
+ * <p>
+ * The coordination is best effort: when the lock file can't be locked, for example on file
+ * systems without lock support, entries are only guarded within the process.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class ProcessLock {
+
+    /**
+     * Name of the lock file in the cache directory, never removed with the entries
+     */
+    static final String LOCK_FILE_NAME = ".rpc_lock";
+
+    /**
+     * Pause between the attempts of the locks that can be interrupted or time out
+     */
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * Result of {@link #tryLock(long, long, boolean)} when another process holds the region
+     */
+    private static final Object HELD = new Object();
+
+    /**
+     * Threads locking the lock file, never interrupted
+     */
+    private static final ExecutorService LOCKER = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "RepositoryCache-process-lock");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final File        file;
+    private final StripedLock locks;
+    private final Region[]    regions;
+
+    /**
+     * Guarded by this
+     */
+    private RandomAccessFile lockFile;
+
+    /**
+     * The whole file region, taken by {@link #lockAll()}
+     */
+    private FileLock allLock;
+
+    /**
+     * @param cacheDir the shared cache directory
+     * @param locks the in-process locks of the entries
+     */
+    ProcessLock(File cacheDir, StripedLock locks) {
+        this.file = new File(cacheDir, LOCK_FILE_NAME);
+        this.locks = locks;
+        this.regions = new Region[locks.size()];
+        for (int i = 0; i < regions.length; i++) {
+            regions[i] = new Region(i);
+        }
+    }
+
+    /**
+     * Returns the lock for reading the given key, shared with other readers of any process.
+     *
+     * @param key the cache entry key
+     * @return the read lock
+     */
+    Lock readLock(Object key) {
+        return new RegionLock(locks.get(key).readLock(), regions[locks.index(key)], true);
+    }
+
+    /**
+     * Returns the lock for writing or removing the given key, exclusive in every process.
+     *
+     * @param key the cache entry key
+     * @return the write lock
+     */
+    Lock writeLock(Object key) {
+        return new RegionLock(locks.get(key).writeLock(), regions[locks.index(key)], false);
+    }
+
+    /**
+     * Acquires every in-process write lock, then the whole lock file exclusively.
+     */
+    void lockAll() {
+        locks.lockAll();
+        try {
+            allLock = lock(0, regions.length, false);
+        } catch (RuntimeException e) {
+            locks.unlockAll();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the locks acquired with {@link #lockAll()}.
+     */
+    void unlockAll() {
+        release(allLock);
+        allLock = null;
+        locks.unlockAll();
+    }
+
+    /**
+     * Closes the lock file. It must not be called while any lock is held.
+     */
+    synchronized void close() {
+        if (lockFile != null) {
+            try {
+                lockFile.close();
+            } catch (IOException ignored) {
+            }
+            lockFile = null;
+        }
+    }
+
+    /**
+     * Opens the lock file if needed.
+     *
+     * @throws IllegalStateException if the lock file has been closed while in use
+     */
+    private synchronized FileChannel channel() throws IOException {
+        if (lockFile == null) {
+            //noinspection ResultOfMethodCallIgnored
+            file.getParentFile().mkdirs();
+            lockFile = new RandomAccessFile(file, "rw");
+        }
+        FileChannel channel = lockFile.getChannel();
+        if (!channel.isOpen()) {
+            throw lost(null);
+        }
+        return channel;
+    }
+
+    /**
+     * Locks a region of the lock file in a Thread that is never interrupted, waiting for other
+     * processes as long as needed. An interrupt of the calling Thread is kept for later.
+     *
+     * @return the file lock, or null if the file can't be locked
+     */
+    private FileLock lock(final long position, final long size, final boolean shared) {
+        Future<FileLock> future = LOCKER.submit(new Callable<FileLock>() {
+            @Override
+            public FileLock call() throws IOException {
+                return channel().lock(position, size, shared);
+            }
+        });
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return failed(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Locks a region of the lock file in a Thread that is never interrupted, unless another
+     * process holds it.
+     *
+     * @return the file lock, null if the file can't be locked, or {@link #HELD} if another process
+     * holds the region
+     */
+    private Object tryLock(final long position, final long size, final boolean shared) {
+        Future<FileLock> future = LOCKER.submit(new Callable<FileLock>() {
+            @Override
+            public FileLock call() throws IOException {
+                return channel().tryLock(position, size, shared);
+            }
+        });
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    FileLock fileLock = future.get();
+                    return fileLock != null ? fileLock : HELD;
+                } catch (InterruptedException e) {
+                    // It does not block, the attempt is completed
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return failed(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private FileLock failed(Throwable cause) {
+        if (cause instanceof ClosedChannelException) {
+            throw lost(cause);
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        // Only guarded within this process
+        cause.printStackTrace();
+        return null;
+    }
+
+    private IllegalStateException lost(Throwable cause) {
+        IllegalStateException e = new IllegalStateException(
+                "The lock file " + file + " has been closed while in use, the entries are no "
+                + "longer guarded from other processes");
+        if (cause != null) {
+            e.initCause(cause);
+        }
+        return e;
+    }
+
+    private static void release(FileLock fileLock) {
+        if (fileLock != null && fileLock.isValid()) {
+            try {
+                fileLock.release();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Region of the lock file of a stripe, held while any Thread holds the stripe.
+     */
+    private final class Region {
+
+        private final int position;
+        private       int holders;
+        private FileLock fileLock;
+
+        Region(int position) {
+            this.position = position;
+        }
+
+        /**
+         * Takes the region, waiting for other processes without being interrupted.
+         */
+        synchronized void acquire(boolean shared) {
+            if (holders == 0) {
+                fileLock = lock(position, 1, shared);
+            }
+            holders++;
+        }
+
+        /**
+         * Takes the region unless other processes hold it longer than the given time.
+         *
+         * @param timeoutNanos the time to wait, 0 to not wait, or a negative value to wait as
+         *                     long as needed
+         * @return true if the region is taken
+         * @throws InterruptedException if the Thread is interrupted while waiting
+         */
+        synchronized boolean tryAcquire(boolean shared, long timeoutNanos)
+                throws InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (holders == 0) {
+                Object acquired = tryLock(position, 1, shared);
+                if (acquired != HELD) {
+                    fileLock = (FileLock) acquired;
+                    break;
+                }
+                long remaining = timeoutNanos < 0 ? POLL_NANOS : deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                // Other Threads of the stripe may take the region meanwhile
+                TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, POLL_NANOS));
+            }
+            holders++;
+            return true;
+        }
+
+        synchronized void release() {
+            if (--holders == 0) {
+                ProcessLock.release(fileLock);
+                fileLock = null;
+            }
+        }
+    }
+
+    /**
+     * In-process stripe lock followed by the region of the stripe.
+     */
+    private static final class RegionLock implements Lock {
+
+        private final Lock    lock;
+        private final Region  region;
+        private final boolean shared;
+
+        RegionLock(Lock lock, Region region, boolean shared) {
+            this.lock = lock;
+            this.region = region;
+            this.shared = shared;
+        }
+
+        @Override
+        public void lock() {
+            lock.lock();
+            try {
+                region.acquire(shared);
+            } catch (RuntimeException e) {
+                lock.unlock();
+                throw e;
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            lock.lockInterruptibly();
+            acquireRegion(-1);
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (!lock.tryLock()) {
+                return false;
+            }
+            try {
+                return acquireRegion(0);
+            } catch (InterruptedException e) {
+                // It does not wait
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(time);
+            if (!lock.tryLock(time, unit)) {
+                return false;
+            }
+            return acquireRegion(Math.max(0, deadline - System.nanoTime()));
+        }
+
+        @Override
+        public void unlock() {
+            try {
+                region.release();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Conditions are those of the in-process lock, so read locks don't support them. The
+         * region is released while waiting.
+         */
+        @Override
+        public Condition newCondition() {
+            return new RegionCondition(lock.newCondition(), region, shared);
+        }
+
+        /**
+         * Takes the region once the in-process lock is held, or releases the in-process lock.
+         */
+        private boolean acquireRegion(long timeoutNanos) throws InterruptedException {
+            boolean acquired = false;
+            try {
+                acquired = region.tryAcquire(shared, timeoutNanos);
+                return acquired;
+            } finally {
+                if (!acquired) {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Condition of an in-process lock that releases the region of its stripe while waiting, and
+     * takes it back before returning.
+     */
+    private static final class RegionCondition implements Condition {
+
+        private final Condition condition;
+        private final Region    region;
+        private final boolean   shared;
+
+        RegionCondition(Condition condition, Region region, boolean shared) {
+            this.condition = condition;
+            this.region = region;
+            this.shared = shared;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            region.release();
+            try {
+                condition.await();
+            } finally {
+                region.acquire(shared);
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            region.release();
+            try {
+                condition.awaitUninterruptibly();
+            } finally {
+                region.acquire(shared);
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            region.release();
+            try {
+                return condition.awaitNanos(nanosTimeout);
+            } finally {
+                region.acquire(shared);
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            region.release();
+            try {
+                return condition.await(time, unit);
+            } finally {
+                region.acquire(shared);
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            region.release();
+            try {
+                return condition.awaitUntil(deadline);
+            } finally {
+                region.acquire(shared);
+            }
+        }
+
+        @Override
+        public void signal() {
+            condition.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            condition.signalAll();
+        }
+    }
+}
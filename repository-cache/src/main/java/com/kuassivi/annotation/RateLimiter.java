@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out operations so they don't go over a given rate, like the loads from an origin or the
+ * bytes written to Disk. The Threads calling {@link #acquire(long)} are given time slots in the
+ * order they call it, each one as long as the permits it takes.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class RateLimiter {
+
+    private final double nanosPerPermit;
+    private       long   next;
+
+    /**
+     * @param permitsPerSecond the maximum number of operations per second, 0 or less means
+     * unlimited
+     */
+    RateLimiter(double permitsPerSecond) {
+        this.nanosPerPermit = permitsPerSecond > 0 ? 1e9 / permitsPerSecond : 0;
+    }
+
+    /**
+     * Waits for the next time slot.
+     *
+     * @throws InterruptedException if the Thread is interrupted while waiting
+     */
+    void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    /**
+     * Waits for the next time slot, and takes it for the given number of permits, so the
+     * following callers wait for them.
+     *
+     * @param permits the number of permits
+     * @throws InterruptedException if the Thread is interrupted while waiting
+     */
+    void acquire(long permits) throws InterruptedException {
+        if (nanosPerPermit == 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = next - now > 0 ? next : now;
+            next = slot + (long) (permits * nanosPerPermit);
+            wait = slot - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -39,6 +39,57 @@ public @interface RepositoryCache {
      */
     long value() default 0;
 
+    /**
+     * Cache time of the calls known to have nothing in the origin, see {@link
+     * RepositoryProxyCache#persistAbsent()}. No time or 0 value means the method cache time.
+     *
+     * @return the cache time of absent method calls in millis
+     */
+    long negativeTtl() default 0;
+
+    /**
+     * Fraction of the cache time after which a call is refreshed in the background when it is
+     * checked, while the current content is still served. It needs a {@link CacheLoader}
+     * registered for the method. No value or 0 means no refresh-ahead.
+     *
+     * @return the refresh-ahead fraction of the cache time, between 0 and 1
+     */
+    double refreshAhead() default 0;
+
+    /**
+     * Sliding expiration: calls not checked for this time expire, even before the cache time.
+     * No time or 0 value means calls don't expire for not being used.
+     *
+     * @return the expiration time after the last access in millis
+     */
+    long expireAfterAccess() default 0;
+
+    /**
+     * Fraction of the cache time randomly taken off each stored call, so calls stored together
+     * don't expire together. No value or 0 means every call lasts the whole cache time.
+     *
+     * @return the jitter fraction of the cache time, between 0 and 1
+     */
+    double jitter() default 0;
+
+    /**
+     * Maximum number of calls of the method kept in the cache directory. When exceeded, the least
+     * recently used calls of the method are evicted, never those of other methods.
+     * No value or 0 means unlimited.
+     *
+     * @return the maximum number of cached calls of the method
+     */
+    int maxEntries() default 0;
+
+    /**
+     * Maximum size of the content of the calls of the method kept in the cache directory. When
+     * exceeded, the least recently used calls of the method are evicted, never those of other
+     * methods. No value or 0 means unlimited.
+     *
+     * @return the maximum number of content bytes of the method
+     */
+    long maxBytes() default 0;
+
     /**
      * Qualified name for overloaded methods.
      *
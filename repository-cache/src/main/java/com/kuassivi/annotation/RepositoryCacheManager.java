@@ -14,30 +14,717 @@
 
 package com.kuassivi.annotation;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 /**
  * @author Francisco Gonzalez-Armijo
  */
 public final class RepositoryCacheManager {
 
-    private static final String DEFAULT_FILE_NAME = "rpc_"; // repository_proxy_cache_
-    private static final String CONTENT_FILE_NAME = "rpc_content_"; // repository_proxy_cache_content
+    private static final int    DEFAULT_LOCK_STRIPES = 64;
+    private static final String CHARSET              = "UTF-8";
 
-    private static RepositoryCacheManager instance;
+    /**
+     * Runs each operation in a new Thread, the default
+     */
+    private static final Executor NEW_THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            new Thread(command).start();
+        }
+    };
+
+    private static final CacheErrorListener PRINTING_ERROR_LISTENER = new CacheErrorListener() {
+        @Override
+        public void onError(File cacheDir, String key, Exception error) {
+            error.printStackTrace();
+        }
+    };
+
+    private final StripedLock                         locks;
+    private final ConcurrentHashMap<File, CacheStore> stores;
+    private final ConcurrentHashMap<File, EntryIndex> indexes;
+
+    /**
+     * Cross-process locks of the cache directories shared with other processes
+     */
+    private final ConcurrentHashMap<File, ProcessLock> processLocks;
+    private volatile CacheStore.Factory               storeFactory;
+
+    /**
+     * Runs the I/O operations performed in a different Thread
+     */
+    private volatile Executor executor = NEW_THREAD_EXECUTOR;
+
+    /**
+     * Schedules the I/O by priority class, or null if it is not scheduled
+     */
+    private volatile IoScheduler ioScheduler;
+
+    /**
+     * Receives the errors of the operations performed in a different Thread
+     */
+    private volatile CacheErrorListener errorListener = PRINTING_ERROR_LISTENER;
+
+    /**
+     * Writes and evictions of each entry not applied yet, applied in order
+     */
+    private final WriteQueue writes = new WriteQueue();
+
+    /**
+     * Filters of the keys stored in the cache directories that answer lookups of missing keys
+     */
+    private final ConcurrentHashMap<File, BloomFilter> filters;
+
+    /**
+     * Refresh-ahead loaders by method namespace, and the entries being refreshed
+     */
+    private final ConcurrentHashMap<String, CacheLoader> loaders;
+    private final Set<String>                            refreshing;
+
+    /**
+     * Sampled accesses by method namespace, and the sampling rate (1 in n accesses, 0 disabled)
+     */
+    private final ConcurrentHashMap<String, HotKeys> hotKeys;
+    private volatile int                             hotKeySampling;
+
+    /**
+     * Latencies of the cache operations, or the disabled recorder
+     */
+    private volatile LatencyRecorder latency = LatencyRecorder.DISABLED;
+
+    /**
+     * Publishes the invalidations of this node, or null if there is no bus
+     */
+    private volatile InvalidationBatcher invalidations;
 
-    private FileManager fileManager;
+    /**
+     * Whether the heap usage is watched, and the in-memory state shed under pressure
+     */
+    private final boolean    memoryWatched;
+    private final AtomicLong shrinkEvents   = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong droppedEntries = new AtomicLong();
+    private volatile double  lastRetainedRatio = 1d;
+    private volatile long    lastShrinkAt;
 
     private RepositoryCacheManager() {
-        fileManager = new FileManager();
+        locks = new StripedLock(DEFAULT_LOCK_STRIPES);
+        stores = new ConcurrentHashMap<File, CacheStore>();
+        indexes = new ConcurrentHashMap<File, EntryIndex>();
+        processLocks = new ConcurrentHashMap<File, ProcessLock>();
+        filters = new ConcurrentHashMap<File, BloomFilter>();
+        loaders = new ConcurrentHashMap<String, CacheLoader>();
+        refreshing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        hotKeys = new ConcurrentHashMap<String, HotKeys>();
+        storeFactory = new CacheStore.Factory() {
+            @Override
+            public CacheStore create(File cacheDir) {
+                return new FileCacheStore(cacheDir);
+            }
+        };
+        memoryWatched = watchMemory();
+    }
+
+    /**
+     * Shrinks the in-memory state in a different Thread each time the heap usage goes over the
+     * threshold. It grows back as entries are stored again once the pressure subsides.
+     *
+     * @return true if the heap usage is watched
+     */
+    private boolean watchMemory() {
+        try {
+            return MemoryPressure.register(new MemoryPressure.Listener() {
+                @Override
+                public void onMemoryPressure(final double retainedRatio) {
+                    execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            shrink(retainedRatio);
+                        }
+                    });
+                }
+            });
+        } catch (LinkageError e) {
+            // No java.lang.management on this platform, like on Android
+            return false;
+        }
     }
 
     public static RepositoryCacheManager getInstance() {
-        return instance == null
-               ? instance = new RepositoryCacheManager()
-               : instance;
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Sets the factory used to create the store of every cache directory that has no store
+     * yet. By default every directory is stored on Disk with a {@link FileCacheStore}.
+     *
+     * @param storeFactory the factory of new stores
+     */
+    public void setStoreFactory(CacheStore.Factory storeFactory) {
+        if (storeFactory == null) {
+            throw new IllegalArgumentException("storeFactory == null");
+        }
+        this.storeFactory = storeFactory;
+    }
+
+    /**
+     * Sets the executor of every operation this manager performs in a different Thread: the
+     * writes, the evictions, the refreshes and the other background work. By default each
+     * operation runs in a new Thread.
+     * <p>
+     * Operations rejected by the executor run in the calling Thread instead.
+     *
+     * @param executor the executor of the operations, or null to go back to the default
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor != null ? executor : NEW_THREAD_EXECUTOR;
+    }
+
+    /**
+     * Returns the executor of the operations performed in a different Thread.
+     *
+     * @return the executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    private void execute(Runnable operation) {
+        try {
+            executor.execute(operation);
+        } catch (RejectedExecutionException e) {
+            // Shut down or saturated, the operation must not be lost
+            operation.run();
+        }
+    }
+
+    /**
+     * Runs an operation in a different Thread once the scheduler gives it its turn.
+     */
+    private void execute(IoScheduler.Priority priority, long bytes, Runnable operation) {
+        execute(scheduled(priority, bytes, operation));
+    }
+
+    /**
+     * Runs a write or an eviction of an entry in a different Thread, after those of the same
+     * entry submitted before it, once the scheduler gives it its turn.
+     */
+    private void execute(final File cacheDir, final String fileName,
+                         IoScheduler.Priority priority, long bytes, Runnable operation) {
+        final String key = new File(cacheDir, fileName).getPath();
+        if (!writes.add(key, scheduled(priority, bytes, operation))) {
+            // Applied by the Thread draining the entry
+            return;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Runnable write = writes.next(key); write != null; write = writes.next(key)) {
+                    try {
+                        write.run();
+                    } catch (RuntimeException e) {
+                        // The following ones must be applied anyway
+                        reportError(cacheDir, fileName, e);
+                    } finally {
+                        writes.done(key);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the operation that waits for its turn from the scheduler before running
+     */
+    private Runnable scheduled(final IoScheduler.Priority priority, final long bytes,
+                               final Runnable operation) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                IoScheduler io = beginIo(priority, bytes);
+                try {
+                    operation.run();
+                } finally {
+                    endIo(io, priority);
+                }
+            }
+        };
+    }
+
+    /**
+     * Sets the listener of the errors of the operations this manager performs in a different
+     * Thread, which are printed to the standard error by default.
+     *
+     * @param errorListener the listener, or null to go back to the default
+     */
+    public void setErrorListener(CacheErrorListener errorListener) {
+        this.errorListener = errorListener != null ? errorListener : PRINTING_ERROR_LISTENER;
+    }
+
+    private void reportError(File cacheDir, String key, Exception error) {
+        try {
+            errorListener.onError(cacheDir, key, error);
+        } catch (RuntimeException e) {
+            // The background work goes on whatever the listener does
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sets the scheduler of the I/O of this manager, which favors the foreground reads over the
+     * background writes and maintenance, limits each priority class and throttles the bytes
+     * written in the background. By default the I/O is not scheduled.
+     *
+     * @param ioScheduler the scheduler, or null to stop scheduling the I/O
+     */
+    public void setIoScheduler(IoScheduler ioScheduler) {
+        this.ioScheduler = ioScheduler;
+    }
+
+    /**
+     * Returns the scheduler of the I/O of this manager.
+     *
+     * @return the scheduler, or null if the I/O is not scheduled
+     */
+    public IoScheduler getIoScheduler() {
+        return ioScheduler;
+    }
+
+    /**
+     * Waits for the turn of an I/O operation, if it is scheduled.
+     *
+     * @return the scheduler to end the operation with, or null
+     */
+    private IoScheduler beginIo(IoScheduler.Priority priority, long bytes) {
+        IoScheduler io = ioScheduler;
+        if (io != null) {
+            io.begin(priority, bytes);
+        }
+        return io;
+    }
+
+    private static void endIo(IoScheduler io, IoScheduler.Priority priority) {
+        if (io != null) {
+            io.end(priority);
+        }
+    }
+
+    /**
+     * Sets the store of a particular cache directory, replacing the one created by the store
+     * factory.
+     *
+     * @param cacheDir the cache directory
+     * @param store the store for that directory
+     * @throws IllegalStateException if the store is a {@link ContentAddressedCacheStore} and the
+     *                               directory is shared with other processes
+     */
+    public void setStore(File cacheDir, CacheStore store) {
+        if (store == null) {
+            throw new IllegalArgumentException("store == null");
+        }
+        checkShareable(cacheDir, store, processLocks.containsKey(cacheDir));
+        stores.put(cacheDir, store);
+    }
+
+    /**
+     * Returns the store of a cache directory, creating it with the store factory if needed.
+     *
+     * @param cacheDir the cache directory
+     * @return the store of the directory
+     */
+    public CacheStore getStore(File cacheDir) {
+        CacheStore store = stores.get(cacheDir);
+        if (store == null) {
+            CacheStore created = storeFactory.create(cacheDir);
+            checkShareable(cacheDir, created, processLocks.containsKey(cacheDir));
+            store = stores.putIfAbsent(cacheDir, created);
+            if (store == null) {
+                store = created;
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Coordinates the access to a cache directory with the other processes that share it and
+     * enable it as well, through file locks on a lock file of the directory. Reads of an entry
+     * are shared and writes and evictions are exclusive in every process, so no process removes
+     * an entry another one is reading or writing. It is disabled by default.
+     * <p>
+     * A {@link ContentAddressedCacheStore} counts the references of its contents in memory, so
+     * it cannot be shared and is refused on these directories.
+     *
+     * @param cacheDir the cache directory
+     * @param enabled true to coordinate with other processes, false to only guard entries within
+     *                this process
+     * @throws IllegalStateException if the directory is stored in a
+     *                               {@link ContentAddressedCacheStore}
+     */
+    public void setProcessLocking(File cacheDir, boolean enabled) {
+        if (enabled) {
+            checkShareable(cacheDir, stores.get(cacheDir), true);
+            processLocks.putIfAbsent(cacheDir, new ProcessLock(cacheDir, locks));
+            return;
+        }
+        ProcessLock processLock = processLocks.get(cacheDir);
+        if (processLock != null) {
+            processLock.lockAll();
+            try {
+                processLocks.remove(cacheDir);
+            } finally {
+                processLock.unlockAll();
+            }
+            processLock.close();
+        }
+    }
+
+    private static void checkShareable(File cacheDir, CacheStore store, boolean shared) {
+        if (shared && store instanceof ContentAddressedCacheStore) {
+            throw new IllegalStateException("The references of a content addressed store are "
+                                            + "not shared with other processes: " + cacheDir);
+        }
+    }
+
+    /**
+     * Keeps a compact filter of the keys stored in a cache directory, so the lookups of calls
+     * that were never cached are answered in memory instead of by the store. It is built from
+     * the keys of the store in a different Thread, and lookups go to the store until it is done.
+     * The filter is rebuilt bigger once it holds more than twice the expected entries.
+     * <p>
+     * Entries written by other processes are not seen by the filter, so it is not used on cache
+     * directories shared through {@link #setProcessLocking(File, boolean)}. It is disabled by
+     * default.
+     *
+     * @param cacheDir the cache directory
+     * @param expectedEntries the number of entries the filter is sized for, or 0 to remove it
+     * @param falsePositiveRate the rate of lookups of missing calls still sent to the store,
+     *                          between 0 and 1
+     */
+    public void setAbsenceFilter(File cacheDir, long expectedEntries, double falsePositiveRate) {
+        if (expectedEntries <= 0) {
+            filters.remove(cacheDir);
+            return;
+        }
+        rebuildFilter(cacheDir, new BloomFilter(expectedEntries, falsePositiveRate));
+    }
+
+    /**
+     * Installs a new filter at once, so the entries stored meanwhile are added to it, and adds
+     * the keys of the store in a different Thread.
+     */
+    private void rebuildFilter(final File cacheDir, final BloomFilter filter) {
+        filters.put(cacheDir, filter);
+        execute(IoScheduler.Priority.MAINTENANCE, 0, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Iterator<String> keys = getStore(cacheDir).keys();
+                    while (keys.hasNext() && filters.get(cacheDir) == filter) {
+                        filter.add(keys.next());
+                    }
+                    filter.markReady();
+                } catch (RuntimeException e) {
+                    // The filter is left unready and every lookup goes to the store
+                    reportError(cacheDir, null, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks whether the entry is definitely not stored, without touching the store.
+     */
+    private boolean isKnownMiss(File cacheDir, String fileName) {
+        BloomFilter filter = filters.get(cacheDir);
+        return filter != null
+               && !processLocks.containsKey(cacheDir)
+               && !filter.mightContain(fileName);
+    }
+
+    /**
+     * Adds a stored entry to the filter of its cache directory, rebuilding the filter when it
+     * is saturated.
+     */
+    private void addToFilter(File cacheDir, String fileName) {
+        BloomFilter filter = filters.get(cacheDir);
+        if (filter == null) {
+            return;
+        }
+        filter.add(fileName);
+        if (filter.isReady() && filter.isSaturated()) {
+            BloomFilter bigger = new BloomFilter(2 * filter.getKeyCount(),
+                                                 filter.getFalsePositiveRate());
+            if (filters.replace(cacheDir, filter, bigger)) {
+                rebuildFilter(cacheDir, bigger);
+            }
+        }
+    }
+
+    /**
+     * Shares the invalidations of the entries with other nodes through the given bus: the
+     * evictions and writes of this node are published in batches, and the entries evicted or
+     * written by other nodes are evicted here, in the cache directories used by this process.
+     * So entries can have long cache times and still be invalidated explicitly.
+     *
+     * @param bus the invalidation bus, or null to stop sharing invalidations
+     */
+    public void setInvalidationBus(InvalidationBus bus) {
+        InvalidationBatcher previous = invalidations;
+        if (previous != null) {
+            previous.getBus().subscribe(null);
+            previous.close();
+        }
+        if (bus == null) {
+            invalidations = null;
+            return;
+        }
+        invalidations = new InvalidationBatcher(bus);
+        bus.subscribe(new InvalidationBus.Listener() {
+            @Override
+            public void onInvalidations(List<Invalidation> batch) {
+                invalidate(batch);
+            }
+        });
+    }
+
+    private void publish(Invalidation invalidation) {
+        InvalidationBatcher batcher = invalidations;
+        if (batcher != null) {
+            batcher.add(invalidation);
+        }
+    }
+
+    /**
+     * Evicts the entries invalidated by another node, in the calling Thread. They are not
+     * published again.
+     */
+    void invalidate(List<Invalidation> batch) {
+        for (Invalidation invalidation : batch) {
+            File cacheDir = new File(invalidation.getDirectory());
+            CacheStore store = stores.get(cacheDir);
+            if (store == null) {
+                // Not used by this process
+                continue;
+            }
+            switch (invalidation.getType()) {
+                case Invalidation.TYPE_EVICT:
+                case Invalidation.TYPE_PERSIST:
+                    new CacheClear(store,
+                                   getIndex(cacheDir),
+                                   writeLock(cacheDir, invalidation.getKey()),
+                                   invalidation.getKey(),
+                                   latency).run();
+                    break;
+                case Invalidation.TYPE_CLEAR:
+                    new StoreClear(store,
+                                   getIndex(cacheDir),
+                                   locks,
+                                   processLocks.get(cacheDir),
+                                   filters.get(cacheDir)).run();
+                    break;
+                default:
+                    // Published by a newer version
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns the lock for reading an entry of a cache directory.
+     */
+    private Lock readLock(File cacheDir, String key) {
+        ProcessLock processLock = processLocks.get(cacheDir);
+        return processLock == null ? locks.get(key).readLock() : processLock.readLock(key);
+    }
+
+    /**
+     * Returns the lock for writing or removing an entry of a cache directory.
+     */
+    private Lock writeLock(File cacheDir, String key) {
+        ProcessLock processLock = processLocks.get(cacheDir);
+        return processLock == null ? locks.get(key).writeLock() : processLock.writeLock(key);
+    }
+
+    private EntryIndex getIndex(File cacheDir) {
+        EntryIndex index = indexes.get(cacheDir);
+        if (index == null) {
+            EntryIndex created = new EntryIndex();
+            index = indexes.putIfAbsent(cacheDir, created);
+            if (index == null) {
+                index = created;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Registers the loader that refreshes the calls of a cached method ahead of their
+     * expiration, as set by the <code>refreshAhead</code> attribute of its annotation.
+     *
+     * @param proxyCache any ProxyCache object of the method
+     * @param loader the loader of the method calls, or null to stop refreshing them
+     */
+    public void setLoader(RepositoryProxyCache proxyCache, CacheLoader loader) {
+        if (loader == null) {
+            loaders.remove(proxyCache.getNamespace());
+        } else {
+            loaders.put(proxyCache.getNamespace(), loader);
+        }
+    }
+
+    /**
+     * Returns the metrics of the in-memory state shed under heap pressure.
+     *
+     * @return a snapshot of the memory pressure metrics
+     */
+    public MemoryPressureStats getMemoryPressureStats() {
+        return new MemoryPressureStats(memoryWatched,
+                                       shrinkEvents.get(),
+                                       droppedRecords.get(),
+                                       droppedEntries.get(),
+                                       lastRetainedRatio,
+                                       lastShrinkAt);
+    }
+
+    /**
+     * Drops the in-memory records that don't change any expiration, and evicts the oldest
+     * entries of the in-memory stores, so at most the given fraction of each is retained.
+     * Off-heap and Disk stores are left as they are.
+     *
+     * @param retainedRatio the fraction of the in-memory state to retain
+     */
+    void shrink(double retainedRatio) {
+        long records = 0;
+        for (EntryIndex index : indexes.values()) {
+            records += index.shrink(retainedRatio);
+        }
+        long entries = 0;
+        for (Map.Entry<File, CacheStore> store : stores.entrySet()) {
+            if (store.getValue() instanceof MemoryCacheStore) {
+                List<String> keys = ((MemoryCacheStore) store.getValue()).eldestKeys(retainedRatio);
+                evict(store.getKey(), store.getValue(), keys);
+                entries += keys.size();
+            }
+        }
+        shrinkEvents.incrementAndGet();
+        droppedRecords.addAndGet(records);
+        droppedEntries.addAndGet(entries);
+        lastRetainedRatio = retainedRatio;
+        lastShrinkAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Samples the accesses of the cached method calls to find the hottest keys of each method,
+     * in a fixed amount of memory per method. It is disabled by default.
+     *
+     * @param oneIn the sampling rate, 1 to record every access, n to record 1 in n accesses, or
+     *              0 to stop sampling and discard the recorded accesses
+     */
+    public void setHotKeySampling(int oneIn) {
+        if (oneIn < 0) {
+            throw new IllegalArgumentException("oneIn < 0");
+        }
+        hotKeySampling = oneIn;
+        if (oneIn == 0) {
+            hotKeys.clear();
+        }
+    }
+
+    /**
+     * Returns the most accessed keys of a cached method since the sampling was enabled, with
+     * recent accesses weighing more.
+     *
+     * @param proxyCache any ProxyCache object of the method
+     * @return the hot keys, the most accessed first, or an empty list if not sampled
+     */
+    public List<HotKey> getHotKeys(RepositoryProxyCache proxyCache) {
+        HotKeys methodKeys = hotKeys.get(proxyCache.getNamespace());
+        return methodKeys == null
+               ? Collections.<HotKey>emptyList()
+               : methodKeys.snapshot(Math.max(hotKeySampling, 1));
+    }
+
+    /**
+     * Returns the most accessed keys of every sampled method.
+     *
+     * @return the hot keys by method namespace, see {@link RepositoryProxyCache#getNamespace()}
+     */
+    public Map<String, List<HotKey>> getHotKeys() {
+        int scale = Math.max(hotKeySampling, 1);
+        Map<String, List<HotKey>> snapshot = new HashMap<String, List<HotKey>>();
+        for (Map.Entry<String, HotKeys> methodKeys : hotKeys.entrySet()) {
+            snapshot.put(methodKeys.getKey(), methodKeys.getValue().snapshot(scale));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Records an access of the method call, if sampled.
+     */
+    private void sampleAccess(RepositoryProxyCache proxyCache) {
+        int sampling = hotKeySampling;
+        if (sampling == 0
+            || (sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0)) {
+            return;
+        }
+        String namespace = proxyCache.getNamespace();
+        HotKeys methodKeys = hotKeys.get(namespace);
+        if (methodKeys == null) {
+            HotKeys created = new HotKeys();
+            methodKeys = hotKeys.putIfAbsent(namespace, created);
+            if (methodKeys == null) {
+                methodKeys = created;
+            }
+        }
+        methodKeys.add(proxyCache.getCacheKey());
+    }
+
+    /**
+     * Records the latency of every cache operation, split by phase: hashing the key, waiting for
+     * the lock, and looking up, reading, writing or decoding the entry. Enabling it again starts
+     * from scratch. It is disabled by default, and then nothing is measured at all.
+     *
+     * @param enabled true to record the latencies
+     */
+    public void setLatencyTracking(boolean enabled) {
+        latency = enabled ? new LatencyRecorder() : LatencyRecorder.DISABLED;
+    }
+
+    /**
+     * Returns the latencies recorded since the tracking was enabled.
+     *
+     * @return a snapshot of the latencies, empty if the tracking is disabled
+     */
+    public LatencyStats getLatencyStats() {
+        return latency.snapshot();
     }
 
     public static String hashMD5(String str) {
@@ -51,69 +738,385 @@ public final class RepositoryCacheManager {
             for (int i = 0; i < byteData.length; i++) {
                 sb.append(Integer.toString((byteData[i] & 0xff) + 0x100, 16).substring(1));
             }
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns a hash code based on the contents of the given array. If the array contains other
+     * arrays as its elements, the hash code is based on their identities not their contents. So it
+     * is acceptable to invoke this method on an array that contains itself as an element, either
+     * directly or indirectly.
+     * 
+     * For any two arrays {@code a} and {@code b}, if {@code Arrays.equals(a, b)} returns {@code
+     * true}, it means that the return value of {@code Arrays.hashCode(a)} equals {@code
+     * Arrays.hashCode(b)}.
+     * 
+     * The value returned by this method is the same value as the method
+     * Arrays.asList(array).hashCode(). If the array is {@code null}, the return value is 0.
+     *
+     * @param objects the array whose hash code to compute.
+     * @return the hash code for {@code array}.
+     */
+    public static int hashCode(Object... objects) {
+        if (objects == null) {
+            return 0;
+        }
+        int hashCode = 1;
+        for (Object element : objects) {
+            int elementHashCode;
+
+            if (element == null) {
+                elementHashCode = 0;
+            } else {
+                elementHashCode = (element).hashCode();
+            }
+            hashCode = 31 * hashCode + elementHashCode;
+        }
+        return hashCode;
+    }
+
+    /**
+     * Builds an unambiguous cache key from the arguments of a method call, used by the generated
+     * caching decorators to select the cache of each call. Arrays are keyed by their contents.
+     *
+     * @param arguments the arguments of the method call
+     * @return the cache key
+     */
+    public static String cacheKey(Object... arguments) {
+        StringBuilder key = new StringBuilder();
+        for (Object argument : arguments) {
+            String value = argument instanceof Object[]
+                           ? Arrays.deepToString((Object[]) argument)
+                           : argument != null && argument.getClass().isArray()
+                             ? Arrays.deepToString(new Object[]{argument})
+                             : String.valueOf(argument);
+            // Length prefixes keep ("a|b", "c") and ("a", "b|c") apart
+            key.append(value.length()).append(':').append(value).append('|');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Warning: This is an I/O operation and this method is going to be performed in a different
+     * Thread.
+     *
+     * @param proxyCache the ProxyCache object
+     */
+    public void persist(RepositoryProxyCache proxyCache) {
+        persist(proxyCache, (byte[]) null);
+    }
+
+    /**
+     * Warning: This is an I/O operation and this method is going to be performed in a different
+     * Thread.
+     *
+     * @param proxyCache the ProxyCache object
+     * @param content any content to be stored in the cache, or null to only store the method call
+     */
+    public void persist(RepositoryProxyCache proxyCache, String content) {
+        persist(proxyCache, content == null ? null : encode(content));
+    }
+
+    /**
+     * Stores the method call with its own cache time, instead of the one of its annotation.
+     * <p>
+     * Warning: This is an I/O operation and this method is going to be performed in a different
+     * Thread.
+     *
+     * @param proxyCache the ProxyCache object
+     * @param content any content to be stored in the cache, or null to only store the method call
+     * @param cacheTime the cache time of this method call in millis, 0 means unlimited
+     */
+    public void persist(RepositoryProxyCache proxyCache, String content, long cacheTime) {
+        persist(proxyCache, content == null ? null : encode(content), cacheTime);
+    }
+
+    /**
+     * Encodes the value in the calling Thread, then stores it like {@link
+     * #persist(RepositoryProxyCache, String)}.
+     *
+     * @param proxyCache the ProxyCache object
+     * @param value the value to be stored in the cache
+     * @param codec the codec of the value, or null if the proxy has none
+     * @param <T> the type of the value
+     */
+    public <T> void persistValue(RepositoryProxyCache proxyCache, T value, CacheCodec<T> codec) {
+        checkCodec(proxyCache, codec);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            codec.encode(value, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        persist(proxyCache, bytes.toByteArray());
+    }
+
+    /**
+     * Stores that the origin has nothing for the method call, so the following lookups can be
+     * answered without reaching it, until the negative cache time expires. Any content stored for
+     * the method call is removed.
+     * <p>
+     * Warning: This is an I/O operation and this method is going to be performed in a different
+     * Thread.
+     *
+     * @param proxyCache the ProxyCache object
+     */
+    public void persistAbsent(RepositoryProxyCache proxyCache) {
+        long now = System.currentTimeMillis();
+        CacheMetadata metadata = new CacheMetadata(now,
+                                                   expiresAt(now,
+                                                             negativeCacheTime(proxyCache),
+                                                             proxyCache.getJitter()),
+                                                   0,
+                                                   CacheMetadata.FLAG_ABSENT,
+                                                   proxyCache.getNamespace());
+        write(proxyCache, null, metadata, false);
+    }
+
+    /**
+     * Appends to the content of the method call, and renews it, like a feed or a log that grows.
+     * The stores that append in place, see {@link AppendableCacheStore}, only write the appended
+     * content, the others store the whole content again. Readers find either the previous or the
+     * whole new content. A method call without content, absent or expired, is stored with the
+     * given content only.
+     * <p>
+     * Appends, persists and evictions of a method call are applied in the order they are
+     * called.
+     * <p>
+     * Warning: This is an I/O operation and this method is going to be performed in a different
+     * Thread.
+     *
+     * @param proxyCache the ProxyCache object
+     * @param content the content to append
+     */
+    public void append(RepositoryProxyCache proxyCache, String content) {
+        append(proxyCache, content == null ? null : encode(content));
+    }
+
+    /**
+     * Appends raw bytes to the content of the method call, like {@link
+     * #append(RepositoryProxyCache, String)}.
+     * <p>
+     * Warning: This is an I/O operation and this method is going to be performed in a different
+     * Thread.
+     *
+     * @param proxyCache the ProxyCache object
+     * @param content the content to append
+     */
+    public void append(RepositoryProxyCache proxyCache, byte[] content) {
+        if (content == null) {
+            return;
+        }
+        write(proxyCache, content, metadata(proxyCache, proxyCache.getCacheTime()), true);
+    }
+
+    /**
+     * Loads the given keys of a method that are not cached, or expired, and stores them, so
+     * they are ready before the method is called. Up to <code>parallelism</code> keys are loaded
+     * at once, in different Threads, see {@link #setExecutor(Executor)}.
+     *
+     * @param proxyCache any ProxyCache object of the method
+     * @param cacheKeys the keys to warm up, as selected on the proxy of each method call
+     * @param loader the loader of the method calls from the origin
+     * @param parallelism the maximum number of keys loaded at once
+     * @return the progress of the warm up, which completes once every key is processed
+     */
+    public WarmUpProgress warmUp(RepositoryProxyCache proxyCache, Collection<?> cacheKeys,
+                                 CacheLoader loader, int parallelism) {
+        return warmUp(proxyCache, cacheKeys, loader, parallelism, 0);
+    }
+
+    /**
+     * Loads the given keys of a method that are not cached, or expired, and stores them, like
+     * {@link #warmUp(RepositoryProxyCache, Collection, CacheLoader, int)}, loading at most the
+     * given number of keys per second, so the origin is not overloaded.
+     * <p>
+     * Each key is stored with the content returned by the loader, or without content if it
+     * returns null. The keys that fail to load are counted and left as they are.
+     *
+     * @param proxyCache any ProxyCache object of the method
+     * @param cacheKeys the keys to warm up, as selected on the proxy of each method call
+     * @param loader the loader of the method calls from the origin
+     * @param parallelism the maximum number of keys loaded at once
+     * @param maxLoadsPerSecond the maximum number of keys loaded per second, 0 means unlimited
+     * @return the progress of the warm up, which completes once every key is processed
+     */
+    public WarmUpProgress warmUp(RepositoryProxyCache proxyCache, Collection<?> cacheKeys,
+                                 CacheLoader loader, int parallelism, double maxLoadsPerSecond) {
+        if (loader == null) {
+            throw new IllegalArgumentException("loader == null");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism < 1: " + parallelism);
+        }
+        ConcurrentLinkedQueue<String> keys = new ConcurrentLinkedQueue<String>();
+        for (Object cacheKey : cacheKeys) {
+            // As selected on the proxy
+            keys.add(String.valueOf(cacheKey));
+        }
+        int workers = Math.min(parallelism, keys.size());
+        WarmUpProgress progress = new WarmUpProgress(keys.size(), workers);
+        RateLimiter limiter = new RateLimiter(maxLoadsPerSecond);
+        for (int i = 0; i < workers; i++) {
+            execute(new WarmUpWorker(proxyCache, keys, loader, limiter, progress));
+        }
+        return progress;
+    }
+
+    private void persist(RepositoryProxyCache proxyCache, byte[] content) {
+        persist(proxyCache, content, proxyCache.getCacheTime());
+    }
+
+    private void persist(RepositoryProxyCache proxyCache, byte[] content, long cacheTime) {
+        write(proxyCache, content, metadata(proxyCache, cacheTime), false);
+    }
+
+    /**
+     * @return the metadata of a method call stored now with the given cache time
+     */
+    private static CacheMetadata metadata(RepositoryProxyCache proxyCache, long cacheTime) {
+        long now = System.currentTimeMillis();
+        return new CacheMetadata(now,
+                                 expiresAt(now, cacheTime, proxyCache.getJitter()),
+                                 0,
+                                 0,
+                                 proxyCache.getNamespace());
+    }
+
+    /**
+     * Returns the expiration time of an entry stored now. A jitter shortens each cache time by a
+     * random part of it, so entries stored together don't expire together.
+     *
+     * @return the expiration time, or {@link CacheMetadata#NEVER_EXPIRES} if it never expires
+     */
+    private static long expiresAt(long now, long cacheTime, double jitter) {
+        if (cacheTime <= 0) {
+            return CacheMetadata.NEVER_EXPIRES;
+        }
+        if (jitter > 0) {
+            cacheTime -= (long) (cacheTime * Math.min(jitter, 1d) * Math.random());
+        }
+        return now + cacheTime;
+    }
+
+    private void write(RepositoryProxyCache proxyCache, byte[] content, CacheMetadata metadata,
+                       boolean append) {
+        CacheWriter writer = writer(proxyCache, content, metadata, append);
+        execute(proxyCache.getCacheDir(), writer.key, IoScheduler.Priority.WRITE,
+                content == null ? 0 : content.length, writer);
+    }
+
+    private CacheWriter writer(RepositoryProxyCache proxyCache, byte[] content,
+                               CacheMetadata metadata, boolean append) {
+        LatencyRecorder recorder = latency;
+        long start = recorder.start();
+        String fileName = proxyCache.getFileName();
+        recorder.record(LatencyStats.Operation.PERSIST, LatencyStats.Phase.KEY_HASH, start);
+        return new CacheWriter(proxyCache.getCacheDir(),
+                               getStore(proxyCache.getCacheDir()),
+                               getIndex(proxyCache.getCacheDir()),
+                               getQuota(proxyCache),
+                               writeLock(proxyCache.getCacheDir(), fileName),
+                               fileName,
+                               content,
+                               metadata,
+                               append);
+    }
+
+    /**
+     * Appends to the stored content in place if the store can, and otherwise stores the whole
+     * content again. Entries without content, absent or expired, are stored with the appended
+     * content only.
+     */
+    private static void append(CacheStore store, String key, byte[] content,
+                               CacheMetadata metadata) {
+        CacheMetadata stored = store.metadata(key);
+        if (stored != null && !stored.isAbsent()
+            && (stored.getExpiresAt() == 0 || stored.getExpiresAt() > metadata.getCreatedAt())) {
+            if (store instanceof AppendableCacheStore
+                && ((AppendableCacheStore) store).append(key, content, metadata)) {
+                return;
+            }
+            byte[] previous = store.read(key);
+            if (previous != null) {
+                byte[] whole = new byte[previous.length + content.length];
+                System.arraycopy(previous, 0, whole, 0, previous.length);
+                System.arraycopy(content, 0, whole, previous.length, content.length);
+                content = whole;
+            }
         }
-
-        return sb.toString();
+        store.write(key, content, metadata);
     }
 
     /**
-     * Returns a hash code based on the contents of the given array. If the array contains other
-     * arrays as its elements, the hash code is based on their identities not their contents. So it
-     * is acceptable to invoke this method on an array that contains itself as an element, either
-     * directly or indirectly.
-     * 
-     * For any two arrays {@code a} and {@code b}, if {@code Arrays.equals(a, b)} returns {@code
-     * true}, it means that the return value of {@code Arrays.hashCode(a)} equals {@code
-     * Arrays.hashCode(b)}.
-     * 
-     * The value returned by this method is the same value as the method
-     * Arrays.asList(array).hashCode(). If the array is {@code null}, the return value is 0.
+     * Returns the quota of the method in its cache directory, loading in a different Thread the
+     * entries of the method already stored the first time.
      *
-     * @param objects the array whose hash code to compute.
-     * @return the hash code for {@code array}.
+     * @return the quota, or null if the method has none
      */
-    public static int hashCode(Object... objects) {
-        if (objects == null) {
-            return 0;
+    private MethodQuota getQuota(RepositoryProxyCache proxyCache) {
+        if (proxyCache.getMaxEntries() <= 0 && proxyCache.getMaxBytes() <= 0) {
+            return null;
         }
-        int hashCode = 1;
-        for (Object element : objects) {
-            int elementHashCode;
-
-            if (element == null) {
-                elementHashCode = 0;
-            } else {
-                elementHashCode = (element).hashCode();
-            }
-            hashCode = 31 * hashCode + elementHashCode;
+        MethodQuota quota = getIndex(proxyCache.getCacheDir()).quota(proxyCache.getNamespace(),
+                                                                     proxyCache.getMaxEntries(),
+                                                                     proxyCache.getMaxBytes());
+        if (quota.startLoading()) {
+            loadQuota(proxyCache.getCacheDir(), proxyCache.getNamespace(), quota);
         }
-        return hashCode;
+        return quota;
     }
 
     /**
-     * Warning: This is an I/O operation and this method is going to be performed in a different
-     * Thread.
-     *
-     * @param proxyCache the ProxyCache object
+     * Accounts for the entries of a method stored before the quota existed, like those stored
+     * before the process started, and evicts those it has to give up.
      */
-    public void persist(RepositoryProxyCache proxyCache) {
-        persist(proxyCache, proxyCache.getFileName());
+    private void loadQuota(final File cacheDir, final String namespace, final MethodQuota quota) {
+        execute(IoScheduler.Priority.MAINTENANCE, 0, new Runnable() {
+            @Override
+            public void run() {
+                Map<String, Long> stored = new HashMap<String, Long>();
+                CacheEntryIterator entries = entries(cacheDir, EntryFilters.namespace(namespace));
+                try {
+                    while (entries.hasNext()) {
+                        CacheEntry entry = entries.next();
+                        stored.put(entry.getKey(), entry.getMetadata().getSize());
+                    }
+                } catch (RuntimeException e) {
+                    // The quota keeps accounting only for the entries used since
+                    reportError(cacheDir, null, e);
+                    return;
+                } finally {
+                    entries.close();
+                }
+                evictOverQuota(cacheDir, quota, quota.load(stored));
+            }
+        });
     }
 
     /**
-     * Warning: This is an I/O operation and this method is going to be performed in a different
-     * Thread.
-     *
-     * @param proxyCache the ProxyCache object
-     * @param content any content to be stored in the cache
+     * Removes the entries a method has to give up to get back within its quota. Each entry is
+     * removed under its own lock, unless it has been stored again meanwhile.
      */
-    public void persist(RepositoryProxyCache proxyCache, String content) {
-        File cacheFile = buildFile(proxyCache.getCacheDir(),
-                                   proxyCache.getFileName(),
-                                   DEFAULT_FILE_NAME);
-        new Thread(new CacheWriter(fileManager, cacheFile, content)).start();
+    private void evictOverQuota(File cacheDir, MethodQuota quota, List<String> keys) {
+        CacheStore store = getStore(cacheDir);
+        EntryIndex index = getIndex(cacheDir);
+        for (String key : keys) {
+            Lock lock = writeLock(cacheDir, key);
+            lock.lock();
+            try {
+                if (!quota.contains(key)) {
+                    store.remove(key);
+                    index.remove(key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
     }
 
     /**
@@ -123,10 +1126,17 @@ public final class RepositoryCacheManager {
      * @param proxyCache the ProxyCache object
      */
     public void evict(RepositoryProxyCache proxyCache) {
-        File cacheFile = buildFile(proxyCache.getCacheDir(),
-                                   proxyCache.getFileName(),
-                                   DEFAULT_FILE_NAME);
-        new Thread(new CacheClear(fileManager, cacheFile)).start();
+        LatencyRecorder recorder = latency;
+        long start = recorder.start();
+        String fileName = proxyCache.getFileName();
+        recorder.record(LatencyStats.Operation.EVICT, LatencyStats.Phase.KEY_HASH, start);
+        execute(proxyCache.getCacheDir(), fileName, IoScheduler.Priority.MAINTENANCE, 0,
+                new CacheClear(getStore(proxyCache.getCacheDir()),
+                               getIndex(proxyCache.getCacheDir()),
+                               writeLock(proxyCache.getCacheDir(), fileName),
+                               fileName,
+                               recorder));
+        publish(Invalidation.evict(proxyCache.getCacheDir(), fileName));
     }
 
     /**
@@ -136,7 +1146,14 @@ public final class RepositoryCacheManager {
      * @param directory the File directory to clear on disk.
      */
     public static void evictAll(File directory) {
-        new Thread(new CacheClear(new FileManager(), directory)).start();
+        RepositoryCacheManager manager = getInstance();
+        manager.execute(IoScheduler.Priority.MAINTENANCE, 0,
+                        new StoreClear(manager.getStore(directory),
+                                       manager.getIndex(directory),
+                                       manager.locks,
+                                       manager.processLocks.get(directory),
+                                       manager.filters.get(directory)));
+        manager.publish(Invalidation.clear(directory));
     }
 
     /**
@@ -146,14 +1163,30 @@ public final class RepositoryCacheManager {
      * @return true if is cached, false otherwise
      */
     public boolean isCached(RepositoryProxyCache proxyCache) {
-        File cacheFile = buildFile(proxyCache.getCacheDir(),
-                                   proxyCache.getFileName(),
-                                   DEFAULT_FILE_NAME);
-        return isCached(cacheFile);
-    }
-
-    private boolean isCached(File file) {
-        return fileManager.exists(file);
+        LatencyRecorder recorder = latency;
+        long start = recorder.start();
+        sampleAccess(proxyCache);
+        String fileName = proxyCache.getFileName();
+        long mark = recorder.record(LatencyStats.Operation.IS_CACHED,
+                                    LatencyStats.Phase.KEY_HASH,
+                                    start);
+        if (isKnownMiss(proxyCache.getCacheDir(), fileName)) {
+            recorder.record(LatencyStats.Operation.IS_CACHED, LatencyStats.Phase.TOTAL, start);
+            return false;
+        }
+        CacheStore store = getStore(proxyCache.getCacheDir());
+        Lock lock = readLock(proxyCache.getCacheDir(), fileName);
+        lock.lock();
+        try {
+            mark = recorder.record(LatencyStats.Operation.IS_CACHED,
+                                   LatencyStats.Phase.LOCK_WAIT,
+                                   mark);
+            return store.contains(fileName);
+        } finally {
+            lock.unlock();
+            recorder.record(LatencyStats.Operation.IS_CACHED, LatencyStats.Phase.METADATA, mark);
+            recorder.record(LatencyStats.Operation.IS_CACHED, LatencyStats.Phase.TOTAL, start);
+        }
     }
 
     /**
@@ -164,24 +1197,406 @@ public final class RepositoryCacheManager {
      * @return true if expired, or false otherwise.
      */
     public boolean isExpired(RepositoryProxyCache proxyCache) {
-        long methodCacheTime = proxyCache.getCacheTime();
-        boolean unlimitedCache = methodCacheTime <= 0;
-        File cacheFile = buildFile(proxyCache.getCacheDir(),
-                                   proxyCache.getFileName(),
-                                   DEFAULT_FILE_NAME);
-        if (isCached(cacheFile)) {
-            if (unlimitedCache) {
-                return false;
+        LatencyRecorder recorder = latency;
+        long start = recorder.start();
+        try {
+            return readAlive(proxyCache, recorder, LatencyStats.Operation.IS_EXPIRED) == null;
+        } finally {
+            recorder.record(LatencyStats.Operation.IS_EXPIRED, LatencyStats.Phase.TOTAL, start);
+        }
+    }
+
+    /**
+     * Checks whether the method call is known to have nothing in the origin, as stored by {@link
+     * #persistAbsent(RepositoryProxyCache)}. Only the entry metadata is read, never its content.
+     * <p>
+     * Warning: This is an I/O operation and this method must to be performed in a different
+     * Thread.
+     *
+     * @param proxyCache the ProxyCache object
+     * @return true if known to be absent and not expired, false otherwise.
+     */
+    public boolean isKnownAbsent(RepositoryProxyCache proxyCache) {
+        LatencyRecorder recorder = latency;
+        long start = recorder.start();
+        try {
+            CacheMetadata metadata =
+                    readAlive(proxyCache, recorder, LatencyStats.Operation.IS_KNOWN_ABSENT);
+            return metadata != null && metadata.isAbsent();
+        } finally {
+            recorder.record(LatencyStats.Operation.IS_KNOWN_ABSENT,
+                            LatencyStats.Phase.TOTAL,
+                            start);
+        }
+    }
+
+    /**
+     * Reads the metadata of the method call, evicting it when expired.
+     *
+     * @return the metadata, or null if not cached or expired
+     */
+    private CacheMetadata readAlive(RepositoryProxyCache proxyCache, LatencyRecorder recorder,
+                                    LatencyStats.Operation operation) {
+        sampleAccess(proxyCache);
+        long mark = recorder.start();
+        String fileName = proxyCache.getFileName();
+        mark = recorder.record(operation, LatencyStats.Phase.KEY_HASH, mark);
+        if (isKnownMiss(proxyCache.getCacheDir(), fileName)) {
+            return null;
+        }
+        CacheStore store = getStore(proxyCache.getCacheDir());
+        CacheMetadata metadata;
+        IoScheduler io = beginIo(IoScheduler.Priority.FOREGROUND_READ, 0);
+        Lock lock = readLock(proxyCache.getCacheDir(), fileName);
+        lock.lock();
+        try {
+            mark = recorder.record(operation, LatencyStats.Phase.LOCK_WAIT, mark);
+            metadata = store.metadata(fileName);
+        } finally {
+            lock.unlock();
+            endIo(io, IoScheduler.Priority.FOREGROUND_READ);
+        }
+        recorder.record(operation, LatencyStats.Phase.METADATA, mark);
+        if (metadata == null) {
+            return null;
+        }
+        EntryIndex index = getIndex(proxyCache.getCacheDir());
+        EntryIndex.Record record = index.get(fileName, metadata);
+        if (record == null && proxyCache.getExpireAfterAccess() > 0) {
+            // Start tracking the accesses of entries stored by someone else
+            record = index.put(fileName, metadata, metadata);
+        }
+        metadata = withRecord(metadata, record);
+        long now = System.currentTimeMillis();
+        if (isExpired(proxyCache, metadata, record, now)) {
+            evictIfExpired(proxyCache, store, index, fileName);
+            return null;
+        }
+        if (record != null) {
+            record.accessedAt = now;
+            record.expireAfterAccess = proxyCache.getExpireAfterAccess();
+        }
+        MethodQuota quota = getQuota(proxyCache);
+        if (quota != null) {
+            touch(proxyCache.getCacheDir(), quota, fileName, metadata);
+        }
+        if (isRefreshDue(proxyCache, metadata, now)) {
+            refresh(proxyCache, store, fileName);
+        }
+        return metadata;
+    }
+
+    /**
+     * Removes the given entries, each one under its own lock.
+     */
+    private void evict(File cacheDir, CacheStore store, List<String> keys) {
+        EntryIndex index = getIndex(cacheDir);
+        for (String key : keys) {
+            Lock lock = writeLock(cacheDir, key);
+            lock.lock();
+            try {
+                store.remove(key);
+                index.remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Marks the entry as recently used by its method. Once a batch of accesses is full, they are
+     * applied in a different Thread, evicting the entries the method has to give up.
+     */
+    private void touch(final File cacheDir, final MethodQuota quota, String fileName,
+                       CacheMetadata metadata) {
+        if (!quota.touch(fileName, metadata.getSize())) {
+            return;
+        }
+        execute(IoScheduler.Priority.MAINTENANCE, 0, new Runnable() {
+            @Override
+            public void run() {
+                evictOverQuota(cacheDir, quota, quota.applyAccesses());
+            }
+        });
+    }
+
+    /**
+     * Completes the stored metadata with the expiration time kept in memory, for stores that
+     * don't keep it.
+     */
+    private static CacheMetadata withRecord(CacheMetadata metadata, EntryIndex.Record record) {
+        if (record == null || record.expiresAt == 0 || metadata.getExpiresAt() > 0) {
+            return metadata;
+        }
+        return new CacheMetadata(metadata.getCreatedAt(),
+                                 record.expiresAt,
+                                 metadata.getSize(),
+                                 metadata.getFlags(),
+                                 metadata.getNamespace());
+    }
+
+    /**
+     * Checks whether an alive entry is older than the refresh-ahead fraction of its cache time.
+     */
+    private static boolean isRefreshDue(RepositoryProxyCache proxyCache, CacheMetadata metadata,
+                                        long now) {
+        double refreshAhead = proxyCache.getRefreshAhead();
+        if (refreshAhead <= 0 || refreshAhead >= 1 || metadata.isAbsent()) {
+            return false;
+        }
+        long cacheTime = metadata.getExpiresAt() > 0
+                         ? metadata.getExpiresAt() - metadata.getCreatedAt()
+                         : proxyCache.getCacheTime();
+        return cacheTime > 0 && now - metadata.getCreatedAt() >= refreshAhead * cacheTime;
+    }
+
+    /**
+     * Reloads the entry in a different Thread with the loader of its method, at most once at a
+     * time per entry. The current entry is served meanwhile.
+     */
+    private void refresh(RepositoryProxyCache proxyCache, CacheStore store, String fileName) {
+        CacheLoader loader = loaders.get(proxyCache.getNamespace());
+        if (loader == null || !refreshing.add(fileName)) {
+            return;
+        }
+        execute(new CacheRefresh(proxyCache.getCacheDir(),
+                                 store,
+                                 getIndex(proxyCache.getCacheDir()),
+                                 getQuota(proxyCache),
+                                 writeLock(proxyCache.getCacheDir(), fileName),
+                                 fileName,
+                                 proxyCache.getNamespace(),
+                                 proxyCache.getCacheKey(),
+                                 proxyCache.getCacheTime(),
+                                 proxyCache.getJitter(),
+                                 loader));
+    }
+
+    /**
+     * Removes an expired entry in the calling Thread, so a persist that follows can't be undone
+     * by a late eviction. The entry is checked again under the write lock in case another Thread
+     * has just renewed it.
+     */
+    private void evictIfExpired(RepositoryProxyCache proxyCache, CacheStore store,
+                                EntryIndex index, String fileName) {
+        Lock lock = writeLock(proxyCache.getCacheDir(), fileName);
+        lock.lock();
+        try {
+            CacheMetadata metadata = store.metadata(fileName);
+            if (metadata == null) {
+                index.remove(fileName);
+                return;
+            }
+            EntryIndex.Record record = index.get(fileName, metadata);
+            if (isExpired(proxyCache, withRecord(metadata, record), record,
+                          System.currentTimeMillis())) {
+                store.remove(fileName);
+                index.remove(fileName);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks the absolute expiration, and the expiration after the last access if the method
+     * has one.
+     */
+    private static boolean isExpired(RepositoryProxyCache proxyCache, CacheMetadata metadata,
+                                     EntryIndex.Record record, long now) {
+        if (isExpired(proxyCache, metadata, now)) {
+            return true;
+        }
+        long expireAfterAccess = proxyCache.getExpireAfterAccess();
+        if (expireAfterAccess <= 0 || metadata.isAbsent()) {
+            return false;
+        }
+        long accessedAt = record == null
+                          ? metadata.getCreatedAt()
+                          : Math.max(record.accessedAt, metadata.getCreatedAt());
+        return now > accessedAt + expireAfterAccess;
+    }
+
+    private static boolean isExpired(RepositoryProxyCache proxyCache, CacheMetadata metadata,
+                                     long now) {
+        long cacheTime = metadata.isAbsent()
+                         ? negativeCacheTime(proxyCache)
+                         : proxyCache.getCacheTime();
+        return isExpired(metadata, cacheTime, now);
+    }
+
+    /**
+     * Absent entries use the method cache time, unless they have their own.
+     */
+    private static long negativeCacheTime(RepositoryProxyCache proxyCache) {
+        long negativeCacheTime = proxyCache.getNegativeCacheTime();
+        return negativeCacheTime != 0 ? negativeCacheTime : proxyCache.getCacheTime();
+    }
+
+    private static boolean isExpired(CacheMetadata metadata, long methodCacheTime, long now) {
+        if (metadata.getExpiresAt() > 0) {
+            return now > metadata.getExpiresAt();
+        }
+        // Stores that don't keep the expiration time rely on the creation time
+        return methodCacheTime > 0 && now > (metadata.getCreatedAt() + methodCacheTime);
+    }
+
+    /**
+     * Iterates lazily over the entries of a cache directory, reading the metadata of each one
+     * only when it is reached, so any number of entries is processed in constant memory.
+     * <p>
+     * Warning: This is an I/O operation and the iteration must to be performed in a different
+     * Thread. The iterator must be closed if it is not iterated to the end.
+     *
+     * @param cacheDir the cache directory
+     * @return the iterator of the entries, in no particular order
+     */
+    public CacheEntryIterator entries(File cacheDir) {
+        return entries(cacheDir, EntryFilters.ALL);
+    }
+
+    /**
+     * Iterates lazily over the entries of a cache directory accepted by the filter, like the
+     * expired entries or the entries of a method. See {@link EntryFilters}.
+     * <p>
+     * Warning: This is an I/O operation and the iteration must to be performed in a different
+     * Thread. The iterator must be closed if it is not iterated to the end.
+     *
+     * @param cacheDir the cache directory
+     * @param filter the filter of the entries
+     * @return the iterator of the entries, in no particular order
+     */
+    public CacheEntryIterator entries(File cacheDir, EntryFilter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("filter == null");
+        }
+        return new EntryIterator(cacheDir, getStore(cacheDir), filter);
+    }
+
+    /**
+     * Exports the entries of a cache directory, with their content and metadata, to a single
+     * snapshot written sequentially, so a new node can be warmed up by importing it with {@link
+     * #importSnapshot(File, InputStream)}. Entries expired, or idle for longer than the
+     * expiration after the last access of their method, are skipped. Each entry is read under
+     * its read lock, and the stream is left open.
+     * <p>
+     * Warning: This is an I/O operation and this method must to be performed in a different
+     * Thread.
+     *
+     * @param cacheDir the cache directory
+     * @param out the stream to write the snapshot to, like a {@link java.io.FileOutputStream}
+     * @return the number of exported entries
+     * @throws IOException if the snapshot can't be written
+     */
+    public int exportSnapshot(File cacheDir, OutputStream out) throws IOException {
+        CacheStore store = getStore(cacheDir);
+        EntryIndex index = getIndex(cacheDir);
+        CacheSnapshot.Writer writer = new CacheSnapshot.Writer(out, System.currentTimeMillis());
+        int exported = 0;
+        Iterator<String> keys = store.keys();
+        try {
+            while (keys.hasNext()) {
+                String key = keys.next();
+                CacheMetadata metadata;
+                byte[] content;
+                Lock lock = readLock(cacheDir, key);
+                lock.lock();
+                try {
+                    metadata = store.metadata(key);
+                    content = metadata == null || metadata.isAbsent() ? null : store.read(key);
+                } finally {
+                    lock.unlock();
+                }
+                if (metadata == null) {
+                    continue;
+                }
+                EntryIndex.Record record = index.get(key, metadata);
+                metadata = withRecord(metadata, record);
+                if (!writer.isExpired(metadata, record)) {
+                    writer.write(key, metadata, record, content);
+                    exported++;
+                }
+            }
+        } finally {
+            if (keys instanceof Closeable) {
+                ((Closeable) keys).close();
+            }
+        }
+        writer.finish();
+        return exported;
+    }
+
+    /**
+     * Imports the entries of a snapshot made by {@link #exportSnapshot(File, OutputStream)} into
+     * a cache directory, reading it sequentially. The entries keep their times, including their
+     * last access, so they expire when they would have on the exporting node, see {@link
+     * CacheSnapshot}. Entries expired meanwhile are skipped, and so are those stored on this node
+     * at the same time or later.
+     * Each entry is stored under its write lock, and the stream is left open.
+     * <p>
+     * The quotas of the methods are not applied to the imported entries, nor are they published
+     * to the {@link InvalidationBus}, since they are copies of the entries of another node.
+     * <p>
+     * Warning: This is an I/O operation and this method must to be performed in a different
+     * Thread.
+     *
+     * @param cacheDir the cache directory
+     * @param in the stream to read the snapshot from, like a {@link java.io.FileInputStream}
+     * @return the number of imported entries
+     * @throws IOException if the stream is not a snapshot, is truncated, corrupt or can't be read
+     */
+    public int importSnapshot(File cacheDir, InputStream in) throws IOException {
+        CacheStore store = getStore(cacheDir);
+        EntryIndex index = getIndex(cacheDir);
+        long now = System.currentTimeMillis();
+        CacheSnapshot.Reader reader = new CacheSnapshot.Reader(in, now);
+        int imported = 0;
+        CacheSnapshot.Entry entry;
+        while ((entry = reader.next()) != null) {
+            CacheMetadata metadata = entry.metadata;
+            if (entry.isExpired(now)) {
+                continue;
             }
-            long lastModifiedTime = fileManager.getLastModifiedTime(cacheFile);
-            boolean expired = System.currentTimeMillis()
-                              > (lastModifiedTime + methodCacheTime);
-            if (expired) {
-                evict(proxyCache);
+            Lock lock = writeLock(cacheDir, entry.key);
+            lock.lock();
+            try {
+                CacheMetadata local = store.metadata(entry.key);
+                if (local != null && local.getCreatedAt() >= metadata.getCreatedAt()) {
+                    continue;
+                }
+                if (local != null) {
+                    // An entry stored again without content would not be replaced
+                    store.remove(entry.key);
+                }
+                store.write(entry.key, entry.content, metadata);
+                addToFilter(cacheDir, entry.key);
+                EntryIndex.Record record =
+                        index.put(entry.key, metadata, store.metadata(entry.key));
+                record.accessedAt = Math.max(entry.accessedAt, metadata.getCreatedAt());
+                record.expireAfterAccess = entry.expireAfterAccess;
+                imported++;
+            } finally {
+                lock.unlock();
             }
-            return expired;
         }
-        return true;
+        return imported;
+    }
+
+    /**
+     * Warning: This is an I/O operation and this method must to be performed in a different
+     * Thread.
+     *
+     * @param proxyCache the ProxyCache object
+     * @return a copy of the content as it is stored, which the caller may modify, or null if
+     * there is no content.
+     */
+    public byte[] getBytes(RepositoryProxyCache proxyCache) {
+        LatencyRecorder recorder = latency;
+        long start = recorder.start();
+        byte[] content = read(proxyCache, recorder);
+        recorder.record(LatencyStats.Operation.GET_CONTENT, LatencyStats.Phase.TOTAL, start);
+        // Stores in memory return the array they keep
+        return content == null ? null : content.clone();
     }
 
     /**
@@ -189,74 +1604,470 @@ public final class RepositoryCacheManager {
      * Thread.
      *
      * @param proxyCache the ProxyCache object
-     * @return A valid content file.
+     * @return A valid content, or an empty String if there is no content.
      */
     public String getContent(RepositoryProxyCache proxyCache) {
-        File contentFile = buildFile(proxyCache.getCacheDir(),
-                                     proxyCache.getFileName(),
-                                     CONTENT_FILE_NAME);
-        return fileManager.readFileContent(contentFile);
+        LatencyRecorder recorder = latency;
+        long start = recorder.start();
+        byte[] content = read(proxyCache, recorder);
+        long mark = recorder.start();
+        String decoded = content == null ? "" : decode(content);
+        recorder.record(LatencyStats.Operation.GET_CONTENT, LatencyStats.Phase.DECODE, mark);
+        recorder.record(LatencyStats.Operation.GET_CONTENT, LatencyStats.Phase.TOTAL, start);
+        return decoded;
     }
 
     /**
-     * Builds the cached file method into the disk cache.
+     * Warning: This is an I/O operation and this method must to be performed in a different
+     * Thread.
      *
-     * @param file     The Context File
-     * @param fileName The string to store the cache method
-     * @param type     The type of the file [ DEFAULT or CONTENT ]
-     * @return A valid file.
+     * @param proxyCache the ProxyCache object
+     * @param codec the codec of the value, or null if the proxy has none
+     * @param <T> the type of the value
+     * @return the value stored by {@link #persistValue(RepositoryProxyCache, Object, CacheCodec)},
+     * or null if there is none or it can't be decoded
+     */
+    public <T> T getValue(RepositoryProxyCache proxyCache, CacheCodec<T> codec) {
+        checkCodec(proxyCache, codec);
+        LatencyRecorder recorder = latency;
+        long start = recorder.start();
+        byte[] content = read(proxyCache, recorder);
+        if (content == null || content.length == 0) {
+            recorder.record(LatencyStats.Operation.GET_CONTENT, LatencyStats.Phase.TOTAL, start);
+            return null;
+        }
+        long mark = recorder.start();
+        try {
+            return codec.decode(new DataInputStream(new ByteArrayInputStream(content)));
+        } catch (IOException e) {
+            // Content stored by persist(String) or by a previous version of the codec
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            recorder.record(LatencyStats.Operation.GET_CONTENT, LatencyStats.Phase.DECODE, mark);
+            recorder.record(LatencyStats.Operation.GET_CONTENT, LatencyStats.Phase.TOTAL, start);
+        }
+    }
+
+    private byte[] read(RepositoryProxyCache proxyCache, LatencyRecorder recorder) {
+        long mark = recorder.start();
+        String fileName = proxyCache.getFileName();
+        mark = recorder.record(LatencyStats.Operation.GET_CONTENT,
+                               LatencyStats.Phase.KEY_HASH,
+                               mark);
+        if (isKnownMiss(proxyCache.getCacheDir(), fileName)) {
+            return null;
+        }
+        CacheStore store = getStore(proxyCache.getCacheDir());
+        IoScheduler io = beginIo(IoScheduler.Priority.FOREGROUND_READ, 0);
+        Lock lock = readLock(proxyCache.getCacheDir(), fileName);
+        lock.lock();
+        try {
+            mark = recorder.record(LatencyStats.Operation.GET_CONTENT,
+                                   LatencyStats.Phase.LOCK_WAIT,
+                                   mark);
+            return store.read(fileName);
+        } finally {
+            lock.unlock();
+            endIo(io, IoScheduler.Priority.FOREGROUND_READ);
+            recorder.record(LatencyStats.Operation.GET_CONTENT, LatencyStats.Phase.READ, mark);
+        }
+    }
+
+    private static void checkCodec(RepositoryProxyCache proxyCache, CacheCodec<?> codec) {
+        if (codec == null) {
+            throw new UnsupportedOperationException(
+                    "No codec was generated for the return type of " + proxyCache.getClass()
+                                                                                 .getName()
+                    + ", use persist(String) and getContent() instead");
+        }
+    }
+
+    private static byte[] encode(String content) {
+        try {
+            return content.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(byte[] content) {
+        try {
+            return new String(content, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Lazy and thread safe holder of the singleton instance.
      */
-    private File buildFile(File file, String fileName, String type) {
-        //noinspection StringBufferReplaceableByString
-        StringBuilder fileNameBuilder = new StringBuilder();
-        fileNameBuilder.append(file.getPath());
-        fileNameBuilder.append(File.separator);
-        fileNameBuilder.append(type);
-        fileNameBuilder.append(fileName);
+    private static class InstanceHolder {
 
-        return new File(fileNameBuilder.toString());
+        static final RepositoryCacheManager INSTANCE = new RepositoryCacheManager();
     }
 
     /**
-     * {@link Runnable} class for writing to disk.
+     * {@link Runnable} class for writing to the store, or appending to an entry.
      */
-    private static class CacheWriter implements Runnable {
+    private class CacheWriter implements Runnable {
 
-        private final FileManager fileManager;
-        private final File        fileToWrite;
-        private final String      fileContent;
+        private final File          cacheDir;
+        private final CacheStore    store;
+        private final EntryIndex    index;
+        private final MethodQuota   quota;
+        private final Lock          lock;
+        private final String        key;
+        private final byte[]        content;
+        private final CacheMetadata metadata;
+        private final boolean       append;
 
-        CacheWriter(FileManager fileManager, File fileToWrite, String fileContent) {
-            this.fileManager = fileManager;
-            this.fileToWrite = fileToWrite;
-            this.fileContent = fileContent;
+        CacheWriter(File cacheDir, CacheStore store, EntryIndex index, MethodQuota quota,
+                    Lock lock, String key, byte[] content, CacheMetadata metadata,
+                    boolean append) {
+            this.cacheDir = cacheDir;
+            this.store = store;
+            this.index = index;
+            this.quota = quota;
+            this.lock = lock;
+            this.key = key;
+            this.content = content;
+            this.metadata = metadata;
+            this.append = append;
         }
 
         @Override
         public void run() {
-            if (!fileManager.exists(fileToWrite)
-                || !fileManager.contains(fileToWrite, fileContent)) {
-                this.fileManager.writeToFile(fileToWrite, fileContent);
+            LatencyRecorder recorder = latency;
+            long start = recorder.start();
+            List<String> victims = Collections.emptyList();
+            lock.lock();
+            try {
+                long mark = recorder.record(LatencyStats.Operation.PERSIST,
+                                            LatencyStats.Phase.LOCK_WAIT,
+                                            start);
+                if (append) {
+                    append(this.store, key, content, metadata);
+                } else {
+                    this.store.write(key, content, metadata);
+                }
+                addToFilter(cacheDir, key);
+                // Entries persisted again without content are not renewed, nor their record
+                CacheMetadata stored = this.store.metadata(key);
+                recorder.record(LatencyStats.Operation.PERSIST, LatencyStats.Phase.WRITE, mark);
+                if (stored != null
+                    && EntryIndex.isSameEntry(stored.getCreatedAt(), metadata.getCreatedAt())) {
+                    this.index.put(key, metadata, stored);
+                    publish(Invalidation.persist(cacheDir, key));
+                }
+                if (stored != null && quota != null) {
+                    victims = quota.add(key, stored.getSize());
+                }
+            } finally {
+                lock.unlock();
+            }
+            recorder.record(LatencyStats.Operation.PERSIST, LatencyStats.Phase.TOTAL, start);
+            // Other entries are locked one by one, never while holding this one
+            if (!victims.isEmpty()) {
+                evictOverQuota(cacheDir, quota, victims);
+            }
+        }
+    }
+
+    /**
+     * {@link Runnable} class for warming up keys, one after the other, until there are no more
+     * keys or the warm up is cancelled.
+     */
+    private class WarmUpWorker implements Runnable {
+
+        private final RepositoryProxyCache          proxyCache;
+        private final ConcurrentLinkedQueue<String> keys;
+        private final CacheLoader                   loader;
+        private final RateLimiter                   limiter;
+        private final WarmUpProgress                progress;
+
+        WarmUpWorker(RepositoryProxyCache proxyCache, ConcurrentLinkedQueue<String> keys,
+                     CacheLoader loader, RateLimiter limiter, WarmUpProgress progress) {
+            this.proxyCache = proxyCache;
+            this.keys = keys;
+            this.loader = loader;
+            this.limiter = limiter;
+            this.progress = progress;
+        }
+
+        @Override
+        public void run() {
+            InterruptedException interrupted = null;
+            try {
+                String cacheKey;
+                while (!progress.isCancelled() && (cacheKey = keys.poll()) != null) {
+                    RepositoryProxyCache cache =
+                            new SelectedProxyCache(RepositoryCacheManager.this, proxyCache,
+                                                   cacheKey);
+                    if (!isExpired(cache)) {
+                        progress.skipped();
+                        continue;
+                    }
+                    try {
+                        limiter.acquire();
+                        String loaded = loader.load(cacheKey);
+                        byte[] content = loaded == null ? null : encode(loaded);
+                        IoScheduler io = beginIo(IoScheduler.Priority.WRITE,
+                                                 content == null ? 0 : content.length);
+                        try {
+                            writer(cache, content, metadata(cache, cache.getCacheTime()), false)
+                                    .run();
+                        } finally {
+                            endIo(io, IoScheduler.Priority.WRITE);
+                        }
+                        progress.loaded();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        interrupted = e;
+                        progress.failed(cacheKey, e);
+                        return;
+                    } catch (Exception e) {
+                        // The key is left as it is
+                        progress.failed(cacheKey, e);
+                    }
+                }
+            } finally {
+                progress.workerDone(keys, interrupted);
+            }
+        }
+    }
+
+    /**
+     * {@link Runnable} class for reloading an entry with its {@link CacheLoader}.
+     */
+    private class CacheRefresh implements Runnable {
+
+        private final File        cacheDir;
+        private final CacheStore  store;
+        private final EntryIndex  index;
+        private final MethodQuota quota;
+        private final Lock        lock;
+        private final String      key;
+        private final String      namespace;
+        private final String      cacheKey;
+        private final long        cacheTime;
+        private final double      jitter;
+        private final CacheLoader loader;
+
+        CacheRefresh(File cacheDir, CacheStore store, EntryIndex index, MethodQuota quota,
+                     Lock lock, String key, String namespace, String cacheKey, long cacheTime,
+                     double jitter, CacheLoader loader) {
+            this.cacheDir = cacheDir;
+            this.store = store;
+            this.index = index;
+            this.quota = quota;
+            this.lock = lock;
+            this.key = key;
+            this.namespace = namespace;
+            this.cacheKey = cacheKey;
+            this.cacheTime = cacheTime;
+            this.jitter = jitter;
+            this.loader = loader;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String loaded = loader.load(cacheKey);
+                byte[] loadedContent = loaded != null ? encode(loaded) : null;
+                List<String> victims = Collections.emptyList();
+                IoScheduler io = beginIo(IoScheduler.Priority.WRITE,
+                                         loadedContent == null ? 0 : loadedContent.length);
+                lock.lock();
+                try {
+                    // Evicted meanwhile, nothing to refresh
+                    if (store.metadata(key) == null) {
+                        return;
+                    }
+                    // Renewing without new content keeps the current one
+                    byte[] content = loadedContent != null ? loadedContent : store.read(key);
+                    long now = System.currentTimeMillis();
+                    CacheMetadata metadata =
+                            new CacheMetadata(now, expiresAt(now, cacheTime, jitter), 0, 0,
+                                              namespace);
+                    store.remove(key);
+                    store.write(key, content, metadata);
+                    addToFilter(cacheDir, key);
+                    index.put(key, metadata, store.metadata(key));
+                    publish(Invalidation.persist(cacheDir, key));
+                    if (quota != null) {
+                        victims = quota.add(key, content == null ? 0 : content.length);
+                    }
+                } finally {
+                    lock.unlock();
+                    endIo(io, IoScheduler.Priority.WRITE);
+                }
+                if (!victims.isEmpty()) {
+                    evictOverQuota(cacheDir, quota, victims);
+                }
+            } catch (Exception e) {
+                // The entry is left as it is and expires normally
+                reportError(cacheDir, key, e);
+            } finally {
+                refreshing.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Reads the metadata of each key of a store under its read lock, skipping the entries
+     * removed meanwhile and those the filter does not accept.
+     */
+    private class EntryIterator implements CacheEntryIterator {
+
+        private final File             cacheDir;
+        private final CacheStore       store;
+        private final EntryFilter      filter;
+        private final Iterator<String> keys;
+        private       CacheEntry       next;
+
+        EntryIterator(File cacheDir, CacheStore store, EntryFilter filter) {
+            this.cacheDir = cacheDir;
+            this.store = store;
+            this.filter = filter;
+            this.keys = store.keys();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && keys.hasNext()) {
+                String key = keys.next();
+                CacheMetadata metadata;
+                Lock lock = readLock(cacheDir, key);
+                lock.lock();
+                try {
+                    metadata = store.metadata(key);
+                } finally {
+                    lock.unlock();
+                }
+                if (metadata == null) {
+                    continue;
+                }
+                metadata = withRecord(metadata, record(key, metadata));
+                CacheEntry entry = new CacheEntry(key, metadata);
+                if (filter.accept(entry)) {
+                    next = entry;
+                }
+            }
+            return next != null;
+        }
+
+        private EntryIndex.Record record(String key, CacheMetadata metadata) {
+            EntryIndex index = indexes.get(cacheDir);
+            return index == null ? null : index.get(key, metadata);
+        }
+
+        @Override
+        public CacheEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CacheEntry entry = next;
+            next = null;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (keys instanceof Closeable) {
+                try {
+                    ((Closeable) keys).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
     }
 
     /**
-     * {@link Runnable} class for clearing files on disk.
+     * {@link Runnable} class for removing an entry from the store.
      */
     private static class CacheClear implements Runnable {
 
-        private final FileManager fileManager;
-        private final File        fileToClear;
+        private final CacheStore      store;
+        private final EntryIndex      index;
+        private final Lock            lock;
+        private final String          key;
+        private final LatencyRecorder recorder;
+
+        CacheClear(CacheStore store, EntryIndex index, Lock lock, String key,
+                   LatencyRecorder recorder) {
+            this.store = store;
+            this.index = index;
+            this.lock = lock;
+            this.key = key;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public void run() {
+            long start = recorder.start();
+            lock.lock();
+            try {
+                long mark = recorder.record(LatencyStats.Operation.EVICT,
+                                            LatencyStats.Phase.LOCK_WAIT,
+                                            start);
+                this.store.remove(key);
+                this.index.remove(key);
+                recorder.record(LatencyStats.Operation.EVICT, LatencyStats.Phase.WRITE, mark);
+            } finally {
+                lock.unlock();
+            }
+            recorder.record(LatencyStats.Operation.EVICT, LatencyStats.Phase.TOTAL, start);
+        }
+    }
+
+    /**
+     * {@link Runnable} class for clearing a whole store.
+     */
+    private static class StoreClear implements Runnable {
+
+        private final CacheStore  store;
+        private final EntryIndex  index;
+        private final StripedLock locks;
+        private final ProcessLock processLock;
+        private final BloomFilter filter;
 
-        CacheClear(FileManager fileManager, File fileToClear) {
-            this.fileManager = fileManager;
-            this.fileToClear = fileToClear;
+        StoreClear(CacheStore store, EntryIndex index, StripedLock locks,
+                   ProcessLock processLock, BloomFilter filter) {
+            this.store = store;
+            this.index = index;
+            this.locks = locks;
+            this.processLock = processLock;
+            this.filter = filter;
         }
 
         @Override
         public void run() {
-            this.fileManager.clearFile(fileToClear);
+            if (processLock != null) {
+                processLock.lockAll();
+            } else {
+                locks.lockAll();
+            }
+            try {
+                this.store.clear();
+                this.index.clear();
+                if (filter != null) {
+                    filter.clear();
+                }
+            } finally {
+                if (processLock != null) {
+                    processLock.unlockAll();
+                } else {
+                    locks.unlockAll();
+                }
+            }
         }
     }
 }
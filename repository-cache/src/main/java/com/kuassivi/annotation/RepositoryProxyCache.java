@@ -17,6 +17,7 @@
 package com.kuassivi.annotation;
 
 import java.io.File;
+import java.util.Collection;
 
 /**
  * @author Francisco Gonzalez-Armijo
@@ -27,8 +28,21 @@ public interface RepositoryProxyCache {
 
     void persist(String content);
 
+    void persist(String content, long cacheTime);
+
+    void append(String content);
+
+    void append(byte[] content);
+
+    void persistAbsent();
+
     void evict();
 
+    WarmUpProgress warmUp(Collection<?> cacheKeys, CacheLoader loader, int parallelism);
+
+    WarmUpProgress warmUp(Collection<?> cacheKeys, CacheLoader loader, int parallelism,
+                          double maxLoadsPerSecond);
+
     void select(Object cacheKey);
 
     String getContent();
@@ -37,9 +51,27 @@ public interface RepositoryProxyCache {
 
     long getCacheTime();
 
+    long getNegativeCacheTime();
+
+    double getRefreshAhead();
+
+    long getExpireAfterAccess();
+
+    double getJitter();
+
+    int getMaxEntries();
+
+    long getMaxBytes();
+
+    String getNamespace();
+
+    String getCacheKey();
+
     String getFileName();
 
     boolean isCached();
 
     boolean isExpired();
+
+    boolean isKnownAbsent();
 }
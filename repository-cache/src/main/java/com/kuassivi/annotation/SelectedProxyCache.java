@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * {@link RepositoryProxyCache} of a given call of a method, which has the settings of another
+ * ProxyCache object of the method and its own key, so the calls of a method can be handled
+ * from several Threads at once, without selecting them on a shared proxy.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class SelectedProxyCache implements RepositoryProxyCache {
+
+    private final RepositoryCacheManager repositoryCacheManager;
+    private final RepositoryProxyCache   method;
+    private final String                 cacheKey;
+
+    /**
+     * @param repositoryCacheManager the manager of the method
+     * @param method any ProxyCache object of the method
+     * @param cacheKey the key of the method call
+     */
+    SelectedProxyCache(RepositoryCacheManager repositoryCacheManager, RepositoryProxyCache method,
+                       String cacheKey) {
+        this.repositoryCacheManager = repositoryCacheManager;
+        this.method = method;
+        this.cacheKey = cacheKey;
+    }
+
+    @Override
+    public void persist() {
+        repositoryCacheManager.persist(this);
+    }
+
+    @Override
+    public void persist(String content) {
+        repositoryCacheManager.persist(this, content);
+    }
+
+    @Override
+    public void persist(String content, long cacheTime) {
+        repositoryCacheManager.persist(this, content, cacheTime);
+    }
+
+    @Override
+    public void append(String content) {
+        repositoryCacheManager.append(this, content);
+    }
+
+    @Override
+    public void append(byte[] content) {
+        repositoryCacheManager.append(this, content);
+    }
+
+    @Override
+    public void persistAbsent() {
+        repositoryCacheManager.persistAbsent(this);
+    }
+
+    @Override
+    public void evict() {
+        repositoryCacheManager.evict(this);
+    }
+
+    @Override
+    public WarmUpProgress warmUp(Collection<?> cacheKeys, CacheLoader loader, int parallelism) {
+        return repositoryCacheManager.warmUp(this, cacheKeys, loader, parallelism);
+    }
+
+    @Override
+    public WarmUpProgress warmUp(Collection<?> cacheKeys, CacheLoader loader, int parallelism,
+                                 double maxLoadsPerSecond) {
+        return repositoryCacheManager.warmUp(this, cacheKeys, loader, parallelism,
+                                             maxLoadsPerSecond);
+    }
+
+    /**
+     * The key of the call can't be changed
+     */
+    @Override
+    public void select(Object cacheKey) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getContent() {
+        return repositoryCacheManager.getContent(this);
+    }
+
+    @Override
+    public File getCacheDir() {
+        return method.getCacheDir();
+    }
+
+    @Override
+    public long getCacheTime() {
+        return method.getCacheTime();
+    }
+
+    @Override
+    public long getNegativeCacheTime() {
+        return method.getNegativeCacheTime();
+    }
+
+    @Override
+    public double getRefreshAhead() {
+        return method.getRefreshAhead();
+    }
+
+    @Override
+    public long getExpireAfterAccess() {
+        return method.getExpireAfterAccess();
+    }
+
+    @Override
+    public double getJitter() {
+        return method.getJitter();
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return method.getMaxEntries();
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return method.getMaxBytes();
+    }
+
+    @Override
+    public String getNamespace() {
+        return method.getNamespace();
+    }
+
+    @Override
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    /**
+     * Named like the calls of the generated proxies
+     */
+    @Override
+    public String getFileName() {
+        return RepositoryCacheManager.hashMD5(method.getNamespace() + cacheKey);
+    }
+
+    @Override
+    public boolean isCached() {
+        return repositoryCacheManager.isCached(this);
+    }
+
+    @Override
+    public boolean isExpired() {
+        return repositoryCacheManager.isExpired(this);
+    }
+
+    @Override
+    public boolean isKnownAbsent() {
+        return repositoryCacheManager.isKnownAbsent(this);
+    }
+}
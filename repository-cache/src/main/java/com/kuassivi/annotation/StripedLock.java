@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Fixed set of {@link ReadWriteLock}s indexed by the hash of a cache entry key.
+ * <p>
+ * Operations on the same key always map to the same stripe, so readers of a key can run in
+ * parallel but never overlap with a writer or a deletion of that key, while keys that fall on
+ * different stripes never contend.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class StripedLock {
+
+    private final ReentrantReadWriteLock[] locks;
+    private final int                      mask;
+
+    /**
+     * @param stripes the number of stripes, rounded up to the next power of two
+     */
+    StripedLock(int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.locks = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            this.locks[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the lock guarding the given key.
+     *
+     * @param key the cache entry key
+     * @return the stripe lock
+     */
+    ReadWriteLock get(Object key) {
+        return locks[index(key)];
+    }
+
+    /**
+     * Returns the stripe index of the given key.
+     *
+     * @param key the cache entry key
+     * @return the stripe index
+     */
+    int index(Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & mask;
+    }
+
+    /**
+     * Returns the number of stripes.
+     *
+     * @return the number of stripes
+     */
+    int size() {
+        return locks.length;
+    }
+
+    /**
+     * Acquires every write lock, always in the same order to avoid deadlocks between callers.
+     */
+    void lockAll() {
+        for (ReentrantReadWriteLock lock : locks) {
+            lock.writeLock().lock();
+        }
+    }
+
+    /**
+     * Releases every write lock acquired with {@link #lockAll()}.
+     */
+    void unlockAll() {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].writeLock().unlock();
+        }
+    }
+}
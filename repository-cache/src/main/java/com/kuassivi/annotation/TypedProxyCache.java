@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+/**
+ * {@link RepositoryProxyCache} that also stores the values returned by the cached method, using
+ * the binary {@link CacheCodec} generated for its return type.
+ *
+ * @param <T> the return type of the cached method
+ * @author Francisco Gonzalez-Armijo
+ */
+public interface TypedProxyCache<T> extends RepositoryProxyCache {
+
+    /**
+     * Stores a method call in the cache with the provided value.
+     *
+     * @param value the value to store
+     * @throws UnsupportedOperationException if no codec could be generated for the return type
+     */
+    void persistValue(T value);
+
+    /**
+     * Retrieves the value stored by {@link #persistValue(Object)}.
+     *
+     * @return the stored value, or null if there is none
+     * @throws UnsupportedOperationException if no codec could be generated for the return type
+     */
+    T getValue();
+}
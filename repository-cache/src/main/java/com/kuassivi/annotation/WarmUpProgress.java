@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a warm up started with {@link RepositoryCacheManager#warmUp(RepositoryProxyCache,
+ * java.util.Collection, CacheLoader, int, double)}: how many keys have been loaded, skipped
+ * because they were already cached, or failed to load so far, with the errors of the first
+ * failed keys.
+ * <p>
+ * It is the {@link Future} of the warm up, completed with itself once every key has been
+ * processed, so {@link #get()} waits for the final counts.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+public final class WarmUpProgress implements Future<WarmUpProgress> {
+
+    /**
+     * Failed keys whose error is kept
+     */
+    private static final int MAX_FAILURES = 16;
+
+    private final int                    total;
+    private final AtomicInteger          loaded   = new AtomicInteger();
+    private final AtomicInteger          skipped  = new AtomicInteger();
+    private final AtomicInteger          failed   = new AtomicInteger();
+    private final Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+    private final AtomicInteger          workers;
+    private final CountDownLatch         done     = new CountDownLatch(1);
+    private volatile boolean             cancelled;
+
+    WarmUpProgress(int total, int workers) {
+        this.total = total;
+        this.workers = new AtomicInteger(workers);
+        if (workers == 0) {
+            done.countDown();
+        }
+    }
+
+    /**
+     * @return the number of keys to warm up
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the number of keys loaded from the origin and stored
+     */
+    public int getLoaded() {
+        return loaded.get();
+    }
+
+    /**
+     * @return the number of keys that were already cached and alive
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of keys that could not be loaded
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the errors of the first failed keys, up to 16, in the order
+     * they failed. Keys are also failed when every worker has been interrupted before loading
+     * them.
+     *
+     * @return the errors by failed key
+     */
+    public Map<String, Exception> getFailures() {
+        synchronized (failures) {
+            return Collections.unmodifiableMap(new LinkedHashMap<String, Exception>(failures));
+        }
+    }
+
+    /**
+     * Stops loading keys. The loads in progress are still completed and counted, in the
+     * background.
+     *
+     * @param mayInterruptIfRunning ignored, loads in progress are never interrupted
+     * @return false if the warm up had already completed, true otherwise
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone()) {
+            return false;
+        }
+        cancelled = true;
+        done.countDown();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public WarmUpProgress get() throws InterruptedException {
+        done.await();
+        return result();
+    }
+
+    @Override
+    public WarmUpProgress get(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private WarmUpProgress result() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        return this;
+    }
+
+    void loaded() {
+        loaded.incrementAndGet();
+    }
+
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    void failed(String key, Exception error) {
+        failed.incrementAndGet();
+        synchronized (failures) {
+            if (failures.size() < MAX_FAILURES) {
+                failures.put(key, error);
+            }
+        }
+    }
+
+    /**
+     * Called by each worker once it has no more keys to process. Keys are only left when the
+     * last worker has been interrupted, and they fail with its interruption.
+     *
+     * @param keys the keys to process
+     * @param interruption the interruption of the worker, or null if it was not interrupted
+     */
+    void workerDone(Queue<String> keys, InterruptedException interruption) {
+        if (workers.decrementAndGet() == 0) {
+            if (interruption != null && !cancelled) {
+                String key;
+                while ((key = keys.poll()) != null) {
+                    failed(key, interruption);
+                }
+            }
+            done.countDown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WarmUpProgress{total=" + total
+               + ", loaded=" + loaded
+               + ", skipped=" + skipped
+               + ", failed=" + failed
+               + (cancelled ? ", cancelled" : "")
+               + '}';
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Pending writes of each cache entry, so the writes of an entry are applied one after the other
+ * in the order they were submitted, while the writes of different entries run in parallel.
+ * <p>
+ * The submitter of the first write of an entry with nothing pending drains the writes of that
+ * entry, until none is left.
+ *
+ * @author Francisco Gonzalez-Armijo
+ */
+final class WriteQueue {
+
+    /**
+     * Guarded by this
+     */
+    private final HashMap<String, ArrayDeque<Runnable>> pending =
+            new HashMap<String, ArrayDeque<Runnable>>();
+
+    /**
+     * Queues a write of an entry.
+     *
+     * @param key the key of the entry in every cache directory
+     * @param write the write
+     * @return true if nothing was pending for the entry, and the caller must drain it
+     */
+    synchronized boolean add(String key, Runnable write) {
+        ArrayDeque<Runnable> writes = pending.get(key);
+        if (writes != null) {
+            writes.add(write);
+            return false;
+        }
+        writes = new ArrayDeque<Runnable>();
+        writes.add(write);
+        pending.put(key, writes);
+        return true;
+    }
+
+    /**
+     * Takes the next write of an entry, once the previous one is done.
+     *
+     * @param key the key of the entry in every cache directory
+     * @return the next write, or null if none is left and the entry is drained
+     */
+    synchronized Runnable next(String key) {
+        ArrayDeque<Runnable> writes = pending.get(key);
+        Runnable write = writes.peek();
+        if (write == null) {
+            pending.remove(key);
+        }
+        return write;
+    }
+
+    /**
+     * Removes the write done, so the following one becomes the next one.
+     *
+     * @param key the key of the entry in every cache directory
+     */
+    synchronized void done(String key) {
+        pending.get(key).poll();
+    }
+}
@@ -0,0 +1,164 @@
+package com.kuassivi.annotation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.kuassivi.annotation.Await.awaitCached;
+import static com.kuassivi.annotation.Await.awaitTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the filter that answers the lookups of keys that were never stored.
+ */
+public class BloomFilterTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void filter_neverMissesAStoredKeyAndKeepsItsFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(RepositoryCacheManager.hashMD5("stored " + i));
+        }
+        assertTrue(filter.mightContain("not ready yet"));
+        filter.markReady();
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(RepositoryCacheManager.hashMD5("stored " + i)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain(RepositoryCacheManager.hashMD5("missing " + i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2000);
+        assertFalse(filter.isSaturated());
+
+        filter.clear();
+        assertFalse(filter.mightContain(RepositoryCacheManager.hashMD5("stored 0")));
+    }
+
+    @Test
+    public void filter_countsRewrittenKeysOnce() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(RepositoryCacheManager.hashMD5("stored " + (i % 50)));
+        }
+
+        assertTrue(filter.getKeyCount() <= 50);
+        assertFalse(filter.isSaturated());
+    }
+
+    @Test
+    public void manager_answersMissesWithoutTouchingTheStore()
+            throws IOException, InterruptedException {
+        File cacheDir = temporaryFolder.newFolder();
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        CountingStore store = new CountingStore();
+        manager.setStore(cacheDir, store);
+        try {
+            FakeProxyCache before = new FakeProxyCache(cacheDir, "Fake_getBloom", 0);
+            before.select("before");
+            store.write(before.getFileName(), "before".getBytes(),
+                        new CacheMetadata(System.currentTimeMillis(), 0, 0));
+
+            manager.setAbsenceFilter(cacheDir, 1000, 0.001);
+            awaitReady(manager, store, cacheDir);
+
+            FakeProxyCache missing = new FakeProxyCache(cacheDir, "Fake_getBloom", 0);
+            int lookups = store.lookups.get();
+            for (int i = 0; i < 100; i++) {
+                missing.select("missing " + i);
+                assertFalse(missing.isCached());
+                assertTrue(missing.isExpired());
+                assertEquals("", missing.getContent());
+            }
+            assertTrue(store.lookups.get() - lookups < 10);
+
+            // Entries stored before and after the filter is built are still found
+            assertTrue(before.isCached());
+            FakeProxyCache after = new FakeProxyCache(cacheDir, "Fake_getBloom", 0);
+            after.select("after");
+            after.persist("after");
+            awaitCached(after);
+            assertEquals("after", after.getContent());
+        } finally {
+            manager.setAbsenceFilter(cacheDir, 0, 0);
+            manager.setStore(cacheDir, new MemoryCacheStore());
+        }
+    }
+
+    private static void awaitReady(final RepositoryCacheManager manager,
+                                   final CountingStore store, File cacheDir)
+            throws InterruptedException {
+        // Lookups of missing keys stop reaching the store once the filter is built
+        final FakeProxyCache probe = new FakeProxyCache(cacheDir, "Fake_getProbe", 0);
+        final AtomicInteger probes = new AtomicInteger();
+        awaitTrue("The absence filter was not built", new Await.Condition() {
+            @Override
+            public boolean isTrue() {
+                probe.select("probe " + probes.getAndIncrement());
+                int lookups = store.lookups.get();
+                manager.isCached(probe);
+                return store.lookups.get() == lookups;
+            }
+        });
+    }
+
+    /**
+     * Memory store that counts the lookups that reach it.
+     */
+    private static class CountingStore implements CacheStore {
+
+        private final MemoryCacheStore delegate = new MemoryCacheStore();
+        private final AtomicInteger    lookups  = new AtomicInteger();
+
+        @Override
+        public boolean contains(String key) {
+            lookups.incrementAndGet();
+            return delegate.contains(key);
+        }
+
+        @Override
+        public byte[] read(String key) {
+            lookups.incrementAndGet();
+            return delegate.read(key);
+        }
+
+        @Override
+        public void write(String key, byte[] content, CacheMetadata metadata) {
+            delegate.write(key, content, metadata);
+        }
+
+        @Override
+        public void remove(String key) {
+            delegate.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            delegate.clear();
+        }
+
+        @Override
+        public CacheMetadata metadata(String key) {
+            lookups.incrementAndGet();
+            return delegate.metadata(key);
+        }
+
+        @Override
+        public Iterator<String> keys() {
+            return delegate.keys();
+        }
+    }
+}
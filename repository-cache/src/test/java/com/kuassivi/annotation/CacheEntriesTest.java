@@ -0,0 +1,129 @@
+package com.kuassivi.annotation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.kuassivi.annotation.Await.awaitCached;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the lazy iteration over the entries of a cache directory.
+ */
+public class CacheEntriesTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File                   cacheDir;
+    private RepositoryCacheManager manager;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = temporaryFolder.newFolder();
+        manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new FileCacheStore(cacheDir));
+    }
+
+    @After
+    public void tearDown() {
+        manager.setStore(cacheDir, new MemoryCacheStore());
+    }
+
+    @Test
+    public void entries_areFilteredByMethodExpirationAndAge() throws InterruptedException {
+        FakeProxyCache users = new FakeProxyCache(cacheDir, "Fake_getUser", 60000);
+        FakeProxyCache feeds = new FakeProxyCache(cacheDir, "Fake_getFeed", 60000);
+        for (int i = 0; i < 5; i++) {
+            users.select(i);
+            users.persist("user " + i);
+            awaitCached(users);
+        }
+        feeds.select("expired");
+        feeds.persist("old feed", 1);
+        awaitCached(feeds);
+        Thread.sleep(10);
+
+        assertEquals(6, count(manager.entries(cacheDir)));
+        assertEquals(5, count(manager.entries(cacheDir, EntryFilters.method(users))));
+        assertEquals(1, count(manager.entries(cacheDir, EntryFilters.expired())));
+        assertEquals(0, count(manager.entries(cacheDir, EntryFilters.olderThan(60000))));
+        assertEquals(1, count(manager.entries(cacheDir, EntryFilters.and(
+                EntryFilters.expired(), EntryFilters.namespace("Fake_getFeed")))));
+
+        Set<String> keys = new HashSet<String>();
+        CacheEntryIterator entries = manager.entries(cacheDir, EntryFilters.method(users));
+        while (entries.hasNext()) {
+            CacheEntry entry = entries.next();
+            assertEquals("Fake_getUser", entry.getNamespace());
+            assertEquals("user 0".length(), entry.getMetadata().getSize());
+            keys.add(entry.getKey());
+        }
+        users.select(3);
+        assertTrue(keys.contains(users.getFileName()));
+    }
+
+    @Test
+    public void entries_ofAnOffHeapStoreKeepTheirNamespace() throws InterruptedException {
+        manager.setStore(cacheDir, new OffHeapCacheStore(1024 * 1024, 64 * 1024));
+        FakeProxyCache users = new FakeProxyCache(cacheDir, "Fake_getUser", 60000);
+        FakeProxyCache feeds = new FakeProxyCache(cacheDir, "Fake_getFeed", 60000);
+        for (int i = 0; i < 3; i++) {
+            users.select(i);
+            users.persist("user " + i);
+            awaitCached(users);
+        }
+        feeds.select("latest");
+        feeds.persist("feed");
+        awaitCached(feeds);
+
+        assertEquals(4, count(manager.entries(cacheDir)));
+        assertEquals(3, count(manager.entries(cacheDir, EntryFilters.namespace("Fake_getUser"))));
+        CacheEntryIterator entries = manager.entries(cacheDir,
+                                                     EntryFilters.namespace("Fake_getFeed"));
+        assertTrue(entries.hasNext());
+        CacheEntry entry = entries.next();
+        assertEquals("Fake_getFeed", entry.getNamespace());
+        assertEquals("feed".length(), entry.getMetadata().getSize());
+        assertFalse(entries.hasNext());
+    }
+
+    @Test
+    public void entries_skipTheEntriesRemovedMeanwhileAndCanBeClosedEarly() {
+        FileCacheStore store = new FileCacheStore(cacheDir);
+        for (int i = 0; i < 10; i++) {
+            store.write("key" + i, new byte[]{1}, new CacheMetadata(1000L, 0, 0));
+        }
+
+        CacheEntryIterator entries = manager.entries(cacheDir);
+        assertTrue(entries.hasNext());
+        String first = entries.next().getKey();
+        for (int i = 0; i < 10; i++) {
+            if (!first.equals("key" + i)) {
+                store.remove("key" + i);
+            }
+        }
+        assertFalse(entries.hasNext());
+
+        CacheEntryIterator closed = manager.entries(cacheDir);
+        closed.close();
+    }
+
+    private static int count(CacheEntryIterator entries) {
+        int count = 0;
+        while (entries.hasNext()) {
+            entries.next();
+            count++;
+        }
+        return count;
+    }
+}
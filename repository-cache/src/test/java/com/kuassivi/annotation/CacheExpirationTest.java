@@ -0,0 +1,288 @@
+package com.kuassivi.annotation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.kuassivi.annotation.Await.awaitTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how the {@link RepositoryCacheManager} expires, refreshes and evicts entries.
+ */
+public class CacheExpirationTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File                   cacheDir;
+    private RepositoryCacheManager manager;
+    private MemoryCacheStore       store;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = temporaryFolder.newFolder();
+        manager = RepositoryCacheManager.getInstance();
+        store = new MemoryCacheStore();
+        manager.setStore(cacheDir, store);
+    }
+
+    @After
+    public void tearDown() {
+        manager.setStore(cacheDir, new MemoryCacheStore());
+    }
+
+    @Test
+    public void refreshAhead_reloadsOldEntriesInTheBackground() throws InterruptedException {
+        final FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getFoo", 1000, 0, 0.5);
+        cache.select(7);
+        final AtomicInteger loads = new AtomicInteger();
+        manager.setLoader(cache, new CacheLoader() {
+            @Override
+            public String load(String cacheKey) throws Exception {
+                loads.incrementAndGet();
+                return "fresh " + cacheKey;
+            }
+        });
+        long now = System.currentTimeMillis();
+        store.write(cache.getFileName(), "old".getBytes(),
+                    new CacheMetadata(now - 600, now + 400, 0));
+
+        // The current content is served while the entry is refreshed
+        assertFalse(cache.isExpired());
+        assertFalse(cache.isExpired());
+        awaitTrue("The entry was not refreshed", new Await.Condition() {
+            @Override
+            public boolean isTrue() {
+                return "fresh 7".equals(cache.getContent());
+            }
+        });
+
+        assertTrue(store.metadata(cache.getFileName()).getCreatedAt() >= now);
+        assertEquals(1, loads.get());
+        manager.setLoader(cache, null);
+    }
+
+    @Test
+    public void refreshAhead_leavesYoungEntries() throws InterruptedException {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getBar", 60000, 0, 0.8);
+        final AtomicInteger loads = new AtomicInteger();
+        manager.setLoader(cache, new CacheLoader() {
+            @Override
+            public String load(String cacheKey) throws Exception {
+                loads.incrementAndGet();
+                return "fresh";
+            }
+        });
+        long now = System.currentTimeMillis();
+        store.write(cache.getFileName(), "young".getBytes(),
+                    new CacheMetadata(now, now + 60000, 0));
+
+        assertFalse(cache.isExpired());
+        Thread.sleep(50);
+        assertEquals("young", cache.getContent());
+        assertEquals(0, loads.get());
+        manager.setLoader(cache, null);
+    }
+
+    @Test
+    public void expireAfterAccess_keepsUsedEntriesAlive() throws InterruptedException {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getIdle", 0, 0, 0, 150, 0);
+        store.write(cache.getFileName(), "idle".getBytes(),
+                    new CacheMetadata(System.currentTimeMillis(), 0, 0));
+
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(50);
+            assertFalse(cache.isExpired());
+        }
+
+        Thread.sleep(250);
+        assertTrue(cache.isExpired());
+        assertFalse(cache.isCached());
+    }
+
+    @Test
+    public void jitter_spreadsTheExpirationTimes() throws InterruptedException {
+        Set<Long> cacheTimes = new HashSet<Long>();
+        for (int i = 0; i < 20; i++) {
+            FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getJitter", 100000, 0, 0,
+                                                      0, 0.5);
+            cache.select(i);
+            cache.persist();
+            CacheMetadata metadata = awaitMetadata(cache);
+            long cacheTime = metadata.getExpiresAt() - metadata.getCreatedAt();
+            assertTrue(cacheTime > 50000 && cacheTime <= 100000);
+            cacheTimes.add(cacheTime);
+        }
+        assertTrue(cacheTimes.size() > 1);
+    }
+
+    @Test
+    public void persistWithCacheTime_overridesTheMethodCacheTime() throws InterruptedException {
+        // The file store does not keep the expiration time, the manager remembers it
+        manager.setStore(cacheDir, new FileCacheStore(cacheDir));
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getShort", 60000);
+        cache.persist("short", 50);
+        awaitMetadata(cache);
+        assertFalse(cache.isExpired());
+
+        Thread.sleep(100);
+        assertTrue(cache.isExpired());
+    }
+
+    @Test
+    public void persistWithUnlimitedCacheTime_neverExpires() throws InterruptedException {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getForever", 100);
+        cache.persist("forever", 0);
+        CacheMetadata metadata = awaitMetadata(cache);
+        assertEquals(CacheMetadata.NEVER_EXPIRES, metadata.getExpiresAt());
+
+        Thread.sleep(300);
+        assertFalse(cache.isExpired());
+        assertEquals("forever", cache.getContent());
+    }
+
+    @Test
+    public void persistWithUnlimitedCacheTime_neverExpiresOnStoresWithoutExpiration()
+            throws InterruptedException {
+        // The store forgets the expiration time, the manager remembers it
+        manager.setStore(cacheDir, new MemoryCacheStore() {
+            @Override
+            public void write(String key, byte[] content, CacheMetadata metadata) {
+                super.write(key, content, new CacheMetadata(metadata.getCreatedAt(),
+                                                            0,
+                                                            metadata.getSize(),
+                                                            metadata.getFlags(),
+                                                            metadata.getNamespace()));
+            }
+        });
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getForever", 100);
+        cache.persist("forever", 0);
+        awaitMetadata(cache);
+
+        Thread.sleep(300);
+        assertFalse(cache.isExpired());
+        assertEquals("forever", cache.getContent());
+    }
+
+    @Test
+    public void maxEntries_evictsTheLeastRecentlyUsedCallsOfTheMethodOnly()
+            throws InterruptedException {
+        FakeProxyCache other = new FakeProxyCache(cacheDir, "Fake_getOther", 0);
+        other.select("other");
+        other.persist("other");
+        awaitMetadata(other);
+
+        FakeProxyCache[] calls = new FakeProxyCache[4];
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new FakeProxyCache(cacheDir, "Fake_getSearch", 0, 0, 0, 0, 0, 3, 0);
+            calls[i].select("query " + i);
+        }
+        for (int i = 0; i < 3; i++) {
+            calls[i].persist("result " + i);
+            awaitMetadata(calls[i]);
+        }
+        // The first call is used again, so the second one is the least recently used
+        assertFalse(calls[0].isExpired());
+        calls[3].persist("result 3");
+        awaitMetadata(calls[3]);
+        awaitEviction(calls[1]);
+
+        assertTrue(calls[0].isCached());
+        assertFalse(calls[1].isCached());
+        assertTrue(calls[2].isCached());
+        assertTrue(calls[3].isCached());
+        assertTrue(other.isCached());
+    }
+
+    @Test
+    public void maxBytes_evictsCallsUntilTheContentFits() throws InterruptedException {
+        FakeProxyCache[] calls = new FakeProxyCache[3];
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new FakeProxyCache(cacheDir, "Fake_getLarge", 0, 0, 0, 0, 0, 0, 10);
+            calls[i].select(i);
+            calls[i].persist("12345");
+            awaitMetadata(calls[i]);
+        }
+        awaitEviction(calls[0]);
+
+        assertFalse(calls[0].isCached());
+        assertTrue(calls[1].isCached());
+        assertTrue(calls[2].isCached());
+
+        // A call that can't fit alone is not kept either
+        FakeProxyCache huge = new FakeProxyCache(cacheDir, "Fake_getLarge", 0, 0, 0, 0, 0, 0, 10);
+        huge.select("huge");
+        huge.persist("12345678901");
+        awaitEviction(huge);
+        assertFalse(huge.isCached());
+        assertTrue(calls[2].isCached());
+    }
+
+    @Test
+    public void maxEntries_accountsForTheCallsStoredBeforeTheQuota() throws InterruptedException {
+        // Stored as by a previous process, which the new quota doesn't know about
+        final FakeProxyCache[] stored = new FakeProxyCache[3];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = new FakeProxyCache(cacheDir, "Fake_getStored", 0);
+            stored[i].select(i);
+            stored[i].persist("result " + i);
+            awaitMetadata(stored[i]);
+        }
+
+        FakeProxyCache call = new FakeProxyCache(cacheDir, "Fake_getStored", 0, 0, 0, 0, 0, 2, 0);
+        call.select("new");
+        call.persist("result");
+        awaitMetadata(call);
+        awaitTrue("The stored calls were not evicted", new Await.Condition() {
+            @Override
+            public boolean isTrue() {
+                return countCached(stored) == 1;
+            }
+        });
+        assertTrue(call.isCached());
+    }
+
+    private static int countCached(RepositoryProxyCache[] calls) {
+        int count = 0;
+        for (RepositoryProxyCache call : calls) {
+            if (call.isCached()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void awaitEviction(final RepositoryProxyCache cache) throws InterruptedException {
+        // Gives a call just persisted the time to be stored first
+        Thread.sleep(20);
+        awaitTrue("The call " + cache.getCacheKey() + " was not evicted", new Await.Condition() {
+            @Override
+            public boolean isTrue() {
+                return !cache.isCached();
+            }
+        });
+    }
+
+    private CacheMetadata awaitMetadata(final RepositoryProxyCache cache)
+            throws InterruptedException {
+        final CacheStore cacheStore = manager.getStore(cacheDir);
+        awaitTrue("The call " + cache.getCacheKey() + " was not stored", new Await.Condition() {
+            @Override
+            public boolean isTrue() {
+                return cacheStore.metadata(cache.getFileName()) != null;
+            }
+        });
+        return cacheStore.metadata(cache.getFileName());
+    }
+}
@@ -0,0 +1,196 @@
+package com.kuassivi.annotation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.kuassivi.annotation.Await.awaitTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks how the {@link RepositoryCacheManager} exports and imports snapshots of a cache
+ * directory.
+ */
+public class CacheSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private RepositoryCacheManager manager;
+    private File                   sourceDir;
+    private File                   targetDir;
+
+    @Before
+    public void setUp() throws IOException {
+        manager = RepositoryCacheManager.getInstance();
+        sourceDir = temporaryFolder.newFolder();
+        manager.setStore(sourceDir, new FileCacheStore(sourceDir));
+        targetDir = temporaryFolder.newFolder();
+        manager.setStore(targetDir, new MemoryCacheStore());
+    }
+
+    @After
+    public void tearDown() {
+        manager.setStore(sourceDir, new MemoryCacheStore());
+        manager.setStore(targetDir, new MemoryCacheStore());
+    }
+
+    @Test
+    public void importSnapshot_restoresTheAliveEntriesWithTheirTimes() throws IOException {
+        long now = System.currentTimeMillis();
+        CacheStore source = manager.getStore(sourceDir);
+        source.write("alive", "content".getBytes(),
+                     new CacheMetadata(now - 1000, now + 60000, 0, 0, "Fake_getAlive"));
+        source.write("forever", "forever".getBytes(), new CacheMetadata(now - 1000, 0, 0));
+        source.write("absent", null,
+                     new CacheMetadata(now, now + 60000, 0, CacheMetadata.FLAG_ABSENT));
+        source.write("expired", "old".getBytes(), new CacheMetadata(now - 2000, now - 1000, 0));
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        assertEquals(3, manager.exportSnapshot(sourceDir, snapshot));
+        assertEquals(3, manager.importSnapshot(targetDir,
+                                               new ByteArrayInputStream(snapshot.toByteArray())));
+
+        CacheStore target = manager.getStore(targetDir);
+        assertArrayEquals("content".getBytes(), target.read("alive"));
+        CacheMetadata metadata = target.metadata("alive");
+        assertEquals(now - 1000, metadata.getCreatedAt());
+        assertEquals(now + 60000, metadata.getExpiresAt());
+        assertEquals("Fake_getAlive", metadata.getNamespace());
+        assertEquals(0, target.metadata("forever").getExpiresAt());
+        assertTrue(target.metadata("absent").isAbsent());
+        assertNull(target.read("absent"));
+        assertNull(target.metadata("expired"));
+    }
+
+    @Test
+    public void importSnapshot_keepsTheNewerLocalEntries() throws IOException {
+        long now = System.currentTimeMillis();
+        manager.getStore(sourceDir).write("key", "old".getBytes(),
+                                          new CacheMetadata(now - 1000, 0, 0));
+        manager.getStore(sourceDir).write("other", "other".getBytes(),
+                                          new CacheMetadata(now - 1000, 0, 0));
+        CacheStore target = manager.getStore(targetDir);
+        target.write("key", "new".getBytes(), new CacheMetadata(now, 0, 0));
+        target.write("other", null, new CacheMetadata(now - 5000, 0, 0));
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        manager.exportSnapshot(sourceDir, snapshot);
+
+        assertEquals(1, manager.importSnapshot(targetDir,
+                                               new ByteArrayInputStream(snapshot.toByteArray())));
+        assertArrayEquals("new".getBytes(), target.read("key"));
+        assertArrayEquals("other".getBytes(), target.read("other"));
+    }
+
+    @Test
+    public void snapshotFromTheFuture_keepsTheRemainingTimes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CacheSnapshot.Writer writer = new CacheSnapshot.Writer(bytes, 100000L);
+        writer.write("key", new CacheMetadata(90000L, 160000L, 0), null, "content".getBytes());
+        writer.finish();
+
+        // The clock of the importing node is 40 seconds behind
+        CacheSnapshot.Reader reader =
+                new CacheSnapshot.Reader(new ByteArrayInputStream(bytes.toByteArray()), 60000L);
+        CacheSnapshot.Entry entry = reader.next();
+        assertEquals(50000L, entry.metadata.getCreatedAt());
+        assertEquals(120000L, entry.metadata.getExpiresAt());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void importSnapshot_rejectsTruncatedOrUnknownStreams() {
+        try {
+            manager.importSnapshot(targetDir, new ByteArrayInputStream("not a snapshot".getBytes()));
+            fail();
+        } catch (IOException expected) {
+            // Not a snapshot
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            CacheSnapshot.Writer writer = new CacheSnapshot.Writer(bytes, 0);
+            writer.write("key", new CacheMetadata(1000L, 0, 0), null, new byte[100]);
+            writer.finish();
+            byte[] snapshot = bytes.toByteArray();
+            manager.importSnapshot(targetDir, new ByteArrayInputStream(
+                    Arrays.copyOf(snapshot, snapshot.length - 50)));
+            fail();
+        } catch (IOException expected) {
+            // Truncated
+        }
+        assertNull(manager.getStore(targetDir).metadata("key"));
+    }
+
+    @Test
+    public void importSnapshot_rejectsCorruptEntries() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CacheSnapshot.Writer writer = new CacheSnapshot.Writer(bytes, 0);
+        writer.write("key", new CacheMetadata(1000L, 0, 0), null, new byte[100]);
+        writer.finish();
+        byte[] snapshot = bytes.toByteArray();
+
+        // A flipped content byte, then an entry length of 2 GB
+        byte[] flipped = snapshot.clone();
+        flipped[flipped.length - 20] ^= 1;
+        byte[] huge = snapshot.clone();
+        huge[14] = 0x7F;
+        for (byte[] corrupt : Arrays.asList(flipped, huge)) {
+            try {
+                manager.importSnapshot(targetDir, new ByteArrayInputStream(corrupt));
+                fail();
+            } catch (IOException expected) {
+                // Corrupt
+            }
+        }
+        assertNull(manager.getStore(targetDir).metadata("key"));
+    }
+
+    @Test
+    public void exportSnapshot_skipsIdleEntriesAndKeepsTheLastAccesses() throws Exception {
+        FakeProxyCache idle = new FakeProxyCache(sourceDir, "Fake_getIdle", 0, 0, 0, 100, 0);
+        idle.persist("idle");
+        awaitMetadata(idle);
+        FakeProxyCache used = new FakeProxyCache(sourceDir, "Fake_getUsed", 0, 0, 0, 1000, 0);
+        used.persist("used");
+        awaitMetadata(used);
+        assertFalse(idle.isExpired());
+
+        Thread.sleep(700);
+        assertFalse(used.isExpired());
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        assertEquals(1, manager.exportSnapshot(sourceDir, snapshot));
+        assertEquals(1, manager.importSnapshot(targetDir,
+                                               new ByteArrayInputStream(snapshot.toByteArray())));
+
+        // Idle since its last access on the exporting node, not since its creation
+        Thread.sleep(500);
+        FakeProxyCache imported =
+                new FakeProxyCache(targetDir, "Fake_getUsed", 0, 0, 0, 1000, 0);
+        assertFalse(imported.isExpired());
+        assertEquals("used", imported.getContent());
+    }
+
+    private void awaitMetadata(final RepositoryProxyCache cache) throws InterruptedException {
+        final CacheStore store = manager.getStore(cache.getCacheDir());
+        awaitTrue("The call " + cache.getCacheKey() + " was not stored", new Await.Condition() {
+            @Override
+            public boolean isTrue() {
+                return store.metadata(cache.getFileName()) != null;
+            }
+        });
+    }
+}
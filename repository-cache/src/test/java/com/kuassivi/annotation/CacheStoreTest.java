@@ -0,0 +1,402 @@
+package com.kuassivi.annotation;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.kuassivi.annotation.Await.awaitCached;
+import static com.kuassivi.annotation.Await.awaitTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the {@link CacheStore} contract on every built-in store.
+ */
+public class CacheStoreTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = temporaryFolder.newFolder();
+    }
+
+    private List<CacheStore> stores() {
+        List<CacheStore> stores = new ArrayList<CacheStore>();
+        stores.add(new FileCacheStore(cacheDir));
+        stores.add(new MemoryCacheStore());
+        stores.add(new OffHeapCacheStore(1024 * 1024, 64 * 1024));
+        stores.add(new ContentAddressedCacheStore(new MemoryCacheStore(), 2));
+        return stores;
+    }
+
+    @Test
+    public void writeAndRead_isCorrect() {
+        for (CacheStore store : stores()) {
+            byte[] content = new byte[]{1, 2, 3, '\n', 4};
+            store.write("key", content, new CacheMetadata(1000L, 0, 0));
+
+            assertTrue(store.contains("key"));
+            assertArrayEquals(content, store.read("key"));
+            CacheMetadata metadata = store.metadata("key");
+            assertEquals(1000L, metadata.getCreatedAt());
+            assertEquals(content.length, metadata.getSize());
+        }
+    }
+
+    @Test
+    public void writeWithoutContent_keepsOnlyTheEntry() {
+        for (CacheStore store : stores()) {
+            store.write("key", null, new CacheMetadata(1000L, 0, 0));
+
+            assertTrue(store.contains("key"));
+            assertNull(store.read("key"));
+            assertEquals(0, store.metadata("key").getSize());
+        }
+    }
+
+    @Test
+    public void absentEntries_dropTheContentUntilStoredAgain() {
+        for (CacheStore store : stores()) {
+            store.write("key", new byte[]{1, 2}, new CacheMetadata(1000L, 0, 0));
+            store.write("key", new byte[]{1, 2},
+                        new CacheMetadata(2000L, 0, 0, CacheMetadata.FLAG_ABSENT));
+
+            assertTrue(store.contains("key"));
+            assertNull(store.read("key"));
+            assertTrue(store.metadata("key").isAbsent());
+            assertEquals(0, store.metadata("key").getSize());
+
+            store.write("key", null, new CacheMetadata(3000L, 0, 0));
+            assertFalse(store.metadata("key").isAbsent());
+            assertEquals(3000L, store.metadata("key").getCreatedAt());
+        }
+    }
+
+    @Test
+    public void absentEntries_areRenewedWhenPersistedAbsentAgain() {
+        for (CacheStore store : stores()) {
+            store.write("key", null, new CacheMetadata(1000L, 2000L, 0, CacheMetadata.FLAG_ABSENT));
+            store.write("key", null, new CacheMetadata(3000L, 4000L, 0, CacheMetadata.FLAG_ABSENT));
+
+            assertTrue(store.metadata("key").isAbsent());
+            assertEquals(3000L, store.metadata("key").getCreatedAt());
+            assertEquals(4000L, store.metadata("key").getExpiresAt());
+        }
+    }
+
+    @Test
+    public void removeAndClear_deleteEntries() {
+        for (CacheStore store : stores()) {
+            store.write("a", new byte[]{1}, new CacheMetadata(1000L, 0, 0));
+            store.write("b", new byte[]{2}, new CacheMetadata(1000L, 0, 0));
+
+            store.remove("a");
+            assertFalse(store.contains("a"));
+            assertNull(store.read("a"));
+            assertNull(store.metadata("a"));
+
+            Iterator<String> keys = store.keys();
+            assertEquals("b", keys.next());
+            assertFalse(keys.hasNext());
+
+            store.clear();
+            assertFalse(store.contains("b"));
+        }
+    }
+
+    @Test
+    public void fileStore_keepsEachEntryInASingleFile() {
+        FileCacheStore store = new FileCacheStore(cacheDir);
+        store.write("key", new byte[]{1, 2, 3}, new CacheMetadata(1000L, 5000L, 0));
+
+        assertArrayEquals(new String[]{"rpc_key"}, cacheDir.list());
+        CacheMetadata metadata = store.metadata("key");
+        assertEquals(1000L, metadata.getCreatedAt());
+        assertEquals(5000L, metadata.getExpiresAt());
+        assertEquals(3, metadata.getSize());
+    }
+
+    @Test
+    public void fileStore_rejectsCorruptedContent() {
+        FileCacheStore store = new FileCacheStore(cacheDir);
+        store.write("key", new byte[]{1, 2, 3}, new CacheMetadata(1000L, 0, 0));
+        File file = new File(cacheDir, "rpc_key");
+        byte[] bytes = new FileManager().readFileBytes(file);
+        bytes[bytes.length - 1] ^= 0x7F;
+        new FileManager().writeToFile(file, bytes);
+
+        assertTrue(store.contains("key"));
+        assertNull(store.read("key"));
+    }
+
+    @Test
+    public void fileStore_keepsTheNamespaceOfTheEntries() {
+        FileCacheStore store = new FileCacheStore(cacheDir);
+        store.write("key", new byte[]{1, 2, 3},
+                    new CacheMetadata(1000L, 5000L, 0, 0, "Repository_getUser"));
+
+        assertEquals("Repository_getUser", store.metadata("key").getNamespace());
+        assertArrayEquals(new byte[]{1, 2, 3}, store.read("key"));
+        assertEquals(3, store.metadata("key").getSize());
+    }
+
+    @Test
+    public void fileStore_readsVersion1Entries() {
+        // [magic][version 1][flags][reserved][createdAt][expiresAt][length][crc][content]
+        ByteBuffer buffer = ByteBuffer.allocate(34);
+        CRC32 crc = new CRC32();
+        crc.update(new byte[]{7, 8});
+        buffer.putInt(EntryHeader.MAGIC).put((byte) 1).put((byte) 0).putShort((short) 0)
+              .putLong(1000L).putLong(5000L).putInt(2).putInt((int) crc.getValue())
+              .put(new byte[]{7, 8});
+        new FileManager().writeToFile(new File(cacheDir, "rpc_key"), buffer.array());
+        FileCacheStore store = new FileCacheStore(cacheDir);
+
+        assertArrayEquals(new byte[]{7, 8}, store.read("key"));
+        assertEquals(5000L, store.metadata("key").getExpiresAt());
+        assertNull(store.metadata("key").getNamespace());
+    }
+
+    @Test
+    public void fileStore_appendsInPlace() {
+        FileCacheStore store = new FileCacheStore(cacheDir);
+        store.write("key", "feed".getBytes(), new CacheMetadata(1000L, 0, 0, 0, "Fake"));
+        File file = new File(cacheDir, FileCacheStore.DEFAULT_FILE_NAME + "key");
+
+        assertTrue(store.append("key", " one".getBytes(), new CacheMetadata(2000L, 5000L, 0)));
+        assertArrayEquals("feed one".getBytes(), store.read("key"));
+        CacheMetadata metadata = store.metadata("key");
+        assertEquals(2000L, metadata.getCreatedAt());
+        assertEquals(5000L, metadata.getExpiresAt());
+        assertEquals(8, metadata.getSize());
+        assertEquals("Fake", metadata.getNamespace());
+
+        // The bytes of an interrupted append are ignored, and overwritten by the next one
+        new FileManager().writeToFile(file, file.length(), " lost".getBytes());
+        assertArrayEquals("feed one".getBytes(), store.read("key"));
+        assertTrue(store.append("key", " two".getBytes(), new CacheMetadata(3000L, 0, 0)));
+        assertArrayEquals("feed one two".getBytes(), store.read("key"));
+        assertEquals(EntryHeader.SIZE + "Fake".length() + "feed one two".length(), file.length());
+
+        // Absent entries have nothing to append to
+        store.write("absent", null, new CacheMetadata(1000L, 0, 0, CacheMetadata.FLAG_ABSENT));
+        assertFalse(store.append("absent", "x".getBytes(),
+                                 new CacheMetadata(2000L, 0, 0)));
+        assertFalse(store.append("missing", "x".getBytes(), new CacheMetadata(2000L, 0, 0)));
+    }
+
+    @Test
+    public void manager_appendsToTheStoredContent() throws InterruptedException {
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        for (CacheStore store : stores()) {
+            manager.setStore(cacheDir, store);
+            final FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getFeed", 60000);
+            cache.select("feed");
+
+            // Applied in order after the persist, though in a different Thread
+            cache.persist("a");
+            cache.append("b".getBytes());
+            cache.append("c");
+
+            awaitTrue("The appends were not applied", new Await.Condition() {
+                @Override
+                public boolean isTrue() {
+                    return "abc".equals(cache.getContent());
+                }
+            });
+            assertFalse(cache.isExpired());
+            assertEquals(3, store.metadata(cache.getFileName()).getSize());
+            store.clear();
+        }
+        manager.setStore(cacheDir, new MemoryCacheStore());
+    }
+
+    @Test
+    public void fileStore_readsLegacyEntries() {
+        FileManager fileManager = new FileManager();
+        File marker = new File(cacheDir, "rpc_key");
+        fileManager.writeToFile(marker, "key");
+        fileManager.setLastModifiedTime(marker, 10000L);
+        fileManager.writeToFile(new File(cacheDir, "rpc_content_key"), new byte[]{4, 5});
+        FileCacheStore store = new FileCacheStore(cacheDir);
+
+        assertArrayEquals(new byte[]{4, 5}, store.read("key"));
+        assertEquals(10000L, store.metadata("key").getCreatedAt());
+        assertEquals(2, store.metadata("key").getSize());
+        assertEquals("key", store.keys().next());
+
+        // Written again in the single file format
+        store.write("key", new byte[]{6}, new CacheMetadata(20000L, 0, 0));
+        assertArrayEquals(new String[]{"rpc_key"}, cacheDir.list());
+        assertArrayEquals(new byte[]{6}, store.read("key"));
+    }
+
+    @Test
+    public void manager_delegatesToTheSelectedStore() {
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        MemoryCacheStore store = new MemoryCacheStore();
+        manager.setStore(cacheDir, store);
+
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getFoo", 0);
+        cache.select(1);
+        store.write(cache.getFileName(), "content".getBytes(), new CacheMetadata(1000L, 0, 0));
+
+        assertTrue(cache.isCached());
+        assertFalse(cache.isExpired());
+        assertEquals("content", cache.getContent());
+        assertEquals(0, cacheDir.list().length);
+    }
+
+    @Test
+    public void manager_returnsACopyOfTheStoredBytes() {
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        MemoryCacheStore store = new MemoryCacheStore();
+        manager.setStore(cacheDir, store);
+
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getFoo", 0);
+        cache.select(1);
+        store.write(cache.getFileName(), "content".getBytes(), new CacheMetadata(1000L, 0, 0));
+
+        byte[] bytes = manager.getBytes(cache);
+        Arrays.fill(bytes, (byte) 0);
+        assertArrayEquals("content".getBytes(), manager.getBytes(cache));
+    }
+
+    @Test
+    public void manager_reportsTheErrorsOfTheWritesToTheListener() throws InterruptedException {
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new MemoryCacheStore() {
+            @Override
+            public void write(String key, byte[] content, CacheMetadata metadata) {
+                throw new IllegalStateException("The store is full");
+            }
+        });
+        final BlockingQueue<String> errors = new LinkedBlockingQueue<String>();
+        manager.setErrorListener(new CacheErrorListener() {
+            @Override
+            public void onError(File cacheDir, String key, Exception error) {
+                errors.add(key + ": " + error.getMessage());
+            }
+        });
+        try {
+            FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getFoo", 0);
+            cache.select(1);
+            cache.persist("content");
+
+            assertEquals(cache.getFileName() + ": The store is full",
+                         errors.poll(5, TimeUnit.SECONDS));
+        } finally {
+            manager.setErrorListener(null);
+        }
+    }
+
+    @Test
+    public void manager_answersKnownAbsentCalls() throws InterruptedException {
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        MemoryCacheStore store = new MemoryCacheStore();
+        manager.setStore(cacheDir, store);
+
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getFoo", 60000, 50);
+        cache.select(2);
+        assertFalse(cache.isKnownAbsent());
+
+        cache.persistAbsent();
+        awaitCached(cache);
+        assertTrue(cache.isKnownAbsent());
+        assertFalse(cache.isExpired());
+        assertEquals("", cache.getContent());
+
+        // Absent calls expire with their own cache time
+        Thread.sleep(100);
+        assertFalse(cache.isKnownAbsent());
+        assertFalse(cache.isCached());
+    }
+
+    @Test
+    public void manager_readsCorruptLengthsAsAMiss() {
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        MemoryCacheStore store = new MemoryCacheStore();
+        manager.setStore(cacheDir, store);
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getCorrupt", 0);
+        cache.select(1);
+        long now = System.currentTimeMillis();
+
+        // A String claiming to be 2 GB long, and then a negative one
+        store.write(cache.getFileName(),
+                    ByteBuffer.allocate(9).put((byte) 1).putInt(Integer.MAX_VALUE - 8).array(),
+                    new CacheMetadata(now, 0, 0));
+        assertNull(manager.getValue(cache, CacheCodecs.STRING));
+        store.write(cache.getFileName(),
+                    ByteBuffer.allocate(5).put((byte) 1).putInt(-1).array(),
+                    new CacheMetadata(now + 1, 0, 0));
+        assertNull(manager.getValue(cache, CacheCodecs.STRING));
+    }
+
+    @Test
+    public void manager_shrinksInMemoryStoresUnderPressure() {
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        MemoryCacheStore store = new MemoryCacheStore();
+        manager.setStore(cacheDir, store);
+        for (int i = 1; i <= 10; i++) {
+            store.write("key" + i, new byte[]{(byte) i}, new CacheMetadata(i * 1000L, 0, 0));
+        }
+        MemoryPressureStats before = manager.getMemoryPressureStats();
+
+        manager.shrink(0.3);
+
+        // The oldest entries are evicted first
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i > 7, store.contains("key" + i));
+        }
+        MemoryPressureStats after = manager.getMemoryPressureStats();
+        assertEquals(before.getShrinkEvents() + 1, after.getShrinkEvents());
+        assertTrue(after.getDroppedEntries() - before.getDroppedEntries() >= 7);
+        assertEquals(0.3, after.getLastRetainedRatio(), 0);
+        assertTrue(after.getLastShrinkAt() > 0);
+    }
+
+    @Test
+    public void entryIndex_shrinkDropsOnlyTheRecordsThatChangeNoExpiration() {
+        EntryIndex index = new EntryIndex();
+        CacheMetadata metadata = new CacheMetadata(1000L, 5000L, 0);
+        index.put("stored", metadata, metadata);
+        index.put("forgotten", metadata, new CacheMetadata(1000L, 0, 0));
+        index.put("sliding", metadata, metadata).expireAfterAccess = 100;
+
+        assertEquals(1, index.shrink(0));
+
+        assertNull(index.get("stored", metadata));
+        assertNotNull(index.get("forgotten", metadata));
+        assertNotNull(index.get("sliding", metadata));
+    }
+
+    @Test
+    public void memoryPressure_retainsLessCloserToTheMaximum() {
+        assertEquals(MemoryPressure.MAX_RETAINED_RATIO,
+                     MemoryPressure.retainedRatio(8100, 10000), 0);
+        assertEquals(0.5, MemoryPressure.retainedRatio(9000, 10000), 0.001);
+        assertEquals(MemoryPressure.MIN_RETAINED_RATIO,
+                     MemoryPressure.retainedRatio(10000, 10000), 0);
+    }
+}
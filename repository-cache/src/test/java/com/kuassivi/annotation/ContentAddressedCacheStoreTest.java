@@ -0,0 +1,155 @@
+package com.kuassivi.annotation;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks how the {@link ContentAddressedCacheStore} shares identical contents between entries.
+ */
+public class ContentAddressedCacheStoreTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = temporaryFolder.newFolder();
+    }
+
+    @Test
+    public void write_storesIdenticalContentsOnce() {
+        ContentAddressedCacheStore store =
+                new ContentAddressedCacheStore(new FileCacheStore(cacheDir));
+        byte[] content = content('a', 4096);
+        for (int i = 0; i < 5; i++) {
+            store.write("query_" + i, content, new CacheMetadata(1000L, 0, 0));
+        }
+        store.write("small", "small".getBytes(), new CacheMetadata(1000L, 0, 0));
+
+        assertEquals(1, store.getSharedContents());
+        assertEquals(1, countSharedFiles());
+        long size = 0;
+        for (File file : cacheDir.listFiles()) {
+            size += file.length();
+        }
+        assertTrue(size < 2 * content.length);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(content, store.read("query_" + i));
+            assertEquals(content.length, store.metadata("query_" + i).getSize());
+        }
+        assertArrayEquals("small".getBytes(), store.read("small"));
+        assertEquals(6, count(store.keys()));
+    }
+
+    @Test
+    public void removeAndOverwrite_releaseTheSharedContent() {
+        ContentAddressedCacheStore store =
+                new ContentAddressedCacheStore(new FileCacheStore(cacheDir));
+        byte[] content = content('a', 1024);
+        store.write("first", content, new CacheMetadata(1000L, 0, 0));
+        store.write("second", content, new CacheMetadata(1000L, 0, 0));
+
+        store.remove("first");
+        assertEquals(1, countSharedFiles());
+        assertArrayEquals(content, store.read("second"));
+
+        store.write("second", content('b', 1024), new CacheMetadata(2000L, 0, 0));
+        assertEquals(1, countSharedFiles());
+        assertEquals(1, store.getSharedContents());
+        assertArrayEquals(content('b', 1024), store.read("second"));
+
+        // Absent calls have no content to share
+        store.write("second", null, new CacheMetadata(3000L, 0, 0, CacheMetadata.FLAG_ABSENT));
+        assertEquals(0, countSharedFiles());
+        assertNull(store.read("second"));
+        assertTrue(store.metadata("second").isAbsent());
+    }
+
+    @Test
+    public void firstWrite_countsTheStoredReferencesAndRemovesTheOrphanContents() {
+        byte[] kept = content('k', 1024);
+        ContentAddressedCacheStore previous =
+                new ContentAddressedCacheStore(new FileCacheStore(cacheDir));
+        previous.write("kept", kept, new CacheMetadata(1000L, 0, 0));
+        previous.write("orphan", content('o', 1024), new CacheMetadata(1000L, 0, 0));
+        // As if the process died between removing the entry and its content
+        new FileCacheStore(cacheDir).remove("orphan");
+        assertEquals(2, countSharedFiles());
+
+        ContentAddressedCacheStore store =
+                new ContentAddressedCacheStore(new FileCacheStore(cacheDir));
+        store.write("copy", kept, new CacheMetadata(2000L, 0, 0));
+
+        assertEquals(1, countSharedFiles());
+        store.remove("kept");
+        assertArrayEquals(kept, store.read("copy"));
+        store.remove("copy");
+        assertEquals(0, countSharedFiles());
+        assertFalse(store.keys().hasNext());
+    }
+
+    @Test
+    public void manager_refusesTheStoreOnDirectoriesSharedWithOtherProcesses() {
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new ContentAddressedCacheStore(new FileCacheStore(cacheDir)));
+        try {
+            manager.setProcessLocking(cacheDir, true);
+            fail("Process locking enabled on a content addressed store");
+        } catch (IllegalStateException expected) {
+            // Refused
+        }
+
+        manager.setStore(cacheDir, new FileCacheStore(cacheDir));
+        manager.setProcessLocking(cacheDir, true);
+        try {
+            manager.setStore(cacheDir,
+                             new ContentAddressedCacheStore(new FileCacheStore(cacheDir)));
+            fail("Content addressed store set on a directory with process locking");
+        } catch (IllegalStateException expected) {
+            // Refused
+        } finally {
+            manager.setProcessLocking(cacheDir, false);
+        }
+    }
+
+    private int countSharedFiles() {
+        int count = 0;
+        for (String name : cacheDir.list()) {
+            if (name.contains(ContentAddressedCacheStore.CONTENT_KEY_PREFIX)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static byte[] content(char c, int length) {
+        byte[] content = new byte[length];
+        Arrays.fill(content, (byte) c);
+        return content;
+    }
+
+    private static int count(Iterator<String> keys) {
+        int count = 0;
+        while (keys.hasNext()) {
+            keys.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,72 @@
+package com.kuassivi.annotation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the hot key estimates of the cached methods.
+ */
+public class HotKeysTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void topKeys_areFoundAmongManyColdOnes() {
+        HotKeys hotKeys = new HotKeys();
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 10; i++) {
+                hotKeys.add("hot");
+            }
+            hotKeys.add("warm");
+            hotKeys.add("warm");
+            for (int i = 0; i < 20; i++) {
+                hotKeys.add("cold " + round + "-" + i);
+            }
+        }
+
+        List<HotKey> snapshot = hotKeys.snapshot(1);
+        assertEquals("hot", snapshot.get(0).getKey());
+        assertTrue(snapshot.get(0).getEstimatedAccesses() >= 1000);
+        assertEquals("warm", snapshot.get(1).getKey());
+        assertTrue(snapshot.get(1).getEstimatedAccesses() >= 200);
+        assertTrue(snapshot.size() <= HotKeys.TOP_K);
+    }
+
+    @Test
+    public void manager_reportsTheHotKeysOfEachMethod() throws IOException {
+        File cacheDir = temporaryFolder.newFolder();
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new MemoryCacheStore());
+        manager.setHotKeySampling(1);
+        try {
+            FakeProxyCache search = new FakeProxyCache(cacheDir, "Fake_search", 0);
+            FakeProxyCache other = new FakeProxyCache(cacheDir, "Fake_other", 0);
+            for (int i = 0; i < 50; i++) {
+                search.select("abuse");
+                search.isExpired();
+                search.select("query " + i);
+                search.isExpired();
+            }
+            other.select("x");
+            other.isCached();
+
+            List<HotKey> hotKeys = manager.getHotKeys(search);
+            assertEquals("abuse", hotKeys.get(0).getKey());
+            assertEquals(50, hotKeys.get(0).getEstimatedAccesses());
+            assertEquals("x", manager.getHotKeys(other).get(0).getKey());
+            assertEquals(2, manager.getHotKeys().size());
+        } finally {
+            manager.setHotKeySampling(0);
+        }
+        assertTrue(manager.getHotKeys().isEmpty());
+    }
+}
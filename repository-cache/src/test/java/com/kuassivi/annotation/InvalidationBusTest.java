@@ -0,0 +1,160 @@
+package com.kuassivi.annotation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.kuassivi.annotation.Await.awaitTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how invalidations are shared between nodes through an {@link InvalidationBus}.
+ */
+public class InvalidationBusTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File                         cacheDir;
+    private RepositoryCacheManager       manager;
+    private LoopbackInvalidationBus.Group group;
+    private List<Invalidation>           received;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = temporaryFolder.newFolder();
+        manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new MemoryCacheStore());
+        group = new LoopbackInvalidationBus.Group();
+        manager.setInvalidationBus(new LoopbackInvalidationBus(group));
+        received = new CopyOnWriteArrayList<Invalidation>();
+    }
+
+    @After
+    public void tearDown() {
+        manager.setInvalidationBus(null);
+    }
+
+    @Test
+    public void evictions_arePublishedToTheOtherNodes() throws InterruptedException {
+        InvalidationBus otherNode = new LoopbackInvalidationBus(group);
+        otherNode.subscribe(recorder());
+
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getFoo", 0);
+        cache.select(1);
+        cache.evict();
+        RepositoryCacheManager.evictAll(cacheDir);
+        awaitReceived(1);
+
+        // The directory clear supersedes the eviction of its entry
+        assertEquals(Arrays.asList(new Invalidation(Invalidation.TYPE_CLEAR,
+                                                    cacheDir.getPath(),
+                                                    null)),
+                     received);
+    }
+
+    @Test
+    public void invalidationsOfOtherNodes_evictLocalEntries() throws Exception {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getFoo", 0);
+        cache.select(2);
+        manager.getStore(cacheDir).write(cache.getFileName(), "stale".getBytes(),
+                                         new CacheMetadata(System.currentTimeMillis(), 0, 0));
+        assertTrue(cache.isCached());
+
+        InvalidationBus otherNode = new LoopbackInvalidationBus(group);
+        otherNode.publish(Arrays.asList(
+                new Invalidation(Invalidation.TYPE_PERSIST, cacheDir.getPath(),
+                                 cache.getFileName()),
+                new Invalidation(Invalidation.TYPE_EVICT, "/not/used/here", "key")));
+
+        assertFalse(cache.isCached());
+    }
+
+    @Test
+    public void batcher_mergesInvalidationsOfTheSameEntry() throws InterruptedException {
+        InvalidationBatcher batcher = new InvalidationBatcher(new InvalidationBus() {
+            @Override
+            public void publish(List<Invalidation> invalidations) {
+                received.addAll(invalidations);
+            }
+
+            @Override
+            public void subscribe(Listener listener) {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        batcher.add(Invalidation.persist(cacheDir, "a"));
+        batcher.add(Invalidation.persist(cacheDir, "b"));
+        batcher.add(Invalidation.evict(cacheDir, "a"));
+        batcher.close();
+        awaitReceived(2);
+
+        assertEquals(Arrays.asList(Invalidation.persist(cacheDir, "b"),
+                                   Invalidation.evict(cacheDir, "a")),
+                     received);
+    }
+
+    @Test
+    public void datagramBus_deliversBatchesToItsPeers() throws Exception {
+        InetAddress localhost = InetAddress.getByName("127.0.0.1");
+        DatagramSocket probe = new DatagramSocket(0);
+        int port = probe.getLocalPort();
+        probe.close();
+
+        DatagramInvalidationBus first = new DatagramInvalidationBus(
+                0, new InetSocketAddress(localhost, port));
+        DatagramInvalidationBus second = new DatagramInvalidationBus(
+                port, new InetSocketAddress(localhost, first.getLocalPort()));
+        try {
+            second.subscribe(recorder());
+            List<Invalidation> batch = new ArrayList<Invalidation>();
+            for (int i = 0; i < 2000; i++) {
+                batch.add(Invalidation.evict(cacheDir, RepositoryCacheManager.hashMD5("key" + i)));
+            }
+            first.publish(batch);
+            awaitReceived(batch.size());
+
+            assertEquals(batch, received);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    private InvalidationBus.Listener recorder() {
+        return new InvalidationBus.Listener() {
+            @Override
+            public void onInvalidations(List<Invalidation> invalidations) {
+                received.addAll(invalidations);
+            }
+        };
+    }
+
+    private void awaitReceived(final int count) throws InterruptedException {
+        awaitTrue("Only " + received.size() + " invalidations received", new Await.Condition() {
+            @Override
+            public boolean isTrue() {
+                return received.size() >= count;
+            }
+        });
+        // Nothing else arrives
+        Thread.sleep(100);
+    }
+}
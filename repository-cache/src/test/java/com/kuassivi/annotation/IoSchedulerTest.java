@@ -0,0 +1,129 @@
+package com.kuassivi.annotation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.kuassivi.annotation.Await.awaitCached;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how the {@link IoScheduler} orders the I/O of each priority class.
+ */
+public class IoSchedulerTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void background_waitsForTheForegroundReads() throws InterruptedException {
+        IoScheduler scheduler = new IoScheduler();
+        scheduler.setMaxDeferral(5, TimeUnit.SECONDS);
+        scheduler.begin(IoScheduler.Priority.FOREGROUND_READ, 0);
+        CountDownLatch written = begin(scheduler, IoScheduler.Priority.WRITE, 0);
+
+        assertFalse(written.await(50, TimeUnit.MILLISECONDS));
+        assertEquals(1, scheduler.getWaitingCount());
+        // Reads are never held back
+        scheduler.begin(IoScheduler.Priority.FOREGROUND_READ, 0);
+        scheduler.end(IoScheduler.Priority.FOREGROUND_READ);
+
+        scheduler.end(IoScheduler.Priority.FOREGROUND_READ);
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getActiveCount(IoScheduler.Priority.WRITE));
+    }
+
+    @Test
+    public void background_isNotStarvedByTheForegroundReads() throws InterruptedException {
+        IoScheduler scheduler = new IoScheduler();
+        scheduler.setMaxDeferral(30, TimeUnit.MILLISECONDS);
+        scheduler.begin(IoScheduler.Priority.FOREGROUND_READ, 0);
+
+        long start = System.nanoTime();
+        CountDownLatch evicted = begin(scheduler, IoScheduler.Priority.MAINTENANCE, 0);
+
+        assertTrue(evicted.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 25);
+        assertEquals(1, scheduler.getActiveCount(IoScheduler.Priority.FOREGROUND_READ));
+    }
+
+    @Test
+    public void limit_boundsTheOperationsOfTheClass() throws InterruptedException {
+        IoScheduler scheduler = new IoScheduler();
+        scheduler.setLimit(IoScheduler.Priority.MAINTENANCE, 1);
+        scheduler.begin(IoScheduler.Priority.MAINTENANCE, 0);
+
+        CountDownLatch second = begin(scheduler, IoScheduler.Priority.MAINTENANCE, 0);
+        // Other classes have their own limits
+        scheduler.begin(IoScheduler.Priority.WRITE, 0);
+        assertFalse(second.await(50, TimeUnit.MILLISECONDS));
+
+        scheduler.end(IoScheduler.Priority.MAINTENANCE);
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void throttle_spacesOutTheBackgroundBytes() {
+        IoScheduler scheduler = new IoScheduler();
+        scheduler.setBackgroundThrottle(10000);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            scheduler.begin(IoScheduler.Priority.WRITE, 500);
+            scheduler.end(IoScheduler.Priority.WRITE);
+        }
+        // The first 500 bytes go at once, the others take 50ms each
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 95);
+
+        start = System.nanoTime();
+        scheduler.begin(IoScheduler.Priority.FOREGROUND_READ, 0);
+        scheduler.end(IoScheduler.Priority.FOREGROUND_READ);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 40);
+    }
+
+    @Test
+    public void manager_schedulesItsIo() throws IOException, InterruptedException {
+        File cacheDir = temporaryFolder.newFolder();
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new MemoryCacheStore());
+        IoScheduler scheduler = new IoScheduler();
+        scheduler.setLimit(IoScheduler.Priority.WRITE, 1);
+        manager.setIoScheduler(scheduler);
+        try {
+            FakeProxyCache[] calls = new FakeProxyCache[5];
+            for (int i = 0; i < calls.length; i++) {
+                calls[i] = new FakeProxyCache(cacheDir, "Fake_getScheduled", 60000);
+                calls[i].select(i);
+                calls[i].persist("content " + i);
+            }
+            for (int i = 0; i < calls.length; i++) {
+                awaitCached(calls[i]);
+                assertEquals("content " + i, calls[i].getContent());
+            }
+            assertEquals(0, scheduler.getActiveCount(IoScheduler.Priority.FOREGROUND_READ));
+        } finally {
+            manager.setIoScheduler(null);
+            manager.setStore(cacheDir, new MemoryCacheStore());
+        }
+    }
+
+    private static CountDownLatch begin(final IoScheduler scheduler,
+                                        final IoScheduler.Priority priority, final long bytes) {
+        final CountDownLatch started = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.begin(priority, bytes);
+                started.countDown();
+            }
+        }).start();
+        return started;
+    }
+}
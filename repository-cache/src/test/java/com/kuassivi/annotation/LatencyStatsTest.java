@@ -0,0 +1,84 @@
+package com.kuassivi.annotation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the latency histograms of the cache operations.
+ */
+public class LatencyStatsTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void buckets_boundTheirLatenciesWithinOneSubBucket() {
+        for (long nanos = 0; nanos < 1L << 40; nanos = nanos * 3 / 2 + 1) {
+            int bucket = LatencyHistogram.bucket(nanos);
+            assertTrue(LatencyHistogram.highestValue(bucket) >= nanos);
+            assertTrue(bucket == 0 || LatencyHistogram.highestValue(bucket - 1) < nanos);
+            assertTrue(LatencyHistogram.highestValue(bucket) <= nanos + nanos / 8);
+        }
+    }
+
+    @Test
+    public void percentiles_comeFromTheRecordedLatencies() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (int i = 1; i <= 100; i++) {
+            recorder.record(LatencyStats.Operation.PERSIST, LatencyStats.Phase.WRITE,
+                            System.nanoTime() - i * 1000L);
+        }
+
+        LatencyHistogram histogram =
+                recorder.snapshot().get(LatencyStats.Operation.PERSIST, LatencyStats.Phase.WRITE);
+        assertEquals(100, histogram.getCount());
+        assertTrue(histogram.getValueAtPercentile(50) >= 50000);
+        assertTrue(histogram.getValueAtPercentile(50) < 70000);
+        assertTrue(histogram.getMaxValue() >= 100000);
+        assertEquals(0, recorder.snapshot()
+                                .get(LatencyStats.Operation.EVICT, LatencyStats.Phase.WRITE)
+                                .getCount());
+    }
+
+    @Test
+    public void manager_recordsEachPhaseOfTheOperations() throws IOException {
+        File cacheDir = temporaryFolder.newFolder();
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new MemoryCacheStore());
+        manager.setLatencyTracking(true);
+        try {
+            FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getLatency", 0);
+            cache.select(1);
+            cache.isCached();
+            cache.isExpired();
+            cache.isExpired();
+            cache.getContent();
+
+            LatencyStats stats = manager.getLatencyStats();
+            assertEquals(1, stats.get(LatencyStats.Operation.IS_CACHED,
+                                      LatencyStats.Phase.METADATA).getCount());
+            assertEquals(2, stats.get(LatencyStats.Operation.IS_EXPIRED,
+                                      LatencyStats.Phase.TOTAL).getCount());
+            for (LatencyStats.Phase phase : new LatencyStats.Phase[]{
+                    LatencyStats.Phase.KEY_HASH, LatencyStats.Phase.LOCK_WAIT,
+                    LatencyStats.Phase.READ, LatencyStats.Phase.DECODE,
+                    LatencyStats.Phase.TOTAL}) {
+                assertEquals(1, stats.get(LatencyStats.Operation.GET_CONTENT, phase).getCount());
+            }
+        } finally {
+            manager.setLatencyTracking(false);
+            manager.setStore(cacheDir, new MemoryCacheStore());
+        }
+
+        assertEquals(0, manager.getLatencyStats()
+                               .get(LatencyStats.Operation.IS_EXPIRED, LatencyStats.Phase.TOTAL)
+                               .getCount());
+    }
+}
@@ -0,0 +1,96 @@
+package com.kuassivi.annotation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapCacheStoreTest {
+
+    @Test
+    public void writeReadAndMetadata_isCorrect() {
+        OffHeapCacheStore store = new OffHeapCacheStore(1024 * 1024, 64 * 1024);
+        byte[] content = "content".getBytes();
+        store.write("key", content, new CacheMetadata(1000L, 2000L, 0));
+
+        assertTrue(store.contains("key"));
+        assertArrayEquals(content, store.read("key"));
+        CacheMetadata metadata = store.metadata("key");
+        assertEquals(1000L, metadata.getCreatedAt());
+        assertEquals(2000L, metadata.getExpiresAt());
+        assertEquals(content.length, metadata.getSize());
+    }
+
+    @Test
+    public void overwriteAndRemove_reuseSlots() {
+        OffHeapCacheStore store = new OffHeapCacheStore(64 * 1024, 64 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            String key = "key" + (i % 100);
+            store.write(key, new byte[i % 500], new CacheMetadata(i, 0, 0));
+            if (i % 7 == 0) {
+                store.remove(key);
+                assertFalse(store.contains(key));
+            }
+        }
+        for (int i = 9900; i < 10000; i++) {
+            String key = "key" + (i % 100);
+            if (i % 7 != 0 && store.contains(key)) {
+                assertEquals(i % 500, store.read(key).length);
+                assertEquals(i, store.metadata(key).getCreatedAt());
+            }
+        }
+        assertEquals(64 * 1024, store.allocatedBytes());
+    }
+
+    @Test
+    public void full_evictsEntriesNotReadRecently() {
+        OffHeapCacheStore store = new OffHeapCacheStore(64 * 1024, 64 * 1024);
+        byte[] content = new byte[200]; // 256 byte slots, 256 per slab
+        store.write("hot", content, new CacheMetadata(0, 0, 0));
+        for (int i = 0; i < 1000; i++) {
+            store.read("hot");
+            store.write("cold" + i, content, new CacheMetadata(0, 0, 0));
+        }
+        assertTrue(store.contains("hot"));
+        assertTrue(store.contains("cold999"));
+        assertTrue(store.size() <= 256);
+    }
+
+    @Test
+    public void tooLargeContent_isNotStored() {
+        OffHeapCacheStore store = new OffHeapCacheStore(64 * 1024, 64 * 1024);
+        store.write("key", new byte[10], new CacheMetadata(0, 0, 0));
+        store.write("key", new byte[64 * 1024], new CacheMetadata(0, 0, 0));
+
+        assertFalse(store.contains("key"));
+        assertNull(store.read("key"));
+    }
+
+    @Test
+    public void keysAndClear_isCorrect() {
+        OffHeapCacheStore store = new OffHeapCacheStore(1024 * 1024, 64 * 1024);
+        store.write("a", null, new CacheMetadata(0, 0, 0));
+        store.write("b", new byte[1], new CacheMetadata(0, 0, 0));
+
+        Set<String> keys = new HashSet<String>();
+        for (Iterator<String> iterator = store.keys(); iterator.hasNext(); ) {
+            keys.add(iterator.next());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), keys);
+        assertNull(store.read("a"));
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertFalse(store.contains("b"));
+        store.write("c", new byte[1000], new CacheMetadata(0, 0, 0));
+        assertEquals(1000, store.read("c").length);
+    }
+}
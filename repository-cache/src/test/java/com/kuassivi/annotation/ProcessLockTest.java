@@ -0,0 +1,213 @@
+package com.kuassivi.annotation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that cache directories shared by several processes are coordinated with file locks.
+ */
+public class ProcessLockTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File                   cacheDir;
+    private RepositoryCacheManager manager;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = temporaryFolder.newFolder();
+        manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new FileCacheStore(cacheDir));
+        manager.setProcessLocking(cacheDir, true);
+    }
+
+    @After
+    public void tearDown() {
+        manager.setProcessLocking(cacheDir, false);
+    }
+
+    @Test
+    public void reads_waitForTheWritersOfOtherProcesses() throws Exception {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getShared", 0);
+        cache.select(1);
+
+        Process holder = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                LockHolder.class.getName(),
+                cacheDir.getPath(),
+                "500").start();
+        try {
+            BufferedReader output =
+                    new BufferedReader(new InputStreamReader(holder.getInputStream()));
+            assertEquals("locked", output.readLine());
+
+            long start = System.currentTimeMillis();
+            cache.isCached();
+            assertTrue(System.currentTimeMillis() - start >= 300);
+        } finally {
+            holder.waitFor();
+        }
+    }
+
+    @Test
+    public void concurrentThreads_shareTheLocksOfTheProcess() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            FakeProxyCache cache =
+                                    new FakeProxyCache(cacheDir, "Fake_getShared", 0);
+                            cache.select(i % 4);
+                            if (thread % 2 == 0) {
+                                cache.persist("content " + i);
+                            } else {
+                                cache.isExpired();
+                                cache.getContent();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Thread.sleep(200);
+
+        assertNull(failure.get());
+        assertTrue(new File(cacheDir, ProcessLock.LOCK_FILE_NAME).exists());
+    }
+
+    @Test
+    public void interruptedThreads_keepTheLocksOfTheProcess() throws Exception {
+        StripedLock stripes = new StripedLock(16);
+        ProcessLock processLock = new ProcessLock(new File(cacheDir, "own"), stripes);
+        String held = "held";
+        String other = "other";
+        while (stripes.index(other) == stripes.index(held)) {
+            other += "+";
+        }
+        Lock heldLock = processLock.writeLock(held);
+        heldLock.lock();
+        try {
+            // Locking a file from an interrupted Thread would close the channel of every lock
+            Thread.currentThread().interrupt();
+            Lock otherLock = processLock.readLock(other);
+            otherLock.lock();
+            otherLock.unlock();
+            assertTrue(Thread.interrupted());
+
+            assertEquals("held", probe(new File(cacheDir, "own"), stripes.index(held)));
+        } finally {
+            heldLock.unlock();
+            processLock.close();
+        }
+    }
+
+    @Test
+    public void tryLock_waitsForOtherProcessesUpToTheTimeout() throws Exception {
+        assertTrue(new File(cacheDir, "own").mkdirs());
+        ProcessLock processLock = new ProcessLock(new File(cacheDir, "own"), new StripedLock(16));
+        Process holder = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                LockHolder.class.getName(),
+                new File(cacheDir, "own").getPath(),
+                "300").start();
+        try {
+            BufferedReader output =
+                    new BufferedReader(new InputStreamReader(holder.getInputStream()));
+            assertEquals("locked", output.readLine());
+
+            Lock lock = processLock.writeLock("key");
+            assertFalse(lock.tryLock());
+            assertFalse(lock.tryLock(10, TimeUnit.MILLISECONDS));
+            assertTrue(lock.tryLock(5, TimeUnit.SECONDS));
+            lock.unlock();
+        } finally {
+            holder.waitFor();
+            processLock.close();
+        }
+    }
+
+    /**
+     * Checks from another process whether a region of the lock file of a directory is held.
+     */
+    private static String probe(File dir, int position) throws Exception {
+        Process probe = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                RegionProbe.class.getName(),
+                dir.getPath(),
+                String.valueOf(position)).start();
+        try {
+            return new BufferedReader(new InputStreamReader(probe.getInputStream())).readLine();
+        } finally {
+            probe.waitFor();
+        }
+    }
+
+    /**
+     * Prints whether a region of the lock file of a cache directory is held by another process.
+     */
+    public static class RegionProbe {
+
+        public static void main(String[] args) throws Exception {
+            RandomAccessFile file =
+                    new RandomAccessFile(new File(args[0], ProcessLock.LOCK_FILE_NAME), "rw");
+            FileLock lock = file.getChannel().tryLock(Long.parseLong(args[1]), 1, false);
+            System.out.println(lock == null ? "held" : "free");
+            System.out.flush();
+            file.close();
+        }
+    }
+
+    /**
+     * Holds the whole lock file of a cache directory for a while, as another process would.
+     */
+    public static class LockHolder {
+
+        public static void main(String[] args) throws Exception {
+            RandomAccessFile file =
+                    new RandomAccessFile(new File(args[0], ProcessLock.LOCK_FILE_NAME), "rw");
+            FileLock lock = file.getChannel().lock(0, Long.MAX_VALUE, false);
+            System.out.println("locked");
+            System.out.flush();
+            Thread.sleep(Long.parseLong(args[1]));
+            lock.release();
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.kuassivi.annotation;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress test that mixes writes, evictions and reads on the same keys and checks that readers
+ * only ever observe complete contents.
+ */
+public class RepositoryCacheManagerConcurrencyTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final int CONTENT_LENGTH = 64 * 1024;
+    private static final int KEYS           = 4;
+    private static final int ITERATIONS     = 150;
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = temporaryFolder.newFolder();
+    }
+
+    @Test
+    public void mixedLoad_neverReturnsTornContent() throws Exception {
+        final String[] contents = new String[]{content('a'), content('b'), content('c')};
+        final AtomicReference<String> tornRead = new AtomicReference<String>();
+        final AtomicInteger completeReads = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        for (int k = 0; k < KEYS; k++) {
+            final int key = k;
+            for (int w = 0; w < contents.length; w++) {
+                final String content = contents[w];
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        RepositoryProxyCache cache = proxy(key);
+                        await(start);
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            if (i % 10 == 9) {
+                                cache.evict();
+                            } else {
+                                cache.persist(content);
+                            }
+                        }
+                    }
+                }));
+            }
+            for (int r = 0; r < 2; r++) {
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        RepositoryProxyCache cache = proxy(key);
+                        await(start);
+                        for (int i = 0; i < ITERATIONS * 2; i++) {
+                            String read = cache.getContent();
+                            if (read.isEmpty()) {
+                                continue;
+                            }
+                            if (!Arrays.asList(contents).contains(read)) {
+                                tornRead.compareAndSet(null, read);
+                            } else {
+                                completeReads.incrementAndGet();
+                            }
+                        }
+                    }
+                }));
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+        }
+
+        String torn = tornRead.get();
+        assertNull("Torn read of " + (torn == null ? 0 : torn.length()) + " chars", torn);
+        assertTrue(completeReads.get() > 0);
+    }
+
+    @Test
+    public void getInstance_isSingletonAcrossThreads() throws Exception {
+        final RepositoryCacheManager[] instances = new RepositoryCacheManager[16];
+        Thread[] threads = new Thread[instances.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    instances[index] = RepositoryCacheManager.getInstance();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (RepositoryCacheManager instance : instances) {
+            assertEquals(RepositoryCacheManager.getInstance(), instance);
+        }
+    }
+
+    @Test
+    public void executor_runsTheOperationsAndTheRejectedOnesInPlace() {
+        RepositoryCacheManager manager = RepositoryCacheManager.getInstance();
+        final AtomicInteger executed = new AtomicInteger();
+        manager.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                throw new RejectedExecutionException();
+            }
+        });
+        try {
+            RepositoryProxyCache cache = proxy(0);
+            cache.persist("content");
+            // Rejected, so stored before persist returns
+            assertEquals(1, executed.get());
+            assertEquals("content", cache.getContent());
+            cache.evict();
+            assertEquals(2, executed.get());
+            assertTrue(cache.isExpired());
+        } finally {
+            manager.setExecutor(null);
+        }
+    }
+
+    private RepositoryProxyCache proxy(int key) {
+        RepositoryProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getFoo", 0);
+        cache.select(key);
+        return cache;
+    }
+
+    private static String content(char c) {
+        char[] chars = new char[CONTENT_LENGTH];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
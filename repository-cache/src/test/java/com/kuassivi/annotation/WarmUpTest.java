@@ -0,0 +1,162 @@
+package com.kuassivi.annotation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how the {@link RepositoryCacheManager} warms up the keys of a method.
+ */
+public class WarmUpTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File                   cacheDir;
+    private RepositoryCacheManager manager;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = temporaryFolder.newFolder();
+        manager = RepositoryCacheManager.getInstance();
+        manager.setStore(cacheDir, new MemoryCacheStore());
+    }
+
+    @After
+    public void tearDown() {
+        manager.setStore(cacheDir, new MemoryCacheStore());
+    }
+
+    @Test
+    public void warmUp_loadsTheMissingKeysOnly() throws Exception {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getWarm", 60000);
+        cache.select("cached");
+        manager.getStore(cacheDir).write(cache.getFileName(), "cached".getBytes(),
+                                         new CacheMetadata(System.currentTimeMillis(), 0, 0));
+        final List<String> loads = new ArrayList<String>();
+
+        WarmUpProgress progress = cache.warmUp(
+                Arrays.asList("cached", 1, 2, "broken"), new CacheLoader() {
+                    @Override
+                    public String load(String cacheKey) throws Exception {
+                        synchronized (loads) {
+                            loads.add(cacheKey);
+                        }
+                        if ("broken".equals(cacheKey)) {
+                            throw new IOException("The origin is down");
+                        }
+                        return "loaded " + cacheKey;
+                    }
+                }, 2);
+
+        assertTrue(progress.get(5, TimeUnit.SECONDS).isDone());
+        assertEquals(4, progress.getTotal());
+        assertEquals(2, progress.getLoaded());
+        assertEquals(1, progress.getSkipped());
+        assertEquals(1, progress.getFailed());
+        assertEquals(1, progress.getFailures().size());
+        assertEquals("The origin is down", progress.getFailures().get("broken").getMessage());
+        assertFalse(loads.contains("cached"));
+
+        for (int i = 1; i <= 2; i++) {
+            cache.select(i);
+            assertFalse(cache.isExpired());
+            assertEquals("loaded " + i, cache.getContent());
+        }
+        cache.select("broken");
+        assertFalse(cache.isCached());
+    }
+
+    @Test
+    public void warmUp_failsTheKeysLeftByAnInterruptedWorker() throws Exception {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getInterrupted", 60000);
+
+        WarmUpProgress progress = cache.warmUp(
+                Arrays.asList(1, "stop", 3, 4), new CacheLoader() {
+                    @Override
+                    public String load(String cacheKey) throws Exception {
+                        if ("stop".equals(cacheKey)) {
+                            throw new InterruptedException();
+                        }
+                        return "loaded " + cacheKey;
+                    }
+                }, 1);
+
+        assertTrue(progress.get(5, TimeUnit.SECONDS).isDone());
+        assertEquals(1, progress.getLoaded());
+        assertEquals(3, progress.getFailed());
+        assertEquals(Arrays.asList("stop", "3", "4"),
+                     new ArrayList<String>(progress.getFailures().keySet()));
+    }
+
+    @Test
+    public void warmUp_boundsTheParallelismAndTheRate() throws Exception {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getBounded", 60000);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < 20; i++) {
+            keys.add(i);
+        }
+
+        long start = System.nanoTime();
+        WarmUpProgress progress = cache.warmUp(keys, new CacheLoader() {
+            @Override
+            public String load(String cacheKey) throws Exception {
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                Thread.sleep(10);
+                running.decrementAndGet();
+                return cacheKey;
+            }
+        }, 3, 200);
+        progress.get(5, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(20, progress.getLoaded());
+        assertTrue(maxRunning.get() <= 3);
+        // 20 loads at 200 per second take at least 95ms
+        assertTrue(elapsed >= 90);
+    }
+
+    @Test
+    public void cancel_stopsLoadingKeys() throws Exception {
+        FakeProxyCache cache = new FakeProxyCache(cacheDir, "Fake_getCancelled", 60000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        WarmUpProgress progress = cache.warmUp(Arrays.asList(1, 2, 3), new CacheLoader() {
+            @Override
+            public String load(String cacheKey) throws Exception {
+                started.countDown();
+                release.await();
+                return cacheKey;
+            }
+        }, 1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(progress.cancel(false));
+        assertTrue(progress.isDone());
+        release.countDown();
+        Thread.sleep(50);
+
+        assertEquals(1, progress.getLoaded());
+        assertFalse(progress.cancel(false));
+    }
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+/**
+ * Waits in tests for the work the {@link RepositoryCacheManager} performs in a different Thread,
+ * failing the test if it is not done in time.
+ */
+public final class Await {
+
+    public static final long TIMEOUT_MILLIS = 5000;
+
+    private Await() {
+    }
+
+    /**
+     * Polls the condition until it is true.
+     *
+     * @param message the failure message if the condition is still false after the timeout
+     * @param condition the condition
+     * @throws AssertionError if the condition is still false after {@link #TIMEOUT_MILLIS}
+     */
+    public static void awaitTrue(String message, Condition condition)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.isTrue()) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new AssertionError(message);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Waits until the call is cached, like after persisting it in a different Thread.
+     *
+     * @param cache the ProxyCache object of the call
+     * @throws AssertionError if it is still not cached after {@link #TIMEOUT_MILLIS}
+     */
+    public static void awaitCached(final RepositoryProxyCache cache) throws InterruptedException {
+        awaitTrue("The call " + cache.getCacheKey() + " was not cached", new Condition() {
+            @Override
+            public boolean isTrue() {
+                return cache.isCached();
+            }
+        });
+    }
+
+    public interface Condition {
+
+        boolean isTrue();
+    }
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Francisco Gonzalez-Armijo Riádigos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.kuassivi.annotation;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * Hand written equivalent of a generated proxy class, used to drive the
+ * {@link RepositoryCacheManager} from tests.
+ */
+public class FakeProxyCache implements RepositoryProxyCache {
+
+    private final RepositoryCacheManager repositoryCacheManager;
+    private final File                   cacheDir;
+    private final String                 fileName;
+    private final long                   cacheTime;
+    private final long                   negativeCacheTime;
+    private final double                 refreshAhead;
+    private final long                   expireAfterAccess;
+    private final double                 jitter;
+    private final int                    maxEntries;
+    private final long                   maxBytes;
+    private       String                 cacheKey;
+
+    public FakeProxyCache(File cacheDir, String fileName, long cacheTime) {
+        this(cacheDir, fileName, cacheTime, 0);
+    }
+
+    public FakeProxyCache(File cacheDir, String fileName, long cacheTime,
+                          long negativeCacheTime) {
+        this(cacheDir, fileName, cacheTime, negativeCacheTime, 0);
+    }
+
+    public FakeProxyCache(File cacheDir, String fileName, long cacheTime,
+                          long negativeCacheTime, double refreshAhead) {
+        this(cacheDir, fileName, cacheTime, negativeCacheTime, refreshAhead, 0, 0);
+    }
+
+    public FakeProxyCache(File cacheDir, String fileName, long cacheTime,
+                          long negativeCacheTime, double refreshAhead, long expireAfterAccess,
+                          double jitter) {
+        this(cacheDir, fileName, cacheTime, negativeCacheTime, refreshAhead, expireAfterAccess,
+             jitter, 0, 0);
+    }
+
+    public FakeProxyCache(File cacheDir, String fileName, long cacheTime,
+                          long negativeCacheTime, double refreshAhead, long expireAfterAccess,
+                          double jitter, int maxEntries, long maxBytes) {
+        this.repositoryCacheManager = RepositoryCacheManager.getInstance();
+        this.cacheDir = cacheDir;
+        this.fileName = fileName;
+        this.cacheTime = cacheTime;
+        this.negativeCacheTime = negativeCacheTime;
+        this.refreshAhead = refreshAhead;
+        this.expireAfterAccess = expireAfterAccess;
+        this.jitter = jitter;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void persist() {
+        repositoryCacheManager.persist(this);
+    }
+
+    @Override
+    public void persist(String content) {
+        repositoryCacheManager.persist(this, content);
+    }
+
+    @Override
+    public void persist(String content, long cacheTime) {
+        repositoryCacheManager.persist(this, content, cacheTime);
+    }
+
+    @Override
+    public void persistAbsent() {
+        repositoryCacheManager.persistAbsent(this);
+    }
+
+    @Override
+    public void append(String content) {
+        repositoryCacheManager.append(this, content);
+    }
+
+    @Override
+    public void append(byte[] content) {
+        repositoryCacheManager.append(this, content);
+    }
+
+    @Override
+    public void evict() {
+        repositoryCacheManager.evict(this);
+    }
+
+    @Override
+    public WarmUpProgress warmUp(Collection<?> cacheKeys, CacheLoader loader, int parallelism) {
+        return repositoryCacheManager.warmUp(this, cacheKeys, loader, parallelism);
+    }
+
+    @Override
+    public WarmUpProgress warmUp(Collection<?> cacheKeys, CacheLoader loader, int parallelism,
+                                 double maxLoadsPerSecond) {
+        return repositoryCacheManager.warmUp(this, cacheKeys, loader, parallelism, maxLoadsPerSecond);
+    }
+
+    @Override
+    public void select(Object cacheKey) {
+        this.cacheKey = String.valueOf(cacheKey);
+    }
+
+    @Override
+    public String getContent() {
+        return repositoryCacheManager.getContent(this);
+    }
+
+    @Override
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    @Override
+    public long getCacheTime() {
+        return cacheTime;
+    }
+
+    @Override
+    public long getNegativeCacheTime() {
+        return negativeCacheTime;
+    }
+
+    @Override
+    public double getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    @Override
+    public long getExpireAfterAccess() {
+        return expireAfterAccess;
+    }
+
+    @Override
+    public double getJitter() {
+        return jitter;
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String getNamespace() {
+        return fileName;
+    }
+
+    @Override
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    @Override
+    public String getFileName() {
+        return RepositoryCacheManager.hashMD5(this.fileName + this.cacheKey);
+    }
+
+    @Override
+    public boolean isCached() {
+        return repositoryCacheManager.isCached(this);
+    }
+
+    @Override
+    public boolean isExpired() {
+        return repositoryCacheManager.isExpired(this);
+    }
+
+    @Override
+    public boolean isKnownAbsent() {
+        return repositoryCacheManager.isKnownAbsent(this);
+    }
+}